@@ -20,6 +20,7 @@ import io.github.resilience4j.timelimiter.TimeLimiterConfig;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.circuitbreaker.resilience4j.ReactiveResilience4JCircuitBreakerFactory;
 import org.springframework.cloud.circuitbreaker.resilience4j.Resilience4JConfigBuilder;
 import org.springframework.cloud.client.circuitbreaker.Customizer;
@@ -29,6 +30,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.MediaType;
+import org.springframework.samples.petclinic.api.config.ApiGatewayProperties;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.server.RequestPredicates;
@@ -44,6 +46,7 @@ import java.time.Duration;
  */
 @EnableDiscoveryClient
 @SpringBootApplication
+@EnableConfigurationProperties(ApiGatewayProperties.class)
 public class ApiGatewayApplication {
 
     public static void main(String[] args) {
@@ -87,4 +90,16 @@ public class ApiGatewayApplication {
             .timeLimiterConfig(TimeLimiterConfig.custom().timeoutDuration(Duration.ofSeconds(10)).build())
             .build());
     }
+
+    /**
+     * The time limit applies to the whole response, long enough for a streamed chat answer. The genai service
+     * itself gives up when the model stops producing tokens.
+     */
+    @Bean
+    public Customizer<ReactiveResilience4JCircuitBreakerFactory> genaiStreamCustomizer() {
+        return factory -> factory.configure(builder -> builder
+            .circuitBreakerConfig(CircuitBreakerConfig.ofDefaults())
+            .timeLimiterConfig(TimeLimiterConfig.custom().timeoutDuration(Duration.ofMinutes(5)).build()),
+            "genaiStreamCircuitBreaker");
+    }
 }
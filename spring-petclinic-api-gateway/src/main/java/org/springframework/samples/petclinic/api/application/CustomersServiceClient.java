@@ -15,11 +15,16 @@
  */
 package org.springframework.samples.petclinic.api.application;
 
+import org.springframework.samples.petclinic.api.dto.ChangeBatch;
 import org.springframework.samples.petclinic.api.dto.OwnerDetails;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+
 /**
  * @author Maciej Szarlinski
  */
@@ -38,4 +43,28 @@ public class CustomersServiceClient {
             .retrieve()
             .bodyToMono(OwnerDetails.class);
     }
+
+    public Flux<OwnerDetails> getOwners() {
+        return webClientBuilder.build().get()
+            .uri("http://customers-service/owners")
+            .retrieve()
+            .bodyToFlux(OwnerDetails.class);
+    }
+
+    public Mono<ChangeBatch> getChanges(final long after, final int limit, final Duration wait, final DataSize maxSize) {
+        // A batch holds whole aggregates, larger than the default in-memory limit of the codecs
+        return webClientBuilder.clone()
+            .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize((int) maxSize.toBytes()))
+            .build().get()
+            .uri("http://customers-service/changes?after={after}&limit={limit}&wait={wait}", after, limit, wait.toSeconds())
+            .retrieve()
+            .bodyToMono(ChangeBatch.class);
+    }
+
+    public Mono<ChangeBatch> getChangesHead() {
+        return webClientBuilder.build().get()
+            .uri("http://customers-service/changes/head")
+            .retrieve()
+            .bodyToMono(ChangeBatch.class);
+    }
 }
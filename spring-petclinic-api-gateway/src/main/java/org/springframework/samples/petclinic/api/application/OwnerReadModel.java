@@ -0,0 +1,282 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.api.application;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.codec.CodecException;
+import org.springframework.samples.petclinic.api.config.ApiGatewayProperties;
+import org.springframework.samples.petclinic.api.dto.Change;
+import org.springframework.samples.petclinic.api.dto.ChangeBatch;
+import org.springframework.samples.petclinic.api.dto.OwnerDetails;
+import org.springframework.samples.petclinic.api.dto.PetDetails;
+import org.springframework.samples.petclinic.api.dto.VisitDetails;
+import org.springframework.samples.petclinic.api.dto.Visits;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * Denormalized view of the owners, their pets and the visits of their pets, so that owner details are served
+ * without calling the customers and visits services.
+ * <p>
+ * The view is loaded from a snapshot of both services taken after reading the head of their change feeds, then
+ * kept up to date by tailing the feeds from that point. Replaying the changes that happened during the snapshot
+ * is harmless, as every change carries the whole state of the entity it describes.
+ * <p>
+ * Lookups are refused, and callers expected to fall back to the services, until the snapshot is loaded and
+ * whenever one of the feeds has not answered for more than {@code gateway.read-model.max-staleness}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "gateway.read-model", name = "enabled", havingValue = "true")
+public class OwnerReadModel {
+
+    private static final Logger log = LoggerFactory.getLogger(OwnerReadModel.class);
+
+    private static final int SNAPSHOT_PETS_PER_REQUEST = 200;
+
+    private final CustomersServiceClient customersServiceClient;
+    private final VisitsServiceClient visitsServiceClient;
+    private final ObjectMapper objectMapper;
+    private final ApiGatewayProperties.ReadModel properties;
+
+    private final Feed customersFeed = new Feed();
+    private final Feed visitsFeed = new Feed();
+
+    private volatile Map<Integer, OwnerDetails> owners = new ConcurrentHashMap<>();
+    private volatile Map<Integer, Map<Integer, VisitDetails>> visitsByPet = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter staleLookups;
+
+    private Disposable synchronization;
+
+    public OwnerReadModel(CustomersServiceClient customersServiceClient, VisitsServiceClient visitsServiceClient,
+                          ObjectMapper objectMapper, ApiGatewayProperties gatewayProperties, MeterRegistry registry) {
+        this.customersServiceClient = customersServiceClient;
+        this.visitsServiceClient = visitsServiceClient;
+        this.objectMapper = objectMapper;
+        this.properties = gatewayProperties.readModel();
+        this.hits = lookups(registry, "hit");
+        this.misses = lookups(registry, "miss");
+        this.staleLookups = lookups(registry, "stale");
+        staleness(registry, "customers", customersFeed);
+        staleness(registry, "visits", visitsFeed);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        synchronization = Mono.defer(this::loadSnapshot)
+            .then(Mono.when(
+                tail(customersFeed, customersServiceClient::getChanges, this::applyOwnerChange),
+                tail(visitsFeed, visitsServiceClient::getChanges, this::applyVisitChange)))
+            .doOnError(e -> {
+                loaded = false;
+                log.warn("Owner read model out of sync, reloading a snapshot: {}", e.toString());
+            })
+            .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30)))
+            .subscribe();
+    }
+
+    @PreDestroy
+    void stop() {
+        if (synchronization != null) {
+            synchronization.dispose();
+        }
+    }
+
+    /**
+     * @return the details of the owner, or an empty optional when the read model cannot be trusted to answer
+     * and the caller should query the services instead
+     */
+    public Optional<OwnerDetails> findOwner(int ownerId) {
+        if (!isFresh()) {
+            staleLookups.increment();
+            return Optional.empty();
+        }
+        OwnerDetails owner = owners.get(ownerId);
+        if (owner == null) {
+            // May have been created after the last poll, let the services answer
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        List<PetDetails> pets = owner.pets().stream()
+            .map(pet -> new PetDetails(pet.id(), pet.name(), pet.birthDate(), pet.type(),
+                new ArrayList<>(visitsByPet.getOrDefault(pet.id(), Map.of()).values())))
+            .toList();
+        return Optional.of(new OwnerDetails(owner.id(), owner.firstName(), owner.lastName(), owner.address(),
+            owner.city(), owner.telephone(), pets));
+    }
+
+    boolean isFresh() {
+        return loaded
+            && customersFeed.staleness().compareTo(properties.maxStaleness()) <= 0
+            && visitsFeed.staleness().compareTo(properties.maxStaleness()) <= 0;
+    }
+
+    private Mono<Void> loadSnapshot() {
+        loaded = false;
+        return Mono.zip(customersServiceClient.getChangesHead(), visitsServiceClient.getChangesHead())
+            .flatMap(heads -> customersServiceClient.getOwners().collectList()
+                .flatMap(snapshotOwners -> loadVisits(snapshotOwners)
+                    .doOnNext(snapshotVisits -> replace(heads, snapshotOwners, snapshotVisits))))
+            .then();
+    }
+
+    private Mono<List<VisitDetails>> loadVisits(List<OwnerDetails> snapshotOwners) {
+        List<Integer> petIds = snapshotOwners.stream()
+            .flatMap(owner -> owner.getPetIds().stream())
+            .toList();
+        return Flux.fromIterable(petIds)
+            .buffer(SNAPSHOT_PETS_PER_REQUEST)
+            .concatMap(visitsServiceClient::getVisitsForPets)
+            .flatMapIterable(Visits::items)
+            .collectList();
+    }
+
+    private void replace(Tuple2<ChangeBatch, ChangeBatch> heads, List<OwnerDetails> snapshotOwners,
+                         List<VisitDetails> snapshotVisits) {
+        Map<Integer, OwnerDetails> loadedOwners = new ConcurrentHashMap<>();
+        snapshotOwners.forEach(owner -> loadedOwners.put(owner.id(), owner));
+        Map<Integer, Map<Integer, VisitDetails>> loadedVisits = new ConcurrentHashMap<>();
+        snapshotVisits.forEach(visit -> putVisit(loadedVisits, visit));
+        owners = loadedOwners;
+        visitsByPet = loadedVisits;
+        customersFeed.synced(heads.getT1().next());
+        visitsFeed.synced(heads.getT2().next());
+        loaded = true;
+        log.info("Owner read model loaded with {} owners and {} visits", loadedOwners.size(), snapshotVisits.size());
+    }
+
+    /**
+     * Poll the feed forever. Transient failures are retried with a backoff, at most
+     * {@code gateway.read-model.max-poll-failures} times in a row. The feed then fails, so that a new snapshot is
+     * loaded from which the feed is tailed again, as it does at once when the changes following the current offset
+     * were purged or when a batch cannot be read: polling the same offset again would fail the same way.
+     */
+    private Mono<Void> tail(Feed feed, FeedPoller poller, Consumer<Change> apply) {
+        return Mono.defer(() -> poller.poll(feed.offset, properties.batchSize(), properties.pollWait(),
+                properties.maxPollSize()))
+            .doOnNext(batch -> {
+                batch.changes().forEach(apply);
+                feed.synced(batch.next());
+            })
+            .repeat()
+            .retryWhen(Retry.backoff(properties.maxPollFailures(), Duration.ofSeconds(1))
+                .maxBackoff(Duration.ofSeconds(30))
+                .transientErrors(true)
+                .filter(OwnerReadModel::isRetryable))
+            .then();
+    }
+
+    /**
+     * @return whether polling the same offset again may succeed, unlike when the changes were purged, the batch
+     * exceeds {@code gateway.read-model.max-poll-size} or a change cannot be deserialized
+     */
+    private static boolean isRetryable(Throwable e) {
+        return !(e instanceof WebClientResponseException.Gone)
+            && !(e instanceof CodecException)
+            && !(e instanceof IllegalStateException);
+    }
+
+    private void applyOwnerChange(Change change) {
+        if ("owner".equals(change.aggregateType())) {
+            OwnerDetails owner = fromPayload(change, OwnerDetails.class);
+            owners.put(owner.id(), owner);
+        }
+    }
+
+    private void applyVisitChange(Change change) {
+        if ("visit".equals(change.aggregateType())) {
+            putVisit(visitsByPet, fromPayload(change, VisitDetails.class));
+        }
+    }
+
+    private static void putVisit(Map<Integer, Map<Integer, VisitDetails>> visitsByPet, VisitDetails visit) {
+        visitsByPet.computeIfAbsent(visit.petId(), petId -> new ConcurrentSkipListMap<>()).put(visit.id(), visit);
+    }
+
+    private <T> T fromPayload(Change change, Class<T> type) {
+        try {
+            return objectMapper.treeToValue(change.payload(), type);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unreadable change " + change.offset() + " of " + change.aggregateType(), e);
+        }
+    }
+
+    private static Counter lookups(MeterRegistry registry, String result) {
+        return Counter.builder("petclinic.readmodel.lookups")
+            .tag("result", result)
+            .register(registry);
+    }
+
+    private static void staleness(MeterRegistry registry, String feedName, Feed feed) {
+        Gauge.builder("petclinic.readmodel.staleness", feed, f -> f.staleness().toMillis() / 1000.0)
+            .tag("feed", feedName)
+            .baseUnit("seconds")
+            .register(registry);
+    }
+
+    @FunctionalInterface
+    private interface FeedPoller {
+
+        Mono<ChangeBatch> poll(long after, int limit, Duration wait, DataSize maxSize);
+    }
+
+    /**
+     * Position of the read model in a change feed.
+     */
+    private static final class Feed {
+
+        private volatile long offset;
+        private volatile long lastSyncNanos = System.nanoTime();
+
+        void synced(long next) {
+            offset = next;
+            lastSyncNanos = System.nanoTime();
+        }
+
+        Duration staleness() {
+            return Duration.ofNanos(System.nanoTime() - lastSyncNanos);
+        }
+    }
+}
@@ -15,11 +15,14 @@
  */
 package org.springframework.samples.petclinic.api.application;
 
+import org.springframework.samples.petclinic.api.dto.ChangeBatch;
 import org.springframework.samples.petclinic.api.dto.Visits;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
 import java.util.List;
 
 import static java.util.stream.Collectors.joining;
@@ -47,6 +50,25 @@ public class VisitsServiceClient {
             .bodyToMono(Visits.class);
     }
 
+    public Mono<ChangeBatch> getChanges(final long after, final int limit, final Duration wait, final DataSize maxSize) {
+        // A batch holds whole aggregates, larger than the default in-memory limit of the codecs
+        return webClientBuilder.clone()
+            .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize((int) maxSize.toBytes()))
+            .build()
+            .get()
+            .uri(hostname + "changes?after={after}&limit={limit}&wait={wait}", after, limit, wait.toSeconds())
+            .retrieve()
+            .bodyToMono(ChangeBatch.class);
+    }
+
+    public Mono<ChangeBatch> getChangesHead() {
+        return webClientBuilder.build()
+            .get()
+            .uri(hostname + "changes/head")
+            .retrieve()
+            .bodyToMono(ChangeBatch.class);
+    }
+
     private String joinIds(List<Integer> petIds) {
         return petIds.stream().map(Object::toString).collect(joining(","));
     }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.api.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Typesafe custom configuration.
+ */
+@ConfigurationProperties(prefix = "gateway")
+public record ApiGatewayProperties(
+    @DefaultValue ReadModel readModel
+) {
+    /**
+     * @param enabled      whether owner details are served from a read model kept up to date by the change feeds
+     * @param maxStaleness time without news from a change feed after which the read model is bypassed
+     * @param pollWait     how long a poll of a change feed waits for a change
+     * @param batchSize    maximum number of changes read in a single poll
+     * @param maxPollSize  maximum size of the response to a poll, holding up to {@code batchSize} whole owners
+     * @param maxPollFailures number of polls of a change feed failing in a row after which a snapshot is reloaded
+     */
+    public record ReadModel(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("45s") Duration maxStaleness,
+        @DefaultValue("20s") Duration pollWait,
+        @DefaultValue("500") int batchSize,
+        @DefaultValue("16MB") DataSize maxPollSize,
+        @DefaultValue("5") int maxPollFailures
+    ) {
+    }
+}
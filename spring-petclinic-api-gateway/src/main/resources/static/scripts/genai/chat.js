@@ -11,6 +11,7 @@ function appendMessage(message, type) {
 
     // Scroll to the bottom of the chatbox to show the latest message
     chatMessages.scrollTop = chatMessages.scrollHeight;
+    return messageElement;
 }
 
 function toggleChatbox() {
@@ -38,18 +39,22 @@ function sendMessage() {
     // Display user message in the chatbox
     appendMessage(query, 'user');
 
-    // Send the message to the backend
-    fetch('/api/genai/chatclient', {
+    // Send the message to the backend, the answer is streamed token by token as server-sent events
+    fetch('/api/genai/chatclient/stream', {
         method: 'POST',
         headers: {
             'Content-Type': 'application/json',
+            'Accept': 'text/event-stream',
+            'X-Conversation-Id': getConversationId(),
         },
         body: JSON.stringify(query),
     })
-        .then(response => response.text())
-        .then(responseText => {
-            // Display the response from the server in the chatbox
-            appendMessage(responseText, 'bot');
+        .then(response => {
+            if (!response.ok || !response.headers.get('Content-Type')?.startsWith('text/event-stream')) {
+                // Circuit breaker fallback, answered as plain text
+                return response.text().then(responseText => appendMessage(responseText, 'bot'));
+            }
+            return readStream(response.body, appendMessage('', 'bot'));
         })
         .catch(error => {
             console.error('Error:', error);
@@ -58,6 +63,35 @@ function sendMessage() {
         });
 }
 
+// Render the tokens in the message element as they arrive
+async function readStream(body, messageElement) {
+    const reader = body.pipeThrough(new TextDecoderStream()).getReader();
+    const chatMessages = document.getElementById('chatbox-messages');
+    let buffer = '';
+    let answer = '';
+    while (true) {
+        const { done, value } = await reader.read();
+        if (done) {
+            break;
+        }
+        buffer += value;
+        // Events are separated by a blank line, the last one may not be complete yet
+        const events = buffer.split(/\r?\n\r?\n/);
+        buffer = events.pop();
+        for (const event of events) {
+            const data = event.split(/\r?\n/)
+                .filter(line => line.startsWith('data:'))
+                .map(line => line.substring(5))
+                .join('\n');
+            if (data) {
+                answer += JSON.parse(data).text;
+            }
+        }
+        messageElement.innerHTML = marked.parse(answer);
+        chatMessages.scrollTop = chatMessages.scrollHeight;
+    }
+}
+
 function handleKeyPress(event) {
     if (event.key === "Enter") {
         event.preventDefault(); // Prevents adding a newline
@@ -65,6 +99,28 @@ function handleKeyPress(event) {
     }
 }
 
+// Identify the conversation to the chat service, so that it remembers the previous messages of this browser only
+function getConversationId() {
+    let conversationId = localStorage.getItem('chatConversationId');
+    if (!conversationId) {
+        conversationId = randomUUID();
+        localStorage.setItem('chatConversationId', conversationId);
+    }
+    return conversationId;
+}
+
+// crypto.randomUUID() is only available over HTTPS and on localhost, the petclinic is often served over plain HTTP
+function randomUUID() {
+    if (typeof crypto.randomUUID === 'function') {
+        return crypto.randomUUID();
+    }
+    const bytes = crypto.getRandomValues(new Uint8Array(16));
+    bytes[6] = (bytes[6] & 0x0f) | 0x40; // Version 4
+    bytes[8] = (bytes[8] & 0x3f) | 0x80; // Variant 1
+    const hex = Array.from(bytes, b => b.toString(16).padStart(2, '0')).join('');
+    return [hex.slice(0, 8), hex.slice(8, 12), hex.slice(12, 16), hex.slice(16, 20), hex.slice(20)].join('-');
+}
+
 // Save chat messages to localStorage
 function saveChatMessages() {
     const messages = document.getElementById('chatbox-messages').innerHTML;
@@ -0,0 +1,34 @@
+package org.springframework.samples.petclinic.api;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+/**
+ * The operations endpoints of the services are not reachable through the gateway.
+ */
+@ActiveProfiles("test")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class OperationsRoutesTest {
+
+    @Autowired
+    private WebTestClient client;
+
+    @Test
+    void shouldNotRouteTheVetsCacheInvalidation() {
+        client.delete().uri("/api/vet/vets/cache").exchange().expectStatus().isNotFound();
+    }
+
+    @Test
+    void shouldNotRouteTheVectorStoreReindexing() {
+        client.post().uri("/api/genai/vectorstore/reindex").exchange().expectStatus().isNotFound();
+    }
+
+    @Test
+    void shouldNotRouteTheChatCacheInvalidation() {
+        client.delete().uri("/api/genai/chatclient/cache?intent=vets").exchange().expectStatus().isNotFound();
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.changes;
+
+import java.time.Instant;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+
+/**
+ * A change published on the feed.
+ *
+ * @param offset        position of the change in the feed, to be passed back to resume after it
+ * @param aggregateType kind of entity that changed, e.g. {@code owner} or {@code visit}
+ * @param aggregateId   id of the entity that changed
+ * @param type          what happened to the entity, e.g. {@code created}
+ * @param timestamp     when the change was made
+ * @param payload       JSON state of the entity after the change
+ */
+public record Change(
+    long offset,
+    String aggregateType,
+    int aggregateId,
+    String type,
+    Instant timestamp,
+    @JsonRawValue String payload
+) {
+    static Change of(ChangeEvent event) {
+        return new Change(event.getId(), event.getAggregateType(), event.getAggregateId(), event.getEventType(),
+            event.getCreatedAt(), event.getPayload());
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.changes;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.async.DeferredResult;
+
+/**
+ * Offset-based feed of the changes made by a service, backed by its {@code change_events} outbox table.
+ * <p>
+ * Changes are {@link #publish published} within the transaction of the write they describe. Consumers tail the
+ * feed by {@link #poll polling} the changes following the last offset they processed: the request is held until
+ * a change is committed or the wait times out, and returns all the changes available at that point, up to a limit.
+ * <p>
+ * Offsets are allocated when the outbox row is inserted, so concurrent transactions, of any instance of the
+ * service, may commit them out of order. A missing offset is either not committed yet or rolled back: the feed is
+ * only served up to it, until a change published more than {@code gap-timeout} ago follows it. Transactions
+ * publishing changes are assumed to complete within that time, a change committed later may be missed.
+ * <p>
+ * Each service declares its feed as a bean and schedules its {@link #purge}.
+ */
+public class ChangeFeed {
+
+    private static final Logger log = LoggerFactory.getLogger(ChangeFeed.class);
+
+    // How often waiting polls look for the changes committed by other instances
+    private static final Duration CHECK_INTERVAL = Duration.ofSeconds(1);
+
+    private final ChangeFeedRepository changeEventRepository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final Settings settings;
+
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeUpScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService notifier = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "change-feed-notifier");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ChangeFeed(ChangeFeedRepository changeEventRepository, ObjectMapper objectMapper,
+                      TransactionTemplate transactionTemplate, Settings settings) {
+        this.changeEventRepository = changeEventRepository;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = transactionTemplate;
+        this.settings = settings;
+        notifier.scheduleWithFixedDelay(this::scheduleWakeUp, CHECK_INTERVAL.toMillis(), CHECK_INTERVAL.toMillis(),
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Append a change to the outbox. Must be called within the transaction writing the change, the change is
+     * only visible to consumers once that transaction commits.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void publish(String aggregateType, int aggregateId, String type, Object payload) {
+        changeEventRepository.save(new ChangeEvent(aggregateType, aggregateId, type, toJson(payload), Instant.now()));
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                scheduleWakeUp();
+            }
+        });
+    }
+
+    /**
+     * @return the changes following the given offset, waiting at most {@code wait} for one to be committed
+     */
+    public DeferredResult<ChangeBatch> poll(long after, int limit, Duration wait) {
+        int batchSize = Math.max(1, Math.min(limit, settings.maxBatchSize()));
+        Duration timeout = wait.compareTo(settings.maxWait()) > 0 ? settings.maxWait() : wait;
+        DeferredResult<ChangeBatch> result = new DeferredResult<>(timeout.toMillis(), new ChangeBatch(List.of(), after));
+        if (timeout.isNegative() || timeout.isZero()) {
+            result.setResult(read(after, batchSize));
+            return result;
+        }
+        // Registered before reading, so that a change committed in between wakes it up
+        Waiter waiter = new Waiter(after, batchSize, result);
+        waiters.add(waiter);
+        result.onCompletion(() -> waiters.remove(waiter));
+        try {
+            ChangeBatch batch = read(after, batchSize);
+            if (!batch.changes().isEmpty()) {
+                result.setResult(batch);
+            }
+        } catch (RuntimeException e) {
+            waiters.remove(waiter);
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * @return the changes following the given offset, at most {@code limit}, up to the first missing offset that
+     * may still be committed
+     * @throws ChangesPurgedException if changes following the offset were already purged
+     */
+    public ChangeBatch read(long after, int limit) {
+        long settled = settledOffset();
+        List<Change> changes = new ArrayList<>();
+        long next = after;
+        for (ChangeEvent event : changeEventRepository.findByIdGreaterThanOrderByIdAsc(after, PageRequest.of(0, limit))) {
+            if (event.getId() > next + 1 && event.getId() > settled) {
+                break;
+            }
+            changes.add(Change.of(event));
+            next = event.getId();
+        }
+        if (!changes.isEmpty() && changes.get(0).offset() > after + 1) {
+            Long first = changeEventRepository.findMinId();
+            if (first != null && first > after + 1) {
+                throw new ChangesPurgedException("Changes following offset " + after + " were purged");
+            }
+        }
+        return new ChangeBatch(changes, next);
+    }
+
+    /**
+     * @return an empty batch whose next offset is the current end of the feed, for consumers loading a snapshot
+     */
+    public ChangeBatch head() {
+        long head = settledOffset();
+        for (Long id : changeEventRepository.findIdsGreaterThan(head, PageRequest.of(0, settings.maxBatchSize()))) {
+            if (id != head + 1) {
+                break;
+            }
+            head = id;
+        }
+        return new ChangeBatch(List.of(), head);
+    }
+
+    /**
+     * Delete the changes older than the retention, the consumers lagging further behind get a
+     * {@link ChangesPurgedException}.
+     */
+    public void purge() {
+        Instant cutoff = Instant.now().minus(settings.retention());
+        Integer purged = transactionTemplate.execute(status -> changeEventRepository.deleteByCreatedAtBefore(cutoff));
+        log.info("{} changes older than {} purged", purged, cutoff);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        notifier.shutdownNow();
+        waiters.forEach(waiter -> waiter.result().setResult(new ChangeBatch(List.of(), waiter.after())));
+    }
+
+    /**
+     * @return the last offset published more than {@code gap-timeout} ago, the missing offsets before it were
+     * rolled back
+     */
+    private long settledOffset() {
+        Long settled = changeEventRepository.findMaxIdCreatedBefore(Instant.now().minus(settings.gapTimeout()));
+        return settled == null ? 0 : settled;
+    }
+
+    private void scheduleWakeUp() {
+        if (!waiters.isEmpty() && wakeUpScheduled.compareAndSet(false, true)) {
+            notifier.execute(this::wakeUp);
+        }
+    }
+
+    /**
+     * Complete the waiting polls with the newly visible changes, reading them once for all the waiters.
+     */
+    private void wakeUp() {
+        wakeUpScheduled.set(false);
+        long after = waiters.stream().mapToLong(Waiter::after).min().orElse(Long.MAX_VALUE);
+        if (after == Long.MAX_VALUE) {
+            return;
+        }
+        try {
+            List<Change> changes = read(after, settings.maxBatchSize()).changes();
+            for (Waiter waiter : waiters) {
+                List<Change> batch = changes.stream()
+                    .filter(change -> change.offset() > waiter.after())
+                    .limit(waiter.limit())
+                    .toList();
+                if (!batch.isEmpty()) {
+                    waiter.result().setResult(new ChangeBatch(batch, batch.get(batch.size() - 1).offset()));
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to notify the change feed consumers, they will retry once their poll times out", e);
+        }
+    }
+
+    private String toJson(Object payload) {
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize change payload " + payload, e);
+        }
+    }
+
+    /**
+     * @param retention    how long the changes are kept in the outbox before being purged
+     * @param maxBatchSize maximum number of changes returned by a single poll
+     * @param maxWait      maximum time a poll waits for a change to be committed
+     * @param gapTimeout   time within which the transactions publishing changes complete, after which a missing
+     *                     offset is known to be rolled back
+     */
+    public record Settings(
+        Duration retention,
+        int maxBatchSize,
+        Duration maxWait,
+        Duration gapTimeout
+    ) {
+    }
+
+    private record Waiter(long after, int limit, DeferredResult<ChangeBatch> result) {
+    }
+}
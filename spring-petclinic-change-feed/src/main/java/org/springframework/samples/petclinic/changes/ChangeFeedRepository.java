@@ -0,0 +1,52 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.changes;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.NoRepositoryBean;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * Queries of the {@link ChangeFeed} on the {@link ChangeEvent} outbox, extended by the repository of each service
+ * publishing its changes.
+ */
+@NoRepositoryBean
+public interface ChangeFeedRepository extends JpaRepository<ChangeEvent, Long> {
+
+    List<ChangeEvent> findByIdGreaterThanOrderByIdAsc(long afterId, Pageable pageable);
+
+    @Query("SELECT e.id FROM ChangeEvent e WHERE e.id > :afterId ORDER BY e.id")
+    List<Long> findIdsGreaterThan(@Param("afterId") long afterId, Pageable pageable);
+
+    @Query("SELECT min(e.id) FROM ChangeEvent e")
+    Long findMinId();
+
+    @Query("SELECT max(e.id) FROM ChangeEvent e")
+    Long findMaxId();
+
+    @Query("SELECT max(e.id) FROM ChangeEvent e WHERE e.createdAt <= :before")
+    Long findMaxIdCreatedBefore(@Param("before") Instant before);
+
+    @Modifying
+    @Query("DELETE FROM ChangeEvent e WHERE e.createdAt < :cutoff")
+    int deleteByCreatedAtBefore(@Param("cutoff") Instant cutoff);
+}
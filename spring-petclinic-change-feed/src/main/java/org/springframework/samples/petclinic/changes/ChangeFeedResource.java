@@ -0,0 +1,58 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.changes;
+
+import java.time.Duration;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.async.DeferredResult;
+
+/**
+ * Long-polling endpoint of the {@link ChangeFeed}. A consumer loads its initial state after reading the
+ * {@code /changes/head} offset, then repeatedly requests the changes following the {@code next} offset of the
+ * previous batch.
+ * <p>
+ * Every service publishing its changes exposes it with a {@code @RestController} subclass mapped to
+ * {@code /changes}, the way it extends {@link ChangeFeed}.
+ */
+public abstract class ChangeFeedResource {
+
+    private final ChangeFeed changeFeed;
+
+    protected ChangeFeedResource(ChangeFeed changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
+    /**
+     * @param after offset of the last change processed by the consumer
+     * @param limit maximum number of changes to return
+     * @param wait  number of seconds to wait for a change when there is none following {@code after}
+     */
+    @GetMapping
+    public DeferredResult<ChangeBatch> read(
+        @RequestParam(value = "after", defaultValue = "0") long after,
+        @RequestParam(value = "limit", defaultValue = "100") int limit,
+        @RequestParam(value = "wait", defaultValue = "0") int wait) {
+
+        return changeFeed.poll(after, limit, Duration.ofSeconds(wait));
+    }
+
+    @GetMapping("/head")
+    public ChangeBatch head() {
+        return changeFeed.head();
+    }
+}
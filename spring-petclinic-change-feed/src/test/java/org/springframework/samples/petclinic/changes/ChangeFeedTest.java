@@ -0,0 +1,159 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.changes;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class ChangeFeedTest {
+
+    private final ChangeFeedRepository changeEventRepository = mock(ChangeFeedRepository.class);
+
+    private final ChangeFeed changeFeed = new ChangeFeed(changeEventRepository, new ObjectMapper(),
+        mock(TransactionTemplate.class),
+        new ChangeFeed.Settings(Duration.ofDays(7), 100, Duration.ofSeconds(30), Duration.ofMinutes(1)));
+
+    // Outbox rows, read by the notifier thread as well
+    private final List<ChangeEvent> events = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        given(changeEventRepository.findByIdGreaterThanOrderByIdAsc(anyLong(), any()))
+            .willAnswer(invocation -> events.stream()
+                .filter(event -> event.getId() > invocation.<Long>getArgument(0))
+                .toList());
+    }
+
+    @AfterEach
+    void tearDown() {
+        changeFeed.shutdown();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void shouldPublishTheChangeAsJson() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        changeFeed.publish("owner", 1, "created", Map.of("id", 1));
+
+        ArgumentCaptor<ChangeEvent> event = ArgumentCaptor.forClass(ChangeEvent.class);
+        verify(changeEventRepository).save(event.capture());
+        assertThat(event.getValue().getAggregateType()).isEqualTo("owner");
+        assertThat(event.getValue().getAggregateId()).isEqualTo(1);
+        assertThat(event.getValue().getEventType()).isEqualTo("created");
+        assertThat(event.getValue().getPayload()).isEqualTo("{\"id\":1}");
+    }
+
+    @Test
+    void shouldResumeAfterTheLastChange() {
+        givenChanges(7, 8);
+
+        ChangeBatch batch = changeFeed.read(6, 10);
+
+        assertThat(batch.changes()).extracting(Change::offset).containsExactly(7L, 8L);
+        assertThat(batch.next()).isEqualTo(8);
+    }
+
+    @Test
+    void shouldNotServeChangesPastAMissingOffset() {
+        // Offset 3 may belong to a transaction that did not commit yet, on this instance or another one
+        givenChanges(1, 2, 4);
+
+        ChangeBatch batch = changeFeed.read(0, 10);
+
+        assertThat(batch.changes()).extracting(Change::offset).containsExactly(1L, 2L);
+        assertThat(batch.next()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldSkipAMissingOffsetFollowedByASettledChange() {
+        // Offset 3 was allocated before a change published more than gap-timeout ago, it was rolled back
+        givenChanges(1, 2, 4, 5);
+        given(changeEventRepository.findMaxIdCreatedBefore(any(Instant.class))).willReturn(4L);
+        given(changeEventRepository.findMinId()).willReturn(1L);
+
+        ChangeBatch batch = changeFeed.read(2, 10);
+
+        assertThat(batch.changes()).extracting(Change::offset).containsExactly(4L, 5L);
+        assertThat(batch.next()).isEqualTo(5);
+    }
+
+    @Test
+    void shouldRejectOffsetsOfPurgedChanges() {
+        givenChanges(10, 11);
+        given(changeEventRepository.findMaxIdCreatedBefore(any(Instant.class))).willReturn(11L);
+        given(changeEventRepository.findMinId()).willReturn(10L);
+
+        assertThatThrownBy(() -> changeFeed.read(3, 10)).isInstanceOf(ChangesPurgedException.class);
+    }
+
+    @Test
+    void shouldEndTheHeadBeforeTheFirstMissingOffset() {
+        given(changeEventRepository.findMaxIdCreatedBefore(any(Instant.class))).willReturn(5L);
+        given(changeEventRepository.findIdsGreaterThan(eq(5L), any())).willReturn(List.of(6L, 7L, 9L));
+
+        assertThat(changeFeed.head().next()).isEqualTo(7);
+    }
+
+    @Test
+    void shouldAnswerAWaitingPollOnceAChangeIsCommitted() throws InterruptedException {
+        DeferredResult<ChangeBatch> result = changeFeed.poll(0, 10, Duration.ofSeconds(30));
+        assertThat(result.hasResult()).isFalse();
+
+        givenChanges(1);
+        TransactionSynchronizationManager.initSynchronization();
+        changeFeed.publish("owner", 1, "created", Map.of("id", 1));
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        for (int i = 0; i < 50 && !result.hasResult(); i++) {
+            Thread.sleep(100);
+        }
+        assertThat(result.getResult()).isInstanceOfSatisfying(ChangeBatch.class,
+            batch -> assertThat(batch.changes()).extracting(Change::offset).containsExactly(1L));
+    }
+
+    private void givenChanges(long... offsets) {
+        for (long offset : offsets) {
+            ChangeEvent event = new ChangeEvent("owner", (int) offset, "created", "{\"id\":" + offset + "}", null);
+            event.setId(offset);
+            events.add(event);
+        }
+    }
+}
@@ -17,13 +17,21 @@ package org.springframework.samples.petclinic.customers;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
+import org.springframework.samples.petclinic.changes.ChangeEvent;
+import org.springframework.samples.petclinic.customers.config.CustomersProperties;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * @author Maciej Szarlinski
  */
 @EnableDiscoveryClient
 @SpringBootApplication
+@EnableScheduling
+@EntityScan(basePackageClasses = {CustomersServiceApplication.class, ChangeEvent.class})
+@EnableConfigurationProperties(CustomersProperties.class)
 public class CustomersServiceApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.customers.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Typesafe custom configuration.
+ */
+@ConfigurationProperties(prefix = "customers")
+public record CustomersProperties(
+    @DefaultValue Changes changes
+) {
+    /**
+     * @param retention    how long the changes are kept in the outbox before being purged
+     * @param maxBatchSize maximum number of changes returned by a single poll of the change feed
+     * @param maxWait      maximum time a poll of the change feed waits for a change to be committed
+     * @param gapTimeout   how long a missing offset of the outbox is awaited before being considered rolled back,
+     *                     i.e. the maximum duration of a transaction writing a change
+     */
+    public record Changes(
+        @DefaultValue("7d") Duration retention,
+        @DefaultValue("1000") int maxBatchSize,
+        @DefaultValue("30s") Duration maxWait,
+        @DefaultValue("1m") Duration gapTimeout
+    ) {
+    }
+}
@@ -15,7 +15,11 @@
  */
 package org.springframework.samples.petclinic.customers.model;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 /**
  * Repository class for <code>Owner</code> domain objects All method names are compliant with Spring Data naming
@@ -27,4 +31,22 @@ import org.springframework.data.jpa.repository.JpaRepository;
  * @author Michael Isvy
  * @author Maciej Szarlinski
  */
-public interface OwnerRepository extends JpaRepository<Owner, Integer> { }
+public interface OwnerRepository extends JpaRepository<Owner, Integer> {
+
+    /**
+     * Search the owners matching all the given criteria, a {@code null} criterion matching every owner. Names and
+     * city are {@code LIKE} patterns escaped with {@code !}, prefixes so that the indexes of the columns are used.
+     */
+    @Query("""
+        SELECT owner FROM Owner owner
+        WHERE (:lastName IS NULL OR owner.lastName LIKE :lastName ESCAPE '!')
+          AND (:firstName IS NULL OR owner.firstName LIKE :firstName ESCAPE '!')
+          AND (:city IS NULL OR owner.city LIKE :city ESCAPE '!')
+          AND (:telephone IS NULL OR owner.telephone = :telephone)
+          AND (:petName IS NULL OR EXISTS (
+            SELECT pet FROM Pet pet WHERE pet.owner = owner AND pet.name LIKE :petName ESCAPE '!'))
+        """)
+    Page<Owner> search(@Param("lastName") String lastName, @Param("firstName") String firstName,
+                       @Param("city") String city, @Param("telephone") String telephone,
+                       @Param("petName") String petName, Pageable pageable);
+}
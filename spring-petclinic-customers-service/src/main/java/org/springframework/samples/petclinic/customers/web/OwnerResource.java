@@ -20,11 +20,18 @@ import jakarta.validation.Valid;
 import jakarta.validation.constraints.Min;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
+import org.springframework.samples.petclinic.changes.ChangeFeed;
 import org.springframework.samples.petclinic.customers.web.mapper.OwnerEntityMapper;
 import org.springframework.samples.petclinic.customers.model.Owner;
 import org.springframework.samples.petclinic.customers.model.OwnerRepository;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.util.List;
 import java.util.Optional;
@@ -43,12 +50,18 @@ class OwnerResource {
 
     private static final Logger log = LoggerFactory.getLogger(OwnerResource.class);
 
+    private static final int MAX_PAGE_SIZE = 100;
+
+    private static final Sort SEARCH_ORDER = Sort.by("lastName", "firstName", "id");
+
     private final OwnerRepository ownerRepository;
     private final OwnerEntityMapper ownerEntityMapper;
+    private final ChangeFeed changeFeed;
 
-    OwnerResource(OwnerRepository ownerRepository, OwnerEntityMapper ownerEntityMapper) {
+    OwnerResource(OwnerRepository ownerRepository, OwnerEntityMapper ownerEntityMapper, ChangeFeed changeFeed) {
         this.ownerRepository = ownerRepository;
         this.ownerEntityMapper = ownerEntityMapper;
+        this.changeFeed = changeFeed;
     }
 
     /**
@@ -56,9 +69,12 @@ class OwnerResource {
      */
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
+    @Transactional
     public Owner createOwner(@Valid @RequestBody OwnerRequest ownerRequest) {
         Owner owner = ownerEntityMapper.map(new Owner(), ownerRequest);
-        return ownerRepository.save(owner);
+        Owner saved = ownerRepository.save(owner);
+        changeFeed.publish("owner", saved.getId(), "created", saved);
+        return saved;
     }
 
     /**
@@ -77,16 +93,53 @@ class OwnerResource {
         return ownerRepository.findAll();
     }
 
+    /**
+     * Search the owners whose last name, first name, city or name of one of their pets start with the given
+     * values, or with the given telephone number, e.g. {@code /owners/search?lastName=Dav&city=Madison}.
+     * Prefixes are case-sensitive.
+     */
+    @GetMapping(value = "/search")
+    public OwnersPage searchOwners(
+        @RequestParam(value = "lastName", required = false) String lastName,
+        @RequestParam(value = "firstName", required = false) String firstName,
+        @RequestParam(value = "city", required = false) String city,
+        @RequestParam(value = "telephone", required = false) String telephone,
+        @RequestParam(value = "petName", required = false) String petName,
+        @RequestParam(value = "page", defaultValue = "0") int page,
+        @RequestParam(value = "size", defaultValue = "20") int size) {
+
+        if (page < 0 || size < 1 || size > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "page must be positive and size between 1 and " + MAX_PAGE_SIZE);
+        }
+        Page<Owner> owners = ownerRepository.search(prefix(lastName), prefix(firstName), prefix(city),
+            StringUtils.hasText(telephone) ? telephone.trim() : null, prefix(petName),
+            PageRequest.of(page, size, SEARCH_ORDER));
+        return new OwnersPage(owners.getContent(), page, size, owners.getTotalElements());
+    }
+
     /**
      * Update Owner
      */
     @PutMapping(value = "/{ownerId}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
+    @Transactional
     public void updateOwner(@PathVariable("ownerId") @Min(1) int ownerId, @Valid @RequestBody OwnerRequest ownerRequest) {
         final Owner ownerModel = ownerRepository.findById(ownerId).orElseThrow(() -> new ResourceNotFoundException("Owner " + ownerId + " not found"));
 
         ownerEntityMapper.map(ownerModel, ownerRequest);
         log.info("Saving owner {}", ownerModel);
         ownerRepository.save(ownerModel);
+        changeFeed.publish("owner", ownerId, "updated", ownerModel);
+    }
+
+    /**
+     * @return the {@code LIKE} pattern matching the values starting with the given one, or {@code null} when blank
+     */
+    private static String prefix(String value) {
+        if (!StringUtils.hasText(value)) {
+            return null;
+        }
+        return value.trim().replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
     }
 }
@@ -20,7 +20,9 @@ import jakarta.validation.constraints.Min;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.samples.petclinic.changes.ChangeFeed;
 import org.springframework.samples.petclinic.customers.model.*;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
@@ -40,10 +42,12 @@ class PetResource {
 
     private final PetRepository petRepository;
     private final OwnerRepository ownerRepository;
+    private final ChangeFeed changeFeed;
 
-    PetResource(PetRepository petRepository, OwnerRepository ownerRepository) {
+    PetResource(PetRepository petRepository, OwnerRepository ownerRepository, ChangeFeed changeFeed) {
         this.petRepository = petRepository;
         this.ownerRepository = ownerRepository;
+        this.changeFeed = changeFeed;
     }
 
     @GetMapping("/petTypes")
@@ -53,6 +57,7 @@ class PetResource {
 
     @PostMapping("/owners/{ownerId}/pets")
     @ResponseStatus(HttpStatus.CREATED)
+    @Transactional
     public Pet processCreationForm(
         @RequestBody PetRequest petRequest,
         @PathVariable("ownerId") @Min(1) int ownerId) {
@@ -62,15 +67,19 @@ class PetResource {
 
         final Pet pet = new Pet();
         owner.addPet(pet);
-        return save(pet, petRequest);
+        Pet saved = save(pet, petRequest);
+        changeFeed.publish("owner", ownerId, "pet-created", owner);
+        return saved;
     }
 
     @PutMapping("/owners/*/pets/{petId}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
+    @Transactional
     public void processUpdateForm(@RequestBody PetRequest petRequest) {
         int petId = petRequest.id();
         Pet pet = findPetById(petId);
         save(pet, petRequest);
+        changeFeed.publish("owner", pet.getOwner().getId(), "pet-updated", pet.getOwner());
     }
 
     private Pet save(final Pet pet, final PetRequest petRequest) {
@@ -17,6 +17,8 @@ CREATE TABLE owners (
   telephone  VARCHAR(12)
 );
 CREATE INDEX owners_last_name ON owners (last_name);
+CREATE INDEX owners_city ON owners (city);
+CREATE INDEX owners_telephone ON owners (telephone);
 
 CREATE TABLE pets (
   id         INTEGER IDENTITY PRIMARY KEY,
@@ -28,3 +30,25 @@ CREATE TABLE pets (
 ALTER TABLE pets ADD CONSTRAINT fk_pets_owners FOREIGN KEY (owner_id) REFERENCES owners (id);
 ALTER TABLE pets ADD CONSTRAINT fk_pets_types FOREIGN KEY (type_id) REFERENCES types (id);
 CREATE INDEX pets_name ON pets (name);
+
+DROP TABLE change_events IF EXISTS;
+
+CREATE TABLE change_events (
+  id             BIGINT IDENTITY PRIMARY KEY,
+  aggregate_type VARCHAR(30) NOT NULL,
+  aggregate_id   INTEGER NOT NULL,
+  event_type     VARCHAR(30) NOT NULL,
+  payload        LONGVARCHAR NOT NULL,
+  created_at     TIMESTAMP NOT NULL
+);
+
+CREATE INDEX change_events_created_at ON change_events (created_at);
+
+DROP TABLE shedlock IF EXISTS;
+
+CREATE TABLE shedlock (
+  name       VARCHAR(64) PRIMARY KEY,
+  lock_until TIMESTAMP(3) NOT NULL,
+  locked_at  TIMESTAMP(3) NOT NULL,
+  locked_by  VARCHAR(255) NOT NULL
+);
@@ -16,7 +16,9 @@ CREATE TABLE IF NOT EXISTS owners (
   address VARCHAR(255),
   city VARCHAR(80),
   telephone VARCHAR(20),
-  INDEX(last_name)
+  INDEX(last_name),
+  INDEX(city),
+  INDEX(telephone)
 ) engine=InnoDB;
 
 CREATE TABLE IF NOT EXISTS pets (
@@ -29,3 +31,20 @@ CREATE TABLE IF NOT EXISTS pets (
   FOREIGN KEY (owner_id) REFERENCES owners(id),
   FOREIGN KEY (type_id) REFERENCES types(id)
 ) engine=InnoDB;
+
+CREATE TABLE IF NOT EXISTS change_events (
+  id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT PRIMARY KEY,
+  aggregate_type VARCHAR(30) NOT NULL,
+  aggregate_id INT(4) UNSIGNED NOT NULL,
+  event_type VARCHAR(30) NOT NULL,
+  payload TEXT NOT NULL,
+  created_at TIMESTAMP(6) NOT NULL,
+  INDEX(created_at)
+) engine=InnoDB;
+
+CREATE TABLE IF NOT EXISTS shedlock (
+  name VARCHAR(64) NOT NULL PRIMARY KEY,
+  lock_until TIMESTAMP(3) NOT NULL,
+  locked_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+  locked_by VARCHAR(255) NOT NULL
+) engine=InnoDB;
@@ -0,0 +1,78 @@
+package org.springframework.samples.petclinic.customers.web;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.samples.petclinic.changes.Change;
+import org.springframework.samples.petclinic.changes.ChangeBatch;
+import org.springframework.samples.petclinic.changes.ChangeFeed;
+import org.springframework.samples.petclinic.changes.ChangesPurgedException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import static org.mockito.BDDMockito.given;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(SpringExtension.class)
+@WebMvcTest(CustomersChangeFeedResource.class)
+@ActiveProfiles("test")
+class CustomersChangeFeedResourceTest {
+
+    @Autowired
+    MockMvc mvc;
+
+    @MockBean
+    ChangeFeed changeFeed;
+
+    @Test
+    void shouldServeTheChangesFollowingTheOffset() throws Exception {
+        Change change = new Change(4, "owner", 1, "updated", Instant.parse("2024-01-01T00:00:00Z"),
+            "{\"id\":1,\"firstName\":\"George\"}");
+        DeferredResult<ChangeBatch> result = new DeferredResult<>();
+        result.setResult(new ChangeBatch(List.of(change), 4));
+        given(changeFeed.poll(3, 100, Duration.ofSeconds(20))).willReturn(result);
+
+        MvcResult mvcResult = mvc.perform(get("/changes?after=3&limit=100&wait=20"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        mvc.perform(asyncDispatch(mvcResult))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.next").value(4))
+            .andExpect(jsonPath("$.changes[0].offset").value(4))
+            .andExpect(jsonPath("$.changes[0].aggregateType").value("owner"))
+            .andExpect(jsonPath("$.changes[0].payload.firstName").value("George"));
+    }
+
+    @Test
+    void shouldAnswerGoneWhenTheChangesWerePurged() throws Exception {
+        given(changeFeed.poll(3, 100, Duration.ofSeconds(0)))
+            .willThrow(new ChangesPurgedException("Changes following offset 3 were purged"));
+
+        mvc.perform(get("/changes?after=3"))
+            .andExpect(status().isGone());
+    }
+
+    @Test
+    void shouldServeTheHeadOfTheFeed() throws Exception {
+        given(changeFeed.head()).willReturn(new ChangeBatch(List.of(), 42));
+
+        mvc.perform(get("/changes/head"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.next").value(42))
+            .andExpect(jsonPath("$.changes").isEmpty());
+    }
+}
@@ -0,0 +1,68 @@
+package org.springframework.samples.petclinic.customers.web;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
+import org.springframework.samples.petclinic.changes.ChangeFeed;
+import org.springframework.samples.petclinic.customers.model.Owner;
+import org.springframework.samples.petclinic.customers.model.OwnerRepository;
+import org.springframework.samples.petclinic.customers.web.mapper.OwnerEntityMapper;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(OwnerResource.class)
+@ActiveProfiles("test")
+class OwnerResourceTest {
+
+    @Autowired
+    MockMvc mvc;
+
+    @MockBean
+    OwnerRepository ownerRepository;
+
+    @MockBean
+    OwnerEntityMapper ownerEntityMapper;
+
+    @MockBean
+    ChangeFeed changeFeed;
+
+    @Test
+    void shouldSearchOwnersByPrefix() throws Exception {
+        Owner owner = new Owner();
+        owner.setFirstName("Betty");
+        owner.setLastName("Davis");
+        Pageable pageable = PageRequest.of(1, 5, Sort.by("lastName", "firstName", "id"));
+        given(ownerRepository.search("Dav%", null, "Mad%", null, "Le!_o%", pageable))
+            .willReturn(new PageImpl<>(List.of(owner), pageable, 6));
+
+        mvc.perform(get("/owners/search?lastName=Dav&city=Mad&petName=Le_o&page=1&size=5")
+                .accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.content[0].lastName").value("Davis"))
+            .andExpect(jsonPath("$.page").value(1))
+            .andExpect(jsonPath("$.size").value(5))
+            .andExpect(jsonPath("$.totalElements").value(6));
+    }
+
+    @Test
+    void shouldRejectTooLargePages() throws Exception {
+        mvc.perform(get("/owners/search?lastName=Dav&size=101"))
+            .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(ownerRepository);
+    }
+}
@@ -1,14 +1,39 @@
 package org.springframework.samples.petclinic.genai;
 
-import org.springframework.ai.chat.memory.ChatMemory;
-import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ToolContext;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.samples.petclinic.genai.cache.SemanticCache;
+import org.springframework.samples.petclinic.genai.cache.SemanticCacheProperties;
+import org.springframework.samples.petclinic.genai.memory.BoundedChatMemory;
+import org.springframework.samples.petclinic.genai.memory.ChatMemoryProperties;
+import org.springframework.samples.petclinic.genai.memory.CompactingChatMemoryAdvisor;
+import org.springframework.samples.petclinic.genai.scheduler.ChatModelScheduler;
+import org.springframework.samples.petclinic.genai.scheduler.ChatModelSchedulerProperties;
+import org.springframework.samples.petclinic.genai.scheduler.SchedulingChatModel;
+import org.springframework.samples.petclinic.genai.vectorstore.DocumentIndexer;
+import org.springframework.samples.petclinic.genai.vectorstore.ExactVectorStore;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStore;
+import org.springframework.samples.petclinic.genai.vectorstore.MappedVectorStore;
+import org.springframework.samples.petclinic.genai.vectorstore.VectorStoreProperties;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.scheduler.Schedulers;
 
 /**
  * A Configuration class for beans used by the Chat Client.
@@ -16,16 +41,61 @@ import org.springframework.web.reactive.function.client.WebClient;
  * @author Oded Shopen
  */
 @Configuration
+@EnableConfigurationProperties({ VectorStoreProperties.class, ChatMemoryProperties.class, ToolProperties.class,
+		SemanticCacheProperties.class, ChatModelSchedulerProperties.class })
 public class AIBeanConfiguration {
 
+	@Bean(destroyMethod = "save")
+	public BoundedChatMemory chatMemory(ChatMemoryProperties properties, MeterRegistry registry) throws IOException {
+		return new BoundedChatMemory(properties, registry);
+	}
+
+	@Bean
+	CompactingChatMemoryAdvisor chatMemoryAdvisor(BoundedChatMemory chatMemory, ChatMemoryProperties properties,
+			MeterRegistry registry) {
+		return new CompactingChatMemoryAdvisor(chatMemory, properties.history(), registry);
+	}
+
+	@Bean
+	ChatModelScheduler chatModelScheduler(ChatModelSchedulerProperties properties, MeterRegistry registry) {
+		return new ChatModelScheduler(properties, registry);
+	}
+
+	/**
+	 * The model auto-configured by Spring AI, running the functions it calls concurrently, each request to the model
+	 * waiting for its turn in the scheduler. Primary so that the chat client uses it, the auto-configured model
+	 * being injected here as the only other candidate.
+	 */
 	@Bean
-	public ChatMemory chatMemory() {
-		return new InMemoryChatMemory();
+	@Primary
+	ChatModel parallelToolCallingChatModel(ChatModel chatModel, Map<String, BiFunction<?, ToolContext, ?>> functions,
+			ObjectMapper objectMapper, ToolProperties properties, ChatModelScheduler scheduler,
+			ChatModelSchedulerProperties schedulerProperties, MeterRegistry registry) {
+		return new ParallelToolCallingChatModel(new SchedulingChatModel(chatModel, scheduler, schedulerProperties),
+				functions, objectMapper, properties, registry);
 	}
 
 	@Bean
-	VectorStore vectorStore(EmbeddingModel embeddingModel) {
-		return new SimpleVectorStore(embeddingModel);
+	SemanticCache semanticCache(EmbeddingModel embeddingModel, SemanticCacheProperties properties,
+			MeterRegistry registry) {
+		return new SemanticCache(embeddingModel, properties, registry);
+	}
+
+	@Bean
+	VectorStore vectorStore(EmbeddingModel embeddingModel, VectorStoreProperties properties,
+			MeterRegistry registry) {
+		return switch (properties.type()) {
+			case SIMPLE -> new SimpleVectorStore(embeddingModel);
+			case HNSW -> new HnswVectorStore(embeddingModel, properties.hnsw());
+			case MAPPED -> new MappedVectorStore(embeddingModel, properties.mapped(), registry);
+			case EXACT -> new ExactVectorStore(embeddingModel, properties.exact());
+		};
+	}
+
+	@Bean
+	DocumentIndexer documentIndexer(VectorStore vectorStore, EmbeddingModel embeddingModel,
+			VectorStoreProperties properties) throws IOException {
+		return new DocumentIndexer(vectorStore, embeddingModel, properties.indexing());
 	}
 	
     @Bean
@@ -33,4 +103,20 @@ public class AIBeanConfiguration {
     public WebClient.Builder loadBalancedWebClientBuilder() {
         return WebClient.builder();
     }
+
+	/**
+	 * Builder of the WebClient streaming the answers of the model, which Spring AI picks as the primary one. The
+	 * functions called by the model during a streamed answer are run by the thread receiving it, so the response is
+	 * received on a thread allowed to wait for them rather than on the event loop.
+	 */
+	@Bean
+	@Primary
+	public WebClient.Builder webClientBuilder() {
+		return WebClient.builder()
+			.filter((request, next) -> next.exchange(request)
+				.map(response -> response.mutate()
+					.body(body -> body.publishOn(Schedulers.boundedElastic())
+						.doOnDiscard(DataBuffer.class, DataBufferUtils::release))
+					.build()));
+	}
 }
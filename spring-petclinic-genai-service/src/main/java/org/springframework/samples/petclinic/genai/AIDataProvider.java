@@ -1,15 +1,23 @@
 package org.springframework.samples.petclinic.genai;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
-import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.samples.petclinic.genai.dto.OwnerDetails;
+import org.springframework.samples.petclinic.genai.dto.OwnersPage;
 import org.springframework.samples.petclinic.genai.dto.PetDetails;
+import org.springframework.samples.petclinic.genai.vectorstore.PersistentVectorStore;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -28,50 +36,134 @@ public class AIDataProvider {
 
     private final WebClient webClient;
 
+    private final ToolProperties properties;
 
-	public AIDataProvider(WebClient.Builder webClientBuilder, VectorStore vectorStore) {
+    private static final int MAX_VETS = 50;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+
+	public AIDataProvider(@LoadBalanced WebClient.Builder webClientBuilder, VectorStore vectorStore,
+			ToolProperties properties) {
 		this.webClient = webClientBuilder.build();
 		this.vectorStore = vectorStore;
+		this.properties = properties;
 	}
 
-	public OwnersResponse getAllOwners() {
-		return new OwnersResponse(webClient
+	/**
+	 * Search the owners with the indexed customers-service search rather than listing all of them, one page of
+	 * {@code page-size} owners at a time.
+	 */
+	public Mono<OwnersResponse> findOwners(OwnerSearchRequest request) {
+		int page = request.page() == null ? 0 : Math.max(0, request.page());
+		return webClient
 	            .get()
-	            .uri(ownersHostname + "owners")
+	            .uri(UriComponentsBuilder.fromUriString(ownersHostname + "owners/search")
+	            	.queryParamIfPresent("lastName", criterion(request.lastName()))
+	            	.queryParamIfPresent("firstName", criterion(request.firstName()))
+	            	.queryParamIfPresent("city", criterion(request.city()))
+	            	.queryParamIfPresent("telephone", criterion(request.telephone()))
+	            	.queryParamIfPresent("petName", criterion(request.petName()))
+	            	.queryParam("page", page)
+	            	.queryParam("size", properties.pageSize())
+	            	.build()
+	            	.encode()
+	            	.toUri())
 	            .retrieve()
-	            .bodyToMono(new ParameterizedTypeReference<List<OwnerDetails>>() {})
-	            .block());
+	            .bodyToMono(OwnersPage.class)
+	            .map(owners -> {
+	            	List<OwnerDetails> limited = limit(owners.content());
+	            	return new OwnersResponse(limited, owners.page(), owners.totalElements(),
+	            			limited.size() < owners.content().size());
+	            });
 	}
 
+	/**
+	 * Blocking, as both embedding the request and searching the vector store are.
+	 * <p>
+	 * A request naming a vet or a specialty is first answered from the metadata of the vet documents, without
+	 * embedding it when the store supports lookups by metadata. The similarity search remains the fallback when
+	 * nothing matches exactly, a misspelled name for instance.
+	 */
 	public VetResponse getVets(VetRequest request) throws JsonProcessingException {
-		ObjectMapper objectMapper = new ObjectMapper();
 		String vetAsJson = objectMapper.writeValueAsString(request.vet());
 
+		Filter.Expression filter = request.vet() == null ? null : VetMetadata.filter(request.vet());
+		if (filter != null) {
+			List<Document> matches = findVets(filter, vetAsJson);
+			if (!matches.isEmpty()) {
+				return toVetResponse(matches);
+			}
+		}
+
 		SearchRequest sr = SearchRequest.from(SearchRequest.defaults()).withQuery(vetAsJson).withTopK(20);
 		if (request.vet() == null) {
 			// Provide a limit of 50 results when zero parameters are sent
-			sr = sr.withTopK(50);
+			sr = sr.withTopK(MAX_VETS);
+		}
+
+		return toVetResponse(this.vectorStore.similaritySearch(sr));
+	}
+
+	private List<Document> findVets(Filter.Expression filter, String vetAsJson) {
+		if (vectorStore instanceof PersistentVectorStore store) {
+			return store.findByMetadata(filter, MAX_VETS);
 		}
+		// Still embeds the query, but only scores the vets matching the filter
+		return vectorStore.similaritySearch(SearchRequest.defaults()
+			.withQuery(vetAsJson)
+			.withTopK(MAX_VETS)
+			.withSimilarityThresholdAll()
+			.withFilterExpression(filter));
+	}
 
-		List<Document> topMatches = this.vectorStore.similaritySearch(sr);
-		List<String> results = topMatches.stream().map(Document::getContent).toList();
-		return new VetResponse(results);
+	private VetResponse toVetResponse(List<Document> documents) {
+		List<String> results = documents.stream().map(Document::getContent).toList();
+		return new VetResponse(limit(results));
 	}
 
-	public AddedPetResponse addPetToOwner(AddPetRequest request) {
-		return new AddedPetResponse(webClient
+	public Mono<AddedPetResponse> addPetToOwner(AddPetRequest request) {
+		return webClient
 	            .post()
 	            .uri(ownersHostname + "owners/"+request.ownerId()+"/pets")
 	            .bodyValue(request.pet())
-	            .retrieve().bodyToMono(PetDetails.class).block());
+	            .retrieve().bodyToMono(PetDetails.class)
+	            .map(AddedPetResponse::new);
 	}
 
-	public OwnerResponse addOwnerToPetclinic(OwnerRequest ownerRequest) {
-		return new OwnerResponse(webClient
+	public Mono<OwnerResponse> addOwnerToPetclinic(OwnerRequest ownerRequest) {
+		return webClient
 	            .post()
 	            .uri(ownersHostname + "owners")
 	            .bodyValue(ownerRequest)
-	            .retrieve().bodyToMono(OwnerDetails.class).block());
+	            .retrieve().bodyToMono(OwnerDetails.class)
+	            .map(OwnerResponse::new);
+	}
+
+	/**
+	 * @return the first items, as many as fit in {@code max-result-size} bytes of JSON, as the whole result of a
+	 * function is sent to the model
+	 */
+	<T> List<T> limit(List<T> items) {
+		long remaining = properties.maxResultSize().toBytes();
+		List<T> limited = new ArrayList<>(items.size());
+		for (T item : items) {
+			try {
+				remaining -= objectMapper.writeValueAsBytes(item).length + 1;
+			}
+			catch (JsonProcessingException ex) {
+				throw new IllegalArgumentException("Unable to serialize the result " + item, ex);
+			}
+			if (remaining < 0) {
+				break;
+			}
+			limited.add(item);
+		}
+		return limited;
+	}
+
+	private static Optional<String> criterion(String value) {
+		return StringUtils.hasText(value) ? Optional.of(value.trim()) : Optional.empty();
 	}
 
 }
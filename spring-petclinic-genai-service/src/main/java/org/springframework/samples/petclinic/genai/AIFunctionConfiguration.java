@@ -1,10 +1,11 @@
 package org.springframework.samples.petclinic.genai;
 
 import java.util.List;
-import java.util.function.Function;
+import java.util.function.BiFunction;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.model.ToolContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Description;
@@ -13,8 +14,11 @@ import org.springframework.samples.petclinic.genai.dto.PetDetails;
 import org.springframework.samples.petclinic.genai.dto.PetRequest;
 import org.springframework.samples.petclinic.genai.dto.Vet;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
+import reactor.core.publisher.Mono;
+
 import jakarta.validation.constraints.Digits;
 import jakarta.validation.constraints.NotBlank;
 
@@ -23,6 +27,9 @@ import jakarta.validation.constraints.NotBlank;
  * requires more Information on a given topic. The currently available functions enable
  * the LLM to get the list of owners and their pets, get information about the
  * veterinarians, and add a pet to an owner.
+ * <p>
+ * The functions also take the {@link ToolContext} of the request, in which the {@link ToolExecutor} records that
+ * they were called.
  *
  * @author Oded Shopen
  */
@@ -33,38 +40,53 @@ class AIFunctionConfiguration {
 
 	// The @Description annotation helps the model understand when to call the function
 	@Bean
-	@Description("List the owners that the pet clinic has")
-	public Function<OwnerRequest, OwnersResponse> listOwners(AIDataProvider petclinicAiProvider) {
-		return request -> petclinicAiProvider.getAllOwners();
+	@Description("Find the owners of the pet clinic, with their pets, by the start of their last name, first name, "
+			+ "city or of the name of one of their pets, or by their telephone number. Names and cities start with "
+			+ "a capital letter. Only the given criteria are used, and all of them must match. Results are paged, "
+			+ "use a higher page number to get the next owners when there are more than returned")
+	public BiFunction<OwnerSearchRequest, ToolContext, OwnersResponse> findOwners(AIDataProvider petclinicAiProvider,
+			ToolExecutor toolExecutor) {
+		return (request, context) -> toolExecutor.call(ChatTool.FIND_OWNERS, request, context,
+				() -> petclinicAiProvider.findOwners(request));
 	}
 
 	@Bean
 	@Description("Add a new pet owner to the pet clinic. " + "The Owner must include a first name and a last name "
 			+ "as two separate words, " + "plus an address and a 10-digit phone number")
-	public Function<OwnerRequest, OwnerResponse> addOwnerToPetclinic(AIDataProvider petclinicAiDataProvider) {
-		return petclinicAiDataProvider::addOwnerToPetclinic;
+	public BiFunction<OwnerRequest, ToolContext, OwnerResponse> addOwnerToPetclinic(
+			AIDataProvider petclinicAiDataProvider, ToolExecutor toolExecutor) {
+		return (request, context) -> toolExecutor.call(ChatTool.ADD_OWNER, request, context,
+				() -> petclinicAiDataProvider.addOwnerToPetclinic(request));
 	}
 
 	@Bean
 	@Description("List the veterinarians that the pet clinic has")
-	public Function<VetRequest, VetResponse> listVets(AIDataProvider petclinicAiProvider) {
-		return request -> {
-			try {
-				return petclinicAiProvider.getVets(request);
-			}
-			catch (JsonProcessingException e) {
-                LOG.error("Error processing JSON in the listVets function", e);
-				return null;
+	public BiFunction<VetRequest, ToolContext, VetResponse> listVets(AIDataProvider petclinicAiProvider,
+			ToolExecutor toolExecutor, VectorStoreReadiness vectorStoreReadiness) {
+		return (request, context) -> toolExecutor.call(ChatTool.LIST_VETS, request, context, () -> {
+			if (!vectorStoreReadiness.isReady()) {
+				return Mono.just(VetResponse.WARMING_UP);
 			}
-		};
+			return Mono.fromCallable(() -> {
+				try {
+					return petclinicAiProvider.getVets(request);
+				}
+				catch (JsonProcessingException e) {
+	                LOG.error("Error processing JSON in the listVets function", e);
+					return null;
+				}
+			});
+		});
 	}
 
 	@Bean
 	@Description("Add a pet with the specified petTypeId, " + "to an owner identified by the ownerId. "
 			+ "The allowed Pet types IDs are only: " + "1 - cat" + "2 - dog" + "3 - lizard" + "4 - snake" + "5 - bird"
 			+ "6 - hamster")
-	public Function<AddPetRequest, AddedPetResponse> addPetToOwner(AIDataProvider petclinicAiProvider) {
-		return petclinicAiProvider::addPetToOwner;
+	public BiFunction<AddPetRequest, ToolContext, AddedPetResponse> addPetToOwner(AIDataProvider petclinicAiProvider,
+			ToolExecutor toolExecutor) {
+		return (request, context) -> toolExecutor.call(ChatTool.ADD_PET, request, context,
+				() -> petclinicAiProvider.addPetToOwner(request));
 	}
 
 }
@@ -72,7 +94,11 @@ class AIFunctionConfiguration {
 record AddPetRequest(PetRequest pet, Integer ownerId) {
 }
 
-record OwnersResponse(List<OwnerDetails> owners) {
+record OwnerSearchRequest(String lastName, String firstName, String city, String telephone, String petName,
+		Integer page) {
+}
+
+record OwnersResponse(List<OwnerDetails> owners, int page, long totalOwners, boolean truncated) {
 }
 
 record OwnerResponse(OwnerDetails owner) {
@@ -81,7 +107,16 @@ record OwnerResponse(OwnerDetails owner) {
 record AddedPetResponse(PetDetails pet) {
 }
 
-record VetResponse(List<String> vet) {
+@JsonInclude(JsonInclude.Include.NON_NULL)
+record VetResponse(List<String> vet, String status) {
+
+	// Answered until the vets are loaded into the vector store at startup
+	static final VetResponse WARMING_UP = new VetResponse(List.of(),
+			"The list of vets is warming up, it will be available in a few minutes.");
+
+	VetResponse(List<String> vet) {
+		this(vet, null);
+	}
 }
 
 record VetRequest(Vet vet) {
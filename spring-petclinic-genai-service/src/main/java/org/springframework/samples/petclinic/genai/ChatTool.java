@@ -0,0 +1,90 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+/**
+ * The functions the model may call, with the kind of data they read or change. The name of each function is the
+ * name of its bean in {@link AIFunctionConfiguration}.
+ */
+enum ChatTool {
+
+	FIND_OWNERS("findOwners", OwnerSearchRequest.class, "owners", false),
+
+	ADD_OWNER("addOwnerToPetclinic", OwnerRequest.class, "owners", true),
+
+	ADD_PET("addPetToOwner", AddPetRequest.class, "owners", true),
+
+	LIST_VETS("listVets", VetRequest.class, "vets", false);
+
+	private final String functionName;
+
+	private final Class<?> requestType;
+
+	private final String intent;
+
+	private final boolean writes;
+
+	ChatTool(String functionName, Class<?> requestType, String intent, boolean writes) {
+		this.functionName = functionName;
+		this.requestType = requestType;
+		this.intent = intent;
+		this.writes = writes;
+	}
+
+	String functionName() {
+		return functionName;
+	}
+
+	/**
+	 * @return the type the JSON arguments of the function are read as
+	 */
+	Class<?> requestType() {
+		return requestType;
+	}
+
+	/**
+	 * @return the kind of data read or changed by the function, under which the answers based on it are cached
+	 */
+	String intent() {
+		return intent;
+	}
+
+	boolean writes() {
+		return writes;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if there is no function with the given name
+	 */
+	static ChatTool of(String functionName) {
+		for (ChatTool tool : values()) {
+			if (tool.functionName.equals(functionName)) {
+				return tool;
+			}
+		}
+		throw new IllegalArgumentException("No function named " + functionName);
+	}
+
+	static String[] functionNames() {
+		ChatTool[] tools = values();
+		String[] names = new String[tools.length];
+		for (int i = 0; i < tools.length; i++) {
+			names[i] = tools[i].functionName;
+		}
+		return names;
+	}
+
+}
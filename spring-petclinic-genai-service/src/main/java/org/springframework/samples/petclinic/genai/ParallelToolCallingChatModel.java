@@ -0,0 +1,211 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.function.FunctionCallingOptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * {@link ChatModel} running the functions the model asks for in one turn concurrently, rather than one after
+ * another as Spring AI does, so that a turn takes as long as its slowest function rather than the sum of them.
+ * <p>
+ * The model is asked to hand the function calls back instead of running them ({@code proxyToolCalls}), they are
+ * run here and their results sent back to the model, until it answers. Consecutive calls of read-only functions run
+ * concurrently, up to the {@code concurrency} of the {@link ToolExecutor}. A call of a function changing data waits
+ * for the previous calls and runs alone, so that the changes are made in the order the model asked for, and seen
+ * by the calls following them. All the calls of a turn must complete within {@code turn-timeout}, the functions
+ * still running are then left to their own {@code timeout}.
+ * <p>
+ * The duration of the function calls of each turn is published as {@code petclinic.chat.tool.turn}.
+ */
+class ParallelToolCallingChatModel implements ChatModel {
+
+	// Turns of function calls answering one prompt, in case the model keeps calling functions
+	private static final int MAX_TOOL_TURNS = 10;
+
+	private final ChatModel delegate;
+
+	private final Map<String, BiFunction<?, ToolContext, ?>> functions;
+
+	private final ObjectMapper objectMapper;
+
+	private final ToolProperties properties;
+
+	private final Timer turnTimer;
+
+	/**
+	 * @param functions the functions the model may call, by name
+	 */
+	ParallelToolCallingChatModel(ChatModel delegate, Map<String, BiFunction<?, ToolContext, ?>> functions,
+			ObjectMapper objectMapper, ToolProperties properties, MeterRegistry registry) {
+		this.delegate = delegate;
+		this.functions = functions;
+		this.objectMapper = objectMapper;
+		this.properties = properties;
+		this.turnTimer = Timer.builder("petclinic.chat.tool.turn")
+			.description("Duration of the function calls the model asked for in one turn")
+			.publishPercentiles(0.5, 0.95, 0.99)
+			.register(registry);
+	}
+
+	@Override
+	public ChatResponse call(Prompt prompt) {
+		Prompt turn = proxyToolCalls(prompt);
+		ChatResponse response = delegate.call(turn);
+		for (int turns = 1; hasToolCalls(response); turns++) {
+			checkTurns(turns);
+			turn = nextTurn(turn, response, callFunctions(response, toolContext(turn)).block());
+			response = delegate.call(turn);
+		}
+		return response;
+	}
+
+	@Override
+	public Flux<ChatResponse> stream(Prompt prompt) {
+		return stream(proxyToolCalls(prompt), 1);
+	}
+
+	/**
+	 * Stream the answer to the turn. The function calls come as a single response, the model merging their chunks.
+	 */
+	private Flux<ChatResponse> stream(Prompt turn, int turns) {
+		return delegate.stream(turn).concatMap(response -> {
+			if (!hasToolCalls(response)) {
+				return Flux.just(response);
+			}
+			checkTurns(turns);
+			return callFunctions(response, toolContext(turn))
+				.flatMapMany(results -> stream(nextTurn(turn, response, results), turns + 1));
+		});
+	}
+
+	@Override
+	public ChatOptions getDefaultOptions() {
+		return delegate.getDefaultOptions();
+	}
+
+	/**
+	 * Call the functions the model asked for, consecutive read-only ones concurrently.
+	 * @return the results of the calls, in the order of the calls
+	 */
+	private Mono<List<ToolResponseMessage.ToolResponse>> callFunctions(ChatResponse response, ToolContext context) {
+		List<List<AssistantMessage.ToolCall>> batches = batches(response.getResult().getOutput().getToolCalls());
+		return Mono.defer(() -> {
+			Timer.Sample sample = Timer.start();
+			return Flux.fromIterable(batches)
+				.concatMap(batch -> Flux.fromIterable(batch)
+					.flatMapSequential(toolCall -> Mono.fromCallable(() -> callFunction(toolCall, context))
+						// The functions block on the tool executor, which bounds their concurrency, never the caller
+						.subscribeOn(Schedulers.boundedElastic()), properties.concurrency()))
+				.collectList()
+				.timeout(properties.turnTimeout())
+				.doFinally(signal -> sample.stop(turnTimer));
+		});
+	}
+
+	/**
+	 * @return the calls split into batches that can run concurrently: consecutive read-only functions together, each
+	 * function changing data alone
+	 */
+	static List<List<AssistantMessage.ToolCall>> batches(List<AssistantMessage.ToolCall> toolCalls) {
+		List<List<AssistantMessage.ToolCall>> batches = new ArrayList<>();
+		List<AssistantMessage.ToolCall> reads = new ArrayList<>();
+		for (AssistantMessage.ToolCall toolCall : toolCalls) {
+			if (ChatTool.of(toolCall.name()).writes()) {
+				if (!reads.isEmpty()) {
+					batches.add(reads);
+					reads = new ArrayList<>();
+				}
+				batches.add(List.of(toolCall));
+			}
+			else {
+				reads.add(toolCall);
+			}
+		}
+		if (!reads.isEmpty()) {
+			batches.add(reads);
+		}
+		return batches;
+	}
+
+	@SuppressWarnings("unchecked")
+	private ToolResponseMessage.ToolResponse callFunction(AssistantMessage.ToolCall toolCall, ToolContext context)
+			throws JsonProcessingException {
+		ChatTool tool = ChatTool.of(toolCall.name());
+		BiFunction<Object, ToolContext, Object> function = (BiFunction<Object, ToolContext, Object>) functions
+			.get(tool.functionName());
+		if (function == null) {
+			throw new IllegalStateException("No bean for the function " + tool.functionName());
+		}
+		Object request = objectMapper.readValue(toolCall.arguments(), tool.requestType());
+		String result = objectMapper.writeValueAsString(function.apply(request, context));
+		return new ToolResponseMessage.ToolResponse(toolCall.id(), toolCall.name(), result);
+	}
+
+	private static Prompt proxyToolCalls(Prompt prompt) {
+		if (prompt.getOptions() instanceof FunctionCallingOptions options) {
+			FunctionCallingOptions proxied = options.copy();
+			proxied.setProxyToolCalls(true);
+			return new Prompt(prompt.getInstructions(), proxied);
+		}
+		return prompt;
+	}
+
+	private static Prompt nextTurn(Prompt turn, ChatResponse response,
+			List<ToolResponseMessage.ToolResponse> results) {
+		List<Message> messages = new ArrayList<>(turn.getInstructions());
+		messages.add(response.getResult().getOutput());
+		messages.add(new ToolResponseMessage(results, Map.of()));
+		return new Prompt(messages, turn.getOptions());
+	}
+
+	private static ToolContext toolContext(Prompt prompt) {
+		if (prompt.getOptions() instanceof FunctionCallingOptions options && options.getToolContext() != null) {
+			return new ToolContext(options.getToolContext());
+		}
+		return null;
+	}
+
+	private static boolean hasToolCalls(ChatResponse response) {
+		return response != null && response.getResult() != null && response.getResult().getOutput().hasToolCalls();
+	}
+
+	private static void checkTurns(int turns) {
+		if (turns > MAX_TOOL_TURNS) {
+			throw new IllegalStateException("The model called functions more than " + MAX_TOOL_TURNS + " times");
+		}
+	}
+
+}
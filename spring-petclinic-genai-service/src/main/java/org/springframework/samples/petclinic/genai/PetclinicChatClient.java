@@ -1,17 +1,38 @@
 package org.springframework.samples.petclinic.genai;
 
+import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.DEFAULT_CHAT_MEMORY_CONVERSATION_ID;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.SimpleLoggerAdvisor;
 import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.http.MediaType;
+import org.springframework.samples.petclinic.genai.cache.SemanticCache;
+import org.springframework.samples.petclinic.genai.dto.ChatToken;
+import org.springframework.samples.petclinic.genai.memory.CompactingChatMemoryAdvisor;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 /**
  * This REST controller is being invoked by the in order to interact with the LLM
@@ -24,13 +45,41 @@ public class PetclinicChatClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(PetclinicChatClient.class);
 
+	// Header identifying the conversation a message belongs to, generated by the browser for each chat session
+	static final String CONVERSATION_ID_HEADER = "X-Conversation-Id";
+
+	private static final Pattern CONVERSATION_ID = Pattern.compile("[A-Za-z0-9-]{1,64}");
+
+	private static final String UNAVAILABLE = "Chat is currently unavailable. Please try again later.";
+
+	private static final String BUSY = "Chat is very busy at the moment. Please try again in a minute.";
+
+	// Maximum wait for the first token and between two tokens, the model may call several functions in between
+	private static final Duration STREAM_IDLE_TIMEOUT = Duration.ofSeconds(60);
+
 	// ChatModel is the primary interfaces for interacting with an LLM
 	// it is a request/response interface that implements the ModelModel
 	// interface. Make suer to visit the source code of the ChatModel and
 	// checkout the interfaces in the core Spring AI package.
 	private final ChatClient chatClient;
 
-	public PetclinicChatClient(ChatClient.Builder builder, ChatMemory chatMemory) {
+	private final ChatMemory chatMemory;
+
+	private final SemanticCache semanticCache;
+
+	private final Timer firstTokenTimer;
+
+	private final MeterRegistry registry;
+
+	public PetclinicChatClient(ChatClient.Builder builder, ChatMemory chatMemory,
+			CompactingChatMemoryAdvisor chatMemoryAdvisor, SemanticCache semanticCache, MeterRegistry registry) {
+		this.chatMemory = chatMemory;
+		this.semanticCache = semanticCache;
+		this.registry = registry;
+		this.firstTokenTimer = Timer.builder("petclinic.chat.first.token")
+			.description("Time from a streamed chat request to its first token")
+			.publishPercentiles(0.5, 0.95, 0.99)
+			.register(registry);
 		// @formatter:off
 		this.chatClient = builder
 				.defaultSystem("""
@@ -45,31 +94,175 @@ public class PetclinicChatClient {
                           For owners, pets or visits - provide the correct data.
                           """)
 				.defaultAdvisors(
-						// Chat memory helps us keep context when using the chatbot for up to 10 previous messages.
-						new MessageChatMemoryAdvisor(chatMemory, DEFAULT_CHAT_MEMORY_CONVERSATION_ID, 10), // CHAT MEMORY
+						// Chat memory helps us keep context when using the chatbot for up to 10 previous messages,
+						// compacted to keep the prompt within a token budget.
+						chatMemoryAdvisor, // CHAT MEMORY
 						new SimpleLoggerAdvisor()
 						)
-                .defaultFunctions("listOwners", "addOwnerToPetclinic", "addPetToOwner", "listVets")
+                .defaultFunctions(ChatTool.functionNames())
 				.build();
   }
 
   @PostMapping("/chatclient")
-  public String exchange(@RequestBody String query) {
-	  try {
-		  //All chatbot messages go through this endpoint
-		  //and are passed to the LLM
-		  return
-		  this.chatClient
+  public Mono<String> exchange(@RequestBody String query,
+		  @RequestHeader(name = CONVERSATION_ID_HEADER, required = false) String conversationId) {
+	  //All chatbot messages go through this endpoint
+	  //and are passed to the LLM. The call blocks until the whole answer is generated,
+	  //functions included, so it runs off the event loop
+	  String conversation = conversationId(conversationId);
+	  return Mono.fromCallable(() -> {
+		  boolean firstTurn = chatMemory.get(conversation, 1).isEmpty();
+		  SemanticCache.Lookup lookup = lookup(query, firstTurn);
+		  if (lookup.isHit()) {
+			  remember(conversation, query, lookup.answer());
+			  return lookup.answer();
+		  }
+		  ToolTrace trace = new ToolTrace(conversation);
+		  long start = System.nanoTime();
+		  String answer = this.chatClient
+			  .prompt()
+			  .user(
+				  u ->
+					  u.text(query)
+					  )
+			  .advisors(a -> a.param(CHAT_MEMORY_CONVERSATION_ID_KEY, conversation))
+			  .toolContext(trace.toContext())
+			  .call()
+			  .content();
+		  cache(lookup, firstTurn, answer, trace, start);
+		  return answer;
+	  })
+		  .subscribeOn(Schedulers.boundedElastic())
+		  .onErrorResume(exception -> Mono.just(failure("Error processing chat message", exception)));
+  }
+
+  /**
+   * Stream the answer as server-sent events, one per token as soon as the model produces it. Tokens are only pulled
+   * from the model as fast as the client reads them, and the model request is cancelled when the client disconnects.
+   * A cached answer is sent as a single event.
+   */
+  @PostMapping(value = "/chatclient/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public Flux<ChatToken> stream(@RequestBody String query,
+		  @RequestHeader(name = CONVERSATION_ID_HEADER, required = false) String conversationId) {
+	  String conversation = conversationId(conversationId);
+	  return Flux.defer(() -> {
+		  Timer.Sample sample = Timer.start(registry);
+		  // Reading the memory and embedding the query for the cache lookup block
+		  return Mono.fromCallable(() -> {
+				  boolean firstTurn = chatMemory.get(conversation, 1).isEmpty();
+				  return new Turn(firstTurn, lookup(query, firstTurn));
+			  })
+			  .subscribeOn(Schedulers.boundedElastic())
+			  .flatMapMany(turn -> {
+				  if (turn.lookup().isHit()) {
+					  remember(conversation, query, turn.lookup().answer());
+					  return Flux.just(new ChatToken(turn.lookup().answer()));
+				  }
+				  return generate(query, conversation, turn, sample);
+			  })
+			  .doOnComplete(() -> streams("completed").increment())
+			  .doOnCancel(() -> streams("cancelled").increment())
+			  .onErrorResume(exception -> {
+				  streams("failed").increment();
+				  return Flux.just(new ChatToken(failure("Error streaming chat message", exception)));
+			  });
+	  });
+  }
+
+  /**
+   * Drop the cached answers based on the given kind of data, {@code owners}, {@code vets} or {@code general} for the
+   * answers for which the model called no function, or all of them. Not routed by the api-gateway, for the
+   * operators only.
+   */
+  @DeleteMapping("/chatclient/cache")
+  public void invalidateCache(@RequestParam(required = false) String intent) {
+	  if (intent == null) {
+		  semanticCache.clear();
+	  }
+	  else {
+		  semanticCache.invalidate(intent);
+	  }
+  }
+
+  private Flux<ChatToken> generate(String query, String conversation, Turn turn, Timer.Sample sample) {
+	  ToolTrace trace = new ToolTrace(conversation);
+	  long start = System.nanoTime();
+	  AtomicBoolean first = new AtomicBoolean(true);
+	  StringBuilder answer = new StringBuilder();
+	  return this.chatClient
 		  .prompt()
-	      .user(
-	          u ->
-	              u.text(query)
-	              )
-	      .call()
-	      .content();
-	  } catch (Exception exception) {
-          LOG.error("Error processing chat message", exception);
- 	      return "Chat is currently unavailable. Please try again later.";
+		  .user(u -> u.text(query))
+		  .advisors(a -> a.param(CHAT_MEMORY_CONVERSATION_ID_KEY, conversation))
+		  .toolContext(trace.toContext())
+		  .stream()
+		  .content()
+		  .timeout(STREAM_IDLE_TIMEOUT)
+		  .doOnNext(token -> {
+			  if (first.compareAndSet(true, false)) {
+				  sample.stop(firstTokenTimer);
+			  }
+			  answer.append(token);
+		  })
+		  .doOnComplete(() -> cache(turn.lookup(), turn.first(), answer.toString(), trace, start))
+		  .map(ChatToken::new);
+  }
+
+  /**
+   * Look up the answer to the question in the cache, only on the first turn of a conversation: the cached answers
+   * were written without any previous message, a follow-up question such as "and on Saturdays?" must be answered
+   * in the context of its conversation.
+   */
+  private SemanticCache.Lookup lookup(String query, boolean firstTurn) {
+	  return firstTurn ? semanticCache.lookup(query) : SemanticCache.Lookup.BYPASSED;
+  }
+
+  /**
+   * Cache the answer of the model, unless it depends on the previous messages of the conversation or the model
+   * changed data to write it: asking again must do it again.
+   */
+  private void cache(SemanticCache.Lookup lookup, boolean firstTurn, String answer, ToolTrace trace, long start) {
+	  if (firstTurn && !trace.hasWritten()) {
+		  semanticCache.put(lookup, answer, trace.intents(), Duration.ofNanos(System.nanoTime() - start));
+	  }
+  }
+
+  /**
+   * Add a question answered from the cache and its answer to the conversation, as the model would have.
+   */
+  private void remember(String conversation, String query, String answer) {
+	  chatMemory.add(conversation, List.of(new UserMessage(query), new AssistantMessage(answer)));
+  }
+
+  /**
+   * @return the message answering a failed request, telling the user to come back later when the model is too busy
+   * to take it rather than failing
+   */
+  private static String failure(String message, Throwable exception) {
+	  for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+		  if (cause instanceof RejectedExecutionException) {
+			  LOG.warn("{}: {}", message, cause.getMessage());
+			  return BUSY;
+		  }
 	  }
+	  LOG.error(message, exception);
+	  return UNAVAILABLE;
+  }
+
+  /**
+   * @return the conversation id sent by the client, or the conversation shared by the clients that send none
+   */
+  private static String conversationId(String header) {
+	  return header != null && CONVERSATION_ID.matcher(header).matches() ? header : DEFAULT_CHAT_MEMORY_CONVERSATION_ID;
+  }
+
+  private Counter streams(String outcome) {
+	  return Counter.builder("petclinic.chat.streams").tag("outcome", outcome).register(registry);
+  }
+
+  /**
+   * @param first whether the question is the first of its conversation
+   * @param lookup the cache lookup of the question, bypassed unless it is the first
+   */
+  private record Turn(boolean first, SemanticCache.Lookup lookup) {
   }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.samples.petclinic.genai.cache.ChatDataChangedEvent;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Runs the functions called by the model on a dedicated bounded thread pool, never on the thread of the caller.
+ * <p>
+ * The model calls the functions synchronously and waits for their result, but the functions themselves are
+ * non-blocking {@link Mono}s, or blocking work such as a vector search subscribed on the pool. Their duration is
+ * published as {@code petclinic.chat.tool.latency} and the number of calls in progress as
+ * {@code petclinic.chat.tool.active}, both tagged by function.
+ */
+@Component
+class ToolExecutor {
+
+	private final ThreadPoolExecutor executor;
+
+	private final Scheduler scheduler;
+
+	private final ToolProperties properties;
+
+	private final MeterRegistry registry;
+
+	private final ApplicationEventPublisher eventPublisher;
+
+	private final ToolResultMemo memo;
+
+	private final Map<String, AtomicInteger> active = new ConcurrentHashMap<>();
+
+	ToolExecutor(ToolProperties properties, MeterRegistry registry, ApplicationEventPublisher eventPublisher,
+			ToolResultMemo memo) {
+		this.properties = properties;
+		this.registry = registry;
+		this.eventPublisher = eventPublisher;
+		this.memo = memo;
+		this.executor = new ThreadPoolExecutor(properties.concurrency(), properties.concurrency(), 0,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(properties.queueCapacity()),
+				new CustomizableThreadFactory("genai-tool-"));
+		this.scheduler = Schedulers.fromExecutorService(executor, "genai-tool");
+	}
+
+	/**
+	 * Call the function, recording it in the {@link ToolTrace} of the request. The result of a read-only function
+	 * called with the same request earlier in the conversation is reused from the {@link ToolResultMemo}. A function
+	 * changing data publishes a {@link ChatDataChangedEvent} once it completed.
+	 * @param request the arguments of the function
+	 * @param context the tool context of the request, if any
+	 * <p>
+	 * Blocks until the function completes, unless its result is reused: call it from a thread allowed to block, such
+	 * as the {@code boundedElastic} ones {@link ParallelToolCallingChatModel} calls the functions from, never from a
+	 * non-blocking thread such as the event loop.
+	 * @return the result of the function, which is cancelled if it does not complete within the configured timeout
+	 * @throws IllegalStateException if the function has to be called from a non-blocking thread
+	 */
+	<T> T call(ChatTool tool, Object request, ToolContext context, Supplier<Mono<T>> function) {
+		ToolTrace.record(context, tool);
+		return memo.memoize(ToolTrace.conversationId(context), tool, request, () -> execute(tool, function));
+	}
+
+	private <T> T execute(ChatTool tool, Supplier<Mono<T>> function) {
+		if (Schedulers.isInNonBlockingThread()) {
+			throw new IllegalStateException("Function " + tool.functionName() + " called from the non-blocking thread "
+					+ Thread.currentThread().getName() + ", it must be called from a thread allowed to block");
+		}
+		AtomicInteger running = active.computeIfAbsent(tool.functionName(), this::activeGauge);
+		Timer.Sample sample = Timer.start(registry);
+		String outcome = "failure";
+		running.incrementAndGet();
+		try {
+			T result = Mono.defer(function)
+				.subscribeOn(scheduler)
+				.timeout(properties.timeout())
+				.toFuture()
+				.get();
+			outcome = "success";
+			if (tool.writes()) {
+				eventPublisher.publishEvent(new ChatDataChangedEvent(tool.intent()));
+			}
+			return result;
+		}
+		catch (ExecutionException ex) {
+			throw new IllegalStateException("Function " + tool.functionName() + " failed", ex.getCause());
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for function " + tool.functionName(), ex);
+		}
+		finally {
+			running.decrementAndGet();
+			sample.stop(Timer.builder("petclinic.chat.tool.latency")
+				.tag("tool", tool.functionName())
+				.tag("outcome", outcome)
+				.publishPercentiles(0.5, 0.95, 0.99)
+				.register(registry));
+		}
+	}
+
+	@PreDestroy
+	void shutdown() {
+		scheduler.dispose();
+	}
+
+	private AtomicInteger activeGauge(String tool) {
+		AtomicInteger running = new AtomicInteger();
+		Gauge.builder("petclinic.chat.tool.active", running, AtomicInteger::get)
+			.tag("tool", tool)
+			.register(registry);
+		return running;
+	}
+
+}
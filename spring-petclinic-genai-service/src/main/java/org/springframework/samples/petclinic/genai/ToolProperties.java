@@ -0,0 +1,57 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Limits of the functions called by the model, and of the {@link ToolExecutor} running them.
+ *
+ * @param concurrency number of threads running the functions
+ * @param queueCapacity number of function calls waiting for a thread, beyond which calls are rejected
+ * @param timeout maximum duration of a function call
+ * @param pageSize number of owners returned per call of the owner search
+ * @param maxResultSize size of the JSON of the items returned by a function, beyond which the last items are dropped
+ * @param turnTimeout maximum duration of all the function calls the model asks for in one turn
+ * @param memo how the results of the read-only functions are memoized
+ */
+@ConfigurationProperties(prefix = "genai.tools")
+public record ToolProperties(
+		@DefaultValue("8") int concurrency,
+		@DefaultValue("64") int queueCapacity,
+		@DefaultValue("10s") Duration timeout,
+		@DefaultValue("10") int pageSize,
+		@DefaultValue("8KB") DataSize maxResultSize,
+		@DefaultValue("20s") Duration turnTimeout,
+		@DefaultValue Memo memo) {
+
+	/**
+	 * Bounds of the {@link ToolResultMemo}.
+	 *
+	 * @param ttl time a result is reused for the same call in the same conversation, 0 to call the function every
+	 * time
+	 * @param maxEntries number of results kept across all the conversations, the oldest ones being dropped first
+	 */
+	public record Memo(
+			@DefaultValue("1m") Duration ttl,
+			@DefaultValue("1000") int maxEntries) {
+	}
+
+}
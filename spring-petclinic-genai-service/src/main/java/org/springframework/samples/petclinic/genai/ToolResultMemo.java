@@ -0,0 +1,142 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.event.EventListener;
+import org.springframework.samples.petclinic.genai.cache.ChatDataChangedEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Results of the read-only functions, reused for {@code ttl} when the model calls a function again with the same
+ * arguments in the same conversation, as it often does from one message to the next, rather than calling the
+ * customers service or searching the vector store again.
+ * <p>
+ * A function changing data drops the results based on the same kind of data, in every conversation, through the
+ * {@link ChatDataChangedEvent} published by the {@link ToolExecutor}. A result obtained while data changed is not
+ * kept, as it may be based on the previous data.
+ * <p>
+ * The calls answered from the memo, that is the calls saved, and the other ones are published as
+ * {@code petclinic.chat.tool.memo}, tagged by function and result.
+ */
+@Component
+class ToolResultMemo {
+
+	private final ToolProperties.Memo properties;
+
+	private final MeterRegistry registry;
+
+	// Insertion ordered, the oldest result first
+	private final Map<Key, Entry> entries = new LinkedHashMap<>();
+
+	// Incremented whenever results are dropped because data changed
+	private long version;
+
+	ToolResultMemo(ToolProperties properties, MeterRegistry registry) {
+		this.properties = properties.memo();
+		this.registry = registry;
+		Gauge.builder("petclinic.chat.tool.memo.entries", this, ToolResultMemo::size).register(registry);
+	}
+
+	/**
+	 * @param conversationId the conversation the function is called in, null to always call it
+	 * @param request the arguments of the function, compared with {@code equals}
+	 * @return the result of the same call in the same conversation if still fresh, otherwise the result of the call
+	 */
+	@SuppressWarnings("unchecked")
+	<T> T memoize(String conversationId, ChatTool tool, Object request, Supplier<T> call) {
+		if (conversationId == null || tool.writes() || properties.ttl().isZero()) {
+			return call.get();
+		}
+		Key key = new Key(conversationId, tool, request);
+		long current;
+		synchronized (this) {
+			evictExpired(System.currentTimeMillis());
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				calls(tool, "hit").increment();
+				return (T) entry.result();
+			}
+			current = version;
+		}
+		calls(tool, "miss").increment();
+		T result = call.get();
+		if (result != null) {
+			put(key, result, current);
+		}
+		return result;
+	}
+
+	/**
+	 * Drop the results of the functions reading the given kind of data.
+	 */
+	synchronized void invalidate(String intent) {
+		version++;
+		entries.keySet().removeIf(key -> key.tool().intent().equals(intent));
+	}
+
+	@EventListener
+	void onChatDataChanged(ChatDataChangedEvent event) {
+		invalidate(event.intent());
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	private synchronized void put(Key key, Object result, long expectedVersion) {
+		if (version != expectedVersion) {
+			return;
+		}
+		entries.remove(key);
+		entries.put(key, new Entry(result, System.currentTimeMillis() + properties.ttl().toMillis()));
+		Iterator<Entry> oldest = entries.values().iterator();
+		while (entries.size() > properties.maxEntries()) {
+			oldest.next();
+			oldest.remove();
+		}
+	}
+
+	private void evictExpired(long now) {
+		// All the results live for the same time, the expired ones are the oldest
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext() && iterator.next().expiresAt() <= now) {
+			iterator.remove();
+		}
+	}
+
+	private Counter calls(ChatTool tool, String result) {
+		return Counter.builder("petclinic.chat.tool.memo")
+			.description("Calls of the read-only functions, answered from the memo or not")
+			.tag("tool", tool.functionName())
+			.tag("result", result)
+			.register(registry);
+	}
+
+	private record Key(String conversationId, ChatTool tool, Object request) {
+	}
+
+	private record Entry(Object result, long expiresAt) {
+	}
+
+}
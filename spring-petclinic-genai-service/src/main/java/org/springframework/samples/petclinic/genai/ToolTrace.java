@@ -0,0 +1,84 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.springframework.ai.chat.model.ToolContext;
+
+/**
+ * The conversation of a chat request and the functions called by the model while answering it, recorded by the
+ * {@link ToolExecutor} from the {@link ToolContext} of the request. Functions may be called concurrently.
+ */
+final class ToolTrace {
+
+	static final String CONTEXT_KEY = "petclinic.toolTrace";
+
+	// Intent of the answers for which the model called no function
+	static final String GENERAL_INTENT = "general";
+
+	private final String conversationId;
+
+	private final Set<ChatTool> called = ConcurrentHashMap.newKeySet();
+
+	ToolTrace(String conversationId) {
+		this.conversationId = conversationId;
+	}
+
+	/**
+	 * @return the tool context handing this trace to the functions
+	 */
+	Map<String, Object> toContext() {
+		return Map.of(CONTEXT_KEY, this);
+	}
+
+	/**
+	 * Record the call of the function in the trace of the request, if the request has one.
+	 */
+	static void record(ToolContext context, ChatTool tool) {
+		if (context != null && context.getContext().get(CONTEXT_KEY) instanceof ToolTrace trace) {
+			trace.called.add(tool);
+		}
+	}
+
+	/**
+	 * @return the conversation of the request, null if the request has no trace
+	 */
+	static String conversationId(ToolContext context) {
+		if (context != null && context.getContext().get(CONTEXT_KEY) instanceof ToolTrace trace) {
+			return trace.conversationId;
+		}
+		return null;
+	}
+
+	boolean hasWritten() {
+		return called.stream().anyMatch(ChatTool::writes);
+	}
+
+	/**
+	 * @return the kinds of data the answer is based on
+	 */
+	Set<String> intents() {
+		if (called.isEmpty()) {
+			return Set.of(GENERAL_INTENT);
+		}
+		return called.stream().map(ChatTool::intent).collect(Collectors.toUnmodifiableSet());
+	}
+
+}
@@ -2,6 +2,7 @@ package org.springframework.samples.petclinic.genai;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
@@ -10,14 +11,30 @@ import org.springframework.ai.reader.JsonReader;
 import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.event.EventListener;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
+import org.springframework.samples.petclinic.genai.cache.ChatDataChangedEvent;
 import org.springframework.samples.petclinic.genai.dto.Vet;
-import org.springframework.stereotype.Component;
+import org.springframework.samples.petclinic.genai.vectorstore.DocumentIndexer;
+import org.springframework.samples.petclinic.genai.vectorstore.DocumentIndexer.IndexingResult;
+import org.springframework.samples.petclinic.genai.vectorstore.MappedVectorStore;
+import org.springframework.samples.petclinic.genai.vectorstore.PersistentVectorStore;
+import org.springframework.samples.petclinic.genai.vectorstore.SimpleVectorStoreReader;
+import org.springframework.samples.petclinic.genai.vectorstore.VectorStoreProperties;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
 
 import java.io.File;
 import java.io.IOException;
@@ -25,7 +42,11 @@ import java.nio.file.Files;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -33,21 +54,81 @@ import java.util.Set;
  *
  * @author Oded Shopen
  */
-@Component
+@RestController
 public class VectorStoreController {
 
 	private final Logger logger = LoggerFactory.getLogger(VectorStoreController.class);
 
 	private final VectorStore vectorStore;
     private final WebClient webClient;
+	private final VectorStoreProperties properties;
+	private final DocumentIndexer documentIndexer;
+	private final ApplicationEventPublisher eventPublisher;
+	private final VectorStoreReadiness readiness;
 
-    public VectorStoreController(VectorStore vectorStore, WebClient.Builder webClientBuilder) {
+	private Disposable bootstrap;
+
+    public VectorStoreController(VectorStore vectorStore, @LoadBalanced WebClient.Builder webClientBuilder,
+			VectorStoreProperties properties, DocumentIndexer documentIndexer,
+			ApplicationEventPublisher eventPublisher, VectorStoreReadiness readiness) {
 		this.webClient = webClientBuilder.build();
 		this.vectorStore = vectorStore;
+		this.properties = properties;
+		this.documentIndexer = documentIndexer;
+		this.eventPublisher = eventPublisher;
+		this.readiness = readiness;
 	}
 
+	/**
+	 * Load the vets in the background, so that the chat starts answering the questions not about vets at once, even
+	 * when the vets have to be fetched from the vets-service and embedded. A failed attempt is retried with a
+	 * backoff, the vets embedded before the failure being taken from the embedding cache rather than embedded again.
+	 * The {@link VectorStoreReadiness} reports the progress.
+	 */
 	@EventListener
-	public void loadVetDataToVectorStoreOnStartup(ApplicationStartedEvent event) throws IOException {
+	public void loadVetDataToVectorStoreOnStartup(ApplicationStartedEvent event) {
+		bootstrap = Mono.fromCallable(() -> {
+				readiness.attempt();
+				loadVetData();
+				return true;
+			})
+			.subscribeOn(Schedulers.boundedElastic())
+			.doOnError(ex -> {
+				readiness.failed(ex);
+				logger.warn("Unable to load the vector store, retrying: {}", ex.toString());
+			})
+			.retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30)))
+			.subscribe(loaded -> {
+				readiness.ready();
+				// The vet searches answered while warming up are outdated
+				eventPublisher.publishEvent(new ChatDataChangedEvent("vets"));
+			});
+	}
+
+	@PreDestroy
+	void stopLoading() {
+		if (bootstrap != null) {
+			bootstrap.dispose();
+		}
+	}
+
+	private void loadVetData() throws IOException {
+		if (vectorStore instanceof PersistentVectorStore persistentStore && properties.path() != null
+				&& Files.exists(properties.path())) {
+			persistentStore.load(properties.path());
+			logger.info("vector store loaded from {}", properties.path());
+			return;
+		}
+
+		if (vectorStore instanceof MappedVectorStore mappedStore && properties.mapped().resource().exists()) {
+			// Mapped rather than parsed, the embeddings are not copied to the heap
+			mappedStore.load(properties.mapped().resource());
+			logger.info("vector store mapped from {}", properties.mapped().resource());
+			// Re-encoded as configured, int8 for instance, and mapped from the path on the next startups
+			savePersistentStore();
+			return;
+		}
+
 		Resource resource = new ClassPathResource("vectorstore.json");
 
 		// Check if file exists
@@ -55,40 +136,86 @@ public class VectorStoreController {
 			// In order to save on AI credits, use a pre-embedded database that was saved
 			// to
 			// disk based on the current data in the h2 data.sql file
-			File file = resource.getFile();
-			((SimpleVectorStore) this.vectorStore).load(file);
+			if (vectorStore instanceof SimpleVectorStore simpleStore) {
+				simpleStore.load(resource);
+			}
+			else {
+				this.vectorStore.add(new SimpleVectorStoreReader(resource).get());
+				savePersistentStore();
+			}
 			logger.info("vector store loaded from existing vectorstore.json file in the classpath");
 			return;
 		}
 
 		// If vectorstore.json is deleted, the data will be loaded on startup every time.
-		// Warning - this can be costly in terms of credits used with the AI provider.
+		// Warning - this can be costly in terms of credits used with the AI provider,
+		// unless genai.vectorstore.indexing.cache-path is set: the vets unchanged since
+		// the previous startup are then added from their cached embeddings.
+		IndexingResult result = reindexVets().block();
+
+		if (vectorStore instanceof SimpleVectorStore) {
+            // java:S5443 Sonar rule: Using publicly writable directories is security-sensitive
+            FileAttribute<Set<PosixFilePermission>> attr = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------"));
+            File file = Files.createTempFile("vectorstore", ".json", attr).toFile();
+			((SimpleVectorStore) this.vectorStore).save(file);
+			logger.info("vector store contents written to {}", file.getAbsolutePath());
+		}
+
+		logger.info("vector store loaded with {} documents", result.indexed() + result.unchanged());
+	}
+
+	/**
+	 * Re-index the vets without restarting: new and changed vets are embedded and deleted ones removed. Not routed by
+	 * the api-gateway, for the operators only.
+	 */
+	@PostMapping("/vectorstore/reindex")
+	public Mono<IndexingResult> reindex() {
+		return reindexVets().onErrorMap(IllegalStateException.class,
+				ex -> new ResponseStatusException(HttpStatus.CONFLICT, ex.getMessage(), ex));
+	}
+
+	private Mono<IndexingResult> reindexVets() {
 		// Fetches all Vet entites and creates a document per vet
         String vetsHostname = "http://vets-service/";
-        List<Vet> vets = webClient
+        return webClient
 	            .get()
 	            .uri(vetsHostname + "vets")
 	            .retrieve()
 	            .bodyToMono(new ParameterizedTypeReference<List<Vet>>() {})
-	            .block();
-
+	            .map(this::toDocuments)
+	            .flatMap(documentIndexer::reindex)
+	            .flatMap(result -> Mono.fromCallable(() -> {
+	            	savePersistentStore();
+	            	if (result.indexed() > 0 || result.removed() > 0) {
+	            		// The cached chat answers about the vets may be outdated
+	            		eventPublisher.publishEvent(new ChatDataChangedEvent("vets"));
+	            	}
+	            	return result;
+	            }).subscribeOn(Schedulers.boundedElastic()));
+	}
 
+	/**
+	 * @return a document per vet, identified by the id of the vet so that re-indexing replaces it, and carrying its
+	 * names and specialties as metadata so that they can be searched for without embedding the question
+	 */
+	List<Document> toDocuments(List<Vet> vets) {
 		Resource vetsAsJson = convertListToJsonResource(vets);
 		DocumentReader reader = new JsonReader(vetsAsJson);
-
-		List<Document> documents = reader.get();
-		// add the documents to the vector store
-		this.vectorStore.add(documents);
-
-		if (vectorStore instanceof SimpleVectorStore) {
-            // java:S5443 Sonar rule: Using publicly writable directories is security-sensitive
-            FileAttribute<Set<PosixFilePermission>> attr = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------"));
-            File file = Files.createTempFile("vectorstore", ".json", attr).toFile();
-			((SimpleVectorStore) this.vectorStore).save(file);
-			logger.info("vector store contents written to {}", file.getAbsolutePath());
+		List<Document> read = reader.get();
+		List<Document> documents = new ArrayList<>(read.size());
+		for (int i = 0; i < read.size(); i++) {
+			Map<String, Object> metadata = new HashMap<>(read.get(i).getMetadata());
+			metadata.putAll(VetMetadata.of(vets.get(i)));
+			documents.add(new Document("vet-" + vets.get(i).id(), read.get(i).getContent(), metadata));
 		}
+		return documents;
+	}
 
-		logger.info("vector store loaded with {} documents", documents.size());
+	private synchronized void savePersistentStore() throws IOException {
+		if (vectorStore instanceof PersistentVectorStore persistentStore && properties.path() != null) {
+			persistentStore.save(properties.path());
+			logger.info("vector store contents written to {}", properties.path());
+		}
 	}
 
 	public Resource convertListToJsonResource(List<Vet> vets) {
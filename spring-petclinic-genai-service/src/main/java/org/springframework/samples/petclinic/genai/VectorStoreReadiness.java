@@ -0,0 +1,75 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.stereotype.Component;
+
+/**
+ * Whether the vets have been loaded into the vector store, which {@link VectorStoreController} does in the
+ * background at startup so that the rest of the chat is available meanwhile.
+ * <p>
+ * Reported as the {@code vectorStoreReadiness} health component: {@code WARMING_UP} with the number of attempts
+ * and the last failure until the store is loaded, {@code UP} afterwards. The configuration orders
+ * {@code WARMING_UP} between {@code OUT_OF_SERVICE} and {@code UP} and maps it to HTTP 200, so that the readiness
+ * probe reports it without withholding the traffic.
+ */
+@Component
+class VectorStoreReadiness implements HealthIndicator {
+
+	static final Status WARMING_UP = new Status("WARMING_UP", "The vets are being loaded into the vector store");
+
+	private final AtomicInteger attempts = new AtomicInteger();
+
+	private volatile boolean ready;
+
+	private volatile Throwable lastFailure;
+
+	boolean isReady() {
+		return ready;
+	}
+
+	void attempt() {
+		attempts.incrementAndGet();
+	}
+
+	void failed(Throwable failure) {
+		lastFailure = failure;
+	}
+
+	void ready() {
+		ready = true;
+		lastFailure = null;
+	}
+
+	@Override
+	public Health health() {
+		if (ready) {
+			return Health.up().build();
+		}
+		Health.Builder health = Health.status(WARMING_UP).withDetail("attempts", attempts.get());
+		Throwable failure = lastFailure;
+		if (failure != null) {
+			health.withDetail("lastFailure", failure.toString());
+		}
+		return health.build();
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.samples.petclinic.genai.dto.Specialty;
+import org.springframework.samples.petclinic.genai.dto.Vet;
+import org.springframework.util.StringUtils;
+
+/**
+ * Structured metadata of the vet documents of the vector store, so that a question naming a vet or a specialty is
+ * answered by matching it rather than by a similarity search on the embedding of the question.
+ * <p>
+ * Names are lower-cased on both sides, the model rarely spells them with the case of the vets-service.
+ */
+final class VetMetadata {
+
+	static final String FIRST_NAME = "firstName";
+
+	static final String LAST_NAME = "lastName";
+
+	static final String SPECIALTIES = "specialties";
+
+	private VetMetadata() {
+	}
+
+	/**
+	 * @return the metadata of the document of the vet
+	 */
+	static Map<String, Object> of(Vet vet) {
+		Map<String, Object> metadata = new HashMap<>();
+		if (StringUtils.hasText(vet.firstName())) {
+			metadata.put(FIRST_NAME, normalize(vet.firstName()));
+		}
+		if (StringUtils.hasText(vet.lastName())) {
+			metadata.put(LAST_NAME, normalize(vet.lastName()));
+		}
+		List<Object> specialties = specialties(vet);
+		// Sorted, the specialties of a vet being a set and the metadata part of the hash of the embedding cache
+		specialties.sort(Comparator.comparing(Object::toString));
+		metadata.put(SPECIALTIES, specialties);
+		return metadata;
+	}
+
+	/**
+	 * @return the filter matching the vets with the names of the given vet and any of its specialties, or
+	 * {@code null} when it names none of them
+	 */
+	static Filter.Expression filter(Vet vet) {
+		FilterExpressionBuilder b = new FilterExpressionBuilder();
+		List<FilterExpressionBuilder.Op> criteria = new ArrayList<>();
+		if (StringUtils.hasText(vet.firstName())) {
+			criteria.add(b.eq(FIRST_NAME, normalize(vet.firstName())));
+		}
+		if (StringUtils.hasText(vet.lastName())) {
+			criteria.add(b.eq(LAST_NAME, normalize(vet.lastName())));
+		}
+		List<Object> specialties = specialties(vet);
+		if (!specialties.isEmpty()) {
+			criteria.add(b.in(SPECIALTIES, specialties));
+		}
+		if (criteria.isEmpty()) {
+			return null;
+		}
+		FilterExpressionBuilder.Op filter = criteria.get(0);
+		for (FilterExpressionBuilder.Op criterion : criteria.subList(1, criteria.size())) {
+			filter = b.and(filter, criterion);
+		}
+		return filter.build();
+	}
+
+	private static List<Object> specialties(Vet vet) {
+		List<Object> names = new ArrayList<>();
+		if (vet.specialties() != null) {
+			for (Specialty specialty : vet.specialties()) {
+				if (specialty != null && StringUtils.hasText(specialty.name())) {
+					names.add(normalize(specialty.name()));
+				}
+			}
+		}
+		return names;
+	}
+
+	private static String normalize(String name) {
+		return name.trim().toLowerCase(Locale.ROOT);
+	}
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.cache;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Set;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.context.event.EventListener;
+
+/**
+ * Answers of the chat client, looked up by the similarity of their question with a new one so that rephrasing a
+ * recent question, "which vets do surgery?" after "which vets are surgeons?", does not ask the model again.
+ * <p>
+ * Questions are compared on their normalized embeddings by an exact scan, which is fast enough for the
+ * {@code max-entries} answers kept. Answers expire after {@code ttl} and are dropped as soon as the data they are
+ * based on changes: each one is tagged with the intents of the functions the model called to write it, and a
+ * {@link ChatDataChangedEvent} drops the answers of its intent. An answer written while data changed is not cached,
+ * as it may be based on the previous data.
+ * <p>
+ * Lookups are published as {@code petclinic.chat.cache.requests}, tagged by result, and the time the model took to
+ * write the answers served from the cache as {@code petclinic.chat.cache.latency.saved}.
+ */
+public class SemanticCache {
+
+	private final EmbeddingModel embeddingModel;
+
+	private final SemanticCacheProperties properties;
+
+	// Insertion ordered, the oldest answer first
+	private final Deque<Entry> entries = new ArrayDeque<>();
+
+	// Incremented whenever cached answers are invalidated
+	private long version;
+
+	private final Counter hits;
+
+	private final Counter misses;
+
+	private final Counter latencySaved;
+
+	public SemanticCache(EmbeddingModel embeddingModel, SemanticCacheProperties properties, MeterRegistry registry) {
+		this.embeddingModel = embeddingModel;
+		this.properties = properties;
+		this.hits = requests(registry, "hit");
+		this.misses = requests(registry, "miss");
+		this.latencySaved = Counter.builder("petclinic.chat.cache.latency.saved")
+			.description("Time the model took to write the answers served from the cache")
+			.baseUnit("seconds")
+			.register(registry);
+		Gauge.builder("petclinic.chat.cache.entries", this, SemanticCache::size).register(registry);
+	}
+
+	/**
+	 * Look up the answer to a question similar to the given one. Blocking, the question is embedded.
+	 * @return the lookup, holding the cached answer if any and otherwise needed to cache the answer of the model
+	 */
+	public Lookup lookup(String question) {
+		if (!properties.enabled()) {
+			return Lookup.BYPASSED;
+		}
+		float[] embedding = normalize(embeddingModel.embed(question).clone());
+		Entry best = null;
+		long current;
+		synchronized (this) {
+			evictExpired(System.currentTimeMillis());
+			double bestSimilarity = properties.similarityThreshold();
+			for (Entry entry : entries) {
+				double similarity = dot(embedding, entry.embedding());
+				if (similarity >= bestSimilarity) {
+					best = entry;
+					bestSimilarity = similarity;
+				}
+			}
+			current = version;
+		}
+		if (best == null) {
+			misses.increment();
+			return new Lookup(embedding, current, null);
+		}
+		hits.increment();
+		latencySaved.increment(best.latency().toNanos() / 1e9);
+		return new Lookup(embedding, current, best.answer());
+	}
+
+	/**
+	 * Cache the answer of the model to the question of a missed lookup, unless cached answers were invalidated since
+	 * the lookup.
+	 * @param intents the kinds of data the answer is based on
+	 * @param latency the time the model took to write the answer
+	 */
+	public synchronized void put(Lookup lookup, String answer, Set<String> intents, Duration latency) {
+		if (lookup.embedding() == null || lookup.version() != version || answer == null || answer.isBlank()) {
+			return;
+		}
+		entries.addLast(new Entry(lookup.embedding(), answer, Set.copyOf(intents), latency,
+				System.currentTimeMillis() + properties.ttl().toMillis()));
+		while (entries.size() > properties.maxEntries()) {
+			entries.removeFirst();
+		}
+	}
+
+	/**
+	 * Drop the answers based on the given kind of data.
+	 */
+	public synchronized void invalidate(String intent) {
+		version++;
+		entries.removeIf(entry -> entry.intents().contains(intent));
+	}
+
+	/**
+	 * Drop all the answers.
+	 */
+	public synchronized void clear() {
+		version++;
+		entries.clear();
+	}
+
+	@EventListener
+	public void onChatDataChanged(ChatDataChangedEvent event) {
+		invalidate(event.intent());
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	private void evictExpired(long now) {
+		// All the answers live for the same time, the expired ones are the oldest
+		Iterator<Entry> iterator = entries.iterator();
+		while (iterator.hasNext() && iterator.next().expiresAt() <= now) {
+			iterator.remove();
+		}
+	}
+
+	private static float[] normalize(float[] vector) {
+		double norm = Math.sqrt(dot(vector, vector));
+		if (norm > 0) {
+			for (int i = 0; i < vector.length; i++) {
+				vector[i] /= (float) norm;
+			}
+		}
+		return vector;
+	}
+
+	private static double dot(float[] a, float[] b) {
+		if (a.length != b.length) {
+			return 0;
+		}
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	private static Counter requests(MeterRegistry registry, String result) {
+		return Counter.builder("petclinic.chat.cache.requests").tag("result", result).register(registry);
+	}
+
+	/**
+	 * The result of looking up a question.
+	 *
+	 * @param embedding the normalized embedding of the question, null when the cache is disabled or bypassed
+	 * @param version the version of the cache when it was looked up
+	 * @param answer the cached answer, null on a miss
+	 */
+	public record Lookup(float[] embedding, long version, String answer) {
+
+		/**
+		 * A miss whose answer is not cached, for the questions not looked up.
+		 */
+		public static final Lookup BYPASSED = new Lookup(null, -1, null);
+
+		public boolean isHit() {
+			return answer != null;
+		}
+	}
+
+	private record Entry(float[] embedding, String answer, Set<String> intents, Duration latency, long expiresAt) {
+	}
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.cache;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings of the {@link SemanticCache} answering the chat questions similar to previous ones.
+ *
+ * @param enabled whether answers are cached at all
+ * @param similarityThreshold cosine similarity a question must have with a previous one to get its answer
+ * @param ttl time an answer is served from the cache before the model is asked again
+ * @param maxEntries number of answers kept, the oldest ones being dropped first
+ */
+@ConfigurationProperties(prefix = "genai.chat.cache")
+public record SemanticCacheProperties(
+		@DefaultValue("true") boolean enabled,
+		@DefaultValue("0.95") double similarityThreshold,
+		@DefaultValue("10m") Duration ttl,
+		@DefaultValue("1000") int maxEntries) {
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.memory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+/**
+ * {@link ChatMemory} keeping the most recent messages of every conversation, within bounds so that it does not grow
+ * with the traffic.
+ * <p>
+ * Conversations are capped to {@code max-messages-per-conversation} messages, dropped once idle for
+ * {@code idle-timeout}, and the least recently used ones are dropped when the estimated size of all of them exceeds
+ * {@code max-size}. Idle conversations are dropped whenever the memory is used, as they are the least recently used
+ * ones no scan is needed.
+ * <p>
+ * Only the text of the user, assistant and system messages is kept. When a {@code path} is set, the conversations
+ * are saved on shutdown and loaded back on startup within the same bounds:
+ * <pre>
+ * int magic, int version, int conversationCount
+ * (UTF id, long lastAccessMillis, int messageCount, (UTF type, int length, UTF-8 text) * messageCount) * conversationCount
+ * </pre>
+ */
+public class BoundedChatMemory implements ChatMemory {
+
+	private static final Logger logger = LoggerFactory.getLogger(BoundedChatMemory.class);
+
+	private static final int MAGIC = 0x5043434D; // PCCM
+
+	private static final int VERSION = 1;
+
+	// Rough heap used by a message besides its text
+	private static final long MESSAGE_OVERHEAD = 256;
+
+	private final ChatMemoryProperties properties;
+
+	// Access ordered, the least recently used conversation first
+	private final LinkedHashMap<String, Conversation> conversations = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long size;
+
+	private long messageCount;
+
+	private final Counter idleEvictions;
+
+	private final Counter sizeEvictions;
+
+	public BoundedChatMemory(ChatMemoryProperties properties, MeterRegistry registry) throws IOException {
+		this.properties = properties;
+		this.idleEvictions = evictions(registry, "idle");
+		this.sizeEvictions = evictions(registry, "size");
+		Gauge.builder("petclinic.chat.memory.conversations", this, memory -> memory.statistic(Statistic.CONVERSATIONS))
+			.register(registry);
+		Gauge.builder("petclinic.chat.memory.messages", this, memory -> memory.statistic(Statistic.MESSAGES))
+			.register(registry);
+		Gauge.builder("petclinic.chat.memory.size", this, memory -> memory.statistic(Statistic.SIZE))
+			.baseUnit("bytes")
+			.register(registry);
+		if (properties.path() != null && Files.exists(properties.path())) {
+			load(properties.path());
+		}
+	}
+
+	@Override
+	public synchronized void add(String conversationId, List<Message> messages) {
+		long now = System.currentTimeMillis();
+		evictIdle(now);
+		Conversation conversation = conversations.computeIfAbsent(conversationId, id -> new Conversation());
+		for (Message message : messages) {
+			if (isRetained(message)) {
+				append(conversation, message);
+			}
+		}
+		conversation.lastAccess = now;
+		evictToSize();
+	}
+
+	@Override
+	public synchronized List<Message> get(String conversationId, int lastN) {
+		long now = System.currentTimeMillis();
+		evictIdle(now);
+		Conversation conversation = conversations.get(conversationId);
+		if (conversation == null) {
+			return List.of();
+		}
+		conversation.lastAccess = now;
+		List<Message> messages = new ArrayList<>(conversation.messages);
+		return messages.subList(Math.max(0, messages.size() - lastN), messages.size());
+	}
+
+	@Override
+	public synchronized void clear(String conversationId) {
+		Conversation conversation = conversations.remove(conversationId);
+		if (conversation != null) {
+			forget(conversation);
+		}
+	}
+
+	/**
+	 * Save the conversations to the configured {@code path}, if any.
+	 */
+	public synchronized void save() throws IOException {
+		Path path = properties.path();
+		if (path == null) {
+			return;
+		}
+		evictIdle(System.currentTimeMillis());
+		Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(conversations.size());
+			// Least recently used first, so that loading them back restores the order
+			for (Map.Entry<String, Conversation> entry : conversations.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue().lastAccess);
+				out.writeInt(entry.getValue().messages.size());
+				for (Message message : entry.getValue().messages) {
+					out.writeUTF(message.getMessageType().getValue());
+					byte[] text = message.getContent().getBytes(StandardCharsets.UTF_8);
+					out.writeInt(text.length);
+					out.write(text);
+				}
+			}
+		}
+		Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		logger.info("{} chat conversations written to {}", conversations.size(), path);
+	}
+
+	private synchronized void load(Path path) throws IOException {
+		long now = System.currentTimeMillis();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a chat memory file: " + path);
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String id = in.readUTF();
+				long lastAccess = in.readLong();
+				int messages = in.readInt();
+				boolean idle = isIdle(lastAccess, now);
+				Conversation conversation = new Conversation();
+				for (int j = 0; j < messages; j++) {
+					MessageType type = MessageType.fromValue(in.readUTF());
+					byte[] text = new byte[in.readInt()];
+					in.readFully(text);
+					if (!idle) {
+						append(conversation, toMessage(type, new String(text, StandardCharsets.UTF_8)));
+					}
+				}
+				if (!idle) {
+					conversation.lastAccess = lastAccess;
+					conversations.put(id, conversation);
+					// Keeps the heap bounded while reading, whatever the size of the file
+					evictToSize();
+				}
+			}
+		}
+		logger.info("{} chat conversations loaded from {}", conversations.size(), path);
+	}
+
+	private void append(Conversation conversation, Message message) {
+		conversation.messages.addLast(message);
+		conversation.size += sizeOf(message);
+		size += sizeOf(message);
+		messageCount++;
+		while (conversation.messages.size() > properties.maxMessagesPerConversation()) {
+			Message dropped = conversation.messages.removeFirst();
+			conversation.size -= sizeOf(dropped);
+			size -= sizeOf(dropped);
+			messageCount--;
+		}
+	}
+
+	private void evictIdle(long now) {
+		Iterator<Conversation> iterator = conversations.values().iterator();
+		while (iterator.hasNext()) {
+			Conversation conversation = iterator.next();
+			if (!isIdle(conversation.lastAccess, now)) {
+				// Every following conversation was used more recently
+				return;
+			}
+			iterator.remove();
+			forget(conversation);
+			idleEvictions.increment();
+		}
+	}
+
+	private void evictToSize() {
+		Iterator<Conversation> iterator = conversations.values().iterator();
+		while (size > properties.maxSize().toBytes() && iterator.hasNext()) {
+			Conversation conversation = iterator.next();
+			iterator.remove();
+			forget(conversation);
+			sizeEvictions.increment();
+		}
+	}
+
+	private void forget(Conversation conversation) {
+		size -= conversation.size;
+		messageCount -= conversation.messages.size();
+	}
+
+	private boolean isIdle(long lastAccess, long now) {
+		return now - lastAccess > properties.idleTimeout().toMillis();
+	}
+
+	private synchronized double statistic(Statistic statistic) {
+		return switch (statistic) {
+			case CONVERSATIONS -> conversations.size();
+			case MESSAGES -> messageCount;
+			case SIZE -> size;
+		};
+	}
+
+	private static boolean isRetained(Message message) {
+		return message.getContent() != null && switch (message.getMessageType()) {
+			case USER, ASSISTANT, SYSTEM -> true;
+			default -> false;
+		};
+	}
+
+	private static Message toMessage(MessageType type, String text) {
+		return switch (type) {
+			case USER -> new UserMessage(text);
+			case ASSISTANT -> new AssistantMessage(text);
+			case SYSTEM -> new SystemMessage(text);
+			default -> throw new IllegalArgumentException("Unexpected message type " + type);
+		};
+	}
+
+	private static long sizeOf(Message message) {
+		return MESSAGE_OVERHEAD + 2L * message.getContent().length();
+	}
+
+	private static Counter evictions(MeterRegistry registry, String cause) {
+		return Counter.builder("petclinic.chat.memory.evictions")
+			.tag("cause", cause)
+			.register(registry);
+	}
+
+	private enum Statistic {
+
+		CONVERSATIONS, MESSAGES, SIZE
+
+	}
+
+	private static final class Conversation {
+
+		private final ArrayDeque<Message> messages = new ArrayDeque<>();
+
+		private long size;
+
+		private long lastAccess;
+
+	}
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.memory;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Bounds of the {@link BoundedChatMemory} holding the conversations with the chat client.
+ *
+ * @param maxMessagesPerConversation number of messages kept per conversation, the oldest ones being dropped first
+ * @param maxSize estimated heap used by all the conversations, beyond which the least recently used ones are dropped
+ * @param idleTimeout time after which a conversation nobody took part in is dropped
+ * @param path file the conversations are saved to on shutdown and loaded from on startup; unset to start every
+ * conversation over after a restart
+ * @param history how the previous messages of the conversation are replayed to the model
+ */
+@ConfigurationProperties(prefix = "genai.chat.memory")
+public record ChatMemoryProperties(
+		@DefaultValue("20") int maxMessagesPerConversation,
+		@DefaultValue("32MB") DataSize maxSize,
+		@DefaultValue("30m") Duration idleTimeout,
+		Path path,
+		@DefaultValue History history) {
+
+	/**
+	 * Bounds of the previous messages replayed to the model by the {@link CompactingChatMemoryAdvisor}, so that the
+	 * prompt does not grow with the length of the conversation.
+	 *
+	 * @param messages number of previous messages replayed
+	 * @param maxPromptTokens estimated tokens of the system, previous and new messages, within which the previous
+	 * messages are compacted
+	 * @param verbatimMessages number of most recent messages kept verbatim while they fit
+	 * @param compactedMessageTokens estimated tokens older messages are truncated to
+	 */
+	public record History(
+			@DefaultValue("10") int messages,
+			@DefaultValue("3000") int maxPromptTokens,
+			@DefaultValue("4") int verbatimMessages,
+			@DefaultValue("150") int compactedMessageTokens) {
+	}
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.memory;
+
+import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.DEFAULT_CHAT_MEMORY_CONVERSATION_ID;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisorChain;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.MessageAggregator;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import reactor.core.publisher.Flux;
+
+/**
+ * Chat memory advisor replaying the previous messages of the conversation like the {@code MessageChatMemoryAdvisor},
+ * but within a token budget so that the prompt stays under {@code max-prompt-tokens} however long the conversation.
+ * <p>
+ * The budget left by the system and new user messages goes to the most recent messages first. The last
+ * {@code verbatim-messages} are replayed as is while they fit, the older ones are truncated to
+ * {@code compacted-message-tokens}: they are mostly answers listing the owners or vets returned by a function,
+ * whose details the model can get again by calling it. Messages that do not fit anymore are dropped, along with
+ * all the older ones.
+ * <p>
+ * Tokens are estimated with the cl100k encoding. The estimated tokens of every prompt and the prompt tokens
+ * reported by the model are published as {@code petclinic.chat.prompt.tokens}, the truncated and dropped messages
+ * as {@code petclinic.chat.memory.compactions}.
+ */
+public class CompactingChatMemoryAdvisor extends AbstractChatMemoryAdvisor<ChatMemory> {
+
+	static final String TRUNCATED_MARKER = " [...]";
+
+	// A message truncated to fewer tokens would not be worth replaying
+	private static final int MIN_MESSAGE_TOKENS = 16;
+
+	private final ChatMemoryProperties.History properties;
+
+	private final TokenCountEstimator tokenCountEstimator;
+
+	private final DistributionSummary estimatedPromptTokens;
+
+	private final DistributionSummary reportedPromptTokens;
+
+	private final Counter truncated;
+
+	private final Counter dropped;
+
+	public CompactingChatMemoryAdvisor(ChatMemory chatMemory, ChatMemoryProperties.History properties,
+			MeterRegistry registry) {
+		this(chatMemory, properties, new JTokkitTokenCountEstimator(), registry);
+	}
+
+	CompactingChatMemoryAdvisor(ChatMemory chatMemory, ChatMemoryProperties.History properties,
+			TokenCountEstimator tokenCountEstimator, MeterRegistry registry) {
+		super(chatMemory, DEFAULT_CHAT_MEMORY_CONVERSATION_ID, properties.messages(), true,
+				Advisor.DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER);
+		this.properties = properties;
+		this.tokenCountEstimator = tokenCountEstimator;
+		this.estimatedPromptTokens = promptTokens(registry, "estimated");
+		this.reportedPromptTokens = promptTokens(registry, "reported");
+		this.truncated = compactions(registry, "truncated");
+		this.dropped = compactions(registry, "dropped");
+	}
+
+	@Override
+	public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+		AdvisedResponse advisedResponse = chain.nextAroundCall(before(advisedRequest));
+		observeAfter(advisedResponse);
+		return advisedResponse;
+	}
+
+	@Override
+	public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+		Flux<AdvisedResponse> advisedResponses = doNextWithProtectFromBlockingBefore(advisedRequest, chain,
+				this::before);
+		return new MessageAggregator().aggregateAdvisedResponse(advisedResponses, this::observeAfter);
+	}
+
+	private AdvisedRequest before(AdvisedRequest request) {
+		String conversationId = doGetConversationId(request.adviseContext());
+		List<Message> history = getChatMemoryStore().get(conversationId,
+				doGetChatMemoryRetrieveSize(request.adviseContext()));
+
+		int requestTokens = estimate(request.systemText()) + estimate(request.userText());
+		List<Message> compacted = compact(history, properties.maxPromptTokens() - requestTokens);
+		List<Message> messages = new ArrayList<>(request.messages());
+		messages.addAll(compacted);
+		estimatedPromptTokens.record(requestTokens + estimate(compacted));
+
+		getChatMemoryStore().add(conversationId, new UserMessage(request.userText(), request.media()));
+		return AdvisedRequest.from(request).withMessages(messages).build();
+	}
+
+	private void observeAfter(AdvisedResponse advisedResponse) {
+		ChatResponse response = advisedResponse.response();
+		if (response == null) {
+			return;
+		}
+		List<Message> assistantMessages = response.getResults()
+			.stream()
+			.map(generation -> (Message) generation.getOutput())
+			.toList();
+		getChatMemoryStore().add(doGetConversationId(advisedResponse.adviseContext()), assistantMessages);
+		Usage usage = response.getMetadata().getUsage();
+		if (usage != null && usage.getPromptTokens() != null && usage.getPromptTokens() > 0) {
+			reportedPromptTokens.record(usage.getPromptTokens());
+		}
+	}
+
+	/**
+	 * @return the most recent messages fitting in the budget, the older ones truncated, in their original order
+	 */
+	List<Message> compact(List<Message> history, int budget) {
+		Deque<Message> kept = new ArrayDeque<>();
+		int remaining = budget;
+		for (int i = history.size() - 1; i >= 0; i--) {
+			Message message = history.get(i);
+			boolean recent = history.size() - i <= properties.verbatimMessages();
+			int limit = recent ? remaining : Math.min(remaining, properties.compactedMessageTokens());
+			int tokens = estimate(message.getContent());
+			if (tokens > limit) {
+				if (limit < MIN_MESSAGE_TOKENS) {
+					dropped.increment(i + 1);
+					break;
+				}
+				message = truncate(message, tokens, limit);
+				tokens = estimate(message.getContent());
+				truncated.increment();
+			}
+			kept.addFirst(message);
+			remaining -= tokens;
+		}
+		return new ArrayList<>(kept);
+	}
+
+	/**
+	 * @return a copy of the message with the beginning of its text, within the given tokens
+	 */
+	private Message truncate(Message message, int tokens, int limit) {
+		String text = message.getContent();
+		// Tokens are roughly proportional to the characters, shrink until the estimate fits
+		int length = (int) ((long) text.length() * limit / tokens);
+		String cut;
+		do {
+			cut = cut(text, length) + TRUNCATED_MARKER;
+			length = length * 9 / 10;
+		}
+		while (length > 0 && estimate(cut) > limit);
+
+		return switch (message.getMessageType()) {
+			case USER -> new UserMessage(cut);
+			case ASSISTANT -> new AssistantMessage(cut);
+			case SYSTEM -> new SystemMessage(cut);
+			default -> message;
+		};
+	}
+
+	/**
+	 * @return the text up to the given length, at the end of a word when there is one in its second half
+	 */
+	private static String cut(String text, int length) {
+		if (length >= text.length()) {
+			return text;
+		}
+		int end = length;
+		while (end > length / 2 && !Character.isWhitespace(text.charAt(end))) {
+			end--;
+		}
+		return text.substring(0, end > length / 2 ? end : length).stripTrailing();
+	}
+
+	private int estimate(String text) {
+		return text == null || text.isEmpty() ? 0 : tokenCountEstimator.estimate(text);
+	}
+
+	private int estimate(List<Message> messages) {
+		int tokens = 0;
+		for (Message message : messages) {
+			tokens += estimate(message.getContent());
+		}
+		return tokens;
+	}
+
+	private static DistributionSummary promptTokens(MeterRegistry registry, String source) {
+		return DistributionSummary.builder("petclinic.chat.prompt.tokens")
+			.description("Prompt tokens per chat request, history included")
+			.tag("source", source)
+			.baseUnit("tokens")
+			.publishPercentiles(0.5, 0.95, 0.99)
+			.register(registry);
+	}
+
+	private static Counter compactions(MeterRegistry registry, String action) {
+		return Counter.builder("petclinic.chat.memory.compactions").tag("action", action).register(registry);
+	}
+
+}
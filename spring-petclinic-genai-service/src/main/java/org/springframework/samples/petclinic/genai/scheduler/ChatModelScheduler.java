@@ -0,0 +1,360 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.scheduler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Admission control of the requests sent to the model provider, so that a burst of chat traffic queues here rather
+ * than tripping the rate limits of the provider, whose retries would slow down every conversation.
+ * <p>
+ * At most {@code concurrency} requests run at the same time, and the tokens they send are drawn from a bucket
+ * refilled at {@code tokens-per-minute}. The tokens of a request are estimated when it is queued, then corrected
+ * with the usage reported by the model once it completed. Waiting requests start by {@link Priority}, then by
+ * deadline.
+ * <p>
+ * A request is rejected with a {@link RejectedExecutionException} when the queue is full, or as soon as it is
+ * queued when the requests ahead of it and the token budget would not let it start before its deadline, instead
+ * of waiting only to time out. One still waiting at its deadline is rejected too.
+ * <p>
+ * The number of waiting and running requests is published as {@code petclinic.chat.model.queue} and
+ * {@code petclinic.chat.model.active}, the wait of the requests as {@code petclinic.chat.model.wait} and the
+ * rejections as {@code petclinic.chat.model.rejected}.
+ */
+public class ChatModelScheduler {
+
+	/**
+	 * Order in which the waiting requests start.
+	 */
+	public enum Priority {
+
+		/**
+		 * Follow-up request of a conversation turn already in progress, such as sending the results of the functions
+		 * the model called.
+		 */
+		HIGH,
+
+		/**
+		 * New question.
+		 */
+		NORMAL
+
+	}
+
+	private final ChatModelSchedulerProperties properties;
+
+	private final PriorityQueue<Ticket> queue = new PriorityQueue<>();
+
+	// Tokens drawn per nanosecond, 0 when the tokens are not limited
+	private final double tokenRate;
+
+	private final Map<Priority, Timer> waitTimers = new EnumMap<>(Priority.class);
+
+	private final Counter queueFull;
+
+	private final Counter deadlineMissed;
+
+	private final Counter expired;
+
+	private long sequence;
+
+	private int running;
+
+	private double tokens;
+
+	private long refilledAt = System.nanoTime();
+
+	// Moving average of the time a request holds its slot, used to estimate the wait of the queued ones
+	private double averageNanos;
+
+	private Disposable wakeUp;
+
+	public ChatModelScheduler(ChatModelSchedulerProperties properties, MeterRegistry registry) {
+		this.properties = properties;
+		this.tokenRate = properties.tokensPerMinute() / (double) TimeUnit.MINUTES.toNanos(1);
+		this.tokens = properties.tokensPerMinute();
+		for (Priority priority : Priority.values()) {
+			waitTimers.put(priority, Timer.builder("petclinic.chat.model.wait")
+				.description("Time a request to the model waited for its turn")
+				.tag("priority", priority.name().toLowerCase(Locale.ROOT))
+				.publishPercentiles(0.5, 0.95, 0.99)
+				.register(registry));
+		}
+		this.queueFull = rejections(registry, "queue-full");
+		this.deadlineMissed = rejections(registry, "deadline");
+		this.expired = rejections(registry, "expired");
+		Gauge.builder("petclinic.chat.model.queue", this, ChatModelScheduler::queued)
+			.description("Requests to the model waiting for their turn")
+			.register(registry);
+		Gauge.builder("petclinic.chat.model.active", this, ChatModelScheduler::active)
+			.description("Requests to the model in progress")
+			.register(registry);
+	}
+
+	/**
+	 * @param priority priority of the request over the other waiting ones
+	 * @param estimatedTokens tokens of the prompt and of the expected answer
+	 * @return the permit to send the request, to release once it completed, or a {@link RejectedExecutionException}
+	 * when the request cannot start within {@code max-wait}
+	 */
+	public Mono<Permit> acquire(Priority priority, int estimatedTokens) {
+		return Mono.<Permit>create(sink -> {
+			long now = System.nanoTime();
+			Ticket ticket;
+			String rejection = null;
+			synchronized (this) {
+				ticket = new Ticket(priority, Math.max(0, estimatedTokens), now + properties.maxWait().toNanos(),
+						sequence++, now, sink);
+				if (queue.size() >= properties.queueCapacity()) {
+					queueFull.increment();
+					rejection = queue.size() + " requests are already waiting";
+				}
+				else if (now + estimatedWait(ticket, now) > ticket.deadline) {
+					deadlineMissed.increment();
+					rejection = "the request would not start within " + properties.maxWait();
+				}
+				else {
+					queue.add(ticket);
+					ticket.expiry = Schedulers.parallel()
+						.schedule(() -> expire(ticket), ticket.deadline - now, TimeUnit.NANOSECONDS);
+				}
+			}
+			if (rejection != null) {
+				sink.error(new RejectedExecutionException("The model is busy, " + rejection));
+				return;
+			}
+			sink.onCancel(() -> cancel(ticket));
+			dispatch();
+		})
+			// Granted to a subscriber that cancelled in the meantime
+			.doOnDiscard(Permit.class, permit -> permit.release(-1));
+	}
+
+	/**
+	 * @return how long the request would wait behind the running ones, the ones queued before it and the token
+	 * budget
+	 */
+	private long estimatedWait(Ticket ticket, long now) {
+		int ahead = 0;
+		// A request larger than the budget of a minute only waits for the bucket to be full
+		long tokensAhead = Math.min(ticket.tokens, properties.tokensPerMinute());
+		for (Ticket other : queue) {
+			if (other.compareTo(ticket) < 0) {
+				ahead++;
+				tokensAhead += other.tokens;
+			}
+		}
+		int concurrency = properties.concurrency();
+		long slotWait = running + ahead < concurrency ? 0
+				: (long) (averageNanos * ((running + ahead - concurrency) / concurrency + 1));
+		long tokenWait = 0;
+		if (tokenRate > 0) {
+			refill(now);
+			double missing = tokensAhead - tokens;
+			tokenWait = missing > 0 ? (long) (missing / tokenRate) : 0;
+		}
+		return Math.max(slotWait, tokenWait);
+	}
+
+	/**
+	 * Start the waiting requests the free slots and the tokens allow, in order.
+	 */
+	private void dispatch() {
+		List<Ticket> granted = new ArrayList<>();
+		synchronized (this) {
+			long now = System.nanoTime();
+			refill(now);
+			while (running < properties.concurrency() && !queue.isEmpty()) {
+				Ticket head = queue.peek();
+				// A request larger than the budget of a minute starts once the bucket is full
+				double needed = Math.min(head.tokens, properties.tokensPerMinute());
+				if (tokenRate > 0 && tokens < needed) {
+					scheduleWakeUp((long) ((needed - tokens) / tokenRate));
+					break;
+				}
+				queue.poll();
+				head.expiry.dispose();
+				head.grantedAt = now;
+				running++;
+				if (tokenRate > 0) {
+					tokens -= head.tokens;
+				}
+				granted.add(head);
+			}
+		}
+		for (Ticket ticket : granted) {
+			waitTimers.get(ticket.priority).record(ticket.grantedAt - ticket.queuedAt, TimeUnit.NANOSECONDS);
+			ticket.sink.success(new Permit(ticket));
+		}
+	}
+
+	private void release(Ticket ticket, int usedTokens) {
+		synchronized (this) {
+			running--;
+			if (tokenRate > 0 && usedTokens >= 0) {
+				// Give back the tokens reserved but not used, or take the ones used beyond the estimate
+				tokens = Math.min(properties.tokensPerMinute(), tokens + ticket.tokens - usedTokens);
+			}
+			long held = System.nanoTime() - ticket.grantedAt;
+			averageNanos = averageNanos == 0 ? held : 0.8 * averageNanos + 0.2 * held;
+		}
+		dispatch();
+	}
+
+	private void expire(Ticket ticket) {
+		synchronized (this) {
+			if (!queue.remove(ticket)) {
+				return;
+			}
+		}
+		expired.increment();
+		ticket.sink.error(new RejectedExecutionException(
+				"The model is busy, the request did not start within " + properties.maxWait()));
+		// The expired request may have been holding back the ones behind it
+		dispatch();
+	}
+
+	private void cancel(Ticket ticket) {
+		boolean removed;
+		synchronized (this) {
+			removed = queue.remove(ticket);
+		}
+		if (removed) {
+			ticket.expiry.dispose();
+			dispatch();
+		}
+	}
+
+	private void refill(long now) {
+		if (tokenRate > 0) {
+			tokens = Math.min(properties.tokensPerMinute(), tokens + (now - refilledAt) * tokenRate);
+		}
+		refilledAt = now;
+	}
+
+	private void scheduleWakeUp(long delayNanos) {
+		if (wakeUp == null) {
+			wakeUp = Schedulers.parallel().schedule(() -> {
+				synchronized (this) {
+					wakeUp = null;
+				}
+				dispatch();
+			}, Math.max(delayNanos, TimeUnit.MILLISECONDS.toNanos(1)), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	synchronized int queued() {
+		return queue.size();
+	}
+
+	synchronized int active() {
+		return running;
+	}
+
+	private static Counter rejections(MeterRegistry registry, String reason) {
+		return Counter.builder("petclinic.chat.model.rejected").tag("reason", reason).register(registry);
+	}
+
+	/**
+	 * Right to send a request to the model, to release exactly once when it completed, failed or was cancelled.
+	 */
+	public final class Permit {
+
+		private final Ticket ticket;
+
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		private Permit(Ticket ticket) {
+			this.ticket = ticket;
+		}
+
+		/**
+		 * @param usedTokens tokens of the prompt and of the answer as reported by the model, or a negative value
+		 * when unknown to keep the estimate
+		 */
+		public void release(int usedTokens) {
+			if (released.compareAndSet(false, true)) {
+				ChatModelScheduler.this.release(ticket, usedTokens);
+			}
+		}
+
+		/**
+		 * @return the time the request waited for its turn
+		 */
+		public Duration waited() {
+			return Duration.ofNanos(ticket.grantedAt - ticket.queuedAt);
+		}
+
+	}
+
+	private static final class Ticket implements Comparable<Ticket> {
+
+		private final Priority priority;
+
+		private final int tokens;
+
+		private final long deadline;
+
+		private final long sequence;
+
+		private final long queuedAt;
+
+		private final MonoSink<Permit> sink;
+
+		private Disposable expiry;
+
+		private long grantedAt;
+
+		private Ticket(Priority priority, int tokens, long deadline, long sequence, long queuedAt,
+				MonoSink<Permit> sink) {
+			this.priority = priority;
+			this.tokens = tokens;
+			this.deadline = deadline;
+			this.sequence = sequence;
+			this.queuedAt = queuedAt;
+			this.sink = sink;
+		}
+
+		@Override
+		public int compareTo(Ticket other) {
+			int order = priority.compareTo(other.priority);
+			if (order == 0) {
+				order = Long.compare(deadline, other.deadline);
+			}
+			return order != 0 ? order : Long.compare(sequence, other.sequence);
+		}
+
+	}
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.scheduler;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Limits of the {@link ChatModelScheduler} sending the requests to the model provider.
+ *
+ * @param concurrency number of requests sent to the model at the same time, streamed answers included until their
+ * last token
+ * @param tokensPerMinute prompt and answer tokens sent to the model per minute, as allowed by the provider, 0 for no
+ * limit
+ * @param completionTokens tokens reserved for the answer of each request until the model reports the actual usage
+ * @param queueCapacity number of requests waiting for their turn, beyond which requests are rejected
+ * @param maxWait time a request may wait for its turn, a request that cannot start in time being rejected at once
+ */
+@ConfigurationProperties(prefix = "genai.chat.scheduler")
+public record ChatModelSchedulerProperties(
+		@DefaultValue("8") int concurrency,
+		@DefaultValue("100000") int tokensPerMinute,
+		@DefaultValue("500") int completionTokens,
+		@DefaultValue("100") int queueCapacity,
+		@DefaultValue("30s") Duration maxWait) {
+}
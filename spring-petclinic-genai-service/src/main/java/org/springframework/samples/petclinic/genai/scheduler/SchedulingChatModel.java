@@ -0,0 +1,123 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.scheduler;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.samples.petclinic.genai.scheduler.ChatModelScheduler.Priority;
+import reactor.core.publisher.Flux;
+
+/**
+ * {@link ChatModel} sending each request to the model it decorates once the {@link ChatModelScheduler} lets it.
+ * <p>
+ * The request sending the results of the functions called by the model has a {@link Priority#HIGH high}
+ * priority, finishing the answers in progress before starting new ones. A streamed answer holds its turn until its
+ * last token.
+ */
+public class SchedulingChatModel implements ChatModel {
+
+	private final ChatModel delegate;
+
+	private final ChatModelScheduler scheduler;
+
+	private final int completionTokens;
+
+	private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+	public SchedulingChatModel(ChatModel delegate, ChatModelScheduler scheduler,
+			ChatModelSchedulerProperties properties) {
+		this.delegate = delegate;
+		this.scheduler = scheduler;
+		this.completionTokens = properties.completionTokens();
+	}
+
+	@Override
+	public ChatResponse call(Prompt prompt) {
+		ChatModelScheduler.Permit permit = scheduler.acquire(priority(prompt), estimate(prompt)).block();
+		int usedTokens = -1;
+		try {
+			ChatResponse response = delegate.call(prompt);
+			usedTokens = usedTokens(response);
+			return response;
+		}
+		finally {
+			permit.release(usedTokens);
+		}
+	}
+
+	@Override
+	public Flux<ChatResponse> stream(Prompt prompt) {
+		return scheduler.acquire(priority(prompt), estimate(prompt)).flatMapMany(permit -> {
+			// Providers report the usage in the last chunks, if at all
+			AtomicInteger usedTokens = new AtomicInteger(-1);
+			return delegate.stream(prompt)
+				.doOnNext(response -> usedTokens.accumulateAndGet(usedTokens(response), Math::max))
+				.doFinally(signal -> permit.release(usedTokens.get()));
+		});
+	}
+
+	@Override
+	public ChatOptions getDefaultOptions() {
+		return delegate.getDefaultOptions();
+	}
+
+	private static Priority priority(Prompt prompt) {
+		List<Message> messages = prompt.getInstructions();
+		return !messages.isEmpty() && messages.get(messages.size() - 1) instanceof ToolResponseMessage ? Priority.HIGH
+				: Priority.NORMAL;
+	}
+
+	/**
+	 * @return the tokens of the prompt, function results included, and the ones reserved for the answer
+	 */
+	private int estimate(Prompt prompt) {
+		int tokens = completionTokens;
+		for (Message message : prompt.getInstructions()) {
+			if (message instanceof ToolResponseMessage toolResponses) {
+				for (ToolResponseMessage.ToolResponse response : toolResponses.getResponses()) {
+					tokens += estimate(response.responseData());
+				}
+			}
+			else {
+				tokens += estimate(message.getContent());
+			}
+		}
+		return tokens;
+	}
+
+	private int estimate(String text) {
+		return text == null || text.isEmpty() ? 0 : tokenCountEstimator.estimate(text);
+	}
+
+	private static int usedTokens(ChatResponse response) {
+		Usage usage = response == null ? null : response.getMetadata().getUsage();
+		if (usage == null || usage.getTotalTokens() == null || usage.getTotalTokens() <= 0) {
+			return -1;
+		}
+		return Math.toIntExact(usage.getTotalTokens());
+	}
+
+}
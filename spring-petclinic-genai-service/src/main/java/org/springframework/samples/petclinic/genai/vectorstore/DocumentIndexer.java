@@ -0,0 +1,220 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.VectorStore;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Brings a {@link VectorStore} in line with the current set of documents, embedding only the new and changed
+ * ones.
+ * <p>
+ * A document is unchanged when the {@link EmbeddingCache#hash(Document) hash} of its content matches the one it was
+ * indexed with. The store is not necessarily saved along with the cache, so the first re-indexing does not trust the
+ * indexed documents of the saved cache: it reads them back from a {@link PersistentVectorStore}, and otherwise adds
+ * every document again, from the cached embeddings. Changed documents whose content was already embedded, such as
+ * the ones embedded before a failed re-indexing, reuse the cached embedding. The other ones are embedded in batches of
+ * {@code batch-size} texts, at most {@code concurrency} batches at a time and {@code requests-per-second} batches
+ * started per second, to stay within the rate limits of the provider. The indexed documents missing from the current
+ * set are deleted.
+ * <p>
+ * {@code SimpleVectorStore} embeds every added document itself, whether its embedding is cached or not.
+ * <p>
+ * When embedding fails midway, the embeddings of the batches already done are kept in the cache, and saved when it
+ * has a {@code cache-path}: re-indexing again resumes from there rather than from scratch.
+ */
+public class DocumentIndexer {
+
+	private static final Logger logger = LoggerFactory.getLogger(DocumentIndexer.class);
+
+	private final VectorStore vectorStore;
+
+	private final EmbeddingModel embeddingModel;
+
+	private final VectorStoreProperties.Indexing properties;
+
+	private final EmbeddingCache cache;
+
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	/**
+	 * Ids of the documents the saved cache had indexed, possibly still in a store that cannot be listed, until a
+	 * re-indexing deletes the ones not among the current documents.
+	 */
+	private final Set<String> unconfirmed = ConcurrentHashMap.newKeySet();
+
+	private volatile boolean synced;
+
+	public DocumentIndexer(VectorStore vectorStore, EmbeddingModel embeddingModel,
+			VectorStoreProperties.Indexing properties) throws IOException {
+		this.vectorStore = vectorStore;
+		this.embeddingModel = embeddingModel;
+		this.properties = properties;
+		this.cache = EmbeddingCache.load(properties.cachePath());
+	}
+
+	/**
+	 * Index the given documents, identified by their id, and delete the previously indexed ones not among them.
+	 * @return the outcome, or an {@link IllegalStateException} if another re-indexing is running
+	 */
+	public Mono<IndexingResult> reindex(List<Document> documents) {
+		return Mono.defer(() -> {
+			if (!running.compareAndSet(false, true)) {
+				return Mono.error(new IllegalStateException("A re-indexing is already running"));
+			}
+			if (!synced) {
+				syncIndexed();
+				synced = true;
+			}
+			Map<String, String> hashes = new LinkedHashMap<>();
+			List<Document> changed = new ArrayList<>();
+			for (Document document : documents) {
+				String hash = EmbeddingCache.hash(document);
+				hashes.put(document.getId(), hash);
+				if (!hash.equals(cache.indexedHash(document.getId()))) {
+					changed.add(document);
+				}
+			}
+			Set<String> removed = new HashSet<>(cache.indexedIds());
+			removed.addAll(unconfirmed);
+			removed.removeAll(hashes.keySet());
+
+			Map<String, Document> toEmbed = new LinkedHashMap<>();
+			for (Document document : changed) {
+				String hash = hashes.get(document.getId());
+				if (cache.get(hash) == null) {
+					toEmbed.putIfAbsent(hash, document);
+				}
+			}
+
+			return embed(toEmbed)
+				.doOnError(ex -> {
+					// Keep the embeddings of the batches that succeeded, the next attempt only embeds the other ones,
+					// even after a restart
+					try {
+						saveCache();
+					}
+					catch (UncheckedIOException saveEx) {
+						ex.addSuppressed(saveEx);
+					}
+				})
+				.then(Mono.fromCallable(() -> apply(changed, hashes, removed)))
+				.subscribeOn(Schedulers.boundedElastic())
+				.map(stored -> new IndexingResult(changed.size(), documents.size() - changed.size(), removed.size(),
+						toEmbed.size()))
+				.doOnNext(result -> logger.info("Vector store re-indexed: {}", result))
+				.doFinally(signal -> running.set(false));
+		});
+	}
+
+	/**
+	 * Replace the indexed documents of the loaded cache by the ones actually in the store: it may have been loaded
+	 * from the classpath, or not saved at all, rather than from the save the cache goes with.
+	 */
+	private void syncIndexed() {
+		Map<String, String> stored = new HashMap<>();
+		if (vectorStore instanceof PersistentVectorStore persistentStore) {
+			for (Document document : persistentStore.findByMetadata(null, Integer.MAX_VALUE)) {
+				stored.put(document.getId(), EmbeddingCache.hash(document));
+			}
+		}
+		else {
+			unconfirmed.addAll(cache.indexedIds());
+		}
+		cache.replaceIndexed(stored);
+	}
+
+	private Mono<Void> embed(Map<String, Document> toEmbed) {
+		List<String> hashes = new ArrayList<>(toEmbed.keySet());
+		List<List<String>> batches = new ArrayList<>();
+		for (int from = 0; from < hashes.size(); from += properties.batchSize()) {
+			batches.add(hashes.subList(from, Math.min(hashes.size(), from + properties.batchSize())));
+		}
+		Flux<List<String>> paced = Flux.fromIterable(batches);
+		if (properties.requestsPerSecond() > 0) {
+			paced = paced.delayElements(Duration.ofNanos((long) (1_000_000_000 / properties.requestsPerSecond())));
+		}
+		return paced.flatMap(batch -> Mono.fromCallable(() -> {
+			List<String> texts = batch.stream().map(hash -> toEmbed.get(hash).getContent()).toList();
+			List<float[]> embeddings = embeddingModel.embed(texts);
+			for (int i = 0; i < batch.size(); i++) {
+				cache.put(batch.get(i), embeddings.get(i));
+			}
+			return batch.size();
+		}).subscribeOn(Schedulers.boundedElastic()), Math.max(1, properties.concurrency())).then();
+	}
+
+	private boolean apply(List<Document> changed, Map<String, String> hashes, Set<String> removed) {
+		List<Document> embedded = new ArrayList<>(changed.size());
+		for (Document document : changed) {
+			Document copy = new Document(document.getId(), document.getContent(), document.getMetadata());
+			copy.setEmbedding(cache.get(hashes.get(document.getId())).clone());
+			embedded.add(copy);
+		}
+		if (!embedded.isEmpty()) {
+			vectorStore.add(embedded);
+		}
+		if (!removed.isEmpty()) {
+			vectorStore.delete(new ArrayList<>(removed));
+		}
+		changed.forEach(document -> cache.indexed(document.getId(), hashes.get(document.getId())));
+		removed.forEach(cache::removed);
+		unconfirmed.clear();
+		cache.evictUnused();
+		saveCache();
+		return true;
+	}
+
+	private void saveCache() {
+		if (properties.cachePath() != null) {
+			try {
+				cache.save(properties.cachePath());
+			}
+			catch (IOException ex) {
+				throw new UncheckedIOException("Unable to save the embedding cache to " + properties.cachePath(), ex);
+			}
+		}
+	}
+
+	/**
+	 * @param indexed number of new or changed documents added to the store
+	 * @param unchanged number of documents left as is
+	 * @param removed number of documents deleted from the store
+	 * @param embedded number of texts sent to the embedding model
+	 */
+	public record IndexingResult(int indexed, int unchanged, int removed, int embedded) {
+	}
+
+}
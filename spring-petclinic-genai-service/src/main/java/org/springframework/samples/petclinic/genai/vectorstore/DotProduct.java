@@ -0,0 +1,54 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dot product of float vectors, the inner loop of every exact similarity search.
+ * <p>
+ * {@link #INSTANCE} uses the SIMD instructions of the CPU through the incubating Vector API when the JVM was
+ * started with {@code --add-modules jdk.incubator.vector}, and unrolled scalar loops otherwise.
+ */
+interface DotProduct {
+
+	DotProduct INSTANCE = best();
+
+	/**
+	 * @return the dot product of the {@code length} floats of {@code a} from {@code aOffset} with the first
+	 * {@code length} floats of {@code b}
+	 */
+	float dot(float[] a, int aOffset, float[] b, int length);
+
+	private static DotProduct best() {
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				// Loaded by name, the class cannot even be linked without the module
+				DotProduct simd = (DotProduct) Class
+					.forName(DotProduct.class.getPackageName() + ".SimdDotProduct")
+					.getDeclaredConstructor()
+					.newInstance();
+				LoggerFactory.getLogger(DotProduct.class).info("Vector similarity computed with {}", simd);
+				return simd;
+			}
+			catch (ReflectiveOperationException | LinkageError ex) {
+				LoggerFactory.getLogger(DotProduct.class).warn("Vector API unavailable, using scalar loops", ex);
+			}
+		}
+		return new ScalarDotProduct();
+	}
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.ai.document.Document;
+
+/**
+ * Embeddings by content hash, along with the hash of every document currently indexed, so that re-indexing only
+ * embeds the documents whose content changed.
+ * <pre>
+ * int magic, int version
+ * int embeddingCount, (UTF hash, int dimensions, float * dimensions) * embeddingCount
+ * int documentCount, (UTF id, UTF hash) * documentCount
+ * </pre>
+ */
+public class EmbeddingCache {
+
+	private static final int MAGIC = 0x50434543; // PCEC
+
+	private static final int VERSION = 1;
+
+	private final Map<String, float[]> embeddings = new ConcurrentHashMap<>();
+
+	private final Map<String, String> indexed = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the SHA-256 of the content and metadata of the document, the text the embedding is computed from
+	 */
+	public static String hash(Document document) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(document.getContent().getBytes(StandardCharsets.UTF_8));
+			for (Map.Entry<String, Object> entry : new TreeMap<>(document.getMetadata()).entrySet()) {
+				if (!StoredDocument.DISTANCE_METADATA.equals(entry.getKey())) {
+					digest.update((byte) 0);
+					digest.update((entry.getKey() + '=' + entry.getValue()).getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			return HexFormat.of().formatHex(digest.digest());
+		}
+		catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-256 is supported by every JVM", ex);
+		}
+	}
+
+	/**
+	 * @return the cached embedding of the content with the given hash, or {@code null}
+	 */
+	public float[] get(String hash) {
+		return embeddings.get(hash);
+	}
+
+	public void put(String hash, float[] embedding) {
+		embeddings.put(hash, embedding);
+	}
+
+	/**
+	 * @return the hash of the indexed document with the given id, or {@code null} if it is not indexed
+	 */
+	public String indexedHash(String documentId) {
+		return indexed.get(documentId);
+	}
+
+	public Collection<String> indexedIds() {
+		return indexed.keySet();
+	}
+
+	public void indexed(String documentId, String hash) {
+		indexed.put(documentId, hash);
+	}
+
+	/**
+	 * Replace the indexed documents by the given ones, mapping the id of each document to its hash.
+	 */
+	public void replaceIndexed(Map<String, String> hashesById) {
+		indexed.keySet().retainAll(hashesById.keySet());
+		indexed.putAll(hashesById);
+	}
+
+	public void removed(String documentId) {
+		indexed.remove(documentId);
+	}
+
+	/**
+	 * Drop the embeddings no indexed document refers to anymore, so the cache does not outgrow the corpus.
+	 */
+	public void evictUnused() {
+		embeddings.keySet().retainAll(indexed.values());
+	}
+
+	public int size() {
+		return embeddings.size();
+	}
+
+	/**
+	 * Write the cache to the given file, replacing it atomically.
+	 */
+	public synchronized void save(Path file) throws IOException {
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			Map<String, float[]> embeddingsSnapshot = Map.copyOf(embeddings);
+			out.writeInt(embeddingsSnapshot.size());
+			for (Map.Entry<String, float[]> entry : embeddingsSnapshot.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue().length);
+				for (float value : entry.getValue()) {
+					out.writeFloat(value);
+				}
+			}
+			Map<String, String> indexedSnapshot = Map.copyOf(indexed);
+			out.writeInt(indexedSnapshot.size());
+			for (Map.Entry<String, String> entry : indexedSnapshot.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeUTF(entry.getValue());
+			}
+		}
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the cache saved to the given file, or an empty one if it does not exist
+	 */
+	public static EmbeddingCache load(Path file) throws IOException {
+		EmbeddingCache cache = new EmbeddingCache();
+		if (file == null || !Files.exists(file)) {
+			return cache;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not an embedding cache: " + file);
+			}
+			int embeddingCount = in.readInt();
+			for (int i = 0; i < embeddingCount; i++) {
+				String hash = in.readUTF();
+				float[] embedding = new float[in.readInt()];
+				for (int j = 0; j < embedding.length; j++) {
+					embedding[j] = in.readFloat();
+				}
+				cache.embeddings.put(hash, embedding);
+			}
+			int documentCount = in.readInt();
+			for (int i = 0; i < documentCount; i++) {
+				cache.indexed.put(in.readUTF(), in.readUTF());
+			}
+		}
+		return cache;
+	}
+
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.samples.petclinic.genai.vectorstore.VectorStoreProperties.Encoding;
+
+/**
+ * Exact-search vector store for the corpora small enough not to need an approximate index. The unit vectors are
+ * stored row after row in a single {@code float[]} matrix, scanned with {@link DotProduct#INSTANCE}.
+ * <p>
+ * Scans of more than {@code parallel-threshold} rows are split into chunks scored by the common
+ * {@link ForkJoinPool}, each worker keeping its own {@link TopK} merged once the chunks are done. Deleting a
+ * document moves the last row into its place, so the matrix never has holes. The store is saved as a float32
+ * {@link VectorFile}.
+ */
+public class ExactVectorStore implements PersistentVectorStore {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final EmbeddingModel embeddingModel;
+
+	private final VectorStoreProperties.Exact properties;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private int dimensions;
+
+	private float[] matrix = new float[0];
+
+	private StoredDocument[] documents = new StoredDocument[0];
+
+	private final Map<String, Integer> rowsById = new HashMap<>();
+
+	private int size;
+
+	public ExactVectorStore(EmbeddingModel embeddingModel, VectorStoreProperties.Exact properties) {
+		this.embeddingModel = embeddingModel;
+		this.properties = properties;
+	}
+
+	@Override
+	public void add(List<Document> documents) {
+		// Embed outside of the lock, this is by far the slowest part
+		List<float[]> embeddings = new ArrayList<>(documents.size());
+		for (Document document : documents) {
+			float[] embedding = document.getEmbedding();
+			if (embedding == null || embedding.length == 0) {
+				embedding = embeddingModel.embed(document);
+				document.setEmbedding(embedding);
+			}
+			float[] unit = embedding.clone();
+			HnswIndex.normalize(unit);
+			embeddings.add(unit);
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (int i = 0; i < documents.size(); i++) {
+				put(StoredDocument.of(documents.get(i)), embeddings.get(i));
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public Optional<Boolean> delete(List<String> idList) {
+		lock.writeLock().lock();
+		try {
+			boolean deleted = false;
+			for (String id : idList) {
+				Integer row = rowsById.remove(id);
+				if (row == null) {
+					continue;
+				}
+				int last = --size;
+				if (row != last) {
+					System.arraycopy(matrix, last * dimensions, matrix, row * dimensions, dimensions);
+					documents[row] = documents[last];
+					rowsById.put(documents[row].id(), row);
+				}
+				documents[last] = null;
+				deleted = true;
+			}
+			return Optional.of(deleted);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Document> similaritySearch(SearchRequest request) {
+		float[] query = embeddingModel.embed(request.getQuery()).clone();
+		HnswIndex.normalize(query);
+		Predicate<Map<String, Object>> filter = request.hasFilterExpression()
+				? MetadataFilter.of(request.getFilterExpression()) : null;
+
+		lock.readLock().lock();
+		try {
+			if (size == 0) {
+				return List.of();
+			}
+			if (query.length != dimensions) {
+				throw new IllegalArgumentException(
+						"Expected a query of " + dimensions + " dimensions, got " + query.length);
+			}
+			Scan scan = new Scan(matrix, documents, dimensions, query, request.getTopK(), filter,
+					Math.max(1, properties.chunkSize()));
+			TopK top = size > properties.parallelThreshold() ? ForkJoinPool.commonPool().invoke(scan.task(0, size))
+					: scan.score(0, size);
+			List<Document> results = new ArrayList<>(top.size());
+			for (int position : top.order()) {
+				if (top.score(position) >= request.getSimilarityThreshold()) {
+					results.add(documents[top.row(position)].toDocument(1 - top.score(position)));
+				}
+			}
+			return results;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Document> findByMetadata(Filter.Expression filterExpression, int limit) {
+		Predicate<Map<String, Object>> filter = MetadataFilter.of(filterExpression);
+		lock.readLock().lock();
+		try {
+			List<Document> results = new ArrayList<>();
+			for (int row = 0; row < size && results.size() < limit; row++) {
+				if (filter.test(documents[row].metadata())) {
+					results.add(documents[row].toDocument());
+				}
+			}
+			return results;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void save(Path file) throws IOException {
+		lock.readLock().lock();
+		try {
+			VectorFile.write(file, Encoding.FLOAT32, dimensions, new AbstractList<>() {
+
+				@Override
+				public VectorFile.Entry get(int row) {
+					StoredDocument document = documents[row];
+					return new VectorFile.Entry(document.id(), document.content(), document.metadata(),
+							Arrays.copyOfRange(matrix, row * dimensions, (row + 1) * dimensions));
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			});
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void load(Path file) throws IOException {
+		VectorFile vectors = VectorFile.open(file);
+		lock.writeLock().lock();
+		try {
+			dimensions = vectors.dimensions();
+			matrix = new float[vectors.count() * dimensions];
+			documents = new StoredDocument[vectors.count()];
+			rowsById.clear();
+			size = 0;
+			for (int index = 0; index < vectors.count(); index++) {
+				VectorFile.Entry entry = vectors.entry(index);
+				put(new StoredDocument(entry.id(), entry.content(), entry.metadata()), vectors.vector(index));
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void put(StoredDocument document, float[] vector) {
+		if (size == 0 && rowsById.isEmpty()) {
+			dimensions = vector.length;
+		}
+		if (vector.length != dimensions) {
+			throw new IllegalArgumentException("Expected an embedding of " + dimensions + " dimensions for "
+					+ document.id() + ", got " + vector.length);
+		}
+		Integer row = rowsById.get(document.id());
+		if (row == null) {
+			row = size++;
+			if (size > documents.length) {
+				int capacity = Math.max(INITIAL_CAPACITY, documents.length + (documents.length >> 1));
+				documents = Arrays.copyOf(documents, capacity);
+				matrix = Arrays.copyOf(matrix, Math.multiplyExact(capacity, dimensions));
+			}
+			rowsById.put(document.id(), row);
+		}
+		System.arraycopy(vector, 0, matrix, row * dimensions, dimensions);
+		documents[row] = document;
+	}
+
+	/**
+	 * A scan of the matrix for one query. Only reads the arrays captured when it is created, so it can run on the
+	 * pool workers while the searching thread holds the read lock.
+	 */
+	private record Scan(float[] matrix, StoredDocument[] documents, int dimensions, float[] query, int k,
+			Predicate<Map<String, Object>> filter, int chunkSize) {
+
+		TopK score(int from, int to) {
+			TopK top = new TopK(k);
+			for (int row = from; row < to; row++) {
+				if (filter == null || filter.test(documents[row].metadata())) {
+					top.offer(row, DotProduct.INSTANCE.dot(matrix, row * dimensions, query, dimensions));
+				}
+			}
+			return top;
+		}
+
+		RecursiveTask<TopK> task(int from, int to) {
+			return new RecursiveTask<>() {
+
+				@Override
+				protected TopK compute() {
+					if (to - from <= chunkSize) {
+						return score(from, to);
+					}
+					int middle = (from + to) >>> 1;
+					RecursiveTask<TopK> right = task(middle, to);
+					right.fork();
+					TopK left = task(from, middle).invoke();
+					return left.merge(right.join());
+				}
+			};
+		}
+	}
+
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * Hierarchical Navigable Small World graph over unit vectors, searched by cosine similarity.
+ * <p>
+ * Each node lives on layer 0 and, with an exponentially decreasing probability, on the layers above. A search
+ * greedily descends the sparse upper layers from the entry point, then explores layer 0 with a dynamic candidate
+ * list of size {@code ef}. Neighbours are chosen with the diversity heuristic of the original paper, keeping at
+ * most {@code m} links per node on the upper layers and {@code 2 * m} on layer 0.
+ * <p>
+ * Removed nodes are only marked as deleted: they keep being traversed but are never returned. This class is not
+ * thread-safe, concurrent searches are safe as long as no node is inserted or removed meanwhile.
+ */
+final class HnswIndex {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static final ThreadLocal<Visited> VISITED = ThreadLocal.withInitial(Visited::new);
+
+	private final int dimensions;
+
+	private final int m;
+
+	private final int maxLinks0;
+
+	private final int efConstruction;
+
+	private final double levelMultiplier;
+
+	private final SplittableRandom random;
+
+	private float[][] vectors = new float[INITIAL_CAPACITY][];
+
+	// links[node][level] holds the number of neighbours followed by their ids
+	private int[][][] links = new int[INITIAL_CAPACITY][][];
+
+	private final BitSet deleted = new BitSet();
+
+	private int size;
+
+	private int entryPoint = -1;
+
+	private int maxLevel = -1;
+
+	HnswIndex(int dimensions, int m, int efConstruction, long seed) {
+		if (m < 2) {
+			throw new IllegalArgumentException("m must be at least 2");
+		}
+		this.dimensions = dimensions;
+		this.m = m;
+		this.maxLinks0 = 2 * m;
+		this.efConstruction = Math.max(efConstruction, m);
+		this.levelMultiplier = 1 / Math.log(m);
+		this.random = new SplittableRandom(seed);
+	}
+
+	/**
+	 * Insert a vector, normalized in place, and return its node id.
+	 */
+	int insert(float[] vector) {
+		if (vector.length != dimensions) {
+			throw new IllegalArgumentException(
+					"Expected a vector of " + dimensions + " dimensions, got " + vector.length);
+		}
+		normalize(vector);
+		int node = size;
+		ensureCapacity(node + 1);
+		int level = randomLevel();
+		vectors[node] = vector;
+		links[node] = new int[level + 1][];
+		for (int lc = 0; lc <= level; lc++) {
+			links[node][lc] = new int[1 + maxLinks(lc)];
+		}
+		size++;
+
+		if (entryPoint < 0) {
+			entryPoint = node;
+			maxLevel = level;
+			return node;
+		}
+
+		int nearest = entryPoint;
+		for (int lc = maxLevel; lc > level; lc--) {
+			nearest = greedyClosest(vector, nearest, lc);
+		}
+		List<Candidate> entryPoints = List.of(new Candidate(nearest, distance(vector, vectors[nearest])));
+		for (int lc = Math.min(level, maxLevel); lc >= 0; lc--) {
+			List<Candidate> candidates = searchLayer(vector, entryPoints, efConstruction, lc);
+			List<Candidate> neighbours = selectNeighbours(candidates, m);
+			for (Candidate neighbour : neighbours) {
+				link(node, neighbour.node(), lc);
+				link(neighbour.node(), node, lc);
+			}
+			entryPoints = candidates;
+		}
+		if (level > maxLevel) {
+			maxLevel = level;
+			entryPoint = node;
+		}
+		return node;
+	}
+
+	void remove(int node) {
+		deleted.set(node);
+	}
+
+	boolean isDeleted(int node) {
+		return deleted.get(node);
+	}
+
+	/**
+	 * @return the {@code k} live nodes closest to the query accepted by the filter, closest first
+	 */
+	List<Candidate> search(float[] query, int k, int ef, IntPredicate filter) {
+		if (entryPoint < 0 || k <= 0) {
+			return List.of();
+		}
+		float[] normalized = query.clone();
+		normalize(normalized);
+		int nearest = entryPoint;
+		for (int lc = maxLevel; lc > 0; lc--) {
+			nearest = greedyClosest(normalized, nearest, lc);
+		}
+		List<Candidate> entryPoints = List.of(new Candidate(nearest, distance(normalized, vectors[nearest])));
+		IntPredicate accepted = node -> !deleted.get(node) && filter.test(node);
+		List<Candidate> found = searchLayer(normalized, entryPoints, Math.max(ef, k), 0, accepted);
+		return found.size() > k ? found.subList(0, k) : found;
+	}
+
+	/**
+	 * @return the {@code k} live nodes closest to the query accepted by the filter, computed by a full scan
+	 */
+	List<Candidate> exactSearch(float[] query, int k, IntPredicate filter) {
+		float[] normalized = query.clone();
+		normalize(normalized);
+		PriorityQueue<Candidate> best = new PriorityQueue<>(Comparator.comparingDouble(Candidate::distance).reversed());
+		for (int node = 0; node < size; node++) {
+			if (!deleted.get(node) && filter.test(node)) {
+				best.add(new Candidate(node, distance(normalized, vectors[node])));
+				if (best.size() > k) {
+					best.poll();
+				}
+			}
+		}
+		List<Candidate> result = new ArrayList<>(best);
+		result.sort(Comparator.comparingDouble(Candidate::distance));
+		return result;
+	}
+
+	float[] vector(int node) {
+		return vectors[node];
+	}
+
+	int size() {
+		return size;
+	}
+
+	int liveSize() {
+		return size - deleted.cardinality();
+	}
+
+	int dimensions() {
+		return dimensions;
+	}
+
+	private int greedyClosest(float[] query, int start, int level) {
+		int current = start;
+		float currentDistance = distance(query, vectors[current]);
+		boolean improved = true;
+		while (improved) {
+			improved = false;
+			int[] neighbours = links[current][level];
+			for (int i = 1; i <= neighbours[0]; i++) {
+				float d = distance(query, vectors[neighbours[i]]);
+				if (d < currentDistance) {
+					currentDistance = d;
+					current = neighbours[i];
+					improved = true;
+				}
+			}
+		}
+		return current;
+	}
+
+	private List<Candidate> searchLayer(float[] query, List<Candidate> entryPoints, int ef, int level) {
+		return searchLayer(query, entryPoints, ef, level, node -> true);
+	}
+
+	/**
+	 * Best-first search of a layer. Every reachable node is traversed, but only the accepted ones enter the result.
+	 */
+	private List<Candidate> searchLayer(float[] query, List<Candidate> entryPoints, int ef, int level,
+			IntPredicate accepted) {
+		Visited visited = VISITED.get();
+		visited.reset(size);
+		PriorityQueue<Candidate> candidates = new PriorityQueue<>(Comparator.comparingDouble(Candidate::distance));
+		PriorityQueue<Candidate> results = new PriorityQueue<>(
+				Comparator.comparingDouble(Candidate::distance).reversed());
+		for (Candidate entryPoint : entryPoints) {
+			if (visited.visit(entryPoint.node())) {
+				candidates.add(entryPoint);
+				if (accepted.test(entryPoint.node())) {
+					results.add(entryPoint);
+				}
+			}
+		}
+		while (!candidates.isEmpty()) {
+			Candidate closest = candidates.poll();
+			if (results.size() >= ef && closest.distance() > results.peek().distance()) {
+				break;
+			}
+			int[] neighbours = links[closest.node()][level];
+			for (int i = 1; i <= neighbours[0]; i++) {
+				int neighbour = neighbours[i];
+				if (!visited.visit(neighbour)) {
+					continue;
+				}
+				float d = distance(query, vectors[neighbour]);
+				if (results.size() < ef || d < results.peek().distance()) {
+					candidates.add(new Candidate(neighbour, d));
+					if (accepted.test(neighbour)) {
+						results.add(new Candidate(neighbour, d));
+						if (results.size() > ef) {
+							results.poll();
+						}
+					}
+				}
+			}
+		}
+		List<Candidate> sorted = new ArrayList<>(results);
+		sorted.sort(Comparator.comparingDouble(Candidate::distance));
+		return sorted;
+	}
+
+	/**
+	 * Keep the candidates closer to the base node than to any neighbour already selected, which favours links in
+	 * diverse directions, then fill up with the closest discarded ones.
+	 */
+	private List<Candidate> selectNeighbours(List<Candidate> candidates, int max) {
+		List<Candidate> selected = new ArrayList<>(max);
+		List<Candidate> discarded = new ArrayList<>();
+		for (Candidate candidate : candidates) {
+			if (selected.size() >= max) {
+				break;
+			}
+			boolean diverse = true;
+			for (Candidate neighbour : selected) {
+				if (distance(vectors[candidate.node()], vectors[neighbour.node()]) < candidate.distance()) {
+					diverse = false;
+					break;
+				}
+			}
+			(diverse ? selected : discarded).add(candidate);
+		}
+		for (int i = 0; i < discarded.size() && selected.size() < max; i++) {
+			selected.add(discarded.get(i));
+		}
+		return selected;
+	}
+
+	private void link(int from, int to, int level) {
+		int[] neighbours = links[from][level];
+		int count = neighbours[0];
+		if (count < neighbours.length - 1) {
+			neighbours[++count] = to;
+			neighbours[0] = count;
+			return;
+		}
+		// Full: re-select among the current neighbours and the new one
+		List<Candidate> candidates = new ArrayList<>(count + 1);
+		for (int i = 1; i <= count; i++) {
+			candidates.add(new Candidate(neighbours[i], distance(vectors[from], vectors[neighbours[i]])));
+		}
+		candidates.add(new Candidate(to, distance(vectors[from], vectors[to])));
+		candidates.sort(Comparator.comparingDouble(Candidate::distance));
+		List<Candidate> selected = selectNeighbours(candidates, maxLinks(level));
+		neighbours[0] = selected.size();
+		for (int i = 0; i < selected.size(); i++) {
+			neighbours[i + 1] = selected.get(i).node();
+		}
+	}
+
+	private int maxLinks(int level) {
+		return level == 0 ? maxLinks0 : m;
+	}
+
+	private int randomLevel() {
+		return (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > vectors.length) {
+			int newCapacity = Math.max(capacity, vectors.length + (vectors.length >> 1));
+			vectors = Arrays.copyOf(vectors, newCapacity);
+			links = Arrays.copyOf(links, newCapacity);
+		}
+	}
+
+	void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(dimensions);
+		out.writeInt(m);
+		out.writeInt(efConstruction);
+		out.writeInt(size);
+		out.writeInt(entryPoint);
+		out.writeInt(maxLevel);
+		for (int node = 0; node < size; node++) {
+			out.writeBoolean(deleted.get(node));
+			for (float value : vectors[node]) {
+				out.writeFloat(value);
+			}
+			out.writeByte(links[node].length);
+			for (int[] level : links[node]) {
+				out.writeShort(level[0]);
+				for (int i = 1; i <= level[0]; i++) {
+					out.writeInt(level[i]);
+				}
+			}
+		}
+	}
+
+	static HnswIndex readFrom(DataInputStream in, long seed) throws IOException {
+		HnswIndex index = new HnswIndex(in.readInt(), in.readInt(), in.readInt(), seed);
+		int size = in.readInt();
+		index.entryPoint = in.readInt();
+		index.maxLevel = in.readInt();
+		index.ensureCapacity(size);
+		for (int node = 0; node < size; node++) {
+			if (in.readBoolean()) {
+				index.deleted.set(node);
+			}
+			float[] vector = new float[index.dimensions];
+			for (int i = 0; i < vector.length; i++) {
+				vector[i] = in.readFloat();
+			}
+			index.vectors[node] = vector;
+			int levels = in.readByte();
+			index.links[node] = new int[levels][];
+			for (int lc = 0; lc < levels; lc++) {
+				int[] neighbours = new int[1 + index.maxLinks(lc)];
+				neighbours[0] = in.readShort();
+				for (int i = 1; i <= neighbours[0]; i++) {
+					neighbours[i] = in.readInt();
+				}
+				index.links[node][lc] = neighbours;
+			}
+		}
+		index.size = size;
+		return index;
+	}
+
+	/**
+	 * Cosine distance between unit vectors.
+	 */
+	static float distance(float[] a, float[] b) {
+		float dot = 0;
+		for (int i = 0; i < a.length; i++) {
+			dot += a[i] * b[i];
+		}
+		return 1 - dot;
+	}
+
+	static void normalize(float[] vector) {
+		double norm = 0;
+		for (float value : vector) {
+			norm += value * value;
+		}
+		if (norm > 0) {
+			float inverse = (float) (1 / Math.sqrt(norm));
+			for (int i = 0; i < vector.length; i++) {
+				vector[i] *= inverse;
+			}
+		}
+	}
+
+	record Candidate(int node, float distance) {
+	}
+
+	/**
+	 * Visited marks reused across the searches of a thread, cleared in constant time by bumping a generation.
+	 */
+	private static final class Visited {
+
+		private int[] marks = new int[0];
+
+		private int generation;
+
+		void reset(int size) {
+			if (marks.length < size) {
+				marks = new int[Math.max(size, marks.length * 2)];
+				generation = 0;
+			}
+			if (++generation == Integer.MAX_VALUE) {
+				Arrays.fill(marks, 0);
+				generation = 1;
+			}
+		}
+
+		/**
+		 * @return whether the node was not visited yet
+		 */
+		boolean visit(int node) {
+			if (marks[node] == generation) {
+				return false;
+			}
+			marks[node] = generation;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+/**
+ * In-process vector store backed by an {@link HnswIndex}, answering similarity searches in logarithmic rather
+ * than linear time in the number of documents.
+ * <p>
+ * Documents already carrying an embedding, such as the ones read from a saved store, are indexed as is without
+ * calling the embedding model. Adding a document with the id of an existing one replaces it. Deleted documents
+ * are tombstoned in the graph, which is rebuilt once they outnumber the live ones.
+ * <p>
+ * Searches apply the metadata filter while walking the graph. When fewer documents than requested pass a
+ * selective filter, the search falls back to an exact scan of the matching documents, so filtering never loses
+ * results. Like {@code SimpleVectorStore}, the results carry their cosine distance in the {@code distance}
+ * metadata.
+ */
+public class HnswVectorStore implements PersistentVectorStore {
+
+	private static final int MAGIC = 0x50434856; // PCHV
+
+	private static final int VERSION = 1;
+
+	private static final long SEED = 42;
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	private static final TypeReference<Map<String, Object>> METADATA = new TypeReference<>() {
+	};
+
+	private final EmbeddingModel embeddingModel;
+
+	private final VectorStoreProperties.Hnsw properties;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private HnswIndex index;
+
+	// Documents by node, null for the deleted nodes
+	private List<StoredDocument> documents = new ArrayList<>();
+
+	private Map<String, Integer> nodesById = new HashMap<>();
+
+	public HnswVectorStore(EmbeddingModel embeddingModel, VectorStoreProperties.Hnsw properties) {
+		this.embeddingModel = embeddingModel;
+		this.properties = properties;
+	}
+
+	@Override
+	public void add(List<Document> documents) {
+		// Embed outside of the lock, this is by far the slowest part
+		List<float[]> embeddings = new ArrayList<>(documents.size());
+		for (Document document : documents) {
+			float[] embedding = document.getEmbedding();
+			if (embedding == null || embedding.length == 0) {
+				embedding = embeddingModel.embed(document);
+				document.setEmbedding(embedding);
+			}
+			embeddings.add(embedding.clone());
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (int i = 0; i < documents.size(); i++) {
+				Document document = documents.get(i);
+				if (index == null) {
+					index = newIndex(embeddings.get(i).length);
+				}
+				Integer previous = nodesById.get(document.getId());
+				if (previous != null) {
+					remove(previous);
+				}
+				int node = index.insert(embeddings.get(i));
+				this.documents.add(StoredDocument.of(document));
+				nodesById.put(document.getId(), node);
+			}
+			compactIfNeeded();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public Optional<Boolean> delete(List<String> idList) {
+		lock.writeLock().lock();
+		try {
+			boolean deleted = false;
+			for (String id : idList) {
+				Integer node = nodesById.get(id);
+				if (node != null) {
+					remove(node);
+					deleted = true;
+				}
+			}
+			compactIfNeeded();
+			return Optional.of(deleted);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Document> similaritySearch(SearchRequest request) {
+		float[] query = embeddingModel.embed(request.getQuery());
+		Predicate<Map<String, Object>> filter = MetadataFilter.of(request.getFilterExpression());
+
+		lock.readLock().lock();
+		try {
+			if (index == null) {
+				return List.of();
+			}
+			IntPredicate accepted = node -> filter.test(documents.get(node).metadata());
+			int topK = request.getTopK();
+			List<HnswIndex.Candidate> candidates = index.search(query, topK, properties.efSearch(), accepted);
+			if (candidates.size() < Math.min(topK, nodesById.size())) {
+				candidates = index.exactSearch(query, topK, accepted);
+			}
+			List<Document> results = new ArrayList<>(candidates.size());
+			for (HnswIndex.Candidate candidate : candidates) {
+				if (1 - candidate.distance() >= request.getSimilarityThreshold()) {
+					results.add(documents.get(candidate.node()).toDocument(candidate.distance()));
+				}
+			}
+			return results;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Document> findByMetadata(Filter.Expression filterExpression, int limit) {
+		Predicate<Map<String, Object>> filter = MetadataFilter.of(filterExpression);
+		lock.readLock().lock();
+		try {
+			List<Document> results = new ArrayList<>();
+			for (StoredDocument document : documents) {
+				if (results.size() == limit) {
+					break;
+				}
+				if (document != null && filter.test(document.metadata())) {
+					results.add(document.toDocument());
+				}
+			}
+			return results;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of documents in the store
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return nodesById.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Save the documents and the graph, so that loading them back needs neither the embedding model nor a rebuild.
+	 * <pre>
+	 * int magic, int version, int nodeCount
+	 * (boolean live, [UTF id, int length, UTF-8 content, int length, JSON metadata]) * nodeCount
+	 * graph
+	 * </pre>
+	 */
+	@Override
+	public void save(Path file) throws IOException {
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		lock.readLock().lock();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(documents.size());
+			for (StoredDocument document : documents) {
+				out.writeBoolean(document != null);
+				if (document != null) {
+					out.writeUTF(document.id());
+					writeBytes(out, document.content().getBytes(StandardCharsets.UTF_8));
+					writeBytes(out, objectMapper.writeValueAsBytes(document.metadata()));
+				}
+			}
+			out.writeBoolean(index != null);
+			if (index != null) {
+				index.writeTo(out);
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@Override
+	public void load(Path file) throws IOException {
+		List<StoredDocument> loadedDocuments;
+		Map<String, Integer> loadedNodes = new HashMap<>();
+		HnswIndex loadedIndex;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not an HNSW vector store: " + file);
+			}
+			int count = in.readInt();
+			loadedDocuments = new ArrayList<>(count);
+			for (int node = 0; node < count; node++) {
+				if (!in.readBoolean()) {
+					loadedDocuments.add(null);
+					continue;
+				}
+				String id = in.readUTF();
+				String content = new String(readBytes(in), StandardCharsets.UTF_8);
+				Map<String, Object> metadata = objectMapper.readValue(readBytes(in), METADATA);
+				loadedDocuments.add(new StoredDocument(id, content, metadata));
+				loadedNodes.put(id, node);
+			}
+			loadedIndex = in.readBoolean() ? HnswIndex.readFrom(in, SEED) : null;
+		}
+
+		lock.writeLock().lock();
+		try {
+			this.documents = loadedDocuments;
+			this.nodesById = loadedNodes;
+			this.index = loadedIndex;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private HnswIndex newIndex(int dimensions) {
+		return new HnswIndex(dimensions, properties.m(), properties.efConstruction(), SEED);
+	}
+
+	private void remove(int node) {
+		index.remove(node);
+		nodesById.remove(documents.get(node).id());
+		documents.set(node, null);
+	}
+
+	/**
+	 * Rebuild the graph from the live documents once the tombstones outnumber them, as they slow down searches
+	 * without contributing to the results.
+	 */
+	private void compactIfNeeded() {
+		if (index == null || index.size() - index.liveSize() <= index.liveSize()) {
+			return;
+		}
+		HnswIndex compacted = newIndex(index.dimensions());
+		List<StoredDocument> compactedDocuments = new ArrayList<>(index.liveSize());
+		Map<String, Integer> compactedNodes = new HashMap<>();
+		for (int node = 0; node < index.size(); node++) {
+			StoredDocument document = documents.get(node);
+			if (document != null) {
+				compactedNodes.put(document.id(), compacted.insert(index.vector(node).clone()));
+				compactedDocuments.add(document);
+			}
+		}
+		index = compacted;
+		documents = compactedDocuments;
+		nodesById = compactedNodes;
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+}
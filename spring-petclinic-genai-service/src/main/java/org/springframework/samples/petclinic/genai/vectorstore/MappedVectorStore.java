@@ -0,0 +1,386 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.core.io.Resource;
+import org.springframework.samples.petclinic.genai.vectorstore.VectorStoreProperties.Encoding;
+
+/**
+ * Exact-search vector store reading its documents from a memory-mapped {@link VectorFile}, so that neither the
+ * startup time nor the heap grow with the number of documents, and replicas mapping the same file share its
+ * pages.
+ * <p>
+ * The mapped file is immutable: added documents are kept on the heap and deleted or replaced ones are hidden,
+ * until {@link #save(Path)} writes a new file with both and maps it instead. Like {@code SimpleVectorStore}, the
+ * results carry their cosine distance in the {@code distance} metadata.
+ * <p>
+ * Searches without filter only read the vectors block. A metadata filter requires decoding the document of every
+ * vector, which is much slower.
+ * <p>
+ * An int8 file is scanned on its codes, then the best candidates are re-ranked on their float32 vectors. The
+ * number of candidates is calibrated when the file is mapped to reach the {@code recall-target}. The bytes read per
+ * vector, the calibrated recall and re-rank factor are published as metrics.
+ */
+public class MappedVectorStore implements PersistentVectorStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(MappedVectorStore.class);
+
+	private final EmbeddingModel embeddingModel;
+
+	private final VectorStoreProperties.Mapped properties;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private VectorFile file;
+
+	private RerankCalibration.Result calibration = new RerankCalibration.Result(1, 1);
+
+	private final Map<String, VectorFile.Entry> added = new LinkedHashMap<>();
+
+	// Ids of the documents of the file deleted or replaced since it was mapped
+	private final Set<String> hidden = new HashSet<>();
+
+	public MappedVectorStore(EmbeddingModel embeddingModel, VectorStoreProperties.Mapped properties,
+			MeterRegistry registry) {
+		this.embeddingModel = embeddingModel;
+		this.properties = properties;
+		Gauge.builder("petclinic.vectorstore.vector.size", this,
+				store -> store.statistic(VectorFile::scannedBytesPerVector))
+			.tag("kind", "scanned")
+			.baseUnit("bytes")
+			.register(registry);
+		Gauge.builder("petclinic.vectorstore.vector.size", this,
+				store -> store.statistic(VectorFile::storedBytesPerVector))
+			.tag("kind", "stored")
+			.baseUnit("bytes")
+			.register(registry);
+		Gauge.builder("petclinic.vectorstore.recall", this, store -> store.calibration().recall())
+			.register(registry);
+		Gauge.builder("petclinic.vectorstore.rerank.factor", this, store -> store.calibration().factor())
+			.register(registry);
+	}
+
+	@Override
+	public void add(List<Document> documents) {
+		List<VectorFile.Entry> entries = new ArrayList<>(documents.size());
+		for (Document document : documents) {
+			float[] embedding = document.getEmbedding();
+			if (embedding == null || embedding.length == 0) {
+				embedding = embeddingModel.embed(document);
+				document.setEmbedding(embedding);
+			}
+			float[] unit = embedding.clone();
+			HnswIndex.normalize(unit);
+			Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+			metadata.remove(StoredDocument.DISTANCE_METADATA);
+			entries.add(new VectorFile.Entry(document.getId(), document.getContent(), metadata, unit));
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (VectorFile.Entry entry : entries) {
+				added.put(entry.id(), entry);
+				if (file != null) {
+					hidden.add(entry.id());
+				}
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public Optional<Boolean> delete(List<String> idList) {
+		lock.writeLock().lock();
+		try {
+			for (String id : idList) {
+				added.remove(id);
+				if (file != null) {
+					hidden.add(id);
+				}
+			}
+			return Optional.of(true);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Document> similaritySearch(SearchRequest request) {
+		float[] query = embeddingModel.embed(request.getQuery()).clone();
+		HnswIndex.normalize(query);
+		Predicate<Map<String, Object>> filter = request.hasFilterExpression()
+				? MetadataFilter.of(request.getFilterExpression()) : null;
+		int topK = request.getTopK();
+
+		lock.readLock().lock();
+		try {
+			List<Scored> candidates = new ArrayList<>();
+			if (file != null) {
+				// Hidden documents may be among the best ones, fetch enough to still have topK once they are dropped
+				for (Scored scored : scanFile(query, topK + hidden.size(), filter)) {
+					if (!hidden.contains(scored.entry().id())) {
+						candidates.add(scored);
+					}
+				}
+			}
+			for (VectorFile.Entry entry : added.values()) {
+				if (filter == null || filter.test(entry.metadata())) {
+					candidates.add(new Scored(entry, HnswIndex.distance(query, entry.vector())));
+				}
+			}
+			candidates.sort(Comparator.comparingDouble(Scored::distance));
+			List<Document> results = new ArrayList<>(topK);
+			for (Scored candidate : candidates) {
+				if (results.size() == topK) {
+					break;
+				}
+				if (1 - candidate.distance() >= request.getSimilarityThreshold()) {
+					results.add(candidate.toDocument());
+				}
+			}
+			return results;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Decodes the document of every vector of the file until enough match, the vectors themselves are not read.
+	 */
+	@Override
+	public List<Document> findByMetadata(Filter.Expression filterExpression, int limit) {
+		Predicate<Map<String, Object>> filter = MetadataFilter.of(filterExpression);
+		lock.readLock().lock();
+		try {
+			List<Document> results = new ArrayList<>();
+			for (int index = 0; file != null && index < file.count() && results.size() < limit; index++) {
+				VectorFile.Entry entry = file.entry(index);
+				if (!hidden.contains(entry.id()) && filter.test(entry.metadata())) {
+					results.add(toDocument(entry));
+				}
+			}
+			for (VectorFile.Entry entry : added.values()) {
+				if (results.size() == limit) {
+					break;
+				}
+				if (filter.test(entry.metadata())) {
+					results.add(toDocument(entry));
+				}
+			}
+			return results;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static Document toDocument(VectorFile.Entry entry) {
+		return new StoredDocument(entry.id(), entry.content(), entry.metadata()).toDocument();
+	}
+
+	/**
+	 * @return the {@code k} documents of the file closest to the query, int8 candidates being re-ranked on their
+	 * float32 vectors
+	 */
+	private List<Scored> scanFile(float[] query, int k, Predicate<Map<String, Object>> filter) {
+		boolean quantized = file.encoding() == Encoding.INT8;
+		TopK best = new TopK(quantized ? k * calibration.factor() : k);
+		for (int index = 0; index < file.count(); index++) {
+			if (filter == null || filter.test(file.entry(index).metadata())) {
+				best.offer(index, quantized ? file.approximateDot(index, query) : file.dot(index, query));
+			}
+		}
+		if (quantized) {
+			TopK reranked = new TopK(k);
+			for (int position = 0; position < best.size(); position++) {
+				reranked.offer(best.row(position), file.dot(best.row(position), query));
+			}
+			best = reranked;
+		}
+		List<Scored> scored = new ArrayList<>(best.size());
+		for (int position = 0; position < best.size(); position++) {
+			scored.add(new Scored(file.entry(best.row(position)), 1 - best.score(position)));
+		}
+		return scored;
+	}
+
+	/**
+	 * Write the mapped and the added documents to a new file and map it, releasing the heap held by the added
+	 * documents. Searches wait for the file to be written.
+	 */
+	@Override
+	public void save(Path path) throws IOException {
+		lock.writeLock().lock();
+		try {
+			List<Integer> kept = new ArrayList<>();
+			if (file != null) {
+				for (int index = 0; index < file.count(); index++) {
+					if (hidden.isEmpty() || !hidden.contains(file.entry(index).id())) {
+						kept.add(index);
+					}
+				}
+			}
+			VectorFile current = file;
+			List<VectorFile.Entry> addedEntries = new ArrayList<>(added.values());
+			List<VectorFile.Entry> entries = new AbstractList<>() {
+
+				@Override
+				public VectorFile.Entry get(int i) {
+					if (i >= kept.size()) {
+						return addedEntries.get(i - kept.size());
+					}
+					VectorFile.Entry entry = current.entry(kept.get(i));
+					return new VectorFile.Entry(entry.id(), entry.content(), entry.metadata(),
+							current.vector(kept.get(i)));
+				}
+
+				@Override
+				public int size() {
+					return kept.size() + addedEntries.size();
+				}
+			};
+			int dimensions = file != null ? file.dimensions()
+					: addedEntries.isEmpty() ? 0 : addedEntries.get(0).vector().length;
+			VectorFile written = VectorFile.write(path, properties.encoding(), dimensions, entries);
+			file = written;
+			calibration = calibrate(written);
+			added.clear();
+			hidden.clear();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void load(Path path) throws IOException {
+		VectorFile loaded = VectorFile.open(path);
+		RerankCalibration.Result loadedCalibration = calibrate(loaded);
+		lock.writeLock().lock();
+		try {
+			file = loaded;
+			calibration = loadedCalibration;
+			added.clear();
+			hidden.clear();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Map the given vector file, copying it to a temporary file first when it is not on the file system, such as a
+	 * classpath resource packaged in a jar.
+	 */
+	public void load(Resource resource) throws IOException {
+		if (resource.isFile()) {
+			load(resource.getFile().toPath());
+			return;
+		}
+		// java:S5443 Sonar rule: Using publicly writable directories is security-sensitive
+		FileAttribute<Set<PosixFilePermission>> attr = PosixFilePermissions
+			.asFileAttribute(PosixFilePermissions.fromString("rw-------"));
+		Path copy = Files.createTempFile("vectorstore", VectorFile.EXTENSION, attr);
+		copy.toFile().deleteOnExit();
+		try (InputStream in = resource.getInputStream()) {
+			Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+		}
+		load(copy);
+	}
+
+	private RerankCalibration.Result calibrate(VectorFile vectors) {
+		if (vectors.encoding() != Encoding.INT8) {
+			return new RerankCalibration.Result(1, 1);
+		}
+		RerankCalibration.Result result = RerankCalibration.calibrate(vectors, properties.recallTarget());
+		logger.info("{} int8 vectors mapped from {}, {} bytes scanned per vector, re-ranking {} candidates per "
+				+ "result for a recall@{} of {}", vectors.count(), vectors.path(), vectors.scannedBytesPerVector(),
+				result.factor(), RerankCalibration.K, result.recall());
+		return result;
+	}
+
+	private RerankCalibration.Result calibration() {
+		lock.readLock().lock();
+		try {
+			return calibration;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private double statistic(VectorFileStatistic statistic) {
+		lock.readLock().lock();
+		try {
+			return file == null ? Double.NaN : statistic.of(file);
+		}
+		catch (IOException ex) {
+			return Double.NaN;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@FunctionalInterface
+	private interface VectorFileStatistic {
+
+		double of(VectorFile file) throws IOException;
+
+	}
+
+	private record Scored(VectorFile.Entry entry, float distance) {
+
+		Document toDocument() {
+			return new StoredDocument(entry.id(), entry.content(), entry.metadata()).toDocument(distance);
+		}
+	}
+
+}
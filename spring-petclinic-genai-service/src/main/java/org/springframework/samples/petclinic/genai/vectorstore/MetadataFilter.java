@@ -0,0 +1,128 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+/**
+ * Evaluates a portable {@link Filter.Expression}, as built by the filter DSL or parsed from a
+ * {@code "specialty == 'dentistry'"} text expression, against the metadata of a document.
+ * <p>
+ * A metadata value may be a list, such as the specialties of a vet: equality and membership then hold when any of
+ * its elements matches, so {@code specialties == 'surgery'} finds the vets having surgery among their specialties.
+ */
+final class MetadataFilter {
+
+	private MetadataFilter() {
+	}
+
+	/**
+	 * @return a predicate accepting the metadata matching the expression, or accepting everything when it is
+	 * {@code null}
+	 */
+	static Predicate<Map<String, Object>> of(Filter.Expression expression) {
+		if (expression == null) {
+			return metadata -> true;
+		}
+		return metadata -> matches(expression, metadata);
+	}
+
+	static boolean matches(Filter.Operand operand, Map<String, Object> metadata) {
+		if (operand instanceof Filter.Group group) {
+			return matches(group.content(), metadata);
+		}
+		if (!(operand instanceof Filter.Expression expression)) {
+			throw new IllegalArgumentException("Not a boolean operand: " + operand);
+		}
+		return switch (expression.type()) {
+			case AND -> matches(expression.left(), metadata) && matches(expression.right(), metadata);
+			case OR -> matches(expression.left(), metadata) || matches(expression.right(), metadata);
+			case NOT -> !matches(expression.left(), metadata);
+			case EQ -> equals(value(expression.left(), metadata), constant(expression));
+			case NE -> !equals(value(expression.left(), metadata), constant(expression));
+			case GT -> compare(expression, metadata) > 0;
+			case GTE -> compare(expression, metadata) >= 0;
+			case LT -> compare(expression, metadata) < 0;
+			case LTE -> compare(expression, metadata) <= 0;
+			case IN -> contains(constant(expression), value(expression.left(), metadata));
+			case NIN -> !contains(constant(expression), value(expression.left(), metadata));
+		};
+	}
+
+	private static Object value(Filter.Operand operand, Map<String, Object> metadata) {
+		if (!(operand instanceof Filter.Key key)) {
+			throw new IllegalArgumentException("Expected a metadata key, got " + operand);
+		}
+		// Keys containing spaces or dots are quoted in text expressions
+		String name = key.key();
+		if (name.length() > 1 && (name.startsWith("\"") || name.startsWith("'"))) {
+			name = name.substring(1, name.length() - 1);
+		}
+		return metadata.get(name);
+	}
+
+	private static Object constant(Filter.Expression expression) {
+		if (!(expression.right() instanceof Filter.Value value)) {
+			throw new IllegalArgumentException("Expected a value, got " + expression.right());
+		}
+		return value.value();
+	}
+
+	/**
+	 * Compare the metadata value to the constant, a missing or incomparable value never matching.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static int compare(Filter.Expression expression, Map<String, Object> metadata) {
+		Object actual = normalize(value(expression.left(), metadata));
+		Object expected = normalize(constant(expression));
+		if (actual instanceof Comparable comparable && expected != null
+				&& actual.getClass() == expected.getClass()) {
+			return comparable.compareTo(expected);
+		}
+		// A value that cannot be ordered fails both the lower and the upper bound checks
+		return switch (expression.type()) {
+			case GT, GTE -> -1;
+			default -> 1;
+		};
+	}
+
+	private static boolean equals(Object actual, Object expected) {
+		Object normalized = normalize(expected);
+		if (actual instanceof Collection<?> elements) {
+			return elements.stream().anyMatch(element -> Objects.equals(normalize(element), normalized));
+		}
+		return Objects.equals(normalize(actual), normalized);
+	}
+
+	private static boolean contains(Object values, Object actual) {
+		if (!(values instanceof Collection<?> collection)) {
+			throw new IllegalArgumentException("Expected a list of values, got " + values);
+		}
+		return collection.stream().anyMatch(candidate -> equals(actual, candidate));
+	}
+
+	/**
+	 * Numbers are compared by value whatever their type, as JSON metadata is read back as integers or doubles.
+	 */
+	private static Object normalize(Object value) {
+		return value instanceof Number number ? number.doubleValue() : value;
+	}
+}
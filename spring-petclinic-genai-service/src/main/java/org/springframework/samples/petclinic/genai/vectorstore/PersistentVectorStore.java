@@ -0,0 +1,50 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+/**
+ * A {@link VectorStore} able to save its content, embeddings included, and to load it back without calling the
+ * embedding model again.
+ */
+public interface PersistentVectorStore extends VectorStore {
+
+	/**
+	 * Write the content of the store to the given file, replacing it atomically.
+	 */
+	void save(Path file) throws IOException;
+
+	/**
+	 * Replace the content of the store by the one previously saved to the given file.
+	 */
+	void load(Path file) throws IOException;
+
+	/**
+	 * Find the documents by their metadata only, without embedding a query nor scoring any vector. The documents
+	 * are returned in no particular order and without {@code distance} metadata.
+	 * @param filterExpression the filter the metadata of the documents must match
+	 * @param limit the maximum number of documents to return
+	 */
+	List<Document> findByMetadata(Filter.Expression filterExpression, int limit);
+
+}
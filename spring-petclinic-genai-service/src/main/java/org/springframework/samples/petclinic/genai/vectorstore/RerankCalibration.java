@@ -0,0 +1,116 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Measures how many int8 candidates have to be re-ranked on the float32 vectors of a {@link VectorFile} for the
+ * search to reach a recall target.
+ * <p>
+ * The queries are stored vectors slightly perturbed, so that they are close to but not exactly a document. Their
+ * exact top-{@value #K} is compared to the top-{@value #K} of the {@code K * factor} best int8 candidates re-ranked,
+ * for increasing factors. To bound the time spent, the measure is done against at most
+ * {@value #MAX_CORPUS} vectors, which slightly overestimates the recall of larger files.
+ */
+final class RerankCalibration {
+
+	static final int K = 10;
+
+	static final int MAX_FACTOR = 32;
+
+	private static final int QUERIES = 32;
+
+	private static final int MAX_CORPUS = 50_000;
+
+	private RerankCalibration() {
+	}
+
+	/**
+	 * @return the smallest power of two re-rank factor reaching the recall target, or {@value #MAX_FACTOR} if none
+	 * does, with the recall it reaches
+	 */
+	static Result calibrate(VectorFile file, double recallTarget) {
+		int corpus = Math.min(file.count(), MAX_CORPUS);
+		if (corpus <= K) {
+			return new Result(1, 1);
+		}
+		SplittableRandom random = new SplittableRandom(corpus);
+		int[][] expected = new int[QUERIES][];
+		TopK[] candidates = new TopK[QUERIES];
+		float[][] queries = new float[QUERIES][];
+		for (int q = 0; q < QUERIES; q++) {
+			float[] query = file.vector(random.nextInt(corpus));
+			double noise = 0.5 / Math.sqrt(query.length);
+			for (int i = 0; i < query.length; i++) {
+				query[i] += (float) (noise * (2 * random.nextDouble() - 1));
+			}
+			HnswIndex.normalize(query);
+			queries[q] = query;
+			TopK exact = new TopK(K);
+			candidates[q] = new TopK(K * MAX_FACTOR);
+			for (int index = 0; index < corpus; index++) {
+				exact.offer(index, file.dot(index, query));
+				candidates[q].offer(index, file.approximateDot(index, query));
+			}
+			expected[q] = rows(exact);
+		}
+
+		double recall = 0;
+		for (int factor = 1; factor <= MAX_FACTOR; factor *= 2) {
+			int hits = 0;
+			for (int q = 0; q < QUERIES; q++) {
+				TopK reranked = new TopK(K);
+				int[] order = candidates[q].order();
+				for (int position = 0; position < Math.min(order.length, K * factor); position++) {
+					int row = candidates[q].row(order[position]);
+					reranked.offer(row, file.dot(row, queries[q]));
+				}
+				Set<Integer> found = new HashSet<>();
+				for (int row : rows(reranked)) {
+					found.add(row);
+				}
+				for (int row : expected[q]) {
+					hits += found.contains(row) ? 1 : 0;
+				}
+			}
+			recall = hits / (double) (QUERIES * K);
+			if (recall >= recallTarget) {
+				return new Result(factor, recall);
+			}
+		}
+		return new Result(MAX_FACTOR, recall);
+	}
+
+	private static int[] rows(TopK top) {
+		int[] order = top.order();
+		int[] rows = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			rows[i] = top.row(order[i]);
+		}
+		return rows;
+	}
+
+	/**
+	 * @param factor number of int8 candidates re-ranked per requested result
+	 * @param recall recall@{@value #K} measured with that factor
+	 */
+	record Result(int factor, double recall) {
+	}
+
+}
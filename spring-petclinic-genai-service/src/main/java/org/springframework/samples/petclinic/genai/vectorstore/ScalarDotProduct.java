@@ -0,0 +1,48 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+/**
+ * Dot product unrolled on four independent accumulators, which lets the CPU pipeline the multiplications.
+ */
+final class ScalarDotProduct implements DotProduct {
+
+	@Override
+	public float dot(float[] a, int aOffset, float[] b, int length) {
+		float sum0 = 0;
+		float sum1 = 0;
+		float sum2 = 0;
+		float sum3 = 0;
+		int i = 0;
+		int bound = length & ~3;
+		for (; i < bound; i += 4) {
+			sum0 += a[aOffset + i] * b[i];
+			sum1 += a[aOffset + i + 1] * b[i + 1];
+			sum2 += a[aOffset + i + 2] * b[i + 2];
+			sum3 += a[aOffset + i + 3] * b[i + 3];
+		}
+		for (; i < length; i++) {
+			sum0 += a[aOffset + i] * b[i];
+		}
+		return (sum0 + sum1) + (sum2 + sum3);
+	}
+
+	@Override
+	public String toString() {
+		return "scalar loops";
+	}
+
+}
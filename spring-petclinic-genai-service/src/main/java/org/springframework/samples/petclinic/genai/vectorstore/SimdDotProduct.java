@@ -0,0 +1,52 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Dot product computed on the widest SIMD registers of the CPU with fused multiply-adds. Requires
+ * {@code --add-modules jdk.incubator.vector}, only instantiated through {@link DotProduct#INSTANCE}.
+ */
+final class SimdDotProduct implements DotProduct {
+
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+	@Override
+	public float dot(float[] a, int aOffset, float[] b, int length) {
+		FloatVector sum = FloatVector.zero(SPECIES);
+		int i = 0;
+		int bound = SPECIES.loopBound(length);
+		for (; i < bound; i += SPECIES.length()) {
+			FloatVector left = FloatVector.fromArray(SPECIES, a, aOffset + i);
+			FloatVector right = FloatVector.fromArray(SPECIES, b, i);
+			sum = left.fma(right, sum);
+		}
+		float result = sum.reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			result += a[aOffset + i] * b[i];
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return SPECIES.vectorBitSize() + "-bit SIMD";
+	}
+
+}
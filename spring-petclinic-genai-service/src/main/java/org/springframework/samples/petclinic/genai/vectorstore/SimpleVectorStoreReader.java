@@ -0,0 +1,81 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentReader;
+import org.springframework.core.io.Resource;
+
+/**
+ * Reads the documents, with their embeddings, from a file written by {@code SimpleVectorStore#save}, so that a
+ * pre-embedded {@code vectorstore.json} can populate any {@link org.springframework.ai.vectorstore.VectorStore}.
+ * <p>
+ * The resource is streamed, it does not need to be a file on disk.
+ */
+public class SimpleVectorStoreReader implements DocumentReader {
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	private static final TypeReference<Map<String, Object>> METADATA = new TypeReference<>() {
+	};
+
+	private final Resource resource;
+
+	public SimpleVectorStoreReader(Resource resource) {
+		this.resource = resource;
+	}
+
+	@Override
+	public List<Document> get() {
+		try (InputStream in = resource.getInputStream()) {
+			JsonNode root = objectMapper.readTree(in);
+			List<Document> documents = new ArrayList<>(root.size());
+			for (Iterator<JsonNode> entries = root.elements(); entries.hasNext();) {
+				JsonNode entry = entries.next();
+				Map<String, Object> metadata = entry.hasNonNull("metadata")
+						? objectMapper.convertValue(entry.get("metadata"), METADATA) : Map.of();
+				Document document = new Document(entry.get("id").asText(), entry.path("content").asText(""),
+						new HashMap<>(metadata));
+				JsonNode embedding = entry.path("embedding");
+				if (embedding.isArray()) {
+					float[] vector = new float[embedding.size()];
+					for (int i = 0; i < vector.length; i++) {
+						vector[i] = (float) embedding.get(i).asDouble();
+					}
+					document.setEmbedding(vector);
+				}
+				documents.add(document);
+			}
+			return documents;
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException("Unable to read the vector store from " + resource, ex);
+		}
+	}
+
+}
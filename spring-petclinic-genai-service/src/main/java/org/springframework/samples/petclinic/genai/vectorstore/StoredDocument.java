@@ -0,0 +1,56 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.ai.document.Document;
+
+/**
+ * A document held by a vector store, without its embedding.
+ */
+record StoredDocument(String id, String content, Map<String, Object> metadata) {
+
+	static final String DISTANCE_METADATA = "distance";
+
+	/**
+	 * Copy the metadata of the given document, dropping the distance of a document coming from a previous search.
+	 */
+	static StoredDocument of(Document document) {
+		Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+		metadata.remove(DISTANCE_METADATA);
+		return new StoredDocument(document.getId(), document.getContent(), metadata);
+	}
+
+	/**
+	 * @return the document as a metadata lookup result, without distance
+	 */
+	Document toDocument() {
+		return new Document(id, content, new HashMap<>(metadata));
+	}
+
+	/**
+	 * @return the document as a search result, its distance to the query in the {@code distance} metadata like
+	 * the results of {@code SimpleVectorStore}
+	 */
+	Document toDocument(float distance) {
+		Map<String, Object> withDistance = new HashMap<>(metadata);
+		withDistance.put(DISTANCE_METADATA, distance);
+		return new Document(id, content, withDistance);
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the {@code k} highest scored rows seen, in a binary min-heap over primitive arrays so that offering a
+ * row that does not make it, the common case of a scan, is a single comparison.
+ */
+final class TopK {
+
+	private final int k;
+
+	private final int[] rows;
+
+	private final float[] scores;
+
+	private int size;
+
+	TopK(int k) {
+		this.k = k;
+		this.rows = new int[k];
+		this.scores = new float[k];
+	}
+
+	void offer(int row, float score) {
+		if (size < k) {
+			rows[size] = row;
+			scores[size] = score;
+			siftUp(size++);
+		}
+		else if (k > 0 && score > scores[0]) {
+			rows[0] = row;
+			scores[0] = score;
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * Merge the rows kept by another instance, typically computed by another worker.
+	 */
+	TopK merge(TopK other) {
+		for (int i = 0; i < other.size; i++) {
+			offer(other.rows[i], other.scores[i]);
+		}
+		return this;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the positions of the kept rows, best score first, to be read with {@link #row(int)} and
+	 * {@link #score(int)}
+	 */
+	int[] order() {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Float.compare(scores[b], scores[a]));
+		int[] sorted = new int[size];
+		for (int i = 0; i < size; i++) {
+			sorted[i] = order[i];
+		}
+		return sorted;
+	}
+
+	int row(int position) {
+		return rows[position];
+	}
+
+	float score(int position) {
+		return scores[position];
+	}
+
+	private void siftUp(int index) {
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (scores[parent] <= scores[index]) {
+				return;
+			}
+			swap(parent, index);
+			index = parent;
+		}
+	}
+
+	private void siftDown(int index) {
+		while (true) {
+			int smallest = index;
+			int left = 2 * index + 1;
+			int right = left + 1;
+			if (left < size && scores[left] < scores[smallest]) {
+				smallest = left;
+			}
+			if (right < size && scores[right] < scores[smallest]) {
+				smallest = right;
+			}
+			if (smallest == index) {
+				return;
+			}
+			swap(smallest, index);
+			index = smallest;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int row = rows[i];
+		rows[i] = rows[j];
+		rows[j] = row;
+		float score = scores[i];
+		scores[i] = scores[j];
+		scores[j] = score;
+	}
+
+}
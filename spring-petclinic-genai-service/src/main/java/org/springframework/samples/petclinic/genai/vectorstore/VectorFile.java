@@ -0,0 +1,363 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.samples.petclinic.genai.vectorstore.VectorStoreProperties.Encoding;
+
+/**
+ * Immutable file of unit-length embeddings and their documents, read through memory-mapped buffers.
+ * <p>
+ * The vectors are stored contiguously right after the header, so scoring a query only touches the pages of the
+ * vectors block and the documents are decoded for the best matches only. Nothing is copied to the heap when
+ * opening the file: its pages are loaded lazily by the OS and shared by all the processes mapping it.
+ * <p>
+ * An int8 file also holds the vectors quantized to one byte per dimension, each divided by a scale mapping its
+ * largest absolute component to 127. Scanning these codes reads four times less memory than the float32 vectors,
+ * which are then only read to re-rank the best candidates.
+ * <pre>
+ * int magic, int version, int count, int dimensions, int encoding, int reserved,
+ * long scalesOffset, long indexOffset                                       (40 bytes, little endian)
+ * vectors: float32 values * dimensions * count
+ * codes, int8 only, aligned on 8 bytes: int8 values * dimensions * count
+ * scales, int8 only, aligned on 8 bytes: float scale * count
+ * index, aligned on 8 bytes: (long offset from the index, int length) * count
+ * documents: UTF-8 JSON {"id", "content", "metadata"} * count
+ * </pre>
+ */
+final class VectorFile {
+
+	static final String EXTENSION = ".vec";
+
+	private static final int MAGIC = 0x50435646; // PCVF
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 40;
+
+	private static final int INDEX_ENTRY_SIZE = 12;
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	private static final TypeReference<Map<String, Object>> RECORD = new TypeReference<>() {
+	};
+
+	private final Path path;
+
+	private final int count;
+
+	private final int dimensions;
+
+	private final Encoding encoding;
+
+	// The vectors and codes blocks are split into chunks of whole vectors, a buffer being limited to 2 GB
+	private final Chunks vectors;
+
+	private final Chunks codes;
+
+	private final ByteBuffer scales;
+
+	private final ByteBuffer records;
+
+	private VectorFile(Path path, int count, int dimensions, Encoding encoding, Chunks vectors, Chunks codes,
+			ByteBuffer scales, ByteBuffer records) {
+		this.path = path;
+		this.count = count;
+		this.dimensions = dimensions;
+		this.encoding = encoding;
+		this.vectors = vectors;
+		this.codes = codes;
+		this.scales = scales;
+		this.records = records;
+	}
+
+	static VectorFile open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+				.order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException("Not a vector file: " + file);
+			}
+			int count = header.getInt(8);
+			int dimensions = header.getInt(12);
+			Encoding encoding = Encoding.values()[header.getInt(16)];
+			long scalesOffset = header.getLong(24);
+			long indexOffset = header.getLong(32);
+
+			Chunks vectors = Chunks.map(channel, HEADER_SIZE, count, 4 * dimensions);
+			Chunks codes = null;
+			ByteBuffer scales = null;
+			if (encoding == Encoding.INT8) {
+				codes = Chunks.map(channel, codesOffset(count, dimensions), count, dimensions);
+				scales = channel.map(FileChannel.MapMode.READ_ONLY, scalesOffset, 4L * count)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			}
+			ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, channel.size() - indexOffset)
+				.order(ByteOrder.LITTLE_ENDIAN);
+			return new VectorFile(file, count, dimensions, encoding, vectors, codes, scales, records);
+		}
+	}
+
+	/**
+	 * Write the given entries into a new file. The file is fully written and synced under a temporary name before
+	 * being atomically renamed, so replicas mapping the previous version keep reading a consistent file.
+	 */
+	static VectorFile write(Path file, Encoding encoding, int dimensions, List<Entry> entries) throws IOException {
+		int count = entries.size();
+		long vectorsEnd = HEADER_SIZE + (long) count * dimensions * 4;
+		long codesOffset = codesOffset(count, dimensions);
+		long codesEnd = codesOffset + (encoding == Encoding.INT8 ? (long) count * dimensions : 0);
+		long scalesOffset = align(codesEnd);
+		long indexOffset = align(scalesOffset + (encoding == Encoding.INT8 ? 4L * count : 0));
+
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+			ByteBuffer buffer = ByteBuffer.allocate(Math.max(HEADER_SIZE, dimensions * 4))
+				.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(dimensions).putInt(encoding.ordinal())
+				.putInt(0).putLong(scalesOffset).putLong(indexOffset);
+			out.write(buffer.array(), 0, HEADER_SIZE);
+
+			for (int i = 0; i < count; i++) {
+				float[] vector = entries.get(i).vector();
+				if (vector.length != dimensions) {
+					throw new IllegalArgumentException("Expected " + dimensions + " dimensions for "
+							+ entries.get(i).id() + ", got " + vector.length);
+				}
+				float[] unit = vector.clone();
+				HnswIndex.normalize(unit);
+				buffer.clear();
+				for (float value : unit) {
+					buffer.putFloat(value);
+				}
+				out.write(buffer.array(), 0, buffer.position());
+			}
+			pad(out, codesOffset - vectorsEnd);
+			float[] scaleValues = new float[encoding == Encoding.INT8 ? count : 0];
+			for (int i = 0; i < scaleValues.length; i++) {
+				float[] unit = entries.get(i).vector().clone();
+				HnswIndex.normalize(unit);
+				buffer.clear();
+				scaleValues[i] = quantize(unit, buffer);
+				out.write(buffer.array(), 0, buffer.position());
+			}
+			pad(out, scalesOffset - codesEnd);
+			for (float scale : scaleValues) {
+				buffer.clear();
+				out.write(buffer.putFloat(scale).array(), 0, 4);
+			}
+			pad(out, indexOffset - scalesOffset - 4L * scaleValues.length);
+
+			// The index is written once the lengths of the documents are known
+			long indexSize = (long) count * INDEX_ENTRY_SIZE;
+			pad(out, indexSize);
+			ByteBuffer index = ByteBuffer.allocate(Math.toIntExact(indexSize)).order(ByteOrder.LITTLE_ENDIAN);
+			long offset = indexSize;
+			for (Entry entry : entries) {
+				Map<String, Object> record = new HashMap<>();
+				record.put("id", entry.id());
+				record.put("content", entry.content());
+				record.put("metadata", entry.metadata());
+				byte[] json = objectMapper.writeValueAsBytes(record);
+				out.write(json);
+				index.putLong(offset).putInt(json.length);
+				offset += json.length;
+			}
+			out.flush();
+			channel.write(index.flip(), indexOffset);
+			channel.force(true);
+		}
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return open(file);
+	}
+
+	/**
+	 * @return the dot product of the query with the vector at the given position, that is their cosine
+	 * similarity when the query is a unit vector
+	 */
+	float dot(int index, float[] query) {
+		ByteBuffer chunk = vectors.chunk(index);
+		int base = vectors.offset(index);
+		float sum = 0;
+		for (int i = 0; i < dimensions; i++) {
+			sum += query[i] * chunk.getFloat(base + 4 * i);
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the dot product of the query with the int8 codes of the vector at the given position, an
+	 * approximation of {@link #dot(int, float[])} reading a quarter of the memory
+	 * @throws IllegalStateException if the file is not int8 encoded
+	 */
+	float approximateDot(int index, float[] query) {
+		if (codes == null) {
+			throw new IllegalStateException("No int8 codes in " + path);
+		}
+		ByteBuffer chunk = codes.chunk(index);
+		int base = codes.offset(index);
+		float sum = 0;
+		for (int i = 0; i < dimensions; i++) {
+			sum += query[i] * chunk.get(base + i);
+		}
+		return sum * scales.getFloat(4 * index);
+	}
+
+	/**
+	 * @return the unit vector at the given position
+	 */
+	float[] vector(int index) {
+		ByteBuffer chunk = vectors.chunk(index);
+		int base = vectors.offset(index);
+		float[] vector = new float[dimensions];
+		for (int i = 0; i < dimensions; i++) {
+			vector[i] = chunk.getFloat(base + 4 * i);
+		}
+		return vector;
+	}
+
+	/**
+	 * Decode the document at the given position, its vector excluded.
+	 */
+	Entry entry(int index) {
+		long offset = records.getLong(index * INDEX_ENTRY_SIZE);
+		int length = records.getInt(index * INDEX_ENTRY_SIZE + 8);
+		byte[] json = new byte[length];
+		records.get(Math.toIntExact(offset), json);
+		try {
+			Map<String, Object> record = objectMapper.readValue(json, RECORD);
+			@SuppressWarnings("unchecked")
+			Map<String, Object> metadata = (Map<String, Object>) record.getOrDefault("metadata", Map.of());
+			return new Entry((String) record.get("id"), (String) record.get("content"), metadata, null);
+		}
+		catch (IOException ex) {
+			throw new IllegalStateException("Corrupted document " + index + " in " + path, ex);
+		}
+	}
+
+	int count() {
+		return count;
+	}
+
+	int dimensions() {
+		return dimensions;
+	}
+
+	Encoding encoding() {
+		return encoding;
+	}
+
+	Path path() {
+		return path;
+	}
+
+	/**
+	 * @return the number of bytes read per vector when scanning the file, that is the size of the int8 codes and
+	 * scale if any, of the float32 vector otherwise
+	 */
+	int scannedBytesPerVector() {
+		return encoding == Encoding.INT8 ? dimensions + 4 : 4 * dimensions;
+	}
+
+	/**
+	 * @return the size of the file divided by its number of vectors
+	 */
+	long storedBytesPerVector() throws IOException {
+		return count == 0 ? 0 : Files.size(path) / count;
+	}
+
+	/**
+	 * Quantize a unit vector into the buffer.
+	 * @return the scale to multiply the int8 values by
+	 */
+	static float quantize(float[] vector, ByteBuffer buffer) {
+		float max = 0;
+		for (float value : vector) {
+			max = Math.max(max, Math.abs(value));
+		}
+		float scale = max == 0 ? 1 : max / 127;
+		for (float value : vector) {
+			buffer.put((byte) Math.max(-127, Math.min(127, Math.round(value / scale))));
+		}
+		return scale;
+	}
+
+	private static long codesOffset(int count, int dimensions) {
+		return align(HEADER_SIZE + (long) count * dimensions * 4);
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	private static void pad(OutputStream out, long length) throws IOException {
+		for (long i = 0; i < length; i++) {
+			out.write(0);
+		}
+	}
+
+	/**
+	 * A block of fixed-size vectors mapped as buffers of at most 2 GB holding whole vectors.
+	 */
+	private record Chunks(ByteBuffer[] buffers, int vectorsPerChunk, int vectorSize) {
+
+		static Chunks map(FileChannel channel, long offset, int count, int vectorSize) throws IOException {
+			int vectorsPerChunk = Math.max(1, Integer.MAX_VALUE / Math.max(1, vectorSize));
+			int chunkCount = count == 0 ? 0 : (count - 1) / vectorsPerChunk + 1;
+			ByteBuffer[] buffers = new ByteBuffer[chunkCount];
+			for (int chunk = 0; chunk < chunkCount; chunk++) {
+				int vectors = Math.min(vectorsPerChunk, count - chunk * vectorsPerChunk);
+				long position = offset + (long) chunk * vectorsPerChunk * vectorSize;
+				buffers[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) vectors * vectorSize)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			}
+			return new Chunks(buffers, vectorsPerChunk, vectorSize);
+		}
+
+		ByteBuffer chunk(int index) {
+			return buffers[index / vectorsPerChunk];
+		}
+
+		int offset(int index) {
+			return (index % vectorsPerChunk) * vectorSize;
+		}
+	}
+
+	/**
+	 * A document and its vector, {@code null} when read back from the file.
+	 */
+	record Entry(String id, String content, Map<String, Object> metadata, float[] vector) {
+	}
+
+}
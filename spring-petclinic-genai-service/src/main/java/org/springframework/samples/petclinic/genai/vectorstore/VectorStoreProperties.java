@@ -0,0 +1,135 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.nio.file.Path;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.core.io.Resource;
+
+/**
+ * Configuration of the vector store holding the veterinarians documents.
+ *
+ * @param type the implementation backing the store
+ * @param path file the store is saved to once populated and loaded from on startup, if the implementation supports
+ * it; unset to rebuild the store on every startup
+ * @param hnsw tuning of the {@link HnswVectorStore}
+ * @param mapped settings of the {@link MappedVectorStore}
+ * @param exact tuning of the {@link ExactVectorStore}
+ * @param indexing settings of the {@link DocumentIndexer}
+ */
+@ConfigurationProperties(prefix = "genai.vectorstore")
+public record VectorStoreProperties(
+		@DefaultValue("mapped") Type type,
+		Path path,
+		@DefaultValue Hnsw hnsw,
+		@DefaultValue Mapped mapped,
+		@DefaultValue Exact exact,
+		@DefaultValue Indexing indexing) {
+
+	public enum Type {
+
+		/**
+		 * Spring AI's {@code SimpleVectorStore}, comparing the query to every document.
+		 */
+		SIMPLE,
+
+		/**
+		 * {@link HnswVectorStore}, an approximate nearest neighbour graph index.
+		 */
+		HNSW,
+
+		/**
+		 * {@link MappedVectorStore}, an exact search over a memory-mapped vector file.
+		 */
+		MAPPED,
+
+		/**
+		 * {@link ExactVectorStore}, an exact search over a matrix on the heap scanned in parallel.
+		 */
+		EXACT
+
+	}
+
+	/**
+	 * Precision of the vectors in a {@link VectorFile}.
+	 */
+	public enum Encoding {
+
+		/**
+		 * 4 bytes per dimension, exact.
+		 */
+		FLOAT32,
+
+		/**
+		 * float32 vectors plus int8 codes, 1 byte per dimension and a scale per vector. Searches scan the codes
+		 * and re-rank the best candidates on the float32 vectors.
+		 */
+		INT8
+
+	}
+
+	/**
+	 * @param m maximum number of links per node on the upper layers, twice as many being kept on the bottom one.
+	 * Higher values improve recall at the cost of memory and insertion time
+	 * @param efConstruction size of the candidate list while inserting, trading insertion time for graph quality
+	 * @param efSearch size of the candidate list while searching, raised to the requested number of results if
+	 * lower. Trades query latency for recall
+	 */
+	public record Hnsw(
+			@DefaultValue("16") int m,
+			@DefaultValue("200") int efConstruction,
+			@DefaultValue("64") int efSearch) {
+	}
+
+	/**
+	 * @param resource vector file loaded when {@code path} is unset or does not exist yet, typically the
+	 * {@code vectorstore.vec} file shipped in the jar. Copied to a temporary file when not on the file system, as
+	 * only files can be mapped
+	 * @param encoding precision of the vectors written when saving the store
+	 * @param recallTarget recall@10 an int8 search has to reach, compared to an exact float32 search. The number of
+	 * candidates re-ranked is calibrated to reach it when a file is mapped
+	 */
+	public record Mapped(
+			@DefaultValue("classpath:vectorstore.vec") Resource resource,
+			@DefaultValue("float32") Encoding encoding,
+			@DefaultValue("0.99") double recallTarget) {
+	}
+
+	/**
+	 * @param parallelThreshold number of documents above which a search is split across the common fork-join pool
+	 * @param chunkSize number of documents scored by each fork-join task
+	 */
+	public record Exact(
+			@DefaultValue("8192") int parallelThreshold,
+			@DefaultValue("2048") int chunkSize) {
+	}
+
+	/**
+	 * @param cachePath file the {@link EmbeddingCache} is saved to after each re-indexing; unset to keep it in memory
+	 * only, re-embedding every document after a restart
+	 * @param batchSize number of texts per embedding request
+	 * @param concurrency maximum number of embedding requests in flight
+	 * @param requestsPerSecond maximum number of embedding requests started per second, 0 for no limit
+	 */
+	public record Indexing(
+			Path cachePath,
+			@DefaultValue("64") int batchSize,
+			@DefaultValue("4") int concurrency,
+			@DefaultValue("5") double requestsPerSecond) {
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.samples.petclinic.genai.cache.SemanticCache;
+import org.springframework.samples.petclinic.genai.cache.SemanticCacheProperties;
+import org.springframework.samples.petclinic.genai.dto.ChatToken;
+import org.springframework.samples.petclinic.genai.memory.BoundedChatMemory;
+import org.springframework.samples.petclinic.genai.memory.ChatMemoryProperties;
+import org.springframework.samples.petclinic.genai.memory.CompactingChatMemoryAdvisor;
+import org.springframework.samples.petclinic.genai.stub.StubChatModel;
+import org.springframework.samples.petclinic.genai.stub.StubChatModel.Script;
+import org.springframework.samples.petclinic.genai.stub.StubChatModel.ToolCall;
+import org.springframework.samples.petclinic.genai.stub.StubEmbeddingModel;
+import org.springframework.samples.petclinic.genai.vectorstore.MappedVectorStore;
+import org.springframework.samples.petclinic.genai.vectorstore.VectorStoreProperties;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+/**
+ * JMH benchmark of {@link PetclinicChatClient} end to end, advisors, chat memory, semantic cache, function calls,
+ * vector search and JSON handling included, with a {@link StubChatModel} and a {@link StubEmbeddingModel} so that
+ * it measures the overhead of the service rather than the time spent by the model.
+ * <p>
+ * Each scenario asks a question scripted to answer directly, to find owners or to search the vets in the
+ * {@code vectorstore.vec} file shipped in the jar. The customers service answers a page of owners from memory.
+ * Every question starts a new conversation, so that the answers can be cached when {@code cache} is set.
+ * <p>
+ * The throughput and the latency percentiles are measured with 1, 8 and 32 concurrent clients. Run it with the
+ * test classpath:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.springframework.samples.petclinic.genai.ChatClientBenchmark
+ * </pre>
+ * The model cost is removed by default; run a single configuration with {@code -p modelLatencyMillis=500} to add
+ * it back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class ChatClientBenchmark {
+
+	private static final int[] CONCURRENCY = { 1, 8, 32 };
+
+	private static final int DIMENSIONS = 1536;
+
+	private static final Map<String, String> QUESTIONS = Map.of(
+			"answer", "Hello, what can you do?",
+			"owners", "Which owners have a last name starting with Fra?",
+			"vets", "Which vets are specialized in surgery?");
+
+	private static final ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+
+	@Param({ "answer", "owners", "vets" })
+	String scenario;
+
+	@Param({ "false", "true" })
+	boolean cache;
+
+	@Param({ "0" })
+	int modelLatencyMillis;
+
+	private final AtomicLong conversations = new AtomicLong();
+
+	private ToolExecutor toolExecutor;
+
+	private PetclinicChatClient chatClient;
+
+	private String question;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		Duration modelLatency = Duration.ofMillis(modelLatencyMillis);
+		StubEmbeddingModel embeddingModel = new StubEmbeddingModel(DIMENSIONS, modelLatency);
+
+		MappedVectorStore vectorStore = new MappedVectorStore(embeddingModel,
+				new VectorStoreProperties.Mapped(new ClassPathResource("vectorstore.vec"),
+						VectorStoreProperties.Encoding.FLOAT32, 0.99),
+				registry);
+		vectorStore.load(new ClassPathResource("vectorstore.vec"));
+
+		ToolProperties toolProperties = new ToolProperties(8, 64, Duration.ofSeconds(10), 10,
+				DataSize.ofKilobytes(8), Duration.ofSeconds(20), new ToolProperties.Memo(Duration.ofMinutes(1), 1000));
+		toolExecutor = new ToolExecutor(toolProperties, registry, event -> {
+		}, new ToolResultMemo(toolProperties, registry));
+		AIDataProvider dataProvider = new AIDataProvider(customersService(), vectorStore, toolProperties);
+		AIFunctionConfiguration functions = new AIFunctionConfiguration();
+		VectorStoreReadiness vectorStoreReadiness = new VectorStoreReadiness();
+		vectorStoreReadiness.ready();
+
+		StubChatModel chatModel = new StubChatModel(
+				Map.of(QUESTIONS.get("owners"),
+						new Script(List.of(new ToolCall("findOwners", "{\"lastName\": \"Fra\"}")),
+								"George Franklin and 9 other owners have a last name starting with Fra."),
+						QUESTIONS.get("vets"),
+						new Script(List.of(new ToolCall("listVets",
+								"{\"vet\": {\"specialties\": [{\"name\": \"surgery\"}]}}")),
+								"Linda Douglas and Rafael Ortega are specialized in surgery.")),
+				Script.answer("I can help you with the owners, their pets and the veterinarians of the clinic."),
+				Map.of("findOwners", tool(functions.findOwners(dataProvider, toolExecutor), OwnerSearchRequest.class),
+						"listVets", tool(functions.listVets(dataProvider, toolExecutor, vectorStoreReadiness),
+								VetRequest.class)),
+				modelLatency, Duration.ZERO);
+
+		ChatMemoryProperties memoryProperties = new ChatMemoryProperties(20, DataSize.ofMegabytes(32),
+				Duration.ofMinutes(30), null, new ChatMemoryProperties.History(10, 3000, 4, 150));
+		BoundedChatMemory chatMemory = new BoundedChatMemory(memoryProperties, registry);
+		SemanticCache semanticCache = new SemanticCache(embeddingModel,
+				new SemanticCacheProperties(cache, 0.95, Duration.ofMinutes(10), 1000), registry);
+		chatClient = new PetclinicChatClient(ChatClient.builder(chatModel), chatMemory,
+				new CompactingChatMemoryAdvisor(chatMemory, memoryProperties.history(), registry), semanticCache,
+				registry);
+		question = QUESTIONS.get(scenario);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		toolExecutor.shutdown();
+	}
+
+	@Benchmark
+	public String exchange() {
+		return chatClient.exchange(question, nextConversation()).block();
+	}
+
+	@Benchmark
+	public List<ChatToken> stream() {
+		return chatClient.stream(question, nextConversation()).collectList().block();
+	}
+
+	private String nextConversation() {
+		return "benchmark-" + conversations.incrementAndGet();
+	}
+
+	/**
+	 * @return the customers service, answering a page of 10 owners
+	 */
+	private static WebClient.Builder customersService() throws JsonProcessingException {
+		List<Map<String, Object>> owners = new ArrayList<>();
+		for (int id = 1; id <= 10; id++) {
+			owners.add(Map.of("id", id, "firstName", "George", "lastName", "Franklin", "address",
+					id + "10 W. Liberty St.", "city", "Madison", "telephone", "608555" + (1000 + id), "pets",
+					List.of(Map.of("id", id, "name", "Leo", "birthDate", "2010-09-07", "type",
+							Map.of("name", "cat")))));
+		}
+		String page = objectMapper
+			.writeValueAsString(Map.of("content", owners, "page", 0, "size", 10, "totalElements", 10));
+		return WebClient.builder()
+			.exchangeFunction(request -> Mono.just(ClientResponse.create(HttpStatus.OK)
+				.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+				.body(page)
+				.build()));
+	}
+
+	/**
+	 * @return the function called with JSON arguments and returning a JSON result, as the model calls it
+	 */
+	private static <I, O> StubChatModel.Tool tool(BiFunction<I, ToolContext, O> function, Class<I> requestType) {
+		return (arguments, context) -> {
+			try {
+				return objectMapper.writeValueAsString(
+						function.apply(objectMapper.readValue(arguments, requestType), context));
+			}
+			catch (JsonProcessingException ex) {
+				throw new IllegalStateException(ex);
+			}
+		};
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		for (int threads : CONCURRENCY) {
+			new Runner(new OptionsBuilder().include(ChatClientBenchmark.class.getSimpleName())
+				.threads(threads)
+				.build()).run();
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.samples.petclinic.genai.cache.SemanticCache;
+import org.springframework.samples.petclinic.genai.cache.SemanticCacheProperties;
+import org.springframework.samples.petclinic.genai.memory.BoundedChatMemory;
+import org.springframework.samples.petclinic.genai.memory.ChatMemoryProperties;
+import org.springframework.samples.petclinic.genai.memory.CompactingChatMemoryAdvisor;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.blockhound.BlockHound;
+import reactor.blockhound.BlockingOperationError;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Checks with BlockHound that the chat and the functions it calls never block a non-blocking thread, such as the
+ * event loop.
+ */
+@Tag("blockhound")
+class NonBlockingToolsTest {
+
+	@RegisterExtension
+	final ToolFixture tools = new ToolFixture(Duration.ofMinutes(1));
+
+	private final MeterRegistry registry = tools.registry();
+
+	@BeforeAll
+	static void installBlockHound() {
+		// Not uninstallable, the tests tagged blockhound run in their own JVM
+		BlockHound.install();
+	}
+
+	@Test
+	void shouldDetectBlockingCallsOnNonBlockingThreads() {
+		Mono<String> sleeping = Mono.fromCallable(this::sleep).subscribeOn(Schedulers.parallel());
+
+		assertThatThrownBy(sleeping::block).hasRootCauseInstanceOf(BlockingOperationError.class);
+	}
+
+	@Test
+	void shouldFindOwnersWithoutBlocking() {
+		WebClient.Builder webClientBuilder = WebClient.builder()
+			.exchangeFunction(request -> Mono.just(ClientResponse.create(HttpStatus.OK)
+				.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+				.body("""
+						{"content": [{"id": 1, "firstName": "George", "lastName": "Franklin",
+						"address": "110 W. Liberty St.", "city": "Madison", "telephone": "6085551023", "pets": []}],
+						"page": 0, "size": 10, "totalElements": 1}""")
+				.build()));
+		AIDataProvider dataProvider = new AIDataProvider(webClientBuilder, mock(VectorStore.class), tools.properties());
+
+		OwnersResponse response = dataProvider
+			.findOwners(new OwnerSearchRequest("Fra", null, null, null, null, null))
+			.subscribeOn(Schedulers.parallel())
+			.block();
+
+		assertThat(response.owners()).extracting("lastName").containsExactly("Franklin");
+		assertThat(response.truncated()).isFalse();
+	}
+
+	@Test
+	void shouldRunBlockingFunctionsOnTheToolThreads() {
+		String thread = tools.executor().call(ChatTool.LIST_VETS, null, null, () -> Mono.fromCallable(this::sleep));
+
+		assertThat(thread).startsWith("genai-tool-");
+		assertThat(registry.get("petclinic.chat.tool.latency").tag("tool", "listVets").timer().count()).isEqualTo(1);
+		assertThat(registry.get("petclinic.chat.tool.active").tag("tool", "listVets").gauge().value()).isZero();
+	}
+
+	@Test
+	void shouldRefuseToWaitForAFunctionOnANonBlockingThread() {
+		Mono<String> waiting = Mono
+			.fromCallable(() -> tools.executor().call(ChatTool.LIST_VETS, null, null, () -> Mono.just("vets")))
+			.subscribeOn(Schedulers.parallel());
+
+		assertThatThrownBy(waiting::block).isInstanceOf(IllegalStateException.class)
+			.hasMessageContaining("non-blocking thread");
+	}
+
+	@Test
+	void shouldCallTheFunctionsOfAStreamedTurnOffTheEventLoop() {
+		ChatModel toolCallingModel = new ChatModel() {
+
+			@Override
+			public ChatResponse call(Prompt prompt) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public Flux<ChatResponse> stream(Prompt prompt) {
+				if (prompt.getInstructions().get(prompt.getInstructions().size() - 1) instanceof ToolResponseMessage
+						results) {
+					AssistantMessage answer = new AssistantMessage(results.getResponses().get(0).responseData());
+					return Flux.just(new ChatResponse(List.of(new Generation(answer))));
+				}
+				AssistantMessage.ToolCall toolCall = new AssistantMessage.ToolCall("1", "function", "listVets", "{}");
+				return Flux.just(new ChatResponse(
+						List.of(new Generation(new AssistantMessage("", Map.of(), List.of(toolCall))))));
+			}
+		};
+		BiFunction<Object, ToolContext, String> listVets = (request, context) -> tools.executor()
+			.call(ChatTool.LIST_VETS, request, context, () -> Mono.fromCallable(this::sleep));
+		ChatModel chatModel = new ParallelToolCallingChatModel(toolCallingModel, Map.of("listVets", listVets),
+				new ObjectMapper(), tools.properties(), registry);
+
+		String answer = chatModel.stream(new Prompt("Who works here?"))
+			.subscribeOn(Schedulers.parallel())
+			.map(response -> response.getResult().getOutput().getContent())
+			.blockLast();
+
+		// The name of the thread the function ran on, as JSON
+		assertThat(answer).startsWith("\"genai-tool-");
+	}
+
+	@Test
+	void shouldCallTheModelOffTheEventLoop() throws IOException {
+		ChatModel blockingModel = new ChatModel() {
+
+			@Override
+			public ChatResponse call(Prompt prompt) {
+				sleep();
+				return new ChatResponse(List.of(new Generation(new AssistantMessage("Hello"))));
+			}
+		};
+		ChatMemoryProperties memoryProperties = new ChatMemoryProperties(20, DataSize.ofMegabytes(1),
+				Duration.ofMinutes(30), null, new ChatMemoryProperties.History(10, 3000, 4, 150));
+		BoundedChatMemory chatMemory = new BoundedChatMemory(memoryProperties, registry);
+		SemanticCache semanticCache = new SemanticCache(mock(EmbeddingModel.class),
+				new SemanticCacheProperties(false, 0.95, Duration.ofMinutes(10), 1000), registry);
+		PetclinicChatClient chatClient = new PetclinicChatClient(ChatClient.builder(blockingModel), chatMemory,
+				new CompactingChatMemoryAdvisor(chatMemory, memoryProperties.history(), registry), semanticCache,
+				registry);
+
+		String answer = chatClient.exchange("Hi", "conversation").subscribeOn(Schedulers.parallel()).block();
+
+		// The error of a blocked event loop would have been answered with the unavailable message
+		assertThat(answer).isEqualTo("Hello");
+	}
+
+	private String sleep() {
+		try {
+			Thread.sleep(10);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		return Thread.currentThread().getName();
+	}
+
+}
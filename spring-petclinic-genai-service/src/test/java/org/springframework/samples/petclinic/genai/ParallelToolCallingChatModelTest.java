@@ -0,0 +1,139 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.AssistantMessage.ToolCall;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.samples.petclinic.genai.dto.OwnerDetails;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Checks that {@link ParallelToolCallingChatModel} runs the read-only functions of a turn concurrently and the
+ * functions changing data one at a time, in order.
+ */
+class ParallelToolCallingChatModelTest {
+
+	private static final Duration FUNCTION_DURATION = Duration.ofMillis(300);
+
+	private final Queue<String> calls = new ConcurrentLinkedQueue<>();
+
+	@Test
+	void shouldRunReadOnlyFunctionsConcurrently() {
+		ChatModel chatModel = chatModel(Duration.ofSeconds(5), toolCall("1", "listVets"), toolCall("2", "findOwners"),
+				toolCall("3", "listVets"));
+
+		long start = System.nanoTime();
+		ChatResponse response = chatModel.call(new Prompt("Who works here?"));
+
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(FUNCTION_DURATION.multipliedBy(2));
+		// The results are sent back in the order of the calls
+		assertThat(response.getResult().getOutput().getContent()).isEqualTo("1:listVets 2:findOwners 3:listVets");
+	}
+
+	@Test
+	void shouldRunFunctionsChangingDataInOrder() {
+		ChatModel chatModel = chatModel(Duration.ofSeconds(5), toolCall("1", "findOwners"),
+				toolCall("2", "addOwnerToPetclinic"), toolCall("3", "addPetToOwner"), toolCall("4", "listVets"));
+
+		chatModel.call(new Prompt("Add George and his cat"));
+
+		assertThat(calls).containsExactly("findOwners", "addOwnerToPetclinic", "addPetToOwner", "listVets");
+	}
+
+	@Test
+	void shouldSplitTheCallsAroundFunctionsChangingData() {
+		List<List<ToolCall>> batches = ParallelToolCallingChatModel.batches(List.of(toolCall("1", "findOwners"),
+				toolCall("2", "listVets"), toolCall("3", "addOwnerToPetclinic"), toolCall("4", "findOwners")));
+
+		assertThat(batches).extracting(batch -> batch.stream().map(ToolCall::id).toList())
+			.containsExactly(List.of("1", "2"), List.of("3"), List.of("4"));
+	}
+
+	@Test
+	void shouldFailTheTurnAfterItsTimeout() {
+		ChatModel chatModel = chatModel(FUNCTION_DURATION.dividedBy(2), toolCall("1", "listVets"));
+
+		assertThatThrownBy(() -> chatModel.call(new Prompt("Who works here?")))
+			.hasRootCauseInstanceOf(TimeoutException.class);
+	}
+
+	/**
+	 * @return the model, asking for the given function calls then answering the ids and names of their results
+	 */
+	private ChatModel chatModel(Duration turnTimeout, ToolCall... toolCalls) {
+		ChatModel model = new ChatModel() {
+
+			@Override
+			public ChatResponse call(Prompt prompt) {
+				if (prompt.getInstructions().get(prompt.getInstructions().size() - 1) instanceof ToolResponseMessage
+						results) {
+					String answer = results.getResponses()
+						.stream()
+						.map(result -> result.id() + ":" + result.name())
+						.collect(Collectors.joining(" "));
+					return new ChatResponse(List.of(new Generation(new AssistantMessage(answer))));
+				}
+				return new ChatResponse(
+						List.of(new Generation(new AssistantMessage("", Map.of(), List.of(toolCalls)))));
+			}
+		};
+		Map<String, BiFunction<?, ToolContext, ?>> functions = Map.of(
+				"findOwners", function("findOwners", new OwnersResponse(List.<OwnerDetails>of(), 0, 0, false)),
+				"listVets", function("listVets", new VetResponse(List.of())),
+				"addOwnerToPetclinic", function("addOwnerToPetclinic", new OwnerResponse(null)),
+				"addPetToOwner", function("addPetToOwner", new AddedPetResponse(null)));
+		return new ParallelToolCallingChatModel(model, functions, new ObjectMapper(),
+				ToolFixture.properties(turnTimeout, Duration.ofMinutes(1)), new SimpleMeterRegistry());
+	}
+
+	private <T> BiFunction<Object, ToolContext, T> function(String name, T result) {
+		return (request, context) -> {
+			try {
+				Thread.sleep(FUNCTION_DURATION.toMillis());
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			calls.add(name);
+			return result;
+		};
+	}
+
+	private static ToolCall toolCall(String id, String name) {
+		return new ToolCall(id, "function", name, "{}");
+	}
+
+}
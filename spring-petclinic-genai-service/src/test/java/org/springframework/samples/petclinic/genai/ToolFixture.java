@@ -0,0 +1,69 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.time.Duration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * The {@link ToolExecutor} of a test and its {@link ToolProperties}, shut down after each test once registered with
+ * {@link org.junit.jupiter.api.extension.RegisterExtension @RegisterExtension}.
+ */
+class ToolFixture implements AfterEachCallback {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+
+	private final ToolProperties properties;
+
+	private final ToolExecutor executor;
+
+	/**
+	 * @param memoTtl time the results of the read-only functions are reused, 0 to call the functions every time
+	 */
+	ToolFixture(Duration memoTtl) {
+		this.properties = properties(Duration.ofSeconds(10), memoTtl);
+		this.executor = new ToolExecutor(properties, registry, event -> {
+		}, new ToolResultMemo(properties, registry));
+	}
+
+	static ToolProperties properties(Duration turnTimeout, Duration memoTtl) {
+		return new ToolProperties(4, 16, Duration.ofSeconds(5), 10, DataSize.ofKilobytes(8), turnTimeout,
+				new ToolProperties.Memo(memoTtl, 100));
+	}
+
+	MeterRegistry registry() {
+		return registry;
+	}
+
+	ToolProperties properties() {
+		return properties;
+	}
+
+	ToolExecutor executor() {
+		return executor;
+	}
+
+	@Override
+	public void afterEach(ExtensionContext context) {
+		executor.shutdown();
+	}
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.samples.petclinic.genai.cache.ChatDataChangedEvent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that {@link ToolResultMemo} reuses the results of the same call in the same conversation only, until data
+ * changes.
+ */
+class ToolResultMemoTest {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+
+	private final ToolResultMemo memo = new ToolResultMemo(
+			ToolFixture.properties(Duration.ofSeconds(10), Duration.ofMinutes(1)), registry);
+
+	private final AtomicInteger calls = new AtomicInteger();
+
+	private final OwnerSearchRequest franklin = new OwnerSearchRequest("Franklin", null, null, null, null, null);
+
+	@Test
+	void shouldReuseTheResultOfTheSameCallInTheSameConversation() {
+		findOwners("conversation", franklin);
+		findOwners("conversation", new OwnerSearchRequest("Franklin", null, null, null, null, null));
+		findOwners("conversation", new OwnerSearchRequest("Davis", null, null, null, null, null));
+		findOwners("other", franklin);
+
+		assertThat(calls).hasValue(3);
+		assertThat(registry.get("petclinic.chat.tool.memo").tag("tool", "findOwners").tag("result", "hit").counter()
+			.count()).isEqualTo(1);
+	}
+
+	@Test
+	void shouldCallAgainOnceTheDataChanged() {
+		findOwners("conversation", franklin);
+		memo.onChatDataChanged(new ChatDataChangedEvent("vets"));
+		findOwners("conversation", franklin);
+		memo.onChatDataChanged(new ChatDataChangedEvent("owners"));
+		findOwners("conversation", franklin);
+
+		assertThat(calls).hasValue(2);
+	}
+
+	@Test
+	void shouldNotMemoizeFunctionsChangingData() {
+		memo.memoize("conversation", ChatTool.ADD_OWNER, franklin, calls::incrementAndGet);
+		memo.memoize("conversation", ChatTool.ADD_OWNER, franklin, calls::incrementAndGet);
+
+		assertThat(calls).hasValue(2);
+		assertThat(memo.size()).isZero();
+	}
+
+	private void findOwners(String conversationId, OwnerSearchRequest request) {
+		memo.memoize(conversationId, ChatTool.FIND_OWNERS, request, calls::incrementAndGet);
+	}
+
+}
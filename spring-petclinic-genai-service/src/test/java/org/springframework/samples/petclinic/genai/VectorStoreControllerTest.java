@@ -0,0 +1,102 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.samples.petclinic.genai.stub.StubEmbeddingModel;
+import org.springframework.samples.petclinic.genai.vectorstore.DocumentIndexer;
+import org.springframework.samples.petclinic.genai.vectorstore.DocumentIndexer.IndexingResult;
+import org.springframework.samples.petclinic.genai.vectorstore.VectorStoreProperties;
+import org.springframework.samples.petclinic.genai.vectorstore.VectorStoreProperties.Encoding;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Checks that {@link VectorStoreController} answers 409 Conflict to a re-indexing requested while another one is
+ * running.
+ */
+class VectorStoreControllerTest {
+
+	private final CountDownLatch embedding = new CountDownLatch(1);
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@Test
+	void shouldRejectAConcurrentReindexing() throws Exception {
+		VectorStoreController controller = controller();
+		CompletableFuture<IndexingResult> first = controller.reindex().toFuture();
+		assertThat(embedding.await(5, TimeUnit.SECONDS)).isTrue();
+
+		assertThatThrownBy(() -> controller.reindex().block()).isInstanceOfSatisfying(ResponseStatusException.class,
+				ex -> assertThat(ex.getStatusCode()).isEqualTo(HttpStatus.CONFLICT));
+
+		release.countDown();
+		assertThat(first.get(5, TimeUnit.SECONDS).indexed()).isEqualTo(1);
+		// Accepted again once the first one is done
+		assertThat(controller.reindex().block().unchanged()).isEqualTo(1);
+	}
+
+	private VectorStoreController controller() throws IOException {
+		WebClient.Builder webClientBuilder = WebClient.builder()
+			.exchangeFunction(request -> Mono.just(ClientResponse.create(HttpStatus.OK)
+				.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+				.body("""
+						[{"id": 1, "firstName": "James", "lastName": "Carter", "specialties": []}]""")
+				.build()));
+		// Waits for the test to release the first embedding
+		StubEmbeddingModel embeddingModel = new StubEmbeddingModel(3, Duration.ZERO) {
+
+			@Override
+			public EmbeddingResponse call(EmbeddingRequest request) {
+				embedding.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				return super.call(request);
+			}
+		};
+		VectorStoreProperties properties = new VectorStoreProperties(VectorStoreProperties.Type.EXACT, null,
+				new VectorStoreProperties.Hnsw(16, 200, 64),
+				new VectorStoreProperties.Mapped(null, Encoding.FLOAT32, 0.99),
+				new VectorStoreProperties.Exact(8192, 2048), new VectorStoreProperties.Indexing(null, 64, 1, 0));
+		VectorStore vectorStore = mock(VectorStore.class);
+		return new VectorStoreController(vectorStore, webClientBuilder, properties,
+				new DocumentIndexer(vectorStore, embeddingModel, properties.indexing()), event -> {
+				}, new VectorStoreReadiness());
+	}
+
+}
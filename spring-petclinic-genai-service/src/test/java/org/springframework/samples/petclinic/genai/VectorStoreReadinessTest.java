@@ -0,0 +1,74 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+/**
+ * Checks that the vet search and the health of the service report the vector store warming up until it is loaded.
+ */
+class VectorStoreReadinessTest {
+
+	@RegisterExtension
+	final ToolFixture tools = new ToolFixture(Duration.ZERO);
+
+	private final VectorStore vectorStore = mock(VectorStore.class);
+
+	private final VectorStoreReadiness readiness = new VectorStoreReadiness();
+
+	@Test
+	void shouldReportTheAttemptsUntilTheStoreIsLoaded() {
+		readiness.attempt();
+		readiness.failed(new IOException("vets-service unavailable"));
+
+		Health warmingUp = readiness.health();
+		assertThat(warmingUp.getStatus()).isEqualTo(VectorStoreReadiness.WARMING_UP);
+		assertThat(warmingUp.getDetails()).containsEntry("attempts", 1)
+			.containsEntry("lastFailure", "java.io.IOException: vets-service unavailable");
+
+		readiness.ready();
+		assertThat(readiness.health().getStatus()).isEqualTo(Status.UP);
+	}
+
+	@Test
+	void shouldAnswerThatTheVetsAreWarmingUpWithoutSearchingTheStore() {
+		AIDataProvider dataProvider = new AIDataProvider(WebClient.builder(), vectorStore, tools.properties());
+		var listVets = new AIFunctionConfiguration().listVets(dataProvider, tools.executor(), readiness);
+
+		assertThat(listVets.apply(new VetRequest(null), null)).isEqualTo(VetResponse.WARMING_UP);
+		verifyNoInteractions(vectorStore);
+
+		readiness.ready();
+		assertThat(listVets.apply(new VetRequest(null), null).status()).isNull();
+		verify(vectorStore).similaritySearch(any(SearchRequest.class));
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.samples.petclinic.genai.dto.Specialty;
+import org.springframework.samples.petclinic.genai.dto.Vet;
+import org.springframework.samples.petclinic.genai.vectorstore.ExactVectorStore;
+import org.springframework.samples.petclinic.genai.vectorstore.VectorStoreProperties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that the vets named in a request are found by the {@link VetMetadata} of their documents, without
+ * embedding the request.
+ */
+class VetMetadataTest {
+
+	private static final Specialty SURGERY = new Specialty(2, "surgery");
+
+	private static final Specialty DENTISTRY = new Specialty(3, "dentistry");
+
+	// No embedding model, a lookup embedding the request would fail
+	private final ExactVectorStore store = new ExactVectorStore(null, new VectorStoreProperties.Exact(8192, 2048));
+
+	VetMetadataTest() {
+		store.add(List.of(document(new Vet(1, "James", "Carter", Set.of())),
+				document(new Vet(3, "Linda", "Douglas", Set.of(DENTISTRY, SURGERY))),
+				document(new Vet(4, "Rafael", "Ortega", Set.of(SURGERY)))));
+	}
+
+	@Test
+	void shouldFindTheVetsHavingTheSpecialty() {
+		assertThat(find(new Vet(null, null, null, Set.of(new Specialty(null, "Surgery"))))).containsExactly("vet-3",
+				"vet-4");
+	}
+
+	@Test
+	void shouldFindTheVetByNameWhateverTheCase() {
+		assertThat(find(new Vet(null, "linda", "DOUGLAS", null))).containsExactly("vet-3");
+		assertThat(find(new Vet(null, null, "Carter", Set.of(SURGERY)))).isEmpty();
+	}
+
+	@Test
+	void shouldNotFilterWhenTheRequestNamesNothing() {
+		assertThat(VetMetadata.filter(new Vet(null, " ", null, Set.of()))).isNull();
+	}
+
+	private List<String> find(Vet vet) {
+		return store.findByMetadata(VetMetadata.filter(vet), 10).stream().map(Document::getId).toList();
+	}
+
+	private static Document document(Vet vet) {
+		Document document = new Document("vet-" + vet.id(), vet.toString(), VetMetadata.of(vet));
+		document.setEmbedding(new float[] { vet.id(), 1, 0 });
+		return document;
+	}
+
+}
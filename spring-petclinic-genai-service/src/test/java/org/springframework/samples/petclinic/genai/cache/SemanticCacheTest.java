@@ -0,0 +1,148 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.cache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that {@link SemanticCache} answers the questions close enough to a cached one, until the answer expires or
+ * the data it is based on changes.
+ */
+class SemanticCacheTest {
+
+	private static final String SURGEONS = "which vets are surgeons?";
+
+	private static final String SURGERY = "which vets do surgery?";
+
+	private static final String DENTISTS = "which vets are dentists?";
+
+	// Similarities with the surgeons question: 0.99 for the surgery one, 0.8 for the dentists one
+	private static final Map<String, float[]> EMBEDDINGS = Map.of(
+			SURGEONS, new float[] { 1, 0, 0 },
+			SURGERY, new float[] { 0.99f, 0.141f, 0 },
+			DENTISTS, new float[] { 0.8f, 0.6f, 0 });
+
+	@Test
+	void shouldAnswerSimilarQuestionsOnly() {
+		SemanticCache cache = cache(Duration.ofMinutes(10));
+		answer("vets", cache, SURGEONS, "Helen Leary and Linda Douglas");
+
+		SemanticCache.Lookup rephrased = cache.lookup(SURGERY);
+		SemanticCache.Lookup different = cache.lookup(DENTISTS);
+
+		assertThat(rephrased.isHit()).isTrue();
+		assertThat(rephrased.answer()).isEqualTo("Helen Leary and Linda Douglas");
+		assertThat(different.isHit()).isFalse();
+	}
+
+	@Test
+	void shouldExpireAnswers() throws InterruptedException {
+		SemanticCache cache = cache(Duration.ofMillis(50));
+		answer("vets", cache, SURGEONS, "Helen Leary and Linda Douglas");
+
+		Thread.sleep(100);
+
+		assertThat(cache.lookup(SURGEONS).isHit()).isFalse();
+		assertThat(cache.size()).isZero();
+	}
+
+	@Test
+	void shouldDropTheAnswersOfTheChangedData() {
+		SemanticCache cache = cache(Duration.ofMinutes(10));
+		answer("vets", cache, SURGEONS, "Helen Leary and Linda Douglas");
+		answer("owners", cache, DENTISTS, "George Franklin");
+
+		cache.onChatDataChanged(new ChatDataChangedEvent("vets"));
+
+		assertThat(cache.lookup(SURGEONS).isHit()).isFalse();
+		assertThat(cache.lookup(DENTISTS).isHit()).isTrue();
+	}
+
+	@Test
+	void shouldNotCacheAnAnswerWrittenWhileDataChanged() {
+		SemanticCache cache = cache(Duration.ofMinutes(10));
+		SemanticCache.Lookup lookup = cache.lookup(SURGEONS);
+
+		// The vets change while the model writes its answer, based on the previous vets
+		cache.invalidate("vets");
+		cache.put(lookup, "Helen Leary and Linda Douglas", Set.of("vets"), Duration.ofSeconds(1));
+
+		assertThat(cache.lookup(SURGEONS).isHit()).isFalse();
+		assertThat(cache.size()).isZero();
+	}
+
+	@Test
+	void shouldNotCacheTheAnswersOfBypassedLookups() {
+		SemanticCache cache = cache(Duration.ofMinutes(10));
+
+		cache.put(SemanticCache.Lookup.BYPASSED, "Helen Leary and Linda Douglas", Set.of("vets"),
+				Duration.ofSeconds(1));
+
+		assertThat(cache.size()).isZero();
+	}
+
+	private static SemanticCache cache(Duration ttl) {
+		return new SemanticCache(new FixedEmbeddingModel(), new SemanticCacheProperties(true, 0.95, ttl, 100),
+				new SimpleMeterRegistry());
+	}
+
+	private static void answer(String intent, SemanticCache cache, String question, String answer) {
+		SemanticCache.Lookup lookup = cache.lookup(question);
+		assertThat(lookup.isHit()).isFalse();
+		cache.put(lookup, answer, Set.of(intent), Duration.ofSeconds(1));
+	}
+
+	/**
+	 * Embeds the questions of the test as vectors with known similarities.
+	 */
+	private static class FixedEmbeddingModel implements EmbeddingModel {
+
+		@Override
+		public EmbeddingResponse call(EmbeddingRequest request) {
+			List<Embedding> embeddings = new ArrayList<>();
+			for (String text : request.getInstructions()) {
+				embeddings.add(new Embedding(EMBEDDINGS.get(text).clone(), embeddings.size()));
+			}
+			return new EmbeddingResponse(embeddings);
+		}
+
+		@Override
+		public float[] embed(Document document) {
+			return EMBEDDINGS.get(document.getContent()).clone();
+		}
+
+		@Override
+		public int dimensions() {
+			return 3;
+		}
+
+	}
+
+}
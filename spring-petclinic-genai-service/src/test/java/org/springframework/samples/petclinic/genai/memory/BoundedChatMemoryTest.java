@@ -0,0 +1,117 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.memory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.util.unit.DataSize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that {@link BoundedChatMemory} keeps the conversations within its bounds, and saves and loads them back.
+ */
+class BoundedChatMemoryTest {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void shouldKeepTheMostRecentMessagesOfAConversation() throws IOException {
+		BoundedChatMemory memory = memory(3, DataSize.ofMegabytes(1), Duration.ofMinutes(30), null);
+
+		memory.add("conversation", List.of(new UserMessage("one"), new AssistantMessage("two")));
+		memory.add("conversation", List.of(new UserMessage("three"), new AssistantMessage("four")));
+
+		assertThat(texts(memory.get("conversation", 10))).containsExactly("two", "three", "four");
+		assertThat(texts(memory.get("conversation", 1))).containsExactly("four");
+	}
+
+	@Test
+	void shouldDropIdleConversations() throws IOException, InterruptedException {
+		BoundedChatMemory memory = memory(20, DataSize.ofMegabytes(1), Duration.ofMillis(50), null);
+		memory.add("idle", List.of(new UserMessage("hello")));
+
+		Thread.sleep(100);
+		memory.add("active", List.of(new UserMessage("hello")));
+
+		assertThat(memory.get("idle", 10)).isEmpty();
+		assertThat(memory.get("active", 10)).hasSize(1);
+		assertThat(evictions("idle")).isEqualTo(1);
+	}
+
+	@Test
+	void shouldDropTheLeastRecentlyUsedConversationsBeyondTheMaximumSize() throws IOException {
+		// Room for three short messages, each estimated to a little more than 256 bytes
+		BoundedChatMemory memory = memory(20, DataSize.ofBytes(1024), Duration.ofMinutes(30), null);
+		memory.add("first", List.of(new UserMessage("hello")));
+		memory.add("second", List.of(new UserMessage("hello")));
+		memory.add("third", List.of(new UserMessage("hello")));
+		memory.get("first", 10);
+
+		memory.add("fourth", List.of(new UserMessage("hello")));
+
+		assertThat(memory.get("second", 10)).isEmpty();
+		assertThat(memory.get("first", 10)).hasSize(1);
+		assertThat(memory.get("third", 10)).hasSize(1);
+		assertThat(memory.get("fourth", 10)).hasSize(1);
+		assertThat(evictions("size")).isEqualTo(1);
+	}
+
+	@Test
+	void shouldLoadTheSavedConversations() throws IOException {
+		Path path = directory.resolve("chat-memory.bin");
+		BoundedChatMemory memory = memory(20, DataSize.ofMegabytes(1), Duration.ofMinutes(30), path);
+		memory.add("first", List.of(new UserMessage("Which vets are surgeons?"), new AssistantMessage("Helen Leary")));
+		memory.add("second", List.of(new UserMessage("Bonjour, \u00e7a va ?")));
+		memory.save();
+
+		BoundedChatMemory loaded = memory(20, DataSize.ofMegabytes(1), Duration.ofMinutes(30), path);
+
+		assertThat(loaded.get("first", 10)).extracting(Message::getMessageType)
+			.containsExactly(MessageType.USER, MessageType.ASSISTANT);
+		assertThat(texts(loaded.get("first", 10))).containsExactly("Which vets are surgeons?", "Helen Leary");
+		assertThat(texts(loaded.get("second", 10))).containsExactly("Bonjour, \u00e7a va ?");
+	}
+
+	private BoundedChatMemory memory(int maxMessages, DataSize maxSize, Duration idleTimeout, Path path)
+			throws IOException {
+		return new BoundedChatMemory(new ChatMemoryProperties(maxMessages, maxSize, idleTimeout, path,
+				new ChatMemoryProperties.History(10, 3000, 4, 150)), registry);
+	}
+
+	private double evictions(String cause) {
+		return registry.get("petclinic.chat.memory.evictions").tag("cause", cause).counter().count();
+	}
+
+	private static List<String> texts(List<Message> messages) {
+		return messages.stream().map(Message::getContent).toList();
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that {@link CompactingChatMemoryAdvisor} fits the history of a conversation in the token budget, keeping
+ * the recent messages verbatim and truncating then dropping the older ones.
+ */
+class CompactingChatMemoryAdvisorTest {
+
+	private static final String SENTENCE = "George Franklin lives at 110 W. Liberty St. in Madison with his cat Leo. ";
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+
+	private final TokenCountEstimator tokens = new JTokkitTokenCountEstimator();
+
+	// The last 2 messages are kept verbatim, the older ones truncated to 40 tokens
+	private final CompactingChatMemoryAdvisor advisor = new CompactingChatMemoryAdvisor(new InMemoryChatMemory(),
+			new ChatMemoryProperties.History(10, 3000, 2, 40), registry);
+
+	@Test
+	void shouldKeepTheRecentMessagesVerbatimAndTruncateTheOlderOnes() {
+		List<Message> history = List.of(new UserMessage("Who are the owners?"),
+				new AssistantMessage(SENTENCE.repeat(20)), new UserMessage("And their pets?"),
+				new AssistantMessage(SENTENCE.repeat(20)));
+
+		List<Message> compacted = advisor.compact(history, 10_000);
+
+		assertThat(compacted).hasSize(4);
+		assertThat(compacted.get(0).getContent()).isEqualTo("Who are the owners?");
+		assertThat(compacted.get(2).getContent()).isEqualTo("And their pets?");
+		assertThat(compacted.get(3).getContent()).isEqualTo(SENTENCE.repeat(20));
+
+		Message truncated = compacted.get(1);
+		assertThat(truncated).isInstanceOf(AssistantMessage.class);
+		assertThat(truncated.getContent()).endsWith(CompactingChatMemoryAdvisor.TRUNCATED_MARKER);
+		assertThat(SENTENCE.repeat(20)).startsWith(truncated.getContent()
+			.substring(0, truncated.getContent().length() - CompactingChatMemoryAdvisor.TRUNCATED_MARKER.length()));
+		assertThat(tokens.estimate(truncated.getContent())).isLessThanOrEqualTo(40);
+		assertThat(compactions("truncated")).isEqualTo(1);
+	}
+
+	@Test
+	void shouldTruncateARecentMessageLongerThanTheBudget() {
+		List<Message> compacted = advisor.compact(List.of(new AssistantMessage(SENTENCE.repeat(50))), 100);
+
+		assertThat(compacted).hasSize(1);
+		assertThat(compacted.get(0).getContent()).endsWith(CompactingChatMemoryAdvisor.TRUNCATED_MARKER);
+		assertThat(tokens.estimate(compacted.get(0).getContent())).isBetween(50, 100);
+	}
+
+	@Test
+	void shouldDropTheOlderMessagesOnceTheBudgetLeftIsTooSmall() {
+		List<Message> history = List.of(new UserMessage(SENTENCE.repeat(3)), new AssistantMessage(SENTENCE.repeat(3)),
+				new UserMessage(SENTENCE.repeat(3)), new AssistantMessage(SENTENCE.repeat(3)));
+		int recent = 2 * tokens.estimate(SENTENCE.repeat(3));
+
+		// 10 tokens left for the older messages, too few to be worth truncating them
+		List<Message> compacted = advisor.compact(history, recent + 10);
+
+		assertThat(compacted).containsExactlyElementsOf(history.subList(2, 4));
+		assertThat(compactions("dropped")).isEqualTo(2);
+		assertThat(compactions("truncated")).isZero();
+	}
+
+	@Test
+	void shouldStayWithinTheBudget() {
+		List<Message> history = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			history.add(i % 2 == 0 ? new UserMessage("Question " + i + ": " + SENTENCE.repeat(i))
+					: new AssistantMessage(SENTENCE.repeat(2 * i)));
+		}
+
+		for (int budget = 0; budget <= 2000; budget += 25) {
+			List<Message> compacted = advisor.compact(history, budget);
+
+			assertThat(compacted.stream().mapToInt(message -> tokens.estimate(message.getContent())).sum())
+				.as("budget %d", budget)
+				.isLessThanOrEqualTo(budget);
+			// The most recent messages, in their original order
+			List<Message> kept = history.subList(history.size() - compacted.size(), history.size());
+			for (int i = 0; i < compacted.size(); i++) {
+				String content = compacted.get(i).getContent();
+				assertThat(kept.get(i).getContent()).as("budget %d", budget)
+					.startsWith(content.replace(CompactingChatMemoryAdvisor.TRUNCATED_MARKER, ""));
+			}
+		}
+	}
+
+	private double compactions(String action) {
+		return registry.get("petclinic.chat.memory.compactions").tag("action", action).counter().count();
+	}
+
+}
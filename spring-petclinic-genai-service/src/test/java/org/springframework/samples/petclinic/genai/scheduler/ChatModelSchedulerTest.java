@@ -0,0 +1,94 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.scheduler;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.samples.petclinic.genai.scheduler.ChatModelScheduler.Permit;
+import org.springframework.samples.petclinic.genai.scheduler.ChatModelScheduler.Priority;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Checks that the {@link ChatModelScheduler} starts the requests by priority within its limits, and rejects at once
+ * the ones that could not start in time.
+ */
+class ChatModelSchedulerTest {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+
+	@Test
+	void shouldStartTheFollowUpRequestsFirst() {
+		ChatModelScheduler scheduler = scheduler(1, 0, 10);
+		Permit running = scheduler.acquire(Priority.NORMAL, 100).block();
+		List<Priority> started = new CopyOnWriteArrayList<>();
+		CompletableFuture<Permit> question = scheduler.acquire(Priority.NORMAL, 100)
+			.doOnNext(permit -> started.add(Priority.NORMAL))
+			.toFuture();
+		CompletableFuture<Permit> followUp = scheduler.acquire(Priority.HIGH, 100)
+			.doOnNext(permit -> started.add(Priority.HIGH))
+			.toFuture();
+		assertThat(registry.get("petclinic.chat.model.queue").gauge().value()).isEqualTo(2);
+
+		running.release(-1);
+		followUp.join().release(-1);
+		question.join().release(-1);
+
+		assertThat(started).containsExactly(Priority.HIGH, Priority.NORMAL);
+		assertThat(registry.get("petclinic.chat.model.active").gauge().value()).isZero();
+	}
+
+	@Test
+	void shouldRejectWhenTheQueueIsFull() {
+		ChatModelScheduler scheduler = scheduler(1, 0, 1);
+		scheduler.acquire(Priority.NORMAL, 100).block();
+		scheduler.acquire(Priority.NORMAL, 100).subscribe();
+
+		assertThatThrownBy(() -> scheduler.acquire(Priority.HIGH, 100).block())
+			.isInstanceOf(RejectedExecutionException.class);
+		assertThat(registry.get("petclinic.chat.model.rejected").tag("reason", "queue-full").counter().count())
+			.isEqualTo(1);
+	}
+
+	@Test
+	void shouldRejectAtOnceWhenTheTokensWouldNotBeAvailableInTime() {
+		// 10 tokens per second, a request may wait for 1 second
+		ChatModelScheduler scheduler = scheduler(4, 600, 10);
+		Permit running = scheduler.acquire(Priority.NORMAL, 590).block();
+
+		assertThatThrownBy(() -> scheduler.acquire(Priority.NORMAL, 50).block())
+			.isInstanceOf(RejectedExecutionException.class);
+		assertThat(scheduler.acquire(Priority.NORMAL, 15).block(Duration.ofSeconds(1))).isNotNull();
+
+		// The tokens reserved but not used are given back
+		running.release(90);
+		assertThat(scheduler.acquire(Priority.NORMAL, 400).block(Duration.ofMillis(100))).isNotNull();
+	}
+
+	private ChatModelScheduler scheduler(int concurrency, int tokensPerMinute, int queueCapacity) {
+		return new ChatModelScheduler(new ChatModelSchedulerProperties(concurrency, tokensPerMinute, 500,
+				queueCapacity, Duration.ofSeconds(1)), registry);
+	}
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.stub;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.function.FunctionCallingOptions;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Deterministic {@link ChatModel} standing in for OpenAI or Azure OpenAI, to measure the overhead of the chat
+ * pipeline without paying for, or waiting on, a real model.
+ * <p>
+ * The question, the last user message of the prompt, selects a {@link Script}: the functions to call, with their
+ * JSON arguments, and the answer to give once they returned. Each round trip to the model, one per function call
+ * plus the answer, waits for the configured {@code latency}, and a streamed answer waits for
+ * {@code tokenLatency} before each token. Both may be zero.
+ * <p>
+ * The functions are called like a real model would have them called: with their JSON arguments and the
+ * {@link ToolContext} of the request, returning their JSON result. Streamed answers call them on a thread allowed
+ * to block.
+ */
+public class StubChatModel implements ChatModel {
+
+	// Splits after each whitespace, so that the tokens put back together give the answer
+	private static final Pattern TOKEN = Pattern.compile("(?<=\\s)");
+
+	private final Map<String, Script> scripts;
+
+	private final Script defaultScript;
+
+	private final Map<String, Tool> tools;
+
+	private final Duration latency;
+
+	private final Duration tokenLatency;
+
+	/**
+	 * @param scripts the script of each question
+	 * @param defaultScript the script of the other questions
+	 * @param tools the functions the scripts may call, by name
+	 * @param latency the time spent by each round trip to the model
+	 * @param tokenLatency the time spent by each token of a streamed answer
+	 */
+	public StubChatModel(Map<String, Script> scripts, Script defaultScript, Map<String, Tool> tools,
+			Duration latency, Duration tokenLatency) {
+		this.scripts = scripts;
+		this.defaultScript = defaultScript;
+		this.tools = tools;
+		this.latency = latency;
+		this.tokenLatency = tokenLatency;
+	}
+
+	@Override
+	public ChatResponse call(Prompt prompt) {
+		String answer = run(prompt);
+		return new ChatResponse(List.of(new Generation(new AssistantMessage(answer))));
+	}
+
+	@Override
+	public Flux<ChatResponse> stream(Prompt prompt) {
+		return Flux.defer(() -> {
+			Flux<String> tokens = Flux.fromArray(TOKEN.split(run(prompt)));
+			return tokenLatency.isZero() ? tokens : tokens.delayElements(tokenLatency, Schedulers.boundedElastic());
+		})
+			.subscribeOn(Schedulers.boundedElastic())
+			.map(token -> new ChatResponse(List.of(new Generation(new AssistantMessage(token)))));
+	}
+
+	@Override
+	public ChatOptions getDefaultOptions() {
+		// Function calling options, for the chat client to pass the functions and the tool context
+		return FunctionCallingOptions.builder().build();
+	}
+
+	/**
+	 * Call the functions of the script of the question.
+	 * @return the answer of the script
+	 */
+	private String run(Prompt prompt) {
+		Script script = scripts.getOrDefault(question(prompt), defaultScript);
+		ToolContext context = toolContext(prompt);
+		for (ToolCall toolCall : script.toolCalls()) {
+			pause(latency);
+			Tool tool = tools.get(toolCall.name());
+			if (tool == null) {
+				throw new IllegalStateException("No function named " + toolCall.name());
+			}
+			// The result would be sent back to a real model, which the stub does not need
+			tool.call(toolCall.arguments(), context);
+		}
+		pause(latency);
+		return script.answer();
+	}
+
+	private static String question(Prompt prompt) {
+		List<Message> messages = prompt.getInstructions();
+		for (int i = messages.size() - 1; i >= 0; i--) {
+			if (messages.get(i).getMessageType() == MessageType.USER) {
+				return messages.get(i).getContent();
+			}
+		}
+		return "";
+	}
+
+	private static ToolContext toolContext(Prompt prompt) {
+		if (prompt.getOptions() instanceof FunctionCallingOptions options && options.getToolContext() != null) {
+			return new ToolContext(options.getToolContext());
+		}
+		return null;
+	}
+
+	private static void pause(Duration duration) {
+		if (duration.isZero()) {
+			return;
+		}
+		try {
+			Thread.sleep(duration.toMillis(), duration.toNanosPart() % 1_000_000);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the stub model", ex);
+		}
+	}
+
+	/**
+	 * A function the model can call.
+	 */
+	@FunctionalInterface
+	public interface Tool {
+
+		/**
+		 * @param arguments the JSON arguments of the call
+		 * @param context the tool context of the request, null if it has none
+		 * @return the JSON result of the call
+		 */
+		String call(String arguments, ToolContext context);
+
+	}
+
+	/**
+	 * @param name the name of the function
+	 * @param arguments the JSON arguments of the call
+	 */
+	public record ToolCall(String name, String arguments) {
+	}
+
+	/**
+	 * @param toolCalls the functions to call, in order
+	 * @param answer the answer once they returned
+	 */
+	public record Script(List<ToolCall> toolCalls, String answer) {
+
+		public static Script answer(String answer) {
+			return new Script(List.of(), answer);
+		}
+
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.stub;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+/**
+ * Deterministic {@link EmbeddingModel} standing in for a real one: the same text always gets the same random unit
+ * vector, seeded by the text. Each request waits for the configured {@code latency}, which may be zero.
+ * <p>
+ * The vectors do not capture any meaning, similar texts are not close, but they have the dimensions of the real
+ * embeddings so that searches cost the same.
+ */
+public class StubEmbeddingModel implements EmbeddingModel {
+
+	private final int dimensions;
+
+	private final Duration latency;
+
+	public StubEmbeddingModel(int dimensions, Duration latency) {
+		this.dimensions = dimensions;
+		this.latency = latency;
+	}
+
+	@Override
+	public EmbeddingResponse call(EmbeddingRequest request) {
+		pause();
+		List<Embedding> embeddings = new ArrayList<>(request.getInstructions().size());
+		for (String text : request.getInstructions()) {
+			embeddings.add(new Embedding(vector(text), embeddings.size()));
+		}
+		return new EmbeddingResponse(embeddings);
+	}
+
+	@Override
+	public float[] embed(Document document) {
+		pause();
+		return vector(document.getContent());
+	}
+
+	@Override
+	public int dimensions() {
+		return dimensions;
+	}
+
+	private float[] vector(String text) {
+		SplittableRandom random = new SplittableRandom(text.hashCode());
+		float[] vector = new float[dimensions];
+		double norm = 0;
+		for (int i = 0; i < dimensions; i++) {
+			vector[i] = (float) (random.nextDouble() * 2 - 1);
+			norm += vector[i] * vector[i];
+		}
+		float scale = (float) (1 / Math.sqrt(norm));
+		for (int i = 0; i < dimensions; i++) {
+			vector[i] *= scale;
+		}
+		return vector;
+	}
+
+	private void pause() {
+		if (latency.isZero()) {
+			return;
+		}
+		try {
+			Thread.sleep(latency.toMillis(), latency.toNanosPart() % 1_000_000);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the stub embedding model", ex);
+		}
+	}
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.samples.petclinic.genai.vectorstore.DocumentIndexer.IndexingResult;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Checks that {@link DocumentIndexer} only embeds the new and changed documents, removes the deleted ones, resumes a
+ * failed re-indexing from the embeddings already computed, and fills a store not saved with the cache from it.
+ */
+class DocumentIndexerTest {
+
+	private final RecordingEmbeddingModel embeddingModel = new RecordingEmbeddingModel();
+
+	private final VectorStore vectorStore = mock(VectorStore.class);
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void shouldOnlyEmbedTheNewAndChangedDocuments() throws IOException {
+		DocumentIndexer indexer = indexer(null);
+
+		assertThat(indexer.reindex(List.of(vet(1, "surgery"), vet(2, "dentistry"), vet(3, "radiology"))).block())
+			.isEqualTo(new IndexingResult(3, 0, 0, 3));
+		assertThat(indexer.reindex(List.of(vet(1, "surgery"), vet(2, "dentistry"), vet(3, "radiology, surgery")))
+			.block()).isEqualTo(new IndexingResult(1, 2, 0, 1));
+		assertThat(indexer.reindex(List.of(vet(1, "surgery"), vet(2, "dentistry"), vet(3, "radiology, surgery")))
+			.block()).isEqualTo(new IndexingResult(0, 3, 0, 0));
+
+		assertThat(embeddingModel.embedded).containsExactly("surgery", "dentistry", "radiology", "radiology, surgery");
+		verify(vectorStore, times(2)).add(anyList());
+	}
+
+	@Test
+	void shouldRemoveTheDocumentsNoLongerIndexed() throws IOException {
+		DocumentIndexer indexer = indexer(null);
+		indexer.reindex(List.of(vet(1, "surgery"), vet(2, "dentistry"), vet(3, "radiology"))).block();
+
+		assertThat(indexer.reindex(List.of(vet(1, "surgery"), vet(2, "dentistry"))).block())
+			.isEqualTo(new IndexingResult(0, 2, 1, 0));
+
+		verify(vectorStore).delete(List.of("vet-3"));
+		// Indexed again once it is back
+		assertThat(indexer.reindex(List.of(vet(1, "surgery"), vet(2, "dentistry"), vet(3, "radiology"))).block())
+			.isEqualTo(new IndexingResult(1, 2, 0, 1));
+	}
+
+	@Test
+	void shouldReuseTheEmbeddingsOfAFailedReindexing() throws IOException {
+		Path cachePath = directory.resolve("embeddings.bin");
+		List<Document> vets = List.of(vet(1, "surgery"), vet(2, "dentistry"), vet(3, "radiology"));
+		embeddingModel.failing.add("radiology");
+
+		assertThatThrownBy(() -> indexer(cachePath).reindex(vets).block()).hasMessageContaining("rate limited");
+		verify(vectorStore, never()).add(anyList());
+
+		// After a restart, only the vet whose embedding failed is embedded
+		assertThat(indexer(cachePath).reindex(vets).block()).isEqualTo(new IndexingResult(3, 0, 0, 1));
+		assertThat(embeddingModel.embedded).containsExactly("surgery", "dentistry", "radiology");
+
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<List<Document>> added = ArgumentCaptor.forClass(List.class);
+		verify(vectorStore).add(added.capture());
+		assertThat(added.getValue()).extracting(Document::getId).containsExactly("vet-1", "vet-2", "vet-3");
+		assertThat(added.getValue().get(0).getEmbedding()).containsExactly(RecordingEmbeddingModel.vector("surgery"));
+	}
+
+	@Test
+	void shouldReindexAFreshStoreFromALoadedCache() throws IOException {
+		Path cachePath = directory.resolve("embeddings.bin");
+		List<Document> vets = List.of(vet(1, "surgery"), vet(2, "dentistry"), vet(3, "radiology"));
+		indexer(cachePath).reindex(vets).block();
+
+		// After a restart, with a store that was not saved along with the cache
+		ExactVectorStore freshStore = new ExactVectorStore(embeddingModel, new VectorStoreProperties.Exact(8192, 2048));
+		DocumentIndexer indexer = new DocumentIndexer(freshStore, embeddingModel,
+				new VectorStoreProperties.Indexing(cachePath, 1, 1, 0));
+
+		assertThat(indexer.reindex(vets).block()).isEqualTo(new IndexingResult(3, 0, 0, 0));
+		assertThat(freshStore.findByMetadata(null, 10)).extracting(Document::getId)
+			.containsExactlyInAnyOrder("vet-1", "vet-2", "vet-3");
+		// The documents of the store are trusted from then on
+		assertThat(indexer.reindex(vets).block()).isEqualTo(new IndexingResult(0, 3, 0, 0));
+		assertThat(embeddingModel.embedded).containsExactly("surgery", "dentistry", "radiology");
+	}
+
+	@Test
+	void shouldAddAgainFromTheCacheWhenTheStoreCannotBeListed() throws IOException {
+		Path cachePath = directory.resolve("embeddings.bin");
+		indexer(cachePath).reindex(List.of(vet(1, "surgery"), vet(2, "dentistry"), vet(3, "radiology"))).block();
+
+		assertThat(indexer(cachePath).reindex(List.of(vet(1, "surgery"), vet(2, "dentistry"))).block())
+			.isEqualTo(new IndexingResult(2, 0, 1, 0));
+
+		verify(vectorStore, times(2)).add(anyList());
+		verify(vectorStore).delete(List.of("vet-3"));
+		assertThat(embeddingModel.embedded).containsExactly("surgery", "dentistry", "radiology");
+	}
+
+	private DocumentIndexer indexer(Path cachePath) throws IOException {
+		// One embedding per request, in order
+		return new DocumentIndexer(vectorStore, embeddingModel,
+				new VectorStoreProperties.Indexing(cachePath, 1, 1, 0));
+	}
+
+	private static Document vet(int id, String specialties) {
+		return new Document("vet-" + id, specialties, Map.of("vetId", id));
+	}
+
+	/**
+	 * Records the embedded texts, and fails once on each text of {@code failing}.
+	 */
+	private static class RecordingEmbeddingModel implements EmbeddingModel {
+
+		private final List<String> embedded = new CopyOnWriteArrayList<>();
+
+		private final Set<String> failing = ConcurrentHashMap.newKeySet();
+
+		@Override
+		public EmbeddingResponse call(EmbeddingRequest request) {
+			List<Embedding> embeddings = new ArrayList<>();
+			for (String text : request.getInstructions()) {
+				if (failing.remove(text)) {
+					throw new IllegalStateException("Embedding of " + text + " rate limited");
+				}
+				embedded.add(text);
+				embeddings.add(new Embedding(vector(text), embeddings.size()));
+			}
+			return new EmbeddingResponse(embeddings);
+		}
+
+		@Override
+		public float[] embed(Document document) {
+			return vector(document.getContent());
+		}
+
+		@Override
+		public int dimensions() {
+			return 2;
+		}
+
+		static float[] vector(String text) {
+			return new float[] { text.length(), text.charAt(0) };
+		}
+
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Checks that {@link SimdDotProduct} and {@link ScalarDotProduct} compute the same dot products, whatever the
+ * length of the vectors compared to the SIMD lanes and the unrolled loops.
+ */
+class DotProductTest {
+
+	private final SplittableRandom random = new SplittableRandom(42);
+
+	@Test
+	void shouldUseTheVectorApi() {
+		// Surefire adds jdk.incubator.vector, as the application does
+		assertThat(DotProduct.INSTANCE).isInstanceOf(SimdDotProduct.class);
+	}
+
+	@Test
+	void shouldComputeTheSameDotProductWithAndWithoutSimd() {
+		DotProduct simd = new SimdDotProduct();
+		DotProduct scalar = new ScalarDotProduct();
+		for (int length = 0; length <= 67; length++) {
+			for (int offset = 0; offset < 3; offset++) {
+				float[] a = vector(offset + length);
+				float[] b = vector(length);
+				double expected = 0;
+				for (int i = 0; i < length; i++) {
+					expected += (double) a[offset + i] * b[i];
+				}
+
+				assertThat(simd.dot(a, offset, b, length)).as("SIMD, length %d, offset %d", length, offset)
+					.isCloseTo((float) expected, within(1e-4f));
+				assertThat(scalar.dot(a, offset, b, length)).as("scalar, length %d, offset %d", length, offset)
+					.isCloseTo((float) expected, within(1e-4f));
+			}
+		}
+	}
+
+	private float[] vector(int length) {
+		float[] vector = new float[length];
+		for (int i = 0; i < length; i++) {
+			vector[i] = (float) (random.nextDouble() * 2 - 1);
+		}
+		return vector;
+	}
+
+}
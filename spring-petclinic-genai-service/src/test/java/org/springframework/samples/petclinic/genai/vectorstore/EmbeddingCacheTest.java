@@ -0,0 +1,106 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Checks that {@link EmbeddingCache} identifies the content of a document by its hash and reads back what it saved.
+ */
+class EmbeddingCacheTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void shouldReadBackTheSavedCache() throws IOException {
+		EmbeddingCache cache = new EmbeddingCache();
+		cache.put("a", new float[] { 0.1f, 0.2f, 0.3f });
+		cache.put("b", new float[] { -1, 0 });
+		cache.indexed("vet-1", "a");
+		cache.indexed("vet-2", "b");
+		Path file = directory.resolve("embeddings.bin");
+
+		cache.save(file);
+		EmbeddingCache loaded = EmbeddingCache.load(file);
+
+		assertThat(loaded.size()).isEqualTo(2);
+		assertThat(loaded.get("a")).containsExactly(0.1f, 0.2f, 0.3f);
+		assertThat(loaded.get("b")).containsExactly(-1, 0);
+		assertThat(loaded.indexedIds()).containsExactlyInAnyOrder("vet-1", "vet-2");
+		assertThat(loaded.indexedHash("vet-2")).isEqualTo("b");
+		assertThat(directory.resolve("embeddings.bin.tmp")).doesNotExist();
+	}
+
+	@Test
+	void shouldStartEmptyWithoutAFile() throws IOException {
+		assertThat(EmbeddingCache.load(null).size()).isZero();
+		assertThat(EmbeddingCache.load(directory.resolve("missing.bin")).indexedIds()).isEmpty();
+	}
+
+	@Test
+	void shouldRejectAnotherFile() throws IOException {
+		Path file = Files.write(directory.resolve("vectorstore.json"), new byte[16]);
+
+		assertThatThrownBy(() -> EmbeddingCache.load(file)).isInstanceOf(IOException.class)
+			.hasMessageContaining("Not an embedding cache");
+	}
+
+	@Test
+	void shouldHashTheContentAndTheMetadata() {
+		Map<String, Object> metadata = new LinkedHashMap<>();
+		metadata.put("lastName", "Carter");
+		metadata.put("specialties", "none");
+		Map<String, Object> reordered = new LinkedHashMap<>();
+		reordered.put("specialties", "none");
+		reordered.put("lastName", "Carter");
+		reordered.put(StoredDocument.DISTANCE_METADATA, 0.1f);
+
+		String hash = EmbeddingCache.hash(new Document("vet-1", "James Carter", metadata));
+
+		assertThat(EmbeddingCache.hash(new Document("vet-2", "James Carter", reordered))).isEqualTo(hash);
+		assertThat(EmbeddingCache.hash(new Document("vet-1", "James Carter", Map.of("lastName", "Carter"))))
+			.isNotEqualTo(hash);
+		assertThat(EmbeddingCache.hash(new Document("vet-1", "Helen Leary", metadata))).isNotEqualTo(hash);
+	}
+
+	@Test
+	void shouldEvictTheEmbeddingsOfNoIndexedDocument() {
+		EmbeddingCache cache = new EmbeddingCache();
+		cache.put("a", new float[] { 1 });
+		cache.put("b", new float[] { 2 });
+		cache.indexed("vet-1", "a");
+		cache.indexed("vet-2", "b");
+
+		cache.removed("vet-2");
+		cache.evictUnused();
+
+		assertThat(cache.get("a")).isNotNull();
+		assertThat(cache.get("b")).isNull();
+	}
+
+}
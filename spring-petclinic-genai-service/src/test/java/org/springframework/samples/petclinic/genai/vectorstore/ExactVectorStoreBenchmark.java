@@ -0,0 +1,110 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStoreBenchmark.Dataset;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStoreBenchmark.DatasetEmbeddingModel;
+
+/**
+ * JMH benchmark of an exact top-10 search with {@link ExactVectorStore} and with {@link SimpleVectorStore}.
+ * <p>
+ * Run it with the test classpath:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.springframework.samples.petclinic.genai.vectorstore.ExactVectorStoreBenchmark
+ * </pre>
+ * {@code exactVectorStoreScalar} runs in a fork without {@code jdk.incubator.vector}, measuring the fallback loops.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "--add-modules=jdk.incubator.vector" })
+public class ExactVectorStoreBenchmark {
+
+	private static final int QUERIES = 100;
+
+	@Param({ "1000", "10000", "100000" })
+	int size;
+
+	@Param({ "1536" })
+	int dimensions;
+
+	private SimpleVectorStore simpleVectorStore;
+
+	private ExactVectorStore exactVectorStore;
+
+	private int query;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Dataset dataset = Dataset.generate(size, QUERIES, dimensions, new SplittableRandom(size));
+		DatasetEmbeddingModel embeddingModel = new DatasetEmbeddingModel(dataset);
+		simpleVectorStore = new SimpleVectorStore(embeddingModel);
+		HnswVectorStoreBenchmark.build(simpleVectorStore, dataset);
+		exactVectorStore = new ExactVectorStore(embeddingModel, new VectorStoreProperties.Exact(8192, 2048));
+		HnswVectorStoreBenchmark.build(exactVectorStore, dataset);
+	}
+
+	@Benchmark
+	public List<Document> simpleVectorStore() {
+		return simpleVectorStore.similaritySearch(nextQuery());
+	}
+
+	@Benchmark
+	public List<Document> exactVectorStore() {
+		return exactVectorStore.similaritySearch(nextQuery());
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+	public List<Document> exactVectorStoreScalar() {
+		return exactVectorStore.similaritySearch(nextQuery());
+	}
+
+	private SearchRequest nextQuery() {
+		query = (query + 1) % QUERIES;
+		return SearchRequest.query("q" + query).withTopK(10);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ExactVectorStoreBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
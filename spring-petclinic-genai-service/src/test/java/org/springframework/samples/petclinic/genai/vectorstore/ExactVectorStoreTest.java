@@ -0,0 +1,114 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStoreBenchmark.Dataset;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStoreBenchmark.DatasetEmbeddingModel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that {@link ExactVectorStore} finds the same neighbours as a brute-force scan, whether the scan is split
+ * across the fork-join pool or not.
+ */
+class ExactVectorStoreTest {
+
+	private static final int SIZE = 1000;
+
+	private static final int QUERIES = 20;
+
+	private final Dataset dataset = Dataset.generate(SIZE, QUERIES, 32, new SplittableRandom(42));
+
+	/**
+	 * @param parallelThreshold the scan of the {@value #SIZE} documents is split above it, into uneven chunks
+	 */
+	@ParameterizedTest
+	@ValueSource(ints = { 0, SIZE - 1, SIZE, Integer.MAX_VALUE })
+	void shouldFindTheNearestDocuments(int parallelThreshold) {
+		ExactVectorStore store = store(new VectorStoreProperties.Exact(parallelThreshold, 7));
+
+		for (int query = 0; query < QUERIES; query++) {
+			assertThat(search(store, SearchRequest.query("q" + query).withTopK(10)))
+				.containsExactlyElementsOf(dataset.nearest(query, 10, document -> true));
+		}
+	}
+
+	@Test
+	void shouldSearchTheMatchingDocumentsOnly() {
+		ExactVectorStore store = store(new VectorStoreProperties.Exact(100, 64));
+
+		for (int query = 0; query < QUERIES; query++) {
+			SearchRequest request = SearchRequest.query("q" + query)
+				.withTopK(10)
+				.withFilterExpression("parity == 'even'");
+			assertThat(search(store, request))
+				.containsExactlyElementsOf(dataset.nearest(query, 10, document -> document % 2 == 0));
+		}
+	}
+
+	@Test
+	void shouldMoveTheLastDocumentIntoTheRowOfADeletedOne() {
+		ExactVectorStore store = store(new VectorStoreProperties.Exact(100, 64));
+
+		assertThat(store.delete(List.of("d3", "unknown"))).contains(true);
+		assertThat(store.delete(List.of("d3"))).contains(false);
+
+		for (int query = 0; query < QUERIES; query++) {
+			assertThat(search(store, SearchRequest.query("q" + query).withTopK(10)))
+				.containsExactlyElementsOf(dataset.nearest(query, 10, document -> document != 3));
+		}
+		// Searched with its own embedding, the moved document is its nearest neighbour
+		assertThat(search(store, SearchRequest.query("d" + (SIZE - 1)).withTopK(1))).containsExactly("d" + (SIZE - 1));
+	}
+
+	@Test
+	void shouldReplaceADocumentAddedAgain() {
+		ExactVectorStore store = store(new VectorStoreProperties.Exact(100, 64));
+
+		store.add(List.of(new Document("d0", "d1", Map.of("parity", "odd"))));
+
+		// Both have the embedding of d1 now
+		assertThat(search(store, SearchRequest.query("d1").withTopK(2))).containsExactlyInAnyOrder("d0", "d1");
+		assertThat(store.findByMetadata(new FilterExpressionTextParser().parse("parity == 'odd'"), SIZE))
+			.hasSize(SIZE / 2 + 1);
+	}
+
+	private ExactVectorStore store(VectorStoreProperties.Exact properties) {
+		ExactVectorStore store = new ExactVectorStore(new DatasetEmbeddingModel(dataset), properties);
+		List<Document> documents = new ArrayList<>(SIZE);
+		for (int i = 0; i < SIZE; i++) {
+			documents.add(new Document("d" + i, "d" + i, Map.of("parity", i % 2 == 0 ? "even" : "odd")));
+		}
+		store.add(documents);
+		return store;
+	}
+
+	private static List<String> search(ExactVectorStore store, SearchRequest request) {
+		return store.similaritySearch(request).stream().map(Document::getId).toList();
+	}
+
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.samples.petclinic.genai.vectorstore.VectorStoreProperties.Encoding;
+
+/**
+ * Compares the recall and the query latency of the {@link HnswVectorStore} and of the int8 {@link MappedVectorStore}
+ * to the exact {@link SimpleVectorStore} on synthetic clustered embeddings, at several store sizes.
+ * <p>
+ * Not a unit test, run it with the test classpath:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStoreBenchmark \
+ *     -Dexec.args="10000,100000,1000000 256"
+ * </pre>
+ * The arguments are the comma separated store sizes and the number of dimensions. The million vectors run needs a
+ * few gigabytes of heap, mostly for the {@code SimpleVectorStore} baseline.
+ */
+public class HnswVectorStoreBenchmark {
+
+	private static final int QUERIES = 200;
+
+	private static final int TOP_K = 10;
+
+	private static final int CLUSTERS = 256;
+
+	public static void main(String[] args) throws IOException {
+		int[] sizes = Arrays.stream((args.length > 0 ? args[0] : "10000,100000,1000000").split(","))
+			.mapToInt(Integer::parseInt)
+			.toArray();
+		int dimensions = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+		VectorStoreProperties.Hnsw hnsw = new VectorStoreProperties.Hnsw(16, 200, 64);
+
+		System.out.printf("%10s %-6s %12s %8s %10s %10s%n", "vectors", "store", "build (ms)", "recall", "p50 (us)",
+				"p99 (us)");
+		for (int size : sizes) {
+			Dataset dataset = Dataset.generate(size, QUERIES, dimensions, new SplittableRandom(size));
+			EmbeddingModel embeddingModel = new DatasetEmbeddingModel(dataset);
+
+			SimpleVectorStore exact = new SimpleVectorStore(embeddingModel);
+			long exactBuild = build(exact, dataset);
+			List<Set<String>> expected = new ArrayList<>(QUERIES);
+			Result exactResult = run(exact, result -> {
+				expected.add(result);
+				return 1.0;
+			});
+			print(size, "simple", exactBuild, exactResult);
+
+			HnswVectorStore approximate = new HnswVectorStore(embeddingModel, hnsw);
+			long hnswBuild = build(approximate, dataset);
+			int[] query = { 0 };
+			Result hnswResult = run(approximate, result -> {
+				Set<String> truth = expected.get(query[0]++);
+				return result.stream().filter(truth::contains).count() / (double) truth.size();
+			});
+			print(size, "hnsw", hnswBuild, hnswResult);
+
+			Path file = Files.createTempFile("benchmark", VectorFile.EXTENSION);
+			try {
+				SimpleMeterRegistry registry = new SimpleMeterRegistry();
+				MappedVectorStore quantized = new MappedVectorStore(embeddingModel,
+						new VectorStoreProperties.Mapped(null, Encoding.INT8, 0.99), registry);
+				long int8Build = build(quantized, dataset);
+				quantized.save(file);
+				query[0] = 0;
+				Result int8Result = run(quantized, result -> {
+					Set<String> truth = expected.get(query[0]++);
+					return result.stream().filter(truth::contains).count() / (double) truth.size();
+				});
+				print(size, "int8", int8Build, int8Result);
+				System.out.printf("%10s int8 scans %.0f bytes per vector instead of %d, re-ranking %.0f candidates "
+						+ "per result%n", "", registry.get("petclinic.vectorstore.vector.size").tag("kind", "scanned").gauge().value(),
+						4 * dimensions, registry.get("petclinic.vectorstore.rerank.factor").gauge().value());
+			}
+			finally {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	static long build(VectorStore store, Dataset dataset) {
+		long start = System.nanoTime();
+		List<Document> batch = new ArrayList<>(10_000);
+		for (int i = 0; i < dataset.documents().length; i++) {
+			batch.add(new Document("d" + i, "d" + i, Map.of()));
+			if (batch.size() == 10_000) {
+				store.add(batch);
+				batch = new ArrayList<>(10_000);
+			}
+		}
+		store.add(batch);
+		return (System.nanoTime() - start) / 1_000_000;
+	}
+
+	/**
+	 * Warm up with a round of queries, then time every query of a second round.
+	 * @param recall computes the recall of the results of a query
+	 */
+	private static Result run(VectorStore store, Function<Set<String>, Double> recall) {
+		for (int q = 0; q < QUERIES; q++) {
+			store.similaritySearch(SearchRequest.query("q" + q).withTopK(TOP_K));
+		}
+		long[] latencies = new long[QUERIES];
+		double totalRecall = 0;
+		for (int q = 0; q < QUERIES; q++) {
+			long start = System.nanoTime();
+			List<Document> results = store.similaritySearch(SearchRequest.query("q" + q).withTopK(TOP_K));
+			latencies[q] = System.nanoTime() - start;
+			Set<String> ids = new HashSet<>();
+			results.forEach(document -> ids.add(document.getId()));
+			totalRecall += recall.apply(ids);
+		}
+		Arrays.sort(latencies);
+		return new Result(totalRecall / QUERIES, latencies[QUERIES / 2] / 1000, latencies[QUERIES * 99 / 100] / 1000);
+	}
+
+	private static void print(int size, String store, long buildMillis, Result result) {
+		System.out.printf("%10d %-6s %12d %8.3f %10d %10d%n", size, store, buildMillis, result.recall(),
+				result.p50Micros(), result.p99Micros());
+	}
+
+	private record Result(double recall, long p50Micros, long p99Micros) {
+	}
+
+	/**
+	 * Points drawn around random centroids, which is closer to the distribution of real embeddings than uniform
+	 * noise.
+	 */
+	record Dataset(float[][] documents, float[][] queries) {
+
+		static Dataset generate(int size, int queryCount, int dimensions, SplittableRandom random) {
+			float[][] centroids = new float[CLUSTERS][];
+			for (int c = 0; c < CLUSTERS; c++) {
+				centroids[c] = gaussian(dimensions, random, null, 1);
+			}
+			float[][] documents = new float[size][];
+			for (int i = 0; i < size; i++) {
+				documents[i] = gaussian(dimensions, random, centroids[random.nextInt(CLUSTERS)], 0.5);
+			}
+			float[][] queries = new float[queryCount][];
+			for (int i = 0; i < queryCount; i++) {
+				queries[i] = gaussian(dimensions, random, centroids[random.nextInt(CLUSTERS)], 0.5);
+			}
+			return new Dataset(documents, queries);
+		}
+
+		/**
+		 * @return the ids of the {@code k} documents accepted by the filter that are the most similar to the query,
+		 * most similar first, found by comparing the query to every document. Like the stores with their default
+		 * similarity threshold, leaves out the documents of negative similarity
+		 */
+		List<String> nearest(int query, int k, IntPredicate filter) {
+			return IntStream.range(0, documents.length)
+				.filter(filter)
+				.filter(document -> cosine(queries[query], documents[document]) >= 0)
+				.boxed()
+				.sorted(Comparator.comparingDouble(document -> -cosine(queries[query], documents[document])))
+				.limit(k)
+				.map(document -> "d" + document)
+				.toList();
+		}
+
+		private static double cosine(float[] a, float[] b) {
+			double dot = 0;
+			double aNorm = 0;
+			double bNorm = 0;
+			for (int i = 0; i < a.length; i++) {
+				dot += (double) a[i] * b[i];
+				aNorm += (double) a[i] * a[i];
+				bNorm += (double) b[i] * b[i];
+			}
+			return dot / Math.sqrt(aNorm * bNorm);
+		}
+
+		private static float[] gaussian(int dimensions, SplittableRandom random, float[] mean, double sigma) {
+			float[] vector = new float[dimensions];
+			for (int i = 0; i < dimensions; i++) {
+				// Box-Muller, SplittableRandom has no nextGaussian on Java 17
+				double gaussian = Math.sqrt(-2 * Math.log(1 - random.nextDouble()))
+						* Math.cos(2 * Math.PI * random.nextDouble());
+				vector[i] = (float) ((mean == null ? 0 : mean[i]) + sigma * gaussian);
+			}
+			return vector;
+		}
+	}
+
+	/**
+	 * Embedding model returning the pre-computed vector of a document ({@code d<index>}) or of a query
+	 * ({@code q<index>}).
+	 */
+	static class DatasetEmbeddingModel implements EmbeddingModel {
+
+		private final Dataset dataset;
+
+		DatasetEmbeddingModel(Dataset dataset) {
+			this.dataset = dataset;
+		}
+
+		@Override
+		public EmbeddingResponse call(EmbeddingRequest request) {
+			List<Embedding> embeddings = new ArrayList<>();
+			for (String text : request.getInstructions()) {
+				embeddings.add(new Embedding(embed(text), embeddings.size()));
+			}
+			return new EmbeddingResponse(embeddings);
+		}
+
+		@Override
+		public float[] embed(String text) {
+			int index = Integer.parseInt(text.substring(1));
+			return (text.charAt(0) == 'q' ? dataset.queries() : dataset.documents())[index].clone();
+		}
+
+		@Override
+		public float[] embed(Document document) {
+			return embed(document.getContent());
+		}
+
+		@Override
+		public int dimensions() {
+			return dataset.queries()[0].length;
+		}
+
+	}
+
+}
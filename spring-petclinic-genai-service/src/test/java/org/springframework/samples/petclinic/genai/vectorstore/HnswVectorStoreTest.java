@@ -0,0 +1,192 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.IntPredicate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStoreBenchmark.Dataset;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStoreBenchmark.DatasetEmbeddingModel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks the recall of {@link HnswVectorStore} against a brute-force scan, and that it keeps it through updates,
+ * deletions, filters and a save and load.
+ */
+class HnswVectorStoreTest {
+
+	private static final int SIZE = 2000;
+
+	private static final int QUERIES = 50;
+
+	private static final int TOP_K = 10;
+
+	private final Dataset dataset = Dataset.generate(SIZE, QUERIES, 32, new SplittableRandom(42));
+
+	private final HnswVectorStore store = new HnswVectorStore(new DatasetEmbeddingModel(dataset),
+			new VectorStoreProperties.Hnsw(16, 200, 64));
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void shouldFindTheNearestDocuments() {
+		add(store);
+
+		assertThat(recall(store, null, document -> true)).isGreaterThanOrEqualTo(0.95);
+	}
+
+	@Test
+	void shouldReplaceADocumentAddedAgain() {
+		add(store);
+
+		store.add(List.of(new Document("d0", "d1", Map.of("parity", "odd", "bucket", "b1"))));
+
+		assertThat(store.size()).isEqualTo(SIZE);
+		// Both have the embedding of d1 now
+		assertThat(search(store, SearchRequest.query("d1").withTopK(2))).containsExactlyInAnyOrder("d0", "d1");
+		assertThat(store.findByMetadata(new FilterExpressionTextParser().parse("parity == 'odd'"), SIZE))
+			.hasSize(SIZE / 2 + 1);
+	}
+
+	@Test
+	void shouldRebuildTheGraphOnceTheDeletedDocumentsOutnumberTheLiveOnes() throws IOException {
+		add(store);
+
+		store.delete(ids(document -> document % 5 < 2));
+		// Tombstoned, the deleted documents are still nodes of the graph
+		assertThat(savedNodes(store)).isEqualTo(SIZE);
+		assertThat(recall(store, null, document -> document % 5 >= 2)).isGreaterThanOrEqualTo(0.95);
+
+		store.delete(ids(document -> document % 5 == 2));
+		assertThat(store.size()).isEqualTo(SIZE * 2 / 5);
+		assertThat(savedNodes(store)).isEqualTo(SIZE * 2 / 5);
+		assertThat(recall(store, null, document -> document % 5 > 2)).isGreaterThanOrEqualTo(0.95);
+	}
+
+	@Test
+	void shouldSearchTheMatchingDocumentsOnly() {
+		add(store);
+
+		assertThat(recall(store, "parity == 'even'", document -> document % 2 == 0)).isGreaterThanOrEqualTo(0.95);
+	}
+
+	@Test
+	void shouldScanTheDocumentsOfASelectiveFilter() {
+		add(store);
+
+		// Only 10 documents are in the bucket, too few to be reached by walking the graph
+		for (int query = 0; query < QUERIES; query++) {
+			SearchRequest request = SearchRequest.query("q" + query)
+				.withTopK(TOP_K)
+				.withFilterExpression("bucket == 'b0'");
+			assertThat(search(store, request))
+				.containsExactlyElementsOf(dataset.nearest(query, TOP_K, document -> document % 200 == 0));
+		}
+	}
+
+	@Test
+	void shouldSearchTheSameDocumentsOnceLoaded() throws IOException {
+		add(store);
+		store.delete(List.of("d5"));
+		Path file = directory.resolve("vectorstore.hnsw");
+		store.save(file);
+
+		HnswVectorStore loaded = new HnswVectorStore(new DatasetEmbeddingModel(dataset),
+				new VectorStoreProperties.Hnsw(16, 200, 64));
+		loaded.load(file);
+
+		assertThat(loaded.size()).isEqualTo(SIZE - 1);
+		assertThat(search(loaded, SearchRequest.query("d5").withTopK(1))).doesNotContain("d5");
+		for (int query = 0; query < QUERIES; query++) {
+			SearchRequest request = SearchRequest.query("q" + query).withTopK(TOP_K);
+			assertThat(loaded.similaritySearch(request)).usingRecursiveFieldByFieldElementComparator()
+				.containsExactlyElementsOf(store.similaritySearch(request));
+		}
+	}
+
+	/**
+	 * Add the documents of the dataset, with their parity and one of 200 buckets as metadata.
+	 */
+	private static void add(HnswVectorStore store) {
+		List<Document> documents = new ArrayList<>(SIZE);
+		for (int i = 0; i < SIZE; i++) {
+			documents.add(new Document("d" + i, "d" + i,
+					Map.of("parity", i % 2 == 0 ? "even" : "odd", "bucket", "b" + i % 200)));
+		}
+		store.add(documents);
+	}
+
+	/**
+	 * @return the average share of the brute-force top results among the results of the store
+	 */
+	private double recall(HnswVectorStore store, String filter, IntPredicate live) {
+		double recall = 0;
+		for (int query = 0; query < QUERIES; query++) {
+			SearchRequest request = SearchRequest.query("q" + query).withTopK(TOP_K);
+			if (filter != null) {
+				request = request.withFilterExpression(filter);
+			}
+			Set<String> found = new HashSet<>(search(store, request));
+			List<String> expected = dataset.nearest(query, TOP_K, live);
+			recall += expected.stream().filter(found::contains).count() / (double) expected.size();
+		}
+		return recall / QUERIES;
+	}
+
+	private static List<String> search(HnswVectorStore store, SearchRequest request) {
+		return store.similaritySearch(request).stream().map(Document::getId).toList();
+	}
+
+	private static List<String> ids(IntPredicate documents) {
+		List<String> ids = new ArrayList<>();
+		for (int i = 0; i < SIZE; i++) {
+			if (documents.test(i)) {
+				ids.add("d" + i);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @return the number of nodes of the saved graph, deleted ones included
+	 */
+	private int savedNodes(HnswVectorStore store) throws IOException {
+		Path file = directory.resolve("nodes.hnsw");
+		store.save(file);
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+			in.readInt(); // magic
+			in.readInt(); // version
+			return in.readInt();
+		}
+	}
+
+}
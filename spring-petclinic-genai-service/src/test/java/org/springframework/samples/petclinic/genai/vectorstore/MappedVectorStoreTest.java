@@ -0,0 +1,148 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStoreBenchmark.Dataset;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStoreBenchmark.DatasetEmbeddingModel;
+import org.springframework.samples.petclinic.genai.vectorstore.VectorStoreProperties.Encoding;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that {@link MappedVectorStore} searches its mapped file together with the documents added or deleted
+ * since, and writes both to the next file it saves. An int8 file is searched on its codes then re-ranked.
+ */
+class MappedVectorStoreTest {
+
+	private static final int SIZE = 500;
+
+	private static final int QUERIES = 20;
+
+	private final Dataset dataset = Dataset.generate(SIZE + 1, QUERIES, 32, new SplittableRandom(42));
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void shouldFindTheNearestDocumentsOfTheMappedFile() throws IOException {
+		MappedVectorStore store = store(Encoding.FLOAT32);
+		add(store, 0, SIZE);
+		Path file = directory.resolve("vectorstore.vec");
+		store.save(file);
+
+		MappedVectorStore loaded = store(Encoding.FLOAT32);
+		loaded.load(file);
+
+		for (int query = 0; query < QUERIES; query++) {
+			assertThat(search(loaded, SearchRequest.query("q" + query).withTopK(10)))
+				.containsExactlyElementsOf(dataset.nearest(query, 10, document -> document < SIZE));
+		}
+	}
+
+	@Test
+	void shouldSearchTheDocumentsChangedSinceTheFileWasMapped() throws IOException {
+		MappedVectorStore store = store(Encoding.FLOAT32);
+		add(store, 0, SIZE);
+		store.save(directory.resolve("vectorstore.vec"));
+
+		// Replaced with the embedding of d1, deleted, and added
+		store.add(List.of(new Document("d0", "d1", Map.of("parity", "odd"))));
+		store.delete(List.of("d5"));
+		add(store, SIZE, SIZE + 1);
+
+		assertChanged(store);
+
+		// Written to the next file
+		Path next = directory.resolve("next.vec");
+		store.save(next);
+		assertThat(VectorFile.open(next).count()).isEqualTo(SIZE);
+		assertChanged(store);
+
+		MappedVectorStore loaded = store(Encoding.FLOAT32);
+		loaded.load(next);
+		assertChanged(loaded);
+	}
+
+	@Test
+	void shouldRerankTheInt8CandidatesToTheRecallTarget() throws IOException {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		MappedVectorStore store = new MappedVectorStore(new DatasetEmbeddingModel(dataset),
+				new VectorStoreProperties.Mapped(null, Encoding.INT8, 0.99), registry);
+		add(store, 0, SIZE);
+		store.save(directory.resolve("vectorstore.vec"));
+
+		assertThat(registry.get("petclinic.vectorstore.recall").gauge().value()).isGreaterThanOrEqualTo(0.99);
+		assertThat(registry.get("petclinic.vectorstore.vector.size").tag("kind", "scanned").gauge().value())
+			.isEqualTo(32 + 4);
+		double recall = 0;
+		for (int query = 0; query < QUERIES; query++) {
+			List<String> found = search(store, SearchRequest.query("q" + query).withTopK(10));
+			List<String> expected = dataset.nearest(query, 10, document -> document < SIZE);
+			recall += expected.stream().filter(found::contains).count() / (double) expected.size();
+		}
+		assertThat(recall / QUERIES).isGreaterThanOrEqualTo(0.95);
+	}
+
+	private void assertChanged(MappedVectorStore store) {
+		assertThat(search(store, SearchRequest.query("d1").withTopK(2))).containsExactlyInAnyOrder("d0", "d1");
+		assertThat(search(store, SearchRequest.query("d5").withTopK(1))).doesNotContain("d5");
+		assertThat(search(store, SearchRequest.query("d" + SIZE).withTopK(1))).containsExactly("d" + SIZE);
+		assertThat(store.findByMetadata(new FilterExpressionTextParser().parse("parity == 'odd'"), SIZE))
+			.extracting(Document::getId)
+			.contains("d0")
+			.doesNotContain("d5")
+			.hasSize(SIZE / 2);
+		for (int query = 0; query < QUERIES; query++) {
+			assertThat(search(store, SearchRequest.query("q" + query).withTopK(10)))
+				.doesNotContain("d5")
+				.hasSize(10);
+		}
+	}
+
+	private MappedVectorStore store(Encoding encoding) {
+		return new MappedVectorStore(new DatasetEmbeddingModel(dataset),
+				new VectorStoreProperties.Mapped(null, encoding, 0.99), new SimpleMeterRegistry());
+	}
+
+	/**
+	 * Add the documents {@code d<from>} to {@code d<to - 1>} of the dataset, with their parity as metadata.
+	 */
+	private static void add(MappedVectorStore store, int from, int to) {
+		List<Document> documents = new ArrayList<>(to - from);
+		for (int i = from; i < to; i++) {
+			documents.add(new Document("d" + i, "d" + i, Map.of("parity", i % 2 == 0 ? "even" : "odd")));
+		}
+		store.add(documents);
+	}
+
+	private static List<String> search(MappedVectorStore store, SearchRequest request) {
+		return store.similaritySearch(request).stream().map(Document::getId).toList();
+	}
+
+}
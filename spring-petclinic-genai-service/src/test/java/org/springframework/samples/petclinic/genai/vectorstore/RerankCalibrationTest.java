@@ -0,0 +1,87 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStoreBenchmark.Dataset;
+import org.springframework.samples.petclinic.genai.vectorstore.VectorStoreProperties.Encoding;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that {@link RerankCalibration} finds the smallest re-rank factor reaching the recall target of an int8
+ * {@link VectorFile}.
+ */
+class RerankCalibrationTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void shouldReachTheRecallTarget() throws IOException {
+		VectorFile file = file(2000);
+
+		RerankCalibration.Result result = RerankCalibration.calibrate(file, 0.99);
+
+		assertThat(result.recall()).isGreaterThanOrEqualTo(0.99);
+		assertThat(Integer.bitCount(result.factor())).isEqualTo(1);
+		assertThat(result.factor()).isBetween(1, RerankCalibration.MAX_FACTOR);
+	}
+
+	@Test
+	void shouldNeedMoreCandidatesForAHigherTarget() throws IOException {
+		VectorFile file = file(2000);
+
+		RerankCalibration.Result low = RerankCalibration.calibrate(file, 0.5);
+		RerankCalibration.Result high = RerankCalibration.calibrate(file, 0.99);
+
+		assertThat(low.recall()).isGreaterThanOrEqualTo(0.5);
+		assertThat(low.factor()).isLessThanOrEqualTo(high.factor());
+	}
+
+	@Test
+	void shouldStopAtTheMaximumFactor() throws IOException {
+		RerankCalibration.Result result = RerankCalibration.calibrate(file(2000), 1.01);
+
+		assertThat(result.factor()).isEqualTo(RerankCalibration.MAX_FACTOR);
+		assertThat(result.recall()).isBetween(0.0, 1.0);
+	}
+
+	@Test
+	void shouldNotRerankAFileOfAtMostKVectors() throws IOException {
+		RerankCalibration.Result result = RerankCalibration.calibrate(file(RerankCalibration.K), 0.99);
+
+		assertThat(result).isEqualTo(new RerankCalibration.Result(1, 1));
+	}
+
+	private VectorFile file(int size) throws IOException {
+		Dataset dataset = Dataset.generate(size, 1, 64, new SplittableRandom(42));
+		List<VectorFile.Entry> entries = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			entries.add(new VectorFile.Entry("d" + i, "d" + i, Map.of(), dataset.documents()[i]));
+		}
+		return VectorFile.write(directory.resolve("vectorstore-" + size + ".vec"), Encoding.INT8, 64, entries);
+	}
+
+}
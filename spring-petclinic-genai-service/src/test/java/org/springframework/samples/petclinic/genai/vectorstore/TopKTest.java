@@ -0,0 +1,84 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that {@link TopK} keeps the highest scored rows, alone or merged with the rows of another worker.
+ */
+class TopKTest {
+
+	@Test
+	void shouldKeepTheHighestScoresBestFirst() {
+		TopK top = new TopK(3);
+		float[] scores = { 0.2f, 0.9f, 0.1f, 0.5f, 0.7f, 0.3f };
+		for (int row = 0; row < scores.length; row++) {
+			top.offer(row, scores[row]);
+		}
+
+		assertThat(rows(top)).containsExactly(1, 4, 3);
+		assertThat(top.score(top.order()[0])).isEqualTo(0.9f);
+	}
+
+	@Test
+	void shouldKeepEveryRowWhenThereAreFewerThanK() {
+		TopK top = new TopK(10);
+		top.offer(7, 0.1f);
+		top.offer(8, 0.3f);
+
+		assertThat(rows(top)).containsExactly(8, 7);
+	}
+
+	@Test
+	void shouldKeepNothingForZero() {
+		TopK top = new TopK(0);
+		top.offer(1, 1);
+
+		assertThat(top.size()).isZero();
+		assertThat(top.order()).isEmpty();
+	}
+
+	@Test
+	void shouldMergeTheRowsOfAnotherWorker() {
+		SplittableRandom random = new SplittableRandom(42);
+		TopK all = new TopK(10);
+		TopK left = new TopK(10);
+		TopK right = new TopK(10);
+		for (int row = 0; row < 1000; row++) {
+			float score = (float) random.nextDouble();
+			all.offer(row, score);
+			(row < 500 ? left : right).offer(row, score);
+		}
+
+		assertThat(rows(left.merge(right))).containsExactlyElementsOf(rows(all));
+	}
+
+	private static List<Integer> rows(TopK top) {
+		List<Integer> rows = new ArrayList<>();
+		for (int position : top.order()) {
+			rows.add(top.row(position));
+		}
+		return rows;
+	}
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.samples.petclinic.genai.vectorstore.VectorStoreProperties.Encoding;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Checks that a {@link VectorFile} reads back the documents and the unit vectors it was written with, and that
+ * its int8 codes stay within half a quantization step of them.
+ */
+class VectorFileTest {
+
+	private static final int DIMENSIONS = 24;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void shouldReadBackTheWrittenEntries() throws IOException {
+		List<VectorFile.Entry> entries = entries(100);
+
+		VectorFile file = VectorFile.write(directory.resolve("vets.vec"), Encoding.FLOAT32, DIMENSIONS, entries);
+		VectorFile reopened = VectorFile.open(file.path());
+
+		assertThat(reopened.count()).isEqualTo(100);
+		assertThat(reopened.dimensions()).isEqualTo(DIMENSIONS);
+		assertThat(reopened.encoding()).isEqualTo(Encoding.FLOAT32);
+		for (int i = 0; i < entries.size(); i++) {
+			VectorFile.Entry entry = reopened.entry(i);
+			assertThat(entry.id()).isEqualTo(entries.get(i).id());
+			assertThat(entry.content()).isEqualTo(entries.get(i).content());
+			assertThat(entry.metadata()).isEqualTo(entries.get(i).metadata());
+			assertThat(entry.vector()).isNull();
+
+			float[] unit = entries.get(i).vector().clone();
+			HnswIndex.normalize(unit);
+			assertThat(reopened.vector(i)).containsExactly(unit);
+			assertThat(reopened.dot(i, unit)).isCloseTo(1, within(1e-5f));
+		}
+	}
+
+	@Test
+	void shouldQuantizeEachComponentWithinHalfAStep() {
+		for (VectorFile.Entry entry : entries(100)) {
+			float[] unit = entry.vector().clone();
+			HnswIndex.normalize(unit);
+			ByteBuffer codes = ByteBuffer.allocate(DIMENSIONS);
+
+			float scale = VectorFile.quantize(unit, codes);
+
+			int largest = 0;
+			for (int d = 0; d < DIMENSIONS; d++) {
+				byte code = codes.get(d);
+				largest = Math.max(largest, Math.abs(code));
+				assertThat(code * scale).isCloseTo(unit[d], within(scale / 2 + 1e-6f));
+			}
+			// The largest component is mapped to 127, using the whole range
+			assertThat(largest).isEqualTo(127);
+		}
+	}
+
+	@Test
+	void shouldQuantizeTheZeroVectorToZeros() {
+		ByteBuffer codes = ByteBuffer.allocate(DIMENSIONS);
+
+		assertThat(VectorFile.quantize(new float[DIMENSIONS], codes)).isEqualTo(1);
+		assertThat(codes.array()).containsOnly(0);
+	}
+
+	@Test
+	void shouldApproximateTheDotProductWithTheInt8Codes() throws IOException {
+		List<VectorFile.Entry> entries = entries(100);
+		VectorFile file = VectorFile.write(directory.resolve("vets.vec"), Encoding.INT8, DIMENSIONS, entries);
+		// Each component is off by at most half a step of 1 / 127, weighted by a unit query
+		float bound = (float) (Math.sqrt(DIMENSIONS) / 254) + 1e-5f;
+
+		for (int q = 0; q < 10; q++) {
+			float[] query = entries.get(q).vector().clone();
+			HnswIndex.normalize(query);
+			for (int i = 0; i < file.count(); i++) {
+				assertThat(file.approximateDot(i, query)).isCloseTo(file.dot(i, query), within(bound));
+			}
+		}
+		assertThat(file.encoding()).isEqualTo(Encoding.INT8);
+		assertThat(file.scannedBytesPerVector()).isEqualTo(DIMENSIONS + 4);
+		assertThat(file.storedBytesPerVector()).isGreaterThan(5L * DIMENSIONS);
+	}
+
+	@Test
+	void shouldHaveNoCodesInAFloat32File() throws IOException {
+		VectorFile file = VectorFile.write(directory.resolve("vets.vec"), Encoding.FLOAT32, DIMENSIONS, entries(10));
+
+		assertThatThrownBy(() -> file.approximateDot(0, new float[DIMENSIONS]))
+			.isInstanceOf(IllegalStateException.class);
+		assertThat(file.scannedBytesPerVector()).isEqualTo(4 * DIMENSIONS);
+	}
+
+	@Test
+	void shouldWriteAnEmptyFile() throws IOException {
+		VectorFile file = VectorFile.write(directory.resolve("empty.vec"), Encoding.INT8, DIMENSIONS, List.of());
+
+		assertThat(VectorFile.open(file.path()).count()).isZero();
+		assertThat(file.storedBytesPerVector()).isZero();
+	}
+
+	@Test
+	void shouldReplaceTheFileAtomically() throws IOException {
+		Path path = directory.resolve("vets.vec");
+		VectorFile first = VectorFile.write(path, Encoding.FLOAT32, DIMENSIONS, entries(10));
+
+		VectorFile.write(path, Encoding.FLOAT32, DIMENSIONS, entries(20));
+
+		// The previous mapping still reads the previous version
+		assertThat(first.entry(9).id()).isEqualTo("vet-9");
+		assertThat(VectorFile.open(path).count()).isEqualTo(20);
+		assertThat(directory.resolve("vets.vec.tmp")).doesNotExist();
+	}
+
+	@Test
+	void shouldRejectAVectorOfOtherDimensions() {
+		List<VectorFile.Entry> entries = List
+			.of(new VectorFile.Entry("vet-1", "", Map.of(), new float[DIMENSIONS + 1]));
+		Path path = directory.resolve("vets.vec");
+
+		assertThatThrownBy(() -> VectorFile.write(path, Encoding.FLOAT32, DIMENSIONS, entries))
+			.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void shouldRejectAnotherFile() throws IOException {
+		Path path = Files.write(directory.resolve("vectorstore.json"), new byte[64]);
+
+		assertThatThrownBy(() -> VectorFile.open(path)).isInstanceOf(IOException.class)
+			.hasMessageContaining("Not a vector file");
+	}
+
+	private static List<VectorFile.Entry> entries(int count) {
+		SplittableRandom random = new SplittableRandom(count);
+		List<VectorFile.Entry> entries = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			float[] vector = new float[DIMENSIONS];
+			for (int d = 0; d < DIMENSIONS; d++) {
+				vector[d] = (float) (random.nextDouble() * 2 - 1);
+			}
+			entries.add(new VectorFile.Entry("vet-" + i, "Vet " + i + " \u00e9quin",
+					Map.of("specialties", List.of("surgery", "dentistry"), "id", i), vector));
+		}
+		return entries;
+	}
+
+}
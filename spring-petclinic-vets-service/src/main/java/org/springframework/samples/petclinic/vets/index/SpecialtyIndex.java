@@ -0,0 +1,123 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vets.index;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.samples.petclinic.vets.model.Specialty;
+import org.springframework.samples.petclinic.vets.model.Vet;
+import org.springframework.samples.petclinic.vets.model.VetRepository;
+import org.springframework.samples.petclinic.vets.model.VetsChangedEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory index of the vets by specialty. Every specialty maps to a bitmap of the positions of its vets in the
+ * list of all vets ordered by id, so that a search is a union or an intersection of bitmaps followed by a walk
+ * over the set bits of the requested page.
+ * <p>
+ * The index is built on first use with a single query fetching the vets along with their specialties, and
+ * rebuilt whenever a {@link VetsChangedEvent} is published. A rebuild replaces the whole index at once.
+ */
+@Component
+public class SpecialtyIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(SpecialtyIndex.class);
+
+    private final VetRepository vetRepository;
+
+    private volatile Index index;
+
+    public SpecialtyIndex(VetRepository vetRepository) {
+        this.vetRepository = vetRepository;
+    }
+
+    /**
+     * @param specialties names of the requested specialties, case-insensitive
+     * @param match       whether the vets must have any or all of the specialties
+     * @param page        zero-based index of the page to return
+     * @param size        number of vets per page
+     */
+    public VetsPage search(Collection<String> specialties, SpecialtyMatch match, int page, int size) {
+        Index current = index();
+        BitSet matching = current.matching(specialties, match);
+        List<Vet> content = new ArrayList<>(size);
+        int skipped = 0;
+        for (int position = matching.nextSetBit(0); position >= 0 && content.size() < size;
+             position = matching.nextSetBit(position + 1)) {
+            if (skipped++ >= (long) page * size) {
+                content.add(current.vets().get(position));
+            }
+        }
+        return new VetsPage(content, page, size, matching.cardinality());
+    }
+
+    @EventListener(VetsChangedEvent.class)
+    public synchronized void rebuild() {
+        List<Vet> vets = vetRepository.findAllWithSpecialties();
+        Map<String, BitSet> bySpecialty = new HashMap<>();
+        for (int position = 0; position < vets.size(); position++) {
+            for (Specialty specialty : vets.get(position).getSpecialties()) {
+                bySpecialty.computeIfAbsent(key(specialty.getName()), name -> new BitSet(vets.size())).set(position);
+            }
+        }
+        index = new Index(List.copyOf(vets), Map.copyOf(bySpecialty));
+        log.info("Specialty index built with {} vets and {} specialties", vets.size(), bySpecialty.size());
+    }
+
+    private Index index() {
+        Index current = index;
+        if (current == null) {
+            synchronized (this) {
+                if (index == null) {
+                    rebuild();
+                }
+                current = index;
+            }
+        }
+        return current;
+    }
+
+    private static String key(String specialty) {
+        return specialty.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private record Index(List<Vet> vets, Map<String, BitSet> bySpecialty) {
+
+        BitSet matching(Collection<String> specialties, SpecialtyMatch match) {
+            BitSet matching = null;
+            for (String specialty : specialties) {
+                BitSet vetsWithSpecialty = bySpecialty.getOrDefault(key(specialty), new BitSet());
+                if (matching == null) {
+                    matching = (BitSet) vetsWithSpecialty.clone();
+                } else if (match == SpecialtyMatch.ALL) {
+                    matching.and(vetsWithSpecialty);
+                } else {
+                    matching.or(vetsWithSpecialty);
+                }
+            }
+            return matching == null ? new BitSet() : matching;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vets.index;
+
+import java.util.List;
+
+import org.springframework.samples.petclinic.vets.model.Vet;
+
+/**
+ * A page of the vets matching a search.
+ *
+ * @param content       the vets of the page, ordered by id
+ * @param page          zero-based index of the page
+ * @param size          requested number of vets per page
+ * @param totalElements number of vets matching the search across all pages
+ */
+public record VetsPage(
+    List<Vet> content,
+    int page,
+    int size,
+    int totalElements
+) {
+}
@@ -15,7 +15,10 @@
  */
 package org.springframework.samples.petclinic.vets.model;
 
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 /**
  * Repository class for <code>Vet</code> domain objects All method names are compliant with Spring Data naming
@@ -28,4 +31,10 @@ import org.springframework.data.jpa.repository.JpaRepository;
  * @author Maciej Szarlinski
  */
 public interface VetRepository extends JpaRepository<Vet, Integer> {
+
+    /**
+     * Load all the vets along with their specialties in a single query, ordered by id.
+     */
+    @Query("SELECT DISTINCT v FROM Vet v LEFT JOIN FETCH v.specialties ORDER BY v.id")
+    List<Vet> findAllWithSpecialties();
 }
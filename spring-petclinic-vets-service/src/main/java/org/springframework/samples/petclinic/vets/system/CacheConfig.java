@@ -15,16 +15,64 @@
  */
 package org.springframework.samples.petclinic.vets.system;
 
+import java.time.Duration;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
+import org.springframework.samples.petclinic.vets.model.VetsChangedEvent;
+import org.springframework.samples.petclinic.vets.web.VetsRenderer;
+import org.springframework.samples.petclinic.vets.web.VetsSnapshot;
 
 /**
  * Cache could be disable in unit test.
+ * <p>
+ * The {@code vets} cache is a Caffeine loading cache bounded and expired according to {@link VetsProperties}.
+ * Entries are refreshed asynchronously once half of their time to live has elapsed, so that readers are served
+ * the previous vet list instead of waiting for the database, and statistics are recorded for the cache metrics.
+ * On a {@link VetsChangedEvent}, the snapshot {@link VetsRenderer} rendered for it replaces the cached one.
+ *
  * @author Maciej Szarlinski
  */
 @Configuration
 @EnableCaching
 @Profile("production")
 class CacheConfig {
+
+    static final String VETS_CACHE = "vets";
+
+    @Bean
+    CacheManager cacheManager(VetsProperties vetsProperties, VetsRenderer vetsRenderer) {
+        VetsProperties.Cache properties = vetsProperties.cache();
+        Duration ttl = Duration.ofSeconds(properties.ttl());
+        CaffeineCacheManager caffeineCacheManager = new CaffeineCacheManager();
+        // The vets snapshot is the only value cached and does not depend on the key
+        caffeineCacheManager.registerCustomCache(VETS_CACHE, Caffeine.newBuilder()
+            .maximumSize(properties.heapSize())
+            .expireAfterWrite(ttl)
+            .refreshAfterWrite(ttl.dividedBy(2))
+            .recordStats()
+            .build(key -> vetsRenderer.refresh()));
+        return caffeineCacheManager;
+    }
+
+    @Bean
+    ApplicationListener<PayloadApplicationEvent<VetsChangedEvent>> vetsCacheRefresher(
+        CacheManager cacheManager, VetsRenderer vetsRenderer) {
+        return ApplicationListener.forPayload(event -> {
+            CaffeineCache cache = (CaffeineCache) cacheManager.getCache(VETS_CACHE);
+            LoadingCache<Object, Object> vets = (LoadingCache<Object, Object>) cache.getNativeCache();
+            // Already rendered by the renderer, which listens first
+            VetsSnapshot latest = vetsRenderer.latest();
+            vets.asMap().replaceAll((key, previous) -> latest);
+        });
+    }
 }
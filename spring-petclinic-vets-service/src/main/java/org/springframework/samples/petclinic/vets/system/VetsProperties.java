@@ -16,6 +16,7 @@
 package org.springframework.samples.petclinic.vets.system;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
 
 /**
  * Typesafe custom configuration.
@@ -24,11 +25,17 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
  */
 @ConfigurationProperties(prefix = "vets")
 public record VetsProperties(
-    Cache cache
+    @DefaultValue Cache cache
 ) {
+    /**
+     * @param ttl      number of seconds after which a cached vet list expires. It is reloaded in the background
+     *                 once half of it has elapsed, so readers keep being served the previous list meanwhile
+     * @param heapSize maximum number of vet list snapshots held by the {@code vets} cache. The vet list takes no
+     *                 parameter, so the cache only ever holds one: the setting caps the cache rather than sizes it
+     */
     public record Cache(
-        int ttl,
-        int heapSize
+        @DefaultValue("60") int ttl,
+        @DefaultValue("100") int heapSize
     ) {
     }
 }
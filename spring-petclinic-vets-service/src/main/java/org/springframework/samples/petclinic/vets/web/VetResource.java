@@ -16,13 +16,27 @@
 package org.springframework.samples.petclinic.vets.web;
 
 import java.util.List;
+import java.util.Locale;
 
-import org.springframework.cache.annotation.Cacheable;
-import org.springframework.samples.petclinic.vets.model.Vet;
-import org.springframework.samples.petclinic.vets.model.VetRepository;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.samples.petclinic.vets.index.SpecialtyIndex;
+import org.springframework.samples.petclinic.vets.index.SpecialtyMatch;
+import org.springframework.samples.petclinic.vets.index.VetsPage;
+import org.springframework.samples.petclinic.vets.model.VetsChangedEvent;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
 /**
  * @author Juergen Hoeller
@@ -35,15 +49,89 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 class VetResource {
 
-    private final VetRepository vetRepository;
+    private static final int MAX_PAGE_SIZE = 100;
 
-    VetResource(VetRepository vetRepository) {
-        this.vetRepository = vetRepository;
+    private final VetsRenderer vetsRenderer;
+    private final SpecialtyIndex specialtyIndex;
+    private final ApplicationEventPublisher eventPublisher;
+
+    VetResource(VetsRenderer vetsRenderer, SpecialtyIndex specialtyIndex, ApplicationEventPublisher eventPublisher) {
+        this.vetsRenderer = vetsRenderer;
+        this.specialtyIndex = specialtyIndex;
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * Serve the pre-rendered vet list. Clients revalidate it on every use and get a 304 Not Modified as long as
+     * the entity tag they send matches the current snapshot.
+     */
+    @GetMapping(produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE})
+    public ResponseEntity<byte[]> showResourcesVetList(
+        @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+
+        VetsSnapshot snapshot = vetsRenderer.current();
+        boolean xml = prefersXml(accept);
+        return ResponseEntity.ok()
+            .contentType(xml ? MediaType.APPLICATION_XML : MediaType.APPLICATION_JSON)
+            .eTag(xml ? snapshot.xmlETag() : snapshot.jsonETag())
+            .cacheControl(CacheControl.noCache().cachePublic())
+            .varyBy(HttpHeaders.ACCEPT)
+            .body(xml ? snapshot.xml() : snapshot.json());
+    }
+
+    /**
+     * Search the vets having any or all of the given specialties, e.g.
+     * {@code /vets?specialty=radiology&specialty=surgery&match=all}.
+     */
+    @GetMapping(params = "specialty")
+    public VetsPage findVetsBySpecialty(
+        @RequestParam("specialty") List<String> specialties,
+        @RequestParam(value = "match", defaultValue = "any") String match,
+        @RequestParam(value = "page", defaultValue = "0") int page,
+        @RequestParam(value = "size", defaultValue = "20") int size) {
+
+        if (page < 0 || size < 1 || size > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "page must be positive and size between 1 and " + MAX_PAGE_SIZE);
+        }
+        return specialtyIndex.search(specialties, parseMatch(match), page, size);
+    }
+
+    /**
+     * Reload the vet list and the specialty index, e.g. after the vets were changed directly in the database.
+     * Not routed by the api-gateway, for the operators only.
+     */
+    @DeleteMapping("/cache")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void invalidateCache() {
+        eventPublisher.publishEvent(new VetsChangedEvent());
+    }
+
+    private static SpecialtyMatch parseMatch(String match) {
+        try {
+            return SpecialtyMatch.valueOf(match.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "match must be either any or all");
+        }
     }
 
-    @GetMapping
-    @Cacheable("vets")
-    public List<Vet> showResourcesVetList() {
-        return vetRepository.findAll();
+    /**
+     * @return whether XML comes before JSON in the media types accepted by the client, JSON being the default
+     */
+    private static boolean prefersXml(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        List<MediaType> mediaTypes = MediaType.parseMediaTypes(accept);
+        MimeTypeUtils.sortBySpecificity(mediaTypes);
+        for (MediaType mediaType : mediaTypes) {
+            if (mediaType.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+                return false;
+            }
+            if (mediaType.isCompatibleWith(MediaType.APPLICATION_XML)) {
+                return true;
+            }
+        }
+        return false;
     }
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vets.web;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.samples.petclinic.vets.model.Vet;
+import org.springframework.samples.petclinic.vets.model.VetRepository;
+import org.springframework.samples.petclinic.vets.model.Vets;
+import org.springframework.samples.petclinic.vets.model.VetsChangedEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Renders the vet list into a {@link VetsSnapshot}, so that serving it only means writing bytes.
+ * <p>
+ * The snapshot is rendered at startup and held here whatever the cache configuration, then replaced at once by a
+ * new one whenever a {@link VetsChangedEvent} is published. With the {@code production} profile, the {@code vets}
+ * cache also renders it again in the background once its time to live is half elapsed.
+ */
+@Component
+public class VetsRenderer {
+
+    private static final Logger log = LoggerFactory.getLogger(VetsRenderer.class);
+
+    private final VetRepository vetRepository;
+    private final ObjectMapper objectMapper;
+    private final JAXBContext jaxbContext;
+
+    private final AtomicReference<VetsSnapshot> snapshot = new AtomicReference<>();
+
+    public VetsRenderer(VetRepository vetRepository, ObjectMapper objectMapper) {
+        this.vetRepository = vetRepository;
+        this.objectMapper = objectMapper;
+        try {
+            this.jaxbContext = JAXBContext.newInstance(Vets.class);
+        } catch (JAXBException e) {
+            throw new IllegalStateException("Cannot create the JAXB context of the vets", e);
+        }
+    }
+
+    /**
+     * @return the current snapshot, rendered on the first call when it comes before the application is ready
+     */
+    @Cacheable("vets")
+    public VetsSnapshot current() {
+        VetsSnapshot current = snapshot.get();
+        return current != null ? current : refresh();
+    }
+
+    /**
+     * Runs before the other listeners of the same events, so that they see the new snapshot.
+     */
+    @EventListener({ApplicationReadyEvent.class, VetsChangedEvent.class})
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onVetsChanged() {
+        refresh();
+    }
+
+    /**
+     * Render a new snapshot and replace the current one by it.
+     */
+    public VetsSnapshot refresh() {
+        VetsSnapshot rendered = render();
+        snapshot.set(rendered);
+        return rendered;
+    }
+
+    /**
+     * @return the snapshot last rendered, without going through the {@code vets} cache, or {@code null}
+     */
+    public VetsSnapshot latest() {
+        return snapshot.get();
+    }
+
+    private VetsSnapshot render() {
+        List<Vet> vets = vetRepository.findAllWithSpecialties();
+        byte[] json = toJson(vets);
+        byte[] xml = toXml(vets);
+        VetsSnapshot snapshot = new VetsSnapshot(json, eTag(json), xml, eTag(xml));
+        log.debug("Rendered {} vets, JSON version {}", vets.size(), snapshot.jsonETag());
+        return snapshot;
+    }
+
+    private byte[] toJson(List<Vet> vets) {
+        try {
+            return objectMapper.writeValueAsBytes(vets);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot render the vets as JSON", e);
+        }
+    }
+
+    private byte[] toXml(List<Vet> vets) {
+        try {
+            // Marshallers are not thread-safe, whereas the context is
+            Marshaller marshaller = jaxbContext.createMarshaller();
+            ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            marshaller.marshal(new Vets(vets), xml);
+            return xml.toByteArray();
+        } catch (JAXBException e) {
+            throw new IllegalStateException("Cannot render the vets as XML", e);
+        }
+    }
+
+    private static String eTag(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            return "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vets.web;
+
+/**
+ * Vet list pre-rendered as JSON and XML. The representations are immutable and only replaced as a whole, so a
+ * reader always gets a consistent pair along with the strong entity tag of each of them.
+ *
+ * @param json     the vet list as a JSON array
+ * @param jsonETag entity tag of the JSON representation, derived from its content
+ * @param xml      the vet list as a {@code <vets>} XML document
+ * @param xmlETag  entity tag of the XML representation, derived from its content
+ */
+public record VetsSnapshot(
+    byte[] json,
+    String jsonETag,
+    byte[] xml,
+    String xmlETag
+) {
+}
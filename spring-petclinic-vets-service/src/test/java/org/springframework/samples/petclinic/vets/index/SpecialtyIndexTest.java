@@ -0,0 +1,93 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vets.index;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.samples.petclinic.vets.model.Specialty;
+import org.springframework.samples.petclinic.vets.model.Vet;
+import org.springframework.samples.petclinic.vets.model.VetRepository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+class SpecialtyIndexTest {
+
+    private final VetRepository vetRepository = mock(VetRepository.class);
+
+    private final SpecialtyIndex specialtyIndex = new SpecialtyIndex(vetRepository);
+
+    @BeforeEach
+    void setUp() {
+        Specialty radiology = specialty("radiology");
+        Specialty surgery = specialty("surgery");
+        Specialty dentistry = specialty("dentistry");
+        given(vetRepository.findAllWithSpecialties()).willReturn(List.of(
+            vet(1),
+            vet(2, radiology),
+            vet(3, surgery, dentistry),
+            vet(4, surgery),
+            vet(5, radiology),
+            vet(6)));
+    }
+
+    @Test
+    void shouldFindVetsHavingAnyOfTheSpecialties() {
+        VetsPage page = specialtyIndex.search(List.of("radiology", "SURGERY"), SpecialtyMatch.ANY, 0, 10);
+
+        assertThat(page.content()).extracting(Vet::getId).containsExactly(2, 3, 4, 5);
+        assertThat(page.totalElements()).isEqualTo(4);
+    }
+
+    @Test
+    void shouldFindVetsHavingAllTheSpecialties() {
+        VetsPage page = specialtyIndex.search(List.of("surgery", "dentistry"), SpecialtyMatch.ALL, 0, 10);
+
+        assertThat(page.content()).extracting(Vet::getId).containsExactly(3);
+    }
+
+    @Test
+    void shouldPaginateMatchingVets() {
+        VetsPage page = specialtyIndex.search(List.of("radiology", "surgery"), SpecialtyMatch.ANY, 1, 3);
+
+        assertThat(page.content()).extracting(Vet::getId).containsExactly(5);
+        assertThat(page.totalElements()).isEqualTo(4);
+    }
+
+    @Test
+    void shouldNotMatchUnknownSpecialties() {
+        assertThat(specialtyIndex.search(List.of("surgery", "cardiology"), SpecialtyMatch.ALL, 0, 10).content()).isEmpty();
+        assertThat(specialtyIndex.search(List.of("cardiology"), SpecialtyMatch.ANY, 0, 10).content()).isEmpty();
+    }
+
+    private static Specialty specialty(String name) {
+        Specialty specialty = new Specialty();
+        specialty.setName(name);
+        return specialty;
+    }
+
+    private static Vet vet(int id, Specialty... specialties) {
+        Vet vet = new Vet();
+        vet.setId(id);
+        for (Specialty specialty : specialties) {
+            vet.addSpecialty(specialty);
+        }
+        return vet;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vets.system;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.samples.petclinic.vets.model.Vet;
+import org.springframework.samples.petclinic.vets.model.VetRepository;
+import org.springframework.samples.petclinic.vets.model.VetsChangedEvent;
+import org.springframework.samples.petclinic.vets.web.VetsRenderer;
+import org.springframework.samples.petclinic.vets.web.VetsSnapshot;
+import org.springframework.test.context.ActiveProfiles;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Checks the {@code vets} cache of the {@code production} profile against the {@code vets.cache} settings of the
+ * test profile: a ttl of 10 seconds and a heap size of 10.
+ */
+@SpringBootTest
+@ActiveProfiles({"test", "production"})
+class CacheConfigTest {
+
+    @MockBean
+    VetRepository vetRepository;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    VetsRenderer vetsRenderer;
+
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void shouldBindTheCacheSettings() {
+        LoadingCache<Object, Object> vets = vetsCache();
+
+        assertThat(vets.policy().expireAfterWrite()).hasValueSatisfying(
+            expiration -> assertThat(expiration.getExpiresAfter()).isEqualTo(Duration.ofSeconds(10)));
+        assertThat(vets.policy().eviction()).hasValueSatisfying(
+            eviction -> assertThat(eviction.getMaximum()).isEqualTo(10));
+    }
+
+    @Test
+    void shouldRefreshOnceHalfOfTheTtlElapsed() {
+        assertThat(vetsCache().policy().refreshAfterWrite()).hasValueSatisfying(
+            refresh -> assertThat(refresh.getRefreshesAfter()).isEqualTo(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    void shouldRecordTheCacheMetrics() {
+        vetsRenderer.current();
+        vetsRenderer.current();
+
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "vets").tag("result", "hit")
+            .functionCounter().count()).isGreaterThanOrEqualTo(1);
+        assertThat(meterRegistry.get("cache.size").tag("cache", "vets").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldCacheTheSnapshotRenderedWhenTheVetsChange() {
+        Vet carter = new Vet();
+        carter.setId(1);
+        given(vetRepository.findAllWithSpecialties()).willReturn(asList(carter));
+        VetsSnapshot previous = vetsRenderer.current();
+
+        Vet leary = new Vet();
+        leary.setId(2);
+        given(vetRepository.findAllWithSpecialties()).willReturn(asList(carter, leary));
+        clearInvocations(vetRepository);
+        eventPublisher.publishEvent(new VetsChangedEvent());
+
+        VetsSnapshot current = vetsRenderer.current();
+        assertThat(current).isNotSameAs(previous).isSameAs(vetsRenderer.latest());
+        assertThat(new String(current.json(), StandardCharsets.UTF_8)).contains("\"id\":2");
+        // Rendered once, by the renderer, and not again by the cache
+        verify(vetRepository, times(1)).findAllWithSpecialties();
+    }
+
+    @SuppressWarnings("unchecked")
+    private LoadingCache<Object, Object> vetsCache() {
+        CaffeineCache cache = (CaffeineCache) cacheManager.getCache(CacheConfig.VETS_CACHE);
+        return (LoadingCache<Object, Object>) cache.getNativeCache();
+    }
+}
@@ -20,25 +20,38 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.samples.petclinic.vets.index.SpecialtyIndex;
+import org.springframework.samples.petclinic.vets.model.Specialty;
 import org.springframework.samples.petclinic.vets.model.Vet;
 import org.springframework.samples.petclinic.vets.model.VetRepository;
+import org.springframework.samples.petclinic.vets.model.VetsChangedEvent;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 
 import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.BDDMockito.given;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.xpath;
 
 /**
  * @author Maciej Szarlinski
  */
 @ExtendWith(SpringExtension.class)
 @WebMvcTest(VetResource.class)
+@Import({VetsRenderer.class, SpecialtyIndex.class})
 @ActiveProfiles("test")
+@RecordApplicationEvents
 class VetResourceTest {
 
     @Autowired
@@ -47,16 +60,105 @@ class VetResourceTest {
     @MockBean
     VetRepository vetRepository;
 
+    @Autowired
+    ApplicationEvents events;
+
+    @Autowired
+    VetsRenderer vetsRenderer;
+
     @Test
     void shouldGetAListOfVets() throws Exception {
 
         Vet vet = new Vet();
         vet.setId(1);
 
-        given(vetRepository.findAll()).willReturn(asList(vet));
+        given(vetRepository.findAllWithSpecialties()).willReturn(asList(vet));
+        vetsRenderer.refresh();
 
         mvc.perform(get("/vets").accept(MediaType.APPLICATION_JSON))
             .andExpect(status().isOk())
             .andExpect(jsonPath("$[0].id").value(1));
     }
+
+    @Test
+    void shouldAnswerNotModifiedWhenTheETagMatches() throws Exception {
+
+        Vet vet = new Vet();
+        vet.setId(1);
+
+        given(vetRepository.findAllWithSpecialties()).willReturn(asList(vet));
+        vetsRenderer.refresh();
+
+        String eTag = mvc.perform(get("/vets").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk())
+            .andExpect(header().exists(HttpHeaders.ETAG))
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mvc.perform(get("/vets").accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, eTag))
+            .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void shouldGetAListOfVetsInXmlFormat() throws Exception {
+
+        Vet vet = new Vet();
+        vet.setId(1);
+        vet.setLastName("Carter");
+
+        given(vetRepository.findAllWithSpecialties()).willReturn(asList(vet));
+        vetsRenderer.refresh();
+
+        mvc.perform(get("/vets").accept(MediaType.APPLICATION_XML))
+            .andExpect(status().isOk())
+            .andExpect(xpath("/vets/vetList/lastName").string("Carter"));
+    }
+
+    @Test
+    void shouldFindVetsBySpecialty() throws Exception {
+
+        Specialty surgery = new Specialty();
+        surgery.setName("surgery");
+        Vet carter = new Vet();
+        carter.setId(1);
+        Vet ortega = new Vet();
+        ortega.setId(4);
+        ortega.addSpecialty(surgery);
+
+        given(vetRepository.findAllWithSpecialties()).willReturn(asList(carter, ortega));
+
+        mvc.perform(get("/vets").param("specialty", "Surgery").accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.content[0].id").value(4))
+            .andExpect(jsonPath("$.totalElements").value(1));
+    }
+
+    @Test
+    void shouldServeTheSnapshotUntilTheVetsChange() throws Exception {
+
+        Vet carter = new Vet();
+        carter.setId(1);
+        Vet leary = new Vet();
+        leary.setId(2);
+
+        given(vetRepository.findAllWithSpecialties()).willReturn(asList(carter));
+        vetsRenderer.refresh();
+        given(vetRepository.findAllWithSpecialties()).willReturn(asList(carter, leary));
+
+        mvc.perform(get("/vets").accept(MediaType.APPLICATION_JSON))
+            .andExpect(jsonPath("$.length()").value(1));
+
+        mvc.perform(delete("/vets/cache"))
+            .andExpect(status().isNoContent());
+
+        mvc.perform(get("/vets").accept(MediaType.APPLICATION_JSON))
+            .andExpect(jsonPath("$.length()").value(2));
+    }
+
+    @Test
+    void shouldPublishVetsChangedWhenInvalidatingTheCache() throws Exception {
+        mvc.perform(delete("/vets/cache"))
+            .andExpect(status().isNoContent());
+
+        assertThat(events.stream(VetsChangedEvent.class)).hasSize(1);
+    }
 }
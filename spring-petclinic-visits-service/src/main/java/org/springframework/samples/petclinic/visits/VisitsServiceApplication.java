@@ -17,13 +17,21 @@ package org.springframework.samples.petclinic.visits;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
+import org.springframework.samples.petclinic.changes.ChangeEvent;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * @author Maciej Szarlinski
  */
 @EnableDiscoveryClient
 @SpringBootApplication
+@EnableScheduling
+@EntityScan(basePackageClasses = {VisitsServiceApplication.class, ChangeEvent.class})
+@EnableConfigurationProperties(VisitsProperties.class)
 public class VisitsServiceApplication {
     public static void main(String[] args) {
         SpringApplication.run(VisitsServiceApplication.class, args);
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.archive;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.IntStream;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.model.Visit;
+import org.springframework.samples.petclinic.visits.model.VisitArchiveSegment;
+import org.springframework.samples.petclinic.visits.model.VisitArchiveSegmentRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cold storage for the visits moved out of the {@code visits} table by the {@link VisitArchiver}.
+ * <p>
+ * The archive is an append-only list of {@link VisitSegment} files, memory-mapped once registered in the
+ * {@code visit_archive_segments} table. Every instance of the service reads the same segments, so the archive
+ * directory must be shared by all of them; the registrations are periodically checked for new segments.
+ */
+@Component
+public class VisitArchive {
+
+    private static final Logger log = LoggerFactory.getLogger(VisitArchive.class);
+
+    private final Path directory;
+    private final VisitArchiveSegmentRepository segmentRepository;
+
+    // Registered segments, by file name
+    private final Map<String, VisitSegment> segments = new ConcurrentSkipListMap<>();
+
+    public VisitArchive(VisitsProperties visitsProperties, VisitArchiveSegmentRepository segmentRepository) {
+        this.directory = Paths.get(visitsProperties.archive().directory());
+        this.segmentRepository = segmentRepository;
+    }
+
+    @PostConstruct
+    void open() {
+        refresh();
+        log.info("Visit archive opened with {} segments from {}", segments.size(), directory.toAbsolutePath());
+    }
+
+    /**
+     * Open the segments registered since the last refresh, including the ones written by other instances.
+     */
+    @Scheduled(fixedDelayString = "${visits.archive.refresh-interval:PT1M}",
+        initialDelayString = "${visits.archive.refresh-interval:PT1M}")
+    public void refresh() {
+        for (VisitArchiveSegment registered : segmentRepository.findAllByOrderByFileNameAsc()) {
+            try {
+                segment(registered.getFileName());
+            } catch (UncheckedIOException e) {
+                log.error("Archive segment {} is registered but cannot be read from {}, the archive directory "
+                    + "must be shared by all the instances", registered.getFileName(), directory.toAbsolutePath(), e);
+            }
+        }
+    }
+
+    /**
+     * @return the archived visits of the given pets. Visits not deleted from the {@code visits} table yet are
+     * returned as well.
+     */
+    public List<Visit> findByPetIdIn(Collection<Integer> petIds) {
+        if (segments.isEmpty()) {
+            return List.of();
+        }
+        List<Visit> visits = new ArrayList<>();
+        for (VisitSegment segment : segments.values()) {
+            for (Integer petId : petIds) {
+                visits.addAll(segment.findByPetId(petId));
+            }
+        }
+        return visits;
+    }
+
+    /**
+     * @return the ids of the pets having archived visits, possibly with duplicates
+     */
+    public IntStream petIds() {
+        return segments.values().stream().flatMapToInt(segment -> IntStream.of(segment.petIds()));
+    }
+
+    /**
+     * @return the number of archived visits per month, only counting the visits deleted from the {@code visits}
+     * table. Should be called within the transaction counting the visits of the table, so that both agree on the
+     * visits moved meanwhile.
+     */
+    public Map<YearMonth, Long> visitsPerMonth() {
+        Map<YearMonth, Long> visitsPerMonth = new HashMap<>();
+        for (VisitArchiveSegment registered : segmentRepository.findByPurgedAtIsNotNull()) {
+            segment(registered.getFileName()).visitsPerMonth()
+                .forEach((month, count) -> visitsPerMonth.merge(month, count, Long::sum));
+        }
+        return visitsPerMonth;
+    }
+
+    /**
+     * Write the given visits into a new segment, then register it so that every instance reads it.
+     */
+    void append(List<Visit> visits) {
+        try {
+            Files.createDirectories(directory);
+            String fileName = String.format("visits-%013d-%010d%s",
+                System.currentTimeMillis(), visits.get(visits.size() - 1).getId(), VisitSegment.EXTENSION);
+            Path file = directory.resolve(fileName);
+            VisitSegment segment = VisitSegment.write(file, visits);
+            // A segment written but not registered is never read and may be deleted
+            segmentRepository.save(new VisitArchiveSegment(fileName, visits.size(), Instant.now()));
+            segments.put(fileName, segment);
+            log.info("Archived {} visits into {}", visits.size(), file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write the visit archive segment", e);
+        }
+    }
+
+    /**
+     * @return the ids of the visits of the given segment
+     */
+    List<Integer> visitIds(String fileName) {
+        VisitSegment segment = segment(fileName);
+        List<Integer> visitIds = new ArrayList<>();
+        for (int petId : segment.petIds()) {
+            segment.findByPetId(petId).forEach(visit -> visitIds.add(visit.getId()));
+        }
+        return visitIds;
+    }
+
+    private VisitSegment segment(String fileName) {
+        return segments.computeIfAbsent(fileName, name -> {
+            try {
+                return VisitSegment.open(directory.resolve(name));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to open the visit archive segment " + name, e);
+            }
+        });
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.archive;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import net.javacrumbs.shedlock.spring.annotation.SchedulerLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.model.Visit;
+import org.springframework.samples.petclinic.visits.model.VisitArchiveSegment;
+import org.springframework.samples.petclinic.visits.model.VisitArchiveSegmentRepository;
+import org.springframework.samples.petclinic.visits.model.VisitRepository;
+import org.springframework.samples.petclinic.visits.model.VisitStatsSnapshotRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Periodically moves the visits older than {@code visits.archive.min-age} from the {@code visits} table to the
+ * {@link VisitArchive}, one segment of at most {@code visits.archive.batch-size} visits at a time.
+ * <p>
+ * Moving visits takes two runs. The first one writes and registers the segments but keeps the rows, since the
+ * other instances only read a segment once they noticed its registration. A later run, at least
+ * {@code visits.archive.purge-delay} afterwards, deletes the rows and marks the segment as purged in a single
+ * transaction. New segments are only written once all the previous ones are purged, and only hold visits already
+ * counted by the statistics snapshot. Readers ignore the visits found both in the table and in the archive.
+ * <p>
+ * A single instance runs the archiver at a time, through a lock held in the database.
+ */
+@Component
+@ConditionalOnProperty(prefix = "visits.archive", name = "enabled", havingValue = "true")
+public class VisitArchiver {
+
+    private static final Logger log = LoggerFactory.getLogger(VisitArchiver.class);
+
+    private final VisitRepository visitRepository;
+    private final VisitArchive visitArchive;
+    private final VisitArchiveSegmentRepository segmentRepository;
+    private final VisitStatsSnapshotRepository snapshotRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final VisitsProperties.Archive properties;
+
+    public VisitArchiver(VisitRepository visitRepository, VisitArchive visitArchive,
+                         VisitArchiveSegmentRepository segmentRepository,
+                         VisitStatsSnapshotRepository snapshotRepository, TransactionTemplate transactionTemplate,
+                         VisitsProperties visitsProperties) {
+        this.visitRepository = visitRepository;
+        this.visitArchive = visitArchive;
+        this.segmentRepository = segmentRepository;
+        this.snapshotRepository = snapshotRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.properties = visitsProperties.archive();
+    }
+
+    @Scheduled(cron = "${visits.archive.cron:0 0 3 * * *}")
+    @SchedulerLock(name = "visit-archiver", lockAtMostFor = "PT2H")
+    public void archive() {
+        Instant now = Instant.now();
+        visitArchive.refresh();
+        if (!purge(now.minus(properties.purgeDelay()))) {
+            log.info("Visits archived less than {} ago are not purged yet, no new visit archived", properties.purgeDelay());
+            return;
+        }
+
+        Date cutoff = Date.from(now.minus(properties.minAge()));
+        // Visits not counted by the statistics snapshot yet would be missing from it once deleted
+        Integer countedId = snapshotRepository.findLastVisitId();
+        int upToId = countedId == null ? 0 : countedId;
+        int archived = 0;
+        int lastArchivedId = 0;
+        List<Visit> batch;
+        do {
+            batch = visitRepository.findByDateBeforeAndIdGreaterThanAndIdLessThanEqualOrderByIdAsc(cutoff,
+                lastArchivedId, upToId, PageRequest.of(0, properties.batchSize()));
+            if (!batch.isEmpty()) {
+                visitArchive.append(batch);
+                archived += batch.size();
+                lastArchivedId = batch.get(batch.size() - 1).getId();
+            }
+        } while (batch.size() == properties.batchSize());
+        log.info("{} visits older than {} archived, they are deleted from the table in {} at the earliest",
+            archived, cutoff, properties.purgeDelay());
+    }
+
+    /**
+     * Delete the visits of the segments registered before the given instant from the {@code visits} table.
+     *
+     * @return whether every segment is purged
+     */
+    private boolean purge(Instant registeredBefore) {
+        boolean purgedAll = true;
+        for (VisitArchiveSegment segment : segmentRepository.findByPurgedAtIsNullOrderByFileNameAsc()) {
+            if (!segment.getCreatedAt().isBefore(registeredBefore)) {
+                purgedAll = false;
+                continue;
+            }
+            List<Integer> visitIds = visitArchive.visitIds(segment.getFileName());
+            transactionTemplate.executeWithoutResult(status -> {
+                visitRepository.deleteAllByIdInBatch(visitIds);
+                segment.setPurgedAt(Instant.now());
+                segmentRepository.save(segment);
+            });
+            log.info("{} archived visits of {} deleted from the visits table", visitIds.size(), segment.getFileName());
+        }
+        return purgedAll;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import org.springframework.samples.petclinic.visits.model.Visit;
+
+/**
+ * Immutable file holding archived visits, read through a memory-mapped buffer.
+ * <p>
+ * The file starts with a header made of the number of visits per month and of an index of the pets, sorted by
+ * pet id, giving the offset and length of the block holding their visits. Each block is compressed with Deflate
+ * independently, so looking up the visits of a pet is a binary search in the index followed by the inflation of
+ * a single block.
+ * <pre>
+ * int magic, int version
+ * int monthCount, (int yyyyMM, long visitCount) * monthCount
+ * int petCount, (int petId, int visitCount, long offset, int length) * petCount
+ * compressed blocks of (int id, long date or -1, boolean hasDescription, UTF description) * visitCount
+ * </pre>
+ */
+final class VisitSegment {
+
+    static final String EXTENSION = ".seg";
+
+    private static final int MAGIC = 0x50435653; // PCVS
+    private static final int VERSION = 1;
+    private static final long NO_DATE = -1;
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final Map<YearMonth, Long> visitsPerMonth;
+    private final int[] petIds;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    private VisitSegment(Path file, MappedByteBuffer buffer, Map<YearMonth, Long> visitsPerMonth,
+                         int[] petIds, long[] offsets, int[] lengths) {
+        this.file = file;
+        this.buffer = buffer;
+        this.visitsPerMonth = visitsPerMonth;
+        this.petIds = petIds;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Write the given visits into a new segment file. The file is fully written and synced under a temporary
+     * name before being atomically renamed, so a segment is either complete or absent.
+     */
+    static VisitSegment write(Path file, List<Visit> visits) throws IOException {
+        Map<Integer, List<Visit>> visitsByPet = new TreeMap<>();
+        Map<YearMonth, Long> visitsPerMonth = new TreeMap<>();
+        for (Visit visit : visits) {
+            visitsByPet.computeIfAbsent(visit.getPetId(), petId -> new ArrayList<>()).add(visit);
+            if (visit.getDate() != null) {
+                visitsPerMonth.merge(monthOf(visit.getDate()), 1L, Long::sum);
+            }
+        }
+
+        List<byte[]> blocks = new ArrayList<>(visitsByPet.size());
+        for (List<Visit> petVisits : visitsByPet.values()) {
+            blocks.add(compress(petVisits));
+        }
+
+        long offset = 4 + 4 + 4 + visitsPerMonth.size() * 12L + 4 + visitsByPet.size() * 20L;
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(visitsPerMonth.size());
+            for (Map.Entry<YearMonth, Long> entry : visitsPerMonth.entrySet()) {
+                out.writeInt(entry.getKey().getYear() * 100 + entry.getKey().getMonthValue());
+                out.writeLong(entry.getValue());
+            }
+            out.writeInt(visitsByPet.size());
+            int block = 0;
+            for (Map.Entry<Integer, List<Visit>> entry : visitsByPet.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                out.writeLong(offset);
+                out.writeInt(blocks.get(block).length);
+                offset += blocks.get(block++).length;
+            }
+            for (byte[] bytes : blocks) {
+                out.write(bytes);
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+        return open(file);
+    }
+
+    static VisitSegment open(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a visit segment: " + file);
+        }
+        int position = 8;
+        int monthCount = buffer.getInt(position);
+        position += 4;
+        Map<YearMonth, Long> visitsPerMonth = new LinkedHashMap<>();
+        for (int i = 0; i < monthCount; i++) {
+            int yearMonth = buffer.getInt(position);
+            visitsPerMonth.put(YearMonth.of(yearMonth / 100, yearMonth % 100), buffer.getLong(position + 4));
+            position += 12;
+        }
+        int petCount = buffer.getInt(position);
+        position += 4;
+        int[] petIds = new int[petCount];
+        long[] offsets = new long[petCount];
+        int[] lengths = new int[petCount];
+        for (int i = 0; i < petCount; i++) {
+            petIds[i] = buffer.getInt(position);
+            offsets[i] = buffer.getLong(position + 8);
+            lengths[i] = buffer.getInt(position + 16);
+            position += 20;
+        }
+        return new VisitSegment(file, buffer, Collections.unmodifiableMap(visitsPerMonth), petIds, offsets, lengths);
+    }
+
+    /**
+     * @return the archived visits of the given pet, or an empty list if it has none in this segment
+     */
+    List<Visit> findByPetId(int petId) {
+        int index = Arrays.binarySearch(petIds, petId);
+        if (index < 0) {
+            return List.of();
+        }
+        ByteBuffer block = buffer.slice(Math.toIntExact(offsets[index]), lengths[index]);
+        return decompress(petId, block);
+    }
+
+    int[] petIds() {
+        return petIds.clone();
+    }
+
+    Map<YearMonth, Long> visitsPerMonth() {
+        return visitsPerMonth;
+    }
+
+    Path file() {
+        return file;
+    }
+
+    private static byte[] compress(List<Visit> visits) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+            for (Visit visit : visits) {
+                out.writeInt(visit.getId());
+                out.writeLong(visit.getDate() == null ? NO_DATE : visit.getDate().getTime());
+                out.writeBoolean(visit.getDescription() != null);
+                if (visit.getDescription() != null) {
+                    out.writeUTF(visit.getDescription());
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<Visit> decompress(int petId, ByteBuffer block) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(block);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(block.remaining() * 4);
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(chunk);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated visit block for pet " + petId);
+                }
+                bytes.write(chunk, 0, inflated);
+            }
+            List<Visit> visits = new ArrayList<>();
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            while (in.available() > 0) {
+                int id = in.readInt();
+                long date = in.readLong();
+                String description = in.readBoolean() ? in.readUTF() : null;
+                visits.add(Visit.VisitBuilder.aVisit()
+                    .id(id)
+                    .petId(petId)
+                    .date(date == NO_DATE ? null : new Date(date))
+                    .description(description)
+                    .build());
+            }
+            return visits;
+        } catch (IOException | DataFormatException e) {
+            throw new UncheckedIOException(new IOException("Corrupted visit segment for pet " + petId, e));
+        } finally {
+            inflater.end();
+        }
+    }
+
+    static YearMonth monthOf(Date date) {
+        // Date#toInstant is not supported by java.sql.Date, hence the detour through the epoch
+        return YearMonth.from(Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.changes;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.samples.petclinic.changes.ChangeEvent;
+import org.springframework.samples.petclinic.changes.ChangesPurgedException;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.model.ChangeEventRepository;
+
+/**
+ * Reads the {@code change_events} outbox written by all the instances of the service, for in-memory views kept
+ * up to date with the changes made by any of them.
+ * <p>
+ * Offsets are allocated before the transactions commit, possibly out of order. An offset missing from the outbox
+ * while a following one is present belongs to a transaction that may still commit: it is read again on the next
+ * polls until it shows up, or until {@code visits.changes.gap-timeout} elapses and it is considered rolled back.
+ * Transactions writing to the outbox are thus assumed to complete within that timeout.
+ * <p>
+ * Not thread-safe, the consumer is expected to serialize the calls.
+ */
+public class ChangeTail {
+
+    private final ChangeEventRepository changeEventRepository;
+    private final Duration gapTimeout;
+    private final int batchSize;
+
+    // Offsets not read yet although a following one was, with the time they were first missed
+    private final Map<Long, Instant> gaps = new ConcurrentHashMap<>();
+
+    private long offset;
+
+    public ChangeTail(ChangeEventRepository changeEventRepository, VisitsProperties.Changes properties) {
+        this.changeEventRepository = changeEventRepository;
+        this.gapTimeout = properties.gapTimeout();
+        this.batchSize = properties.maxBatchSize();
+    }
+
+    /**
+     * Start tailing the outbox from the first change created after the given instant, or else from its end.
+     * Changes of transactions running before that instant may be missed.
+     */
+    public void start(Instant since) {
+        Long first = changeEventRepository.findMinIdCreatedAfter(since);
+        Long last = changeEventRepository.findMaxId();
+        offset = first != null ? first - 1 : last != null ? last : 0;
+        gaps.clear();
+    }
+
+    /**
+     * Pass the changes committed since the previous poll to the given consumer, in offset order except for the
+     * changes committed out of order.
+     *
+     * @return whether every change committed before the poll was read, rather than only the next batch
+     * @throws ChangesPurgedException if changes following the offset were purged before being read, in which case
+     *                                the consumer has to rebuild its view and {@link #start} again
+     */
+    public boolean poll(Consumer<ChangeEvent> consumer) {
+        Instant now = Instant.now();
+        if (!gaps.isEmpty()) {
+            changeEventRepository.findAllById(gaps.keySet()).forEach(event -> {
+                gaps.remove(event.getId());
+                consumer.accept(event);
+            });
+            Instant expired = now.minus(gapTimeout);
+            gaps.values().removeIf(missedAt -> missedAt.isBefore(expired));
+        }
+        List<ChangeEvent> events = changeEventRepository
+            .findByIdGreaterThanOrderByIdAsc(offset, PageRequest.of(0, batchSize));
+        if (!events.isEmpty() && events.get(0).getId() > offset + 1) {
+            Long first = changeEventRepository.findMinId();
+            if (first != null && first > offset + 1) {
+                throw new ChangesPurgedException("Changes following offset " + offset + " were purged");
+            }
+        }
+        for (ChangeEvent event : events) {
+            // Offsets skipped by a large jump of the sequence are not all worth awaiting
+            for (long missing = Math.max(offset + 1, event.getId() - batchSize); missing < event.getId(); missing++) {
+                gaps.put(missing, now);
+            }
+            consumer.accept(event);
+            offset = event.getId();
+        }
+        return events.size() < batchSize;
+    }
+}
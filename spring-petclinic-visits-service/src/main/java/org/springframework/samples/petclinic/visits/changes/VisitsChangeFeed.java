@@ -0,0 +1,48 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.changes;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.javacrumbs.shedlock.spring.annotation.SchedulerLock;
+import org.springframework.samples.petclinic.changes.ChangeFeed;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.model.ChangeEventRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * The {@link ChangeFeed} of the visits, configured by the {@code visits.changes} properties.
+ */
+@Component
+public class VisitsChangeFeed extends ChangeFeed {
+
+    public VisitsChangeFeed(ChangeEventRepository changeEventRepository, ObjectMapper objectMapper,
+                            TransactionTemplate transactionTemplate, VisitsProperties visitsProperties) {
+        super(changeEventRepository, objectMapper, transactionTemplate, settings(visitsProperties.changes()));
+    }
+
+    @Override
+    @Scheduled(cron = "${visits.changes.purge-cron:0 30 3 * * *}")
+    @SchedulerLock(name = "change-feed-purge")
+    public void purge() {
+        super.purge();
+    }
+
+    private static Settings settings(VisitsProperties.Changes changes) {
+        return new Settings(changes.retention(), changes.maxBatchSize(), changes.maxWait(), changes.gapTimeout());
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.index;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.samples.petclinic.changes.ChangeEvent;
+import org.springframework.samples.petclinic.changes.ChangesPurgedException;
+import org.springframework.samples.petclinic.visits.archive.VisitArchive;
+import org.springframework.samples.petclinic.visits.changes.ChangeTail;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.model.ChangeEventRepository;
+import org.springframework.samples.petclinic.visits.model.VisitRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * In-memory filter telling whether a pet may have visits, used to avoid querying the database for pets that
+ * never had any.
+ * <p>
+ * It is a scalable Bloom filter: a new, twice as large, {@link BloomFilter} is appended whenever the newest one is
+ * full, so the false positive rate stays bounded as pets get their first visit. It never yields false negatives.
+ * Until it has been built from the {@code visits} table and the {@link VisitArchive}, every pet is assumed to have
+ * visits.
+ * <p>
+ * Visits may be created by other instances of the service, so the filter follows the {@code change_events} outbox
+ * they all write to through a {@link ChangeTail}. Whenever it did not catch up with the outbox recently, it
+ * answers that every pet may have visits, leaving the database to tell.
+ */
+@Component
+public class VisitedPetsFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(VisitedPetsFilter.class);
+
+    private static final int MIN_CAPACITY = 1024;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final VisitRepository visitRepository;
+    private final VisitArchive visitArchive;
+    private final ObjectMapper objectMapper;
+    private final Duration maxStaleness;
+    private final Duration gapTimeout;
+    private final ChangeTail changeTail;
+
+    private final List<BloomFilter> stages = new CopyOnWriteArrayList<>(List.of(BloomFilter.create(MIN_CAPACITY, FALSE_POSITIVE_RATE)));
+
+    private volatile Instant caughtUpAt;
+
+    public VisitedPetsFilter(VisitRepository visitRepository, VisitArchive visitArchive,
+                             ChangeEventRepository changeEventRepository, ObjectMapper objectMapper,
+                             VisitsProperties visitsProperties) {
+        this.visitRepository = visitRepository;
+        this.visitArchive = visitArchive;
+        this.objectMapper = objectMapper;
+        this.maxStaleness = visitsProperties.filter().maxStaleness();
+        this.gapTimeout = visitsProperties.changes().gapTimeout();
+        this.changeTail = new ChangeTail(changeEventRepository, visitsProperties.changes());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void initialize() {
+        Instant started = Instant.now();
+        // Tailing starts before the snapshot, and early enough to cover the transactions running meanwhile
+        changeTail.start(started.minus(gapTimeout));
+
+        List<Integer> petIds = visitRepository.findDistinctPetIds();
+        int[] archivedPetIds = visitArchive.petIds().distinct().toArray();
+        int expectedPets = (petIds.size() + archivedPetIds.length) * 2;
+        BloomFilter filter = BloomFilter.create(Math.max(MIN_CAPACITY, expectedPets), FALSE_POSITIVE_RATE);
+        petIds.forEach(filter::put);
+        IntStream.of(archivedPetIds).forEach(filter::put);
+        // Pets that got their first visit while the filter was being built are kept in the existing stages
+        stages.add(0, filter);
+        caughtUpAt = started;
+        log.info("Visited pets filter built for {} pets ({} bytes)", petIds.size() + archivedPetIds.length, sizeInBytes());
+    }
+
+    /**
+     * Add the pets that got visits on any instance since the last refresh.
+     */
+    @Scheduled(fixedDelayString = "${visits.filter.refresh-interval:1s}")
+    public synchronized void refresh() {
+        if (caughtUpAt == null) {
+            return;
+        }
+        Instant started = Instant.now();
+        try {
+            if (changeTail.poll(this::apply)) {
+                caughtUpAt = started;
+            }
+        } catch (ChangesPurgedException e) {
+            log.warn("Changes were purged before being read, rebuilding the visited pets filter");
+            initialize();
+        } catch (RuntimeException e) {
+            log.warn("Failed to refresh the visited pets filter, the database is queried until it catches up", e);
+        }
+    }
+
+    private void apply(ChangeEvent event) {
+        if (!"visit".equals(event.getAggregateType()) || !"created".equals(event.getEventType())) {
+            return;
+        }
+        try {
+            JsonNode petId = objectMapper.readTree(event.getPayload()).get("petId");
+            if (petId != null && petId.canConvertToInt()) {
+                add(petId.intValue());
+            }
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring the unreadable change {}", event.getId(), e);
+        }
+    }
+
+    /**
+     * Record that the given pet has at least one visit, once the current transaction, if any, commits.
+     */
+    public void add(int petId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    put(petId);
+                }
+            });
+        } else {
+            put(petId);
+        }
+    }
+
+    private void put(int petId) {
+        BloomFilter newest = stages.get(stages.size() - 1);
+        if (newest.mightContain(petId)) {
+            return;
+        }
+        if (newest.isSaturated()) {
+            synchronized (stages) {
+                newest = stages.get(stages.size() - 1);
+                if (newest.isSaturated()) {
+                    newest = BloomFilter.create(newest.capacity() * 2, FALSE_POSITIVE_RATE);
+                    stages.add(newest);
+                }
+            }
+        }
+        newest.put(petId);
+    }
+
+    /**
+     * @return {@code false} only if the pet certainly has no visit
+     */
+    public boolean mightHaveVisits(int petId) {
+        if (!isFresh()) {
+            return true;
+        }
+        return contains(petId);
+    }
+
+    /**
+     * @return the given pet ids, minus the ones that certainly have no visit
+     */
+    public Collection<Integer> retainMaybeVisited(Collection<Integer> petIds) {
+        if (!isFresh()) {
+            return petIds;
+        }
+        return petIds.stream().filter(this::contains).toList();
+    }
+
+    private boolean contains(int petId) {
+        for (BloomFilter stage : stages) {
+            if (stage.mightContain(petId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the filter was built and caught up with the changes of all the instances recently enough
+     */
+    private boolean isFresh() {
+        Instant caughtUp = caughtUpAt;
+        return caughtUp != null && Duration.between(caughtUp, Instant.now()).compareTo(maxStaleness) <= 0;
+    }
+
+    long sizeInBytes() {
+        return stages.stream().mapToLong(BloomFilter::sizeInBytes).sum();
+    }
+}
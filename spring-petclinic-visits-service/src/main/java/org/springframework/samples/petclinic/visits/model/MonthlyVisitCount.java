@@ -0,0 +1,31 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.model;
+
+/**
+ * Number of visits recorded in a given calendar month, as returned by the aggregate queries of
+ * {@link VisitRepository}.
+ *
+ * @param year       the calendar year
+ * @param month      the month of the year, from 1 to 12
+ * @param visitCount the number of visits in that month
+ */
+public record MonthlyVisitCount(
+    Integer year,
+    Integer month,
+    Long visitCount
+) {
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.model;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * Registration of a segment file of the visit archive. A segment is only read once registered, and its visits
+ * are deleted from the {@code visits} table later on, in the transaction setting {@code purgedAt}: until then,
+ * they are both in the table and in the archive.
+ */
+@Entity
+@Table(name = "visit_archive_segments")
+public class VisitArchiveSegment {
+
+    @Id
+    @Column(name = "file_name")
+    private String fileName;
+
+    @Column(name = "visit_count")
+    private int visitCount;
+
+    @Column(name = "created_at")
+    private Instant createdAt;
+
+    @Column(name = "purged_at")
+    private Instant purgedAt;
+
+    public VisitArchiveSegment() {
+    }
+
+    public VisitArchiveSegment(String fileName, int visitCount, Instant createdAt) {
+        this.fileName = fileName;
+        this.visitCount = visitCount;
+        this.createdAt = createdAt;
+    }
+
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    public int getVisitCount() {
+        return this.visitCount;
+    }
+
+    public Instant getCreatedAt() {
+        return this.createdAt;
+    }
+
+    public Instant getPurgedAt() {
+        return this.purgedAt;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public void setVisitCount(int visitCount) {
+        this.visitCount = visitCount;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public void setPurgedAt(Instant purgedAt) {
+        this.purgedAt = purgedAt;
+    }
+}
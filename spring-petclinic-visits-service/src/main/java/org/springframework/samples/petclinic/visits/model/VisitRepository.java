@@ -16,9 +16,13 @@
 package org.springframework.samples.petclinic.visits.model;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 /**
  * Repository class for <code>Visit</code> domain objects All method names are compliant with Spring Data naming conventions so this interface can easily be extended for Spring
@@ -35,4 +39,25 @@ public interface VisitRepository extends JpaRepository<Visit, Integer> {
     List<Visit> findByPetId(int petId);
 
     List<Visit> findByPetIdIn(Collection<Integer> petIds);
+
+    List<Visit> findByDateBeforeAndIdGreaterThanAndIdLessThanEqualOrderByIdAsc(Date date, int afterId, int upToId,
+                                                                          Pageable pageable);
+
+    @Query("SELECT DISTINCT v.petId FROM Visit v")
+    List<Integer> findDistinctPetIds();
+
+    @Query("SELECT max(v.id) FROM Visit v")
+    Integer findMaxId();
+
+    /**
+     * Count the dated visits per month, restricted to the visits whose id is in the {@code (afterId, upToId]} range.
+     */
+    @Query("""
+        SELECT new org.springframework.samples.petclinic.visits.model.MonthlyVisitCount(
+            extract(year from v.date), extract(month from v.date), count(v))
+        FROM Visit v
+        WHERE v.id > :afterId AND v.id <= :upToId AND v.date IS NOT NULL
+        GROUP BY extract(year from v.date), extract(month from v.date)
+        """)
+    List<MonthlyVisitCount> countPerMonth(@Param("afterId") int afterId, @Param("upToId") int upToId);
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * Persisted roll-up of the number of visits per month. Every row carries the id of the last visit
+ * that was counted, so that the statistics can be restored on startup and caught up with the
+ * visits created since the snapshot was taken.
+ */
+@Entity
+@Table(name = "visit_stats")
+public class VisitStatsSnapshot {
+
+    @Id
+    @Column(name = "period")
+    private String period;
+
+    @Column(name = "visit_count")
+    private long visitCount;
+
+    @Column(name = "last_visit_id")
+    private int lastVisitId;
+
+    public VisitStatsSnapshot() {
+    }
+
+    public VisitStatsSnapshot(String period, long visitCount, int lastVisitId) {
+        this.period = period;
+        this.visitCount = visitCount;
+        this.lastVisitId = lastVisitId;
+    }
+
+    public String getPeriod() {
+        return this.period;
+    }
+
+    public long getVisitCount() {
+        return this.visitCount;
+    }
+
+    public int getLastVisitId() {
+        return this.lastVisitId;
+    }
+
+    public void setPeriod(String period) {
+        this.period = period;
+    }
+
+    public void setVisitCount(long visitCount) {
+        this.visitCount = visitCount;
+    }
+
+    public void setLastVisitId(int lastVisitId) {
+        this.lastVisitId = lastVisitId;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.stats;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.javacrumbs.shedlock.spring.annotation.SchedulerLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.samples.petclinic.changes.ChangeEvent;
+import org.springframework.samples.petclinic.changes.ChangesPurgedException;
+import org.springframework.samples.petclinic.visits.archive.VisitArchive;
+import org.springframework.samples.petclinic.visits.changes.ChangeTail;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.model.ChangeEventRepository;
+import org.springframework.samples.petclinic.visits.model.MonthlyVisitCount;
+import org.springframework.samples.petclinic.visits.model.VisitRepository;
+import org.springframework.samples.petclinic.visits.model.VisitStatsSnapshot;
+import org.springframework.samples.petclinic.visits.model.VisitStatsSnapshotRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Maintains the number of visits per month in memory, so reading the statistics never queries the {@code visits}
+ * table. The counters are incremented for every visit created by any instance of the service, as read from the
+ * {@code change_events} outbox by a {@link ChangeTail}.
+ * <p>
+ * A single instance periodically persists a snapshot to the {@code visit_stats} table. It is computed from the
+ * database rather than from the counters: the previous snapshot plus the visits created since, up to the last
+ * visit whose transaction certainly completed, so that a visit committed out of order is not skipped. On startup
+ * the counters are restored from that snapshot and caught up with the visits created since, and
+ * {@link #rebuild()} recomputes them from scratch to check their consistency.
+ */
+@Component
+public class VisitStatistics {
+
+    private static final Logger log = LoggerFactory.getLogger(VisitStatistics.class);
+
+    private final VisitRepository visitRepository;
+    private final VisitStatsSnapshotRepository snapshotRepository;
+    private final VisitArchive visitArchive;
+    private final ChangeEventRepository changeEventRepository;
+    private final ObjectMapper objectMapper;
+    private final Duration gapTimeout;
+    private final ChangeTail changeTail;
+
+    // Both read the visits table and the archive from a single database snapshot, so that the visits archived
+    // meanwhile are counted exactly once
+    private final TransactionTemplate readTransaction;
+    private final TransactionTemplate snapshotTransaction;
+
+    private volatile Map<YearMonth, LongAdder> counters = new ConcurrentHashMap<>();
+    private final AtomicInteger lastVisitId = new AtomicInteger();
+    private final AtomicLong modifications = new AtomicLong();
+    private volatile CachedView view;
+
+    // Visits up to this id were counted from the database, the following ones from the outbox
+    private volatile int countedUpToId = -1;
+
+    public VisitStatistics(VisitRepository visitRepository, VisitStatsSnapshotRepository snapshotRepository,
+                           VisitArchive visitArchive, ChangeEventRepository changeEventRepository,
+                           ObjectMapper objectMapper, PlatformTransactionManager transactionManager,
+                           VisitsProperties visitsProperties) {
+        this.visitRepository = visitRepository;
+        this.snapshotRepository = snapshotRepository;
+        this.visitArchive = visitArchive;
+        this.changeEventRepository = changeEventRepository;
+        this.objectMapper = objectMapper;
+        this.gapTimeout = visitsProperties.changes().gapTimeout();
+        this.changeTail = new ChangeTail(changeEventRepository, visitsProperties.changes());
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setReadOnly(true);
+        this.readTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.snapshotTransaction = new TransactionTemplate(transactionManager);
+        this.snapshotTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    }
+
+    /**
+     * @return the current statistics, computed at most once per visit creation
+     */
+    public VisitStats current() {
+        CachedView cached = view;
+        long version = modifications.get();
+        if (cached != null && cached.version() == version) {
+            return cached.stats();
+        }
+        VisitStats stats = toView(counters, lastVisitId.get());
+        view = new CachedView(version, stats);
+        return stats;
+    }
+
+    /**
+     * Recompute the statistics from the whole {@code visits} table and the {@link VisitArchive}, and replace the
+     * in-memory counters.
+     */
+    public synchronized VisitStatsRebuild rebuild() {
+        VisitStats previous = current();
+        VisitStats rebuilt = reload(false).stats();
+        boolean consistent = previous.visitsPerMonth().equals(rebuilt.visitsPerMonth());
+        if (!consistent) {
+            log.warn("Visit statistics drifted: {} visits counted incrementally, {} after rebuild",
+                previous.totalVisits(), rebuilt.totalVisits());
+        }
+        return new VisitStatsRebuild(consistent, previous, rebuilt);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void restore() {
+        Reloaded reloaded = reload(true);
+        log.info("Visit statistics restored from {} snapshot rows up to visit {}, {} visits in total",
+            reloaded.snapshotRows(), reloaded.snapshotVisitId(), reloaded.stats().totalVisits());
+    }
+
+    /**
+     * Count the visits created on any instance since the last refresh.
+     */
+    @Scheduled(fixedDelayString = "${visits.stats.refresh-interval:1s}")
+    public synchronized void refresh() {
+        if (countedUpToId < 0) {
+            return;
+        }
+        try {
+            changeTail.poll(this::apply);
+        } catch (ChangesPurgedException e) {
+            log.warn("Changes were purged before being read, restoring the visit statistics");
+            restore();
+        } catch (RuntimeException e) {
+            log.warn("Failed to refresh the visit statistics", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${visits.stats.snapshot-interval:PT5M}",
+        initialDelayString = "${visits.stats.snapshot-interval:PT5M}")
+    @SchedulerLock(name = "visit-stats-snapshot", lockAtMostFor = "PT10M")
+    public void snapshot() {
+        Instant committedBefore = Instant.now().minus(gapTimeout);
+        Loaded snapshot = snapshotTransaction.execute(status -> {
+            Loaded loaded = load(true, committedBefore);
+            if (loaded.snapshotRows() == 0 || loaded.upToId() > loaded.snapshotVisitId()) {
+                List<VisitStatsSnapshot> rows = loaded.counters().entrySet().stream()
+                    .map(entry -> new VisitStatsSnapshot(entry.getKey().toString(), entry.getValue().sum(), loaded.upToId()))
+                    .toList();
+                snapshotRepository.deleteAllInBatch();
+                snapshotRepository.saveAll(rows);
+            }
+            return loaded;
+        });
+        log.debug("Visit statistics snapshot persisted up to visit {}", snapshot.upToId());
+    }
+
+    private void apply(ChangeEvent event) {
+        if (!"visit".equals(event.getAggregateType()) || !"created".equals(event.getEventType())
+            || event.getAggregateId() <= countedUpToId) {
+            return;
+        }
+        try {
+            // Formatted as yyyy-MM-dd, like the visit dates the database counts per month
+            JsonNode date = objectMapper.readTree(event.getPayload()).get("date");
+            if (date != null && date.isTextual()) {
+                add(counters, YearMonth.parse(date.asText().substring(0, 7)), 1);
+            }
+            lastVisitId.accumulateAndGet(event.getAggregateId(), Math::max);
+            modifications.incrementAndGet();
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring the unreadable change {}", event.getId(), e);
+        }
+    }
+
+    /**
+     * Replace the counters by the ones of the snapshot, if requested and available, or else of the archive, plus the
+     * visits of the {@code visits} table created after them. The following visits are counted from the outbox.
+     */
+    private Reloaded reload(boolean fromSnapshot) {
+        Instant started = Instant.now();
+        // The visits created before the tail starts are all committed by the end of the gap timeout
+        changeTail.start(started.minus(gapTimeout.multipliedBy(2)));
+        Loaded loaded = readTransaction.execute(status -> load(fromSnapshot, started.minus(gapTimeout)));
+        counters = loaded.counters();
+        countedUpToId = loaded.upToId();
+        lastVisitId.set(loaded.upToId());
+        VisitStats stats = toView(loaded.counters(), loaded.upToId());
+        view = new CachedView(modifications.incrementAndGet(), stats);
+        return new Reloaded(stats, loaded.snapshotRows(), loaded.snapshotVisitId());
+    }
+
+    private Loaded load(boolean fromSnapshot, Instant committedBefore) {
+        List<VisitStatsSnapshot> snapshot = fromSnapshot ? snapshotRepository.findAll() : List.of();
+        int afterId = snapshot.stream().mapToInt(VisitStatsSnapshot::getLastVisitId).max().orElse(0);
+        Map<YearMonth, LongAdder> loaded = new ConcurrentHashMap<>();
+        if (snapshot.isEmpty()) {
+            // Counted in the snapshot otherwise, when they were still in the table
+            visitArchive.visitsPerMonth().forEach((month, count) -> add(loaded, month, count));
+        } else {
+            snapshot.forEach(row -> add(loaded, YearMonth.parse(row.getPeriod()), row.getVisitCount()));
+        }
+        int upToId = Math.max(afterId, committedVisitId(committedBefore));
+        for (MonthlyVisitCount count : visitRepository.countPerMonth(afterId, upToId)) {
+            add(loaded, YearMonth.of(count.year(), count.month()), count.visitCount());
+        }
+        return new Loaded(loaded, upToId, snapshot.size(), afterId);
+    }
+
+    /**
+     * @return an id up to which all the visits are committed, provided that the transactions creating visits
+     * complete within the gap timeout: the last visit created before the given instant
+     */
+    private int committedVisitId(Instant committedBefore) {
+        Integer committed = changeEventRepository.findMaxAggregateIdCreatedBefore("visit", "created", committedBefore);
+        if (committed != null) {
+            return committed;
+        }
+        // No visit created before that instant is left in the outbox, only the following ones may be uncommitted
+        Integer firstRecent = changeEventRepository.findMinAggregateIdCreatedAfter("visit", "created", committedBefore);
+        if (firstRecent != null) {
+            return firstRecent - 1;
+        }
+        Integer maxId = visitRepository.findMaxId();
+        return maxId == null ? 0 : maxId;
+    }
+
+    private static void add(Map<YearMonth, LongAdder> counters, YearMonth month, long count) {
+        counters.computeIfAbsent(month, key -> new LongAdder()).add(count);
+    }
+
+    private static VisitStats toView(Map<YearMonth, LongAdder> counters, int lastVisitId) {
+        Map<String, Long> perMonth = new TreeMap<>();
+        long total = 0;
+        for (Map.Entry<YearMonth, LongAdder> entry : counters.entrySet()) {
+            long count = entry.getValue().sum();
+            perMonth.put(entry.getKey().toString(), count);
+            total += count;
+        }
+        return new VisitStats(total, Collections.unmodifiableMap(perMonth), lastVisitId);
+    }
+
+    private record CachedView(long version, VisitStats stats) {
+    }
+
+    private record Loaded(Map<YearMonth, LongAdder> counters, int upToId, int snapshotRows, int snapshotVisitId) {
+    }
+
+    private record Reloaded(VisitStats stats, int snapshotRows, int snapshotVisitId) {
+    }
+}
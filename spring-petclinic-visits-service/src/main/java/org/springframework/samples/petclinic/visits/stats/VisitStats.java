@@ -0,0 +1,32 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.stats;
+
+import java.util.Map;
+
+/**
+ * Read-only view of the visit statistics maintained by {@link VisitStatistics}.
+ *
+ * @param totalVisits    number of dated visits
+ * @param visitsPerMonth number of visits keyed by month ({@code yyyy-MM}), in chronological order
+ * @param lastVisitId    id of the most recent visit taken into account
+ */
+public record VisitStats(
+    long totalVisits,
+    Map<String, Long> visitsPerMonth,
+    int lastVisitId
+) {
+}
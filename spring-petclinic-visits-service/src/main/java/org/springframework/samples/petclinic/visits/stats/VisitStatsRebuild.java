@@ -0,0 +1,30 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.stats;
+
+/**
+ * Outcome of a full rebuild of the visit statistics from the {@code visits} table.
+ *
+ * @param consistent whether the incrementally maintained statistics matched the rebuilt ones
+ * @param previous   the statistics before the rebuild
+ * @param current    the statistics after the rebuild
+ */
+public record VisitStatsRebuild(
+    boolean consistent,
+    VisitStats previous,
+    VisitStats current
+) {
+}
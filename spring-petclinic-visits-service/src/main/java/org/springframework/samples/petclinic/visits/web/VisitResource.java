@@ -15,7 +15,11 @@
  */
 package org.springframework.samples.petclinic.visits.web;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Min;
 
@@ -23,8 +27,12 @@ import io.micrometer.core.annotation.Timed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.samples.petclinic.changes.ChangeFeed;
+import org.springframework.samples.petclinic.visits.archive.VisitArchive;
+import org.springframework.samples.petclinic.visits.index.VisitedPetsFilter;
 import org.springframework.samples.petclinic.visits.model.Visit;
 import org.springframework.samples.petclinic.visits.model.VisitRepository;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -48,31 +56,77 @@ class VisitResource {
     private static final Logger log = LoggerFactory.getLogger(VisitResource.class);
 
     private final VisitRepository visitRepository;
+    private final VisitedPetsFilter visitedPetsFilter;
+    private final VisitArchive visitArchive;
+    private final ChangeFeed changeFeed;
 
-    VisitResource(VisitRepository visitRepository) {
+    VisitResource(VisitRepository visitRepository, VisitedPetsFilter visitedPetsFilter, VisitArchive visitArchive,
+                  ChangeFeed changeFeed) {
         this.visitRepository = visitRepository;
+        this.visitedPetsFilter = visitedPetsFilter;
+        this.visitArchive = visitArchive;
+        this.changeFeed = changeFeed;
     }
 
     @PostMapping("owners/*/pets/{petId}/visits")
     @ResponseStatus(HttpStatus.CREATED)
+    @Transactional
     public Visit create(
         @Valid @RequestBody Visit visit,
         @PathVariable("petId") @Min(1) int petId) {
 
         visit.setPetId(petId);
         log.info("Saving visit {}", visit);
-        return visitRepository.save(visit);
+        Visit saved = visitRepository.save(visit);
+        changeFeed.publish("visit", saved.getId(), "created", saved);
+        visitedPetsFilter.add(petId);
+        return saved;
     }
 
     @GetMapping("owners/*/pets/{petId}/visits")
-    public List<Visit> read(@PathVariable("petId") @Min(1) int petId) {
-        return visitRepository.findByPetId(petId);
+    public List<Visit> read(
+        @PathVariable("petId") @Min(1) int petId,
+        @RequestParam(value = "recentOnly", defaultValue = "false") boolean recentOnly) {
+
+        if (!visitedPetsFilter.mightHaveVisits(petId)) {
+            return List.of();
+        }
+        return withArchivedVisits(visitRepository.findByPetId(petId), List.of(petId), recentOnly);
     }
 
     @GetMapping("pets/visits")
-    public Visits read(@RequestParam("petId") List<Integer> petIds) {
-        final List<Visit> byPetIdIn = visitRepository.findByPetIdIn(petIds);
-        return new Visits(byPetIdIn);
+    public Visits read(
+        @RequestParam("petId") List<Integer> petIds,
+        @RequestParam(value = "recentOnly", defaultValue = "false") boolean recentOnly) {
+
+        final Collection<Integer> visitedPetIds = visitedPetsFilter.retainMaybeVisited(petIds);
+        if (visitedPetIds.isEmpty()) {
+            return new Visits(List.of());
+        }
+        final List<Visit> byPetIdIn = visitRepository.findByPetIdIn(visitedPetIds);
+        return new Visits(withArchivedVisits(byPetIdIn, visitedPetIds, recentOnly));
+    }
+
+    /**
+     * Prepend the archived visits of the given pets, unless only the recent visits are requested.
+     * A visit both archived and still in the database is returned once.
+     */
+    private List<Visit> withArchivedVisits(List<Visit> recentVisits, Collection<Integer> petIds, boolean recentOnly) {
+        if (recentOnly) {
+            return recentVisits;
+        }
+        final List<Visit> archivedVisits = visitArchive.findByPetIdIn(petIds);
+        if (archivedVisits.isEmpty()) {
+            return recentVisits;
+        }
+        final Set<Integer> visitIds = new HashSet<>();
+        recentVisits.forEach(visit -> visitIds.add(visit.getId()));
+        final List<Visit> visits = new ArrayList<>(archivedVisits.size() + recentVisits.size());
+        archivedVisits.stream()
+            .filter(visit -> visitIds.add(visit.getId()))
+            .forEach(visits::add);
+        visits.addAll(recentVisits);
+        return visits;
     }
 
     record Visits(
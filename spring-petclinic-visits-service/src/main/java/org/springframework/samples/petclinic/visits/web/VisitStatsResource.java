@@ -0,0 +1,53 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.web;
+
+import io.micrometer.core.annotation.Timed;
+import org.springframework.samples.petclinic.visits.stats.VisitStatistics;
+import org.springframework.samples.petclinic.visits.stats.VisitStats;
+import org.springframework.samples.petclinic.visits.stats.VisitStatsRebuild;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Exposes the visit statistics maintained in memory by {@link VisitStatistics}.
+ */
+@RequestMapping("/visits/stats")
+@RestController
+@Timed("petclinic.visit.stats")
+class VisitStatsResource {
+
+    private final VisitStatistics visitStatistics;
+
+    VisitStatsResource(VisitStatistics visitStatistics) {
+        this.visitStatistics = visitStatistics;
+    }
+
+    @GetMapping
+    public VisitStats read() {
+        return visitStatistics.current();
+    }
+
+    /**
+     * Recompute the statistics from the database, e.g. to check that they did not drift.
+     */
+    @PostMapping("/rebuild")
+    public VisitStatsRebuild rebuild() {
+        return visitStatistics.rebuild();
+    }
+}
@@ -8,3 +8,42 @@ CREATE TABLE visits (
 );
 
 CREATE INDEX visits_pet_id ON visits (pet_id);
+
+DROP TABLE visit_stats IF EXISTS;
+
+CREATE TABLE visit_stats (
+  period        VARCHAR(7) PRIMARY KEY,
+  visit_count   BIGINT NOT NULL,
+  last_visit_id INTEGER NOT NULL
+);
+
+DROP TABLE change_events IF EXISTS;
+
+CREATE TABLE change_events (
+  id             BIGINT IDENTITY PRIMARY KEY,
+  aggregate_type VARCHAR(30) NOT NULL,
+  aggregate_id   INTEGER NOT NULL,
+  event_type     VARCHAR(30) NOT NULL,
+  payload        LONGVARCHAR NOT NULL,
+  created_at     TIMESTAMP NOT NULL
+);
+
+CREATE INDEX change_events_created_at ON change_events (created_at);
+
+DROP TABLE visit_archive_segments IF EXISTS;
+
+CREATE TABLE visit_archive_segments (
+  file_name   VARCHAR(100) PRIMARY KEY,
+  visit_count INTEGER NOT NULL,
+  created_at  TIMESTAMP NOT NULL,
+  purged_at   TIMESTAMP
+);
+
+DROP TABLE shedlock IF EXISTS;
+
+CREATE TABLE shedlock (
+  name       VARCHAR(64) PRIMARY KEY,
+  lock_until TIMESTAMP(3) NOT NULL,
+  locked_at  TIMESTAMP(3) NOT NULL,
+  locked_by  VARCHAR(255) NOT NULL
+);
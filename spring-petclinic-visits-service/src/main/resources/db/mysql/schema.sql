@@ -10,3 +10,33 @@ CREATE TABLE IF NOT EXISTS visits (
   description VARCHAR(8192),
   FOREIGN KEY (pet_id) REFERENCES pets(id)
 ) engine=InnoDB;
+
+CREATE TABLE IF NOT EXISTS visit_stats (
+  period VARCHAR(7) NOT NULL PRIMARY KEY,
+  visit_count BIGINT UNSIGNED NOT NULL,
+  last_visit_id INT(4) UNSIGNED NOT NULL
+) engine=InnoDB;
+
+CREATE TABLE IF NOT EXISTS change_events (
+  id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT PRIMARY KEY,
+  aggregate_type VARCHAR(30) NOT NULL,
+  aggregate_id INT(4) UNSIGNED NOT NULL,
+  event_type VARCHAR(30) NOT NULL,
+  payload TEXT NOT NULL,
+  created_at TIMESTAMP(6) NOT NULL,
+  INDEX(created_at)
+) engine=InnoDB;
+
+CREATE TABLE IF NOT EXISTS visit_archive_segments (
+  file_name VARCHAR(100) NOT NULL PRIMARY KEY,
+  visit_count INT(4) UNSIGNED NOT NULL,
+  created_at TIMESTAMP(6) NOT NULL,
+  purged_at TIMESTAMP(6) NULL
+) engine=InnoDB;
+
+CREATE TABLE IF NOT EXISTS shedlock (
+  name VARCHAR(64) NOT NULL PRIMARY KEY,
+  lock_until TIMESTAMP(3) NOT NULL,
+  locked_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+  locked_by VARCHAR(255) NOT NULL
+) engine=InnoDB;
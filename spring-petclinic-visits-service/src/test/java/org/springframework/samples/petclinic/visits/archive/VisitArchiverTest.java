@@ -0,0 +1,108 @@
+package org.springframework.samples.petclinic.visits.archive;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.model.Visit;
+import org.springframework.samples.petclinic.visits.model.VisitArchiveSegment;
+import org.springframework.samples.petclinic.visits.model.VisitArchiveSegmentRepository;
+import org.springframework.samples.petclinic.visits.model.VisitRepository;
+import org.springframework.samples.petclinic.visits.model.VisitStatsSnapshotRepository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class VisitArchiverTest {
+
+    @TempDir
+    Path directory;
+
+    private final VisitRepository visitRepository = mock(VisitRepository.class);
+    private final VisitArchiveSegmentRepository segmentRepository = mock(VisitArchiveSegmentRepository.class);
+    private final VisitStatsSnapshotRepository snapshotRepository = mock(VisitStatsSnapshotRepository.class);
+
+    private VisitArchive visitArchive;
+    private VisitArchiver visitArchiver;
+
+    @BeforeEach
+    void setUp() {
+        VisitsProperties properties = new VisitsProperties(
+            new VisitsProperties.Archive(true, directory.toString(), Duration.ofDays(730), 10, Duration.ofHours(1)), null, null);
+        visitArchive = new VisitArchive(properties, segmentRepository);
+        visitArchiver = new VisitArchiver(visitRepository, visitArchive, segmentRepository, snapshotRepository,
+            new TransactionTemplate(mock(PlatformTransactionManager.class)), properties);
+        given(snapshotRepository.findLastVisitId()).willReturn(10);
+    }
+
+    @Test
+    void shouldKeepTheArchivedVisitsInTheTableUntilEveryInstanceCanReadThem() {
+        given(visitRepository.findByDateBeforeAndIdGreaterThanAndIdLessThanEqualOrderByIdAsc(any(), eq(0), eq(10), any(Pageable.class)))
+            .willReturn(List.of(visit(1, 7), visit(2, 8)));
+
+        visitArchiver.archive();
+
+        ArgumentCaptor<VisitArchiveSegment> registered = ArgumentCaptor.forClass(VisitArchiveSegment.class);
+        verify(segmentRepository).save(registered.capture());
+        assertThat(registered.getValue().getVisitCount()).isEqualTo(2);
+        assertThat(registered.getValue().getPurgedAt()).isNull();
+        assertThat(visitArchive.findByPetIdIn(List.of(7, 8))).extracting(Visit::getId).containsExactly(1, 2);
+        verify(visitRepository, never()).deleteAllByIdInBatch(anyList());
+    }
+
+    @Test
+    void shouldDeleteTheArchivedVisitsOnceThePurgeDelayElapsed() {
+        given(visitRepository.findByDateBeforeAndIdGreaterThanAndIdLessThanEqualOrderByIdAsc(any(), eq(0), eq(10), any(Pageable.class)))
+            .willReturn(List.of(visit(1, 7), visit(2, 8)));
+        visitArchiver.archive();
+        ArgumentCaptor<VisitArchiveSegment> registered = ArgumentCaptor.forClass(VisitArchiveSegment.class);
+        verify(segmentRepository).save(registered.capture());
+        VisitArchiveSegment segment = registered.getValue();
+        segment.setCreatedAt(Instant.now().minus(Duration.ofHours(2)));
+        given(segmentRepository.findByPurgedAtIsNullOrderByFileNameAsc()).willReturn(List.of(segment));
+        given(visitRepository.findByDateBeforeAndIdGreaterThanAndIdLessThanEqualOrderByIdAsc(any(), eq(0), eq(10), any(Pageable.class)))
+            .willReturn(List.of());
+
+        visitArchiver.archive();
+
+        verify(visitRepository).deleteAllByIdInBatch(List.of(1, 2));
+        assertThat(segment.getPurgedAt()).isNotNull();
+    }
+
+    @Test
+    void shouldNotArchiveMoreVisitsWhileSomeAreNotPurged() {
+        given(segmentRepository.findByPurgedAtIsNullOrderByFileNameAsc())
+            .willReturn(List.of(new VisitArchiveSegment("visits-1" + VisitSegment.EXTENSION, 2, Instant.now())));
+
+        visitArchiver.archive();
+
+        verify(visitRepository, never()).deleteAllByIdInBatch(anyList());
+        verify(visitRepository, never()).findByDateBeforeAndIdGreaterThanAndIdLessThanEqualOrderByIdAsc(any(), anyInt(), anyInt(), any(Pageable.class));
+    }
+
+    private static Visit visit(int id, int petId) {
+        return Visit.VisitBuilder.aVisit()
+            .id(id)
+            .petId(petId)
+            .date(new GregorianCalendar(2013, 0, 1).getTime())
+            .description("rabies shot")
+            .build();
+    }
+}
@@ -0,0 +1,50 @@
+package org.springframework.samples.petclinic.visits.archive;
+
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.samples.petclinic.visits.model.Visit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class VisitSegmentTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldReadBackArchivedVisitsByPet() throws Exception {
+        Path file = directory.resolve("visits-1" + VisitSegment.EXTENSION);
+        VisitSegment.write(file, List.of(
+            visit(1, 7, "rabies shot"),
+            visit(2, 8, "rabies shot"),
+            visit(3, 8, null),
+            visit(4, 7, "spayed")));
+
+        VisitSegment segment = VisitSegment.open(file);
+
+        assertThat(segment.petIds()).containsExactly(7, 8);
+        assertThat(segment.findByPetId(7))
+            .extracting(Visit::getId, Visit::getPetId, Visit::getDescription)
+            .containsExactly(
+                tuple(1, 7, "rabies shot"),
+                tuple(4, 7, "spayed"));
+        assertThat(segment.findByPetId(8)).extracting(Visit::getDescription).containsExactly("rabies shot", null);
+        assertThat(segment.findByPetId(9)).isEmpty();
+        assertThat(segment.visitsPerMonth()).containsEntry(YearMonth.of(2013, 1), 4L);
+    }
+
+    private static Visit visit(int id, int petId, String description) {
+        return Visit.VisitBuilder.aVisit()
+            .id(id)
+            .petId(petId)
+            .date(new GregorianCalendar(2013, 0, id).getTime())
+            .description(description)
+            .build();
+    }
+}
@@ -0,0 +1,153 @@
+package org.springframework.samples.petclinic.visits.index;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.samples.petclinic.changes.ChangeEvent;
+import org.springframework.samples.petclinic.visits.archive.VisitArchive;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.model.ChangeEventRepository;
+import org.springframework.samples.petclinic.visits.model.VisitRepository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+class VisitedPetsFilterTest {
+
+    private final VisitRepository visitRepository = mock(VisitRepository.class);
+
+    private final VisitArchive visitArchive = mock(VisitArchive.class);
+
+    private final ChangeEventRepository changeEventRepository = mock(ChangeEventRepository.class);
+
+    private final VisitsProperties.Changes changes = new VisitsProperties.Changes(Duration.ofDays(7), 100,
+        Duration.ofSeconds(30), Duration.ofMinutes(1));
+
+    private final VisitedPetsFilter filter = new VisitedPetsFilter(visitRepository, visitArchive, changeEventRepository,
+        new ObjectMapper(), new VisitsProperties(null, changes, new VisitsProperties.Filter(Duration.ofSeconds(10))));
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void shouldAssumeVisitsUntilInitialized() {
+        assertThat(filter.mightHaveVisits(42)).isTrue();
+        assertThat(filter.retainMaybeVisited(List.of(1, 2))).containsExactly(1, 2);
+    }
+
+    @Test
+    void shouldNeverForgetVisitedPetsWhenGrowing() {
+        given(visitRepository.findDistinctPetIds()).willReturn(List.of(7, 8));
+        given(visitArchive.petIds()).willReturn(IntStream.of(3, 7));
+        filter.initialize();
+
+        IntStream.range(1_000, 11_000).forEach(filter::add);
+
+        assertThat(filter.mightHaveVisits(3)).isTrue();
+        assertThat(filter.mightHaveVisits(7)).isTrue();
+        assertThat(IntStream.range(1_000, 11_000).allMatch(filter::mightHaveVisits)).isTrue();
+        long falsePositives = IntStream.range(100_000, 110_000).filter(filter::mightHaveVisits).count();
+        assertThat(falsePositives).isLessThan(500);
+    }
+
+    @Test
+    void shouldOnlyAddThePetOnceTheVisitIsCommitted() {
+        initialize();
+
+        TransactionSynchronizationManager.initSynchronization();
+        filter.add(42);
+        assertThat(filter.mightHaveVisits(42)).isFalse();
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        assertThat(filter.mightHaveVisits(42)).isTrue();
+    }
+
+    @Test
+    void shouldAddTheVisitsCreatedByOtherInstances() {
+        initialize();
+        given(changeEventRepository.findByIdGreaterThanOrderByIdAsc(eq(10L), any(Pageable.class)))
+            .willReturn(List.of(visitCreated(11, 42), visitCreated(14, 43)));
+
+        filter.refresh();
+
+        assertThat(filter.retainMaybeVisited(List.of(41, 42, 43))).containsExactly(42, 43);
+    }
+
+    @Test
+    void shouldAddTheVisitsCommittedOutOfOrder() {
+        initialize();
+        given(changeEventRepository.findByIdGreaterThanOrderByIdAsc(eq(10L), any(Pageable.class)))
+            .willReturn(List.of(visitCreated(12, 42)));
+        filter.refresh();
+        assertThat(filter.mightHaveVisits(43)).isFalse();
+
+        given(changeEventRepository.findAllById(anyIterable())).willReturn(List.of(visitCreated(11, 43)));
+        filter.refresh();
+
+        assertThat(filter.mightHaveVisits(43)).isTrue();
+    }
+
+    @Test
+    void shouldQueryTheDatabaseWhenLaggingBehind() throws InterruptedException {
+        VisitedPetsFilter filter = new VisitedPetsFilter(visitRepository, visitArchive, changeEventRepository,
+            new ObjectMapper(), new VisitsProperties(null, changes, new VisitsProperties.Filter(Duration.ofMillis(50))));
+        given(visitRepository.findDistinctPetIds()).willReturn(List.of(7));
+        given(visitArchive.petIds()).willReturn(IntStream.empty());
+        given(changeEventRepository.findMaxId()).willReturn(10L);
+        filter.initialize();
+        assertThat(filter.mightHaveVisits(1_000)).isFalse();
+
+        // More changes are pending than a batch holds
+        given(changeEventRepository.findByIdGreaterThanOrderByIdAsc(eq(10L), any(Pageable.class)))
+            .willReturn(IntStream.rangeClosed(11, 110).mapToObj(id -> visitCreated(id, id)).toList());
+        Thread.sleep(100);
+        filter.refresh();
+        assertThat(filter.mightHaveVisits(1_000)).isTrue();
+
+        filter.refresh();
+        assertThat(filter.mightHaveVisits(1_000)).isFalse();
+    }
+
+    @Test
+    void shouldRebuildOnceTheUnreadChangesArePurged() {
+        initialize();
+        given(changeEventRepository.findByIdGreaterThanOrderByIdAsc(eq(10L), any(Pageable.class)))
+            .willReturn(List.of(visitCreated(50, 42)));
+        given(changeEventRepository.findMinId()).willReturn(50L);
+        given(visitRepository.findDistinctPetIds()).willReturn(List.of(7, 43));
+        given(visitArchive.petIds()).willReturn(IntStream.empty());
+
+        filter.refresh();
+
+        assertThat(filter.mightHaveVisits(43)).isTrue();
+    }
+
+    private void initialize() {
+        given(visitRepository.findDistinctPetIds()).willReturn(List.of(7));
+        given(visitArchive.petIds()).willReturn(IntStream.empty());
+        given(changeEventRepository.findMaxId()).willReturn(10L);
+        filter.initialize();
+    }
+
+    private static ChangeEvent visitCreated(long offset, int petId) {
+        ChangeEvent event = new ChangeEvent("visit", (int) offset, "created", "{\"id\":" + offset + ",\"petId\":" + petId + "}", Instant.now());
+        event.setId(offset);
+        return event;
+    }
+}
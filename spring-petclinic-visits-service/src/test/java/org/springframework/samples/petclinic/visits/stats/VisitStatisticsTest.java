@@ -0,0 +1,142 @@
+package org.springframework.samples.petclinic.visits.stats;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.samples.petclinic.changes.ChangeEvent;
+import org.springframework.samples.petclinic.visits.archive.VisitArchive;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.model.ChangeEventRepository;
+import org.springframework.samples.petclinic.visits.model.MonthlyVisitCount;
+import org.springframework.samples.petclinic.visits.model.VisitRepository;
+import org.springframework.samples.petclinic.visits.model.VisitStatsSnapshot;
+import org.springframework.samples.petclinic.visits.model.VisitStatsSnapshotRepository;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class VisitStatisticsTest {
+
+    private final VisitRepository visitRepository = mock(VisitRepository.class);
+    private final VisitStatsSnapshotRepository snapshotRepository = mock(VisitStatsSnapshotRepository.class);
+    private final VisitArchive visitArchive = mock(VisitArchive.class);
+    private final ChangeEventRepository changeEventRepository = mock(ChangeEventRepository.class);
+
+    private VisitStatistics visitStatistics;
+
+    @BeforeEach
+    void setUp() {
+        visitStatistics = new VisitStatistics(visitRepository, snapshotRepository, visitArchive, changeEventRepository,
+            new ObjectMapper(), mock(PlatformTransactionManager.class),
+            new VisitsProperties(null, new VisitsProperties.Changes(Duration.ofDays(7), 100, Duration.ofSeconds(30),
+                Duration.ofMinutes(1)), null));
+    }
+
+    @Test
+    void shouldRestoreSnapshotAndCatchUpWithNewerVisits() {
+        given(snapshotRepository.findAll()).willReturn(List.of(new VisitStatsSnapshot("2013-01", 4, 4)));
+        givenCommittedVisitId(6);
+        given(visitRepository.countPerMonth(4, 6)).willReturn(List.of(new MonthlyVisitCount(2013, 2, 2L)));
+
+        visitStatistics.restore();
+
+        VisitStats stats = visitStatistics.current();
+        assertThat(stats.totalVisits()).isEqualTo(6);
+        assertThat(stats.visitsPerMonth()).containsEntry("2013-01", 4L).containsEntry("2013-02", 2L);
+        assertThat(stats.lastVisitId()).isEqualTo(6);
+    }
+
+    @Test
+    void shouldCountTheArchivedVisitsWithoutSnapshot() {
+        given(visitArchive.visitsPerMonth()).willReturn(Map.of(YearMonth.of(2013, 1), 4L));
+        given(visitRepository.findMaxId()).willReturn(6);
+        given(visitRepository.countPerMonth(0, 6)).willReturn(List.of(new MonthlyVisitCount(2024, 5, 2L)));
+
+        visitStatistics.restore();
+
+        assertThat(visitStatistics.current().visitsPerMonth()).containsEntry("2013-01", 4L).containsEntry("2024-05", 2L);
+    }
+
+    @Test
+    void shouldCountTheVisitsCreatedByAnyInstance() {
+        givenCommittedVisitId(2);
+        visitStatistics.restore();
+        given(changeEventRepository.findByIdGreaterThanOrderByIdAsc(anyLong(), any(Pageable.class))).willReturn(List.of(
+            visitCreated(11, 2, "2024-05-10"),
+            visitCreated(12, 3, "2024-05-28"),
+            visitCreated(14, 4, null)));
+
+        visitStatistics.refresh();
+
+        VisitStats stats = visitStatistics.current();
+        // The first visit was already counted from the database
+        assertThat(stats.totalVisits()).isEqualTo(1);
+        assertThat(stats.visitsPerMonth()).containsEntry("2024-05", 1L);
+        assertThat(stats.lastVisitId()).isEqualTo(4);
+    }
+
+    @Test
+    void shouldSnapshotFromTheDatabaseUpToTheCommittedVisits() {
+        given(snapshotRepository.findAll()).willReturn(List.of(new VisitStatsSnapshot("2013-01", 4, 4)));
+        givenCommittedVisitId(6);
+        given(visitRepository.countPerMonth(4, 6)).willReturn(List.of(new MonthlyVisitCount(2013, 2, 2L)));
+
+        visitStatistics.snapshot();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<VisitStatsSnapshot>> rows = ArgumentCaptor.forClass(List.class);
+        verify(snapshotRepository).saveAll(rows.capture());
+        assertThat(rows.getValue())
+            .extracting(VisitStatsSnapshot::getPeriod, VisitStatsSnapshot::getVisitCount, VisitStatsSnapshot::getLastVisitId)
+            .containsExactlyInAnyOrder(
+                tuple("2013-01", 4L, 6),
+                tuple("2013-02", 2L, 6));
+    }
+
+    @Test
+    void shouldReportDriftOnRebuild() {
+        givenCommittedVisitId(1);
+        given(visitRepository.countPerMonth(0, 1)).willReturn(List.of(new MonthlyVisitCount(2024, 5, 1L)));
+        visitStatistics.restore();
+
+        givenCommittedVisitId(2);
+        given(visitRepository.countPerMonth(0, 2)).willReturn(List.of(new MonthlyVisitCount(2024, 5, 2L)));
+        given(visitArchive.visitsPerMonth()).willReturn(Map.of(YearMonth.of(2013, 1), 4L));
+
+        VisitStatsRebuild rebuild = visitStatistics.rebuild();
+
+        assertThat(rebuild.consistent()).isFalse();
+        assertThat(rebuild.previous().totalVisits()).isEqualTo(1);
+        assertThat(rebuild.current().totalVisits()).isEqualTo(6);
+        assertThat(rebuild.current().visitsPerMonth()).containsEntry("2013-01", 4L).containsEntry("2024-05", 2L);
+    }
+
+    private void givenCommittedVisitId(int visitId) {
+        given(changeEventRepository.findMaxAggregateIdCreatedBefore(eq("visit"), eq("created"), any(Instant.class)))
+            .willReturn(visitId);
+    }
+
+    private static ChangeEvent visitCreated(long offset, int visitId, String date) {
+        String payload = date == null
+            ? "{\"id\":" + visitId + ",\"petId\":7}"
+            : "{\"id\":" + visitId + ",\"date\":\"" + date + "\",\"petId\":7}";
+        ChangeEvent event = new ChangeEvent("visit", visitId, "created", payload, Instant.now());
+        event.setId(offset);
+        return event;
+    }
+}
@@ -5,6 +5,11 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.samples.petclinic.changes.ChangeFeed;
+import org.springframework.samples.petclinic.visits.archive.VisitArchive;
+import org.springframework.samples.petclinic.visits.index.VisitedPetsFilter;
+import org.springframework.samples.petclinic.visits.model.ChangeEventRepository;
 import org.springframework.samples.petclinic.visits.model.Visit;
 import org.springframework.samples.petclinic.visits.model.VisitRepository;
 import org.springframework.test.context.ActiveProfiles;
@@ -13,13 +18,17 @@ import org.springframework.test.web.servlet.MockMvc;
 
 
 import static java.util.Arrays.asList;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @ExtendWith(SpringExtension.class)
 @WebMvcTest(VisitResource.class)
+@Import(VisitedPetsFilter.class)
 @ActiveProfiles("test")
 class VisitResourceTest {
 
@@ -29,6 +38,18 @@ class VisitResourceTest {
     @MockBean
     VisitRepository visitRepository;
 
+    @MockBean
+    VisitArchive visitArchive;
+
+    @MockBean
+    ChangeFeed changeFeed;
+
+    @MockBean
+    ChangeEventRepository changeEventRepository;
+
+    @Autowired
+    VisitedPetsFilter visitedPetsFilter;
+
     @Test
     void shouldFetchVisits() throws Exception {
         given(visitRepository.findByPetIdIn(asList(111, 222)))
@@ -58,4 +79,34 @@ class VisitResourceTest {
             .andExpect(jsonPath("$.items[1].petId").value(222))
             .andExpect(jsonPath("$.items[2].petId").value(222));
     }
+
+    @Test
+    void shouldNotQueryVisitsOfPetsWithoutVisits() throws Exception {
+        given(visitRepository.findDistinctPetIds()).willReturn(asList(111, 222));
+        visitedPetsFilter.initialize();
+
+        mvc.perform(get("/pets/visits?petId=333,444"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.items").isEmpty());
+
+        verify(visitRepository, never()).findByPetIdIn(anyCollection());
+    }
+
+    @Test
+    void shouldMergeArchivedVisitsUnlessRecentOnly() throws Exception {
+        given(visitRepository.findByPetId(111))
+            .willReturn(asList(Visit.VisitBuilder.aVisit().id(5).petId(111).build()));
+        given(visitArchive.findByPetIdIn(asList(111)))
+            .willReturn(asList(Visit.VisitBuilder.aVisit().id(1).petId(111).build()));
+
+        mvc.perform(get("/owners/1/pets/111/visits"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[0].id").value(1))
+            .andExpect(jsonPath("$[1].id").value(5));
+
+        mvc.perform(get("/owners/1/pets/111/visits?recentOnly=true"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(1))
+            .andExpect(jsonPath("$[0].id").value(5));
+    }
 }